@@ -0,0 +1,103 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * example/hub.js に繋いで、通報を求めてから最初に送信するまでの時間を測る。
+ * hub はエミュレータから見たホストの 8080 番で動かしておく。動いていなければ飛ばす
+ */
+@RunWith(AndroidJUnit4.class)
+public class ActorConnectionInstrumentedTest {
+
+    private static final String HUB_HOST = "10.0.2.2";
+    private static final int HUB_PORT = 8080;
+    private static final String HUB_URL = "http://" + HUB_HOST + ":" + HUB_PORT;
+
+    private ScheduledExecutorService executor;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Hub is not running", isHubRunning());
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void timeToFirstReport() throws Exception {
+        final long cold = measure(true);
+        final long warm = measure(false);
+        assertTrue("Warm " + warm + " ms, cold " + cold + " ms", warm < cold);
+    }
+
+    /**
+     * @param cold 通報を求めてから接続するなら true
+     * @return 通報を求めてから最初に送信するまでの時間（ミリ秒）
+     */
+    private long measure(boolean cold) throws InterruptedException {
+        final ActorConnection connection = new ActorConnection(
+                () -> new ActorTransport(HUB_URL, "test-call:" + System.nanoTime(), "test-call", "1.0.0", null, null, null, new ReportModule(ackKey -> {
+                }, null, null)),
+                new Backoff(1_000L, 10_000L, new Random()), this.executor, Clock.SYSTEM, 10_000L);
+        try {
+            if (cold) {
+                connection.markReportRequested();
+                connection.open();
+            } else {
+                connection.open();
+                awaitConnect(connection);
+                connection.markReportRequested();
+            }
+            awaitConnect(connection);
+            connection.emit(Report.EVENT_EMERGENCY, "report");
+            return connection.getTimeToFirstReport();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static void awaitConnect(ActorConnection connection) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000L;
+        while (!connection.isConnected()) {
+            assertTrue("Connection timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    private static boolean isHubRunning() {
+        final Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(HUB_HOST, HUB_PORT), 1_000);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 何もしない
+            }
+        }
+    }
+
+}
@@ -0,0 +1,346 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 1 つの hub に送って受領を待っているものを管理する。
+ * 往復時間は TCP と同じように平滑化した値とばらつきから再送までの時間を決め、
+ * 再送したものの受領は往復時間に数えない。
+ * 損失率は送ったものが時間内に受領されなかった割合の移動平均。
+ * 受領待ちがいっぱいになったときと再送し尽くしたときは諦める。
+ * 受領したものと諦めたものは {@link #takeFinished()} で取り出せる。
+ * <p>
+ * ロックしないので、使う側で排他すること。
+ */
+final class AckTracker {
+
+    // 平滑化の重み
+    private static final double RTT_WEIGHT = 1.0 / 8;
+    private static final double RTT_VARIANCE_WEIGHT = 1.0 / 4;
+    private static final double LOSS_WEIGHT = 1.0 / 8;
+
+    /**
+     * 受領待ちの 1 件
+     */
+    static final class Pending {
+
+        private final Object key;
+        private final Object frame;
+        private final Object attachment;
+        private final long firstSentTime;
+        private long sentTime;
+        private int retransmitCount;
+        private boolean acked;
+
+        private Pending(Object key, Object frame, Object attachment, long sentTime) {
+            this.key = key;
+            this.frame = frame;
+            this.attachment = attachment;
+            this.firstSentTime = sentTime;
+            this.sentTime = sentTime;
+        }
+
+        Object getKey() {
+            return this.key;
+        }
+
+        Object getFrame() {
+            return this.frame;
+        }
+
+        /**
+         * @return {@link #track(Object, Object, Object)} で付けたもの
+         */
+        Object getAttachment() {
+            return this.attachment;
+        }
+
+        /**
+         * @return 受領されたら true。諦めたら false
+         */
+        boolean isAcked() {
+            return this.acked;
+        }
+
+    }
+
+    private final Clock clock;
+    private final int window;
+    private final long minTimeout;
+    private final long maxTimeout;
+    private final int maxRetransmits;
+
+    // 送った順
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    // 受領したか諦めて、まだ取り出されていないもの
+    private final List<Pending> finished = new ArrayList<>();
+
+    private double smoothedRtt = Double.NaN;
+    private double rttVariance;
+    private long timeout;
+    private double lossRate;
+
+    private long ackedCount;
+    private long retransmitCount;
+    private long lostCount;
+
+    /**
+     * @param clock          時計
+     * @param window         受領待ちの最大数
+     * @param initialTimeout 往復時間が分かるまでの再送までの時間（ミリ秒）
+     * @param minTimeout     再送までの最短時間（ミリ秒）
+     * @param maxTimeout     再送までの最長時間（ミリ秒）
+     * @param maxRetransmits 1 件を再送する最大回数
+     */
+    AckTracker(Clock clock, int window, long initialTimeout, long minTimeout, long maxTimeout, int maxRetransmits) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Invalid window " + window);
+        }
+        if (minTimeout <= 0 || maxTimeout < minTimeout) {
+            throw new IllegalArgumentException("Invalid timeout " + minTimeout + ", " + maxTimeout);
+        }
+        this.clock = clock;
+        this.window = window;
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+        this.maxRetransmits = maxRetransmits;
+        this.timeout = clamp(initialTimeout);
+    }
+
+    /**
+     * 送ったものを受領待ちに入れる。いっぱいなら一番古いものを失われたとみなして捨てる
+     *
+     * @param key   受領で返ってくるキー
+     * @param frame 送ったもの
+     * @return 入れたもの
+     */
+    Pending track(Object key, Object frame) {
+        return track(key, frame, null);
+    }
+
+    /**
+     * 送ったものを受領待ちに入れる。いっぱいなら一番古いものを失われたとみなして捨てる
+     *
+     * @param key        受領で返ってくるキー
+     * @param frame      送ったもの
+     * @param attachment 受領したときや諦めたときに知りたいもの
+     * @return 入れたもの
+     */
+    Pending track(Object key, Object frame, Object attachment) {
+        while (this.pending.size() >= this.window) {
+            this.finished.add(this.pending.pollFirst());
+            this.lostCount++;
+            onTimeout();
+        }
+        final Pending entry = new Pending(key, frame, attachment, this.clock.now());
+        this.pending.addLast(entry);
+        return entry;
+    }
+
+    /**
+     * 送れなかったものを受領待ちから外す
+     *
+     * @param entry {@link #track} の返り値
+     */
+    void cancel(Pending entry) {
+        this.pending.removeLastOccurrence(entry);
+    }
+
+    /**
+     * 受領を反映する。それより前に送ったものも受領されたとみなす
+     *
+     * @param key 受領したキー
+     * @return 受領待ちにあったら true
+     */
+    boolean ack(Object key) {
+        Pending acked = null;
+        for (Pending entry : this.pending) {
+            if (entry.key.equals(key)) {
+                acked = entry;
+                break;
+            }
+        }
+        if (acked == null) {
+            return false;
+        }
+        while (true) {
+            final Pending entry = this.pending.pollFirst();
+            entry.acked = true;
+            this.finished.add(entry);
+            this.ackedCount++;
+            this.lossRate -= LOSS_WEIGHT * this.lossRate;
+            if (entry == acked) {
+                break;
+            }
+        }
+        if (acked.retransmitCount == 0) {
+            // 再送したものはどれへの受領か分からないので数えない
+            sample(this.clock.now() - acked.sentTime);
+        }
+        return true;
+    }
+
+    /**
+     * 再送までの時間を過ぎたものを取り出す。
+     * 取り出したものは送り直した扱いになり、再送までの時間は倍になる。
+     * 再送し尽くしたものは失われたとみなして捨てる
+     *
+     * @return 再送するもの
+     */
+    List<Pending> expire() {
+        final long now = this.clock.now();
+        List<Pending> expired = null;
+        for (Iterator<Pending> iterator = this.pending.iterator(); iterator.hasNext(); ) {
+            final Pending entry = iterator.next();
+            if (now - entry.sentTime < this.timeout) {
+                continue;
+            }
+            onTimeout();
+            if (entry.retransmitCount >= this.maxRetransmits) {
+                iterator.remove();
+                this.finished.add(entry);
+                this.lostCount++;
+                continue;
+            }
+            entry.retransmitCount++;
+            entry.sentTime = now;
+            this.retransmitCount++;
+            if (expired == null) {
+                expired = new ArrayList<>();
+            }
+            expired.add(entry);
+        }
+        if (expired == null) {
+            return new ArrayList<>(0);
+        }
+        this.timeout = clamp(2 * this.timeout);
+        return expired;
+    }
+
+    /**
+     * 受領待ちを全て取り出す。別の hub に送り直すときに使う
+     *
+     * @return 送った順の受領待ち
+     */
+    List<Pending> drain() {
+        final List<Pending> drained = new ArrayList<>(this.pending);
+        this.pending.clear();
+        return drained;
+    }
+
+    /**
+     * 前に取り出してから、受領したものと諦めたものを取り出す
+     *
+     * @return 受領したか諦めた順
+     */
+    List<Pending> takeFinished() {
+        final List<Pending> finished = new ArrayList<>(this.finished);
+        this.finished.clear();
+        return finished;
+    }
+
+    /**
+     * @return いっぱいなら true
+     */
+    boolean isFull() {
+        return this.pending.size() >= this.window;
+    }
+
+    /**
+     * @return 受領待ちの数
+     */
+    int getPendingCount() {
+        return this.pending.size();
+    }
+
+    /**
+     * @return 一番古い受領待ちを最初に送ってからの時間（ミリ秒）。無ければ 0
+     */
+    long getOldestAge() {
+        final Pending oldest = this.pending.peekFirst();
+        return oldest == null ? 0 : this.clock.now() - oldest.firstSentTime;
+    }
+
+    /**
+     * @return 受領を受け取ったことがあれば true
+     */
+    boolean hasAcked() {
+        return this.ackedCount > 0;
+    }
+
+    /**
+     * @return 平滑化した往復時間（ミリ秒）。まだ分からなければ NaN
+     */
+    double getSmoothedRtt() {
+        return this.smoothedRtt;
+    }
+
+    /**
+     * @return 再送までの時間（ミリ秒）
+     */
+    long getTimeout() {
+        return this.timeout;
+    }
+
+    /**
+     * @return 損失率。0 から 1
+     */
+    double getLossRate() {
+        return this.lossRate;
+    }
+
+    long getAckedCount() {
+        return this.ackedCount;
+    }
+
+    long getRetransmitCount() {
+        return this.retransmitCount;
+    }
+
+    /**
+     * @return 諦めた数
+     */
+    long getLostCount() {
+        return this.lostCount;
+    }
+
+    private void sample(long rtt) {
+        if (Double.isNaN(this.smoothedRtt)) {
+            this.smoothedRtt = rtt;
+            this.rttVariance = rtt / 2.0;
+        } else {
+            this.rttVariance += RTT_VARIANCE_WEIGHT * (Math.abs(this.smoothedRtt - rtt) - this.rttVariance);
+            this.smoothedRtt += RTT_WEIGHT * (rtt - this.smoothedRtt);
+        }
+        this.timeout = clamp((long) Math.ceil(this.smoothedRtt + 4 * this.rttVariance));
+    }
+
+    private void onTimeout() {
+        this.lossRate += LOSS_WEIGHT * (1 - this.lossRate);
+    }
+
+    private long clamp(long timeout) {
+        return Math.max(this.minTimeout, Math.min(timeout, this.maxTimeout));
+    }
+
+}
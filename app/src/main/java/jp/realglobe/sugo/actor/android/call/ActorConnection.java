@@ -0,0 +1,342 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * hub への接続を保ち続ける。
+ * 通報の前から接続しておき、通報とリセットを繰り返しても同じ接続を使う。
+ * 切断されたり接続できなかったりしたら、ばらつかせた指数的な待ち時間の後に繋ぎ直す。
+ */
+final class ActorConnection {
+
+    /**
+     * 実際の接続。接続し直すたびに新しく作る
+     */
+    interface Transport {
+        /**
+         * 接続を始める
+         *
+         * @param callback 接続状態の通知先。どのスレッドから呼んでもよい
+         */
+        void connect(Callback callback);
+
+        void emit(String event, Object data);
+
+        void disconnect();
+    }
+
+    interface TransportFactory {
+        Transport create();
+    }
+
+    interface Callback {
+        void onConnect();
+
+        void onDisconnect();
+    }
+
+    /**
+     * 接続状態が変わったときに呼ばれる。ロックを持たずに呼ぶ
+     */
+    interface Listener extends Callback {
+    }
+
+    private enum State {
+        CLOSED,
+        CONNECTING,
+        CONNECTED,
+        WAITING,
+    }
+
+    private final TransportFactory factory;
+    private final Backoff backoff;
+    private final ScheduledExecutorService executor;
+    private final Clock clock;
+    private final long connectTimeout;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private State state = State.CLOSED;
+    // 接続し直すたびに増やす。古い接続からの通知は無視する
+    private long generation;
+    private Transport transport;
+    private ScheduledFuture<?> timer;
+
+    private long connectStartTime;
+    private long connectTime = -1;
+    private long connectCount;
+    private long failureCount;
+
+    private long reportRequestTime;
+    private boolean awaitingFirstReport;
+    private long timeToFirstReport = -1;
+
+    /**
+     * @param factory        接続を作るもの
+     * @param backoff        再接続までの待ち時間
+     * @param executor       再接続を実行するスレッド
+     * @param clock          時計
+     * @param connectTimeout これだけ待っても接続できなければ失敗とみなす（ミリ秒）
+     */
+    ActorConnection(TransportFactory factory, Backoff backoff, ScheduledExecutorService executor, Clock clock, long connectTimeout) {
+        this.factory = factory;
+        this.backoff = backoff;
+        this.executor = executor;
+        this.clock = clock;
+        this.connectTimeout = connectTimeout;
+    }
+
+    void addListener(Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * 接続を始める。既に始めていれば何もしない
+     */
+    void open() {
+        final Runnable connect;
+        synchronized (this) {
+            if (this.state != State.CLOSED) {
+                return;
+            }
+            this.backoff.reset();
+            connect = prepareAttempt();
+        }
+        connect.run();
+    }
+
+    /**
+     * 切断する
+     */
+    void close() {
+        final Transport old;
+        final boolean wasConnected;
+        synchronized (this) {
+            if (this.state == State.CLOSED) {
+                return;
+            }
+            wasConnected = this.state == State.CONNECTED;
+            this.state = State.CLOSED;
+            this.generation++;
+            cancelTimer();
+            old = this.transport;
+            this.transport = null;
+        }
+        if (old != null) {
+            old.disconnect();
+        }
+        if (wasConnected) {
+            notifyDisconnect();
+        }
+    }
+
+    /**
+     * 設定が変わったときなどに繋ぎ直す
+     */
+    void reconnect() {
+        close();
+        open();
+    }
+
+    /**
+     * @return 接続中なら true
+     */
+    synchronized boolean isConnected() {
+        return this.state == State.CONNECTED;
+    }
+
+    /**
+     * 送信する
+     *
+     * @param event イベント名
+     * @param data  データ
+     * @throws IllegalStateException 接続していない
+     */
+    void emit(String event, Object data) {
+        final Transport transport;
+        synchronized (this) {
+            if (this.state != State.CONNECTED) {
+                throw new IllegalStateException("Not connected");
+            }
+            transport = this.transport;
+        }
+        transport.emit(event, data);
+        synchronized (this) {
+            if (this.awaitingFirstReport) {
+                this.awaitingFirstReport = false;
+                this.timeToFirstReport = this.clock.now() - this.reportRequestTime;
+            }
+        }
+    }
+
+    /**
+     * 通報が求められたことを記録する。
+     * ここから最初の送信までの時間を測る
+     */
+    synchronized void markReportRequested() {
+        this.reportRequestTime = this.clock.now();
+        this.awaitingFirstReport = true;
+    }
+
+    /**
+     * @return 最後の通報で、求められてから最初に送信するまでの時間（ミリ秒）。まだなら -1
+     */
+    synchronized long getTimeToFirstReport() {
+        return this.timeToFirstReport;
+    }
+
+    /**
+     * @return 最後の接続に掛かった時間（ミリ秒）。まだなら -1
+     */
+    synchronized long getConnectTime() {
+        return this.connectTime;
+    }
+
+    /**
+     * @return 接続した回数
+     */
+    synchronized long getConnectCount() {
+        return this.connectCount;
+    }
+
+    /**
+     * @return 接続に失敗したか切断された回数
+     */
+    synchronized long getFailureCount() {
+        return this.failureCount;
+    }
+
+    /**
+     * 接続の準備をする。ロックを持って呼び、返り値はロックを離してから実行する
+     *
+     * @return 接続を始める処理
+     */
+    private Runnable prepareAttempt() {
+        this.generation++;
+        final long generation = this.generation;
+        this.state = State.CONNECTING;
+        this.connectStartTime = this.clock.now();
+        final Transport transport = this.factory.create();
+        this.transport = transport;
+        this.timer = this.executor.schedule(() -> onTimeout(generation), this.connectTimeout, TimeUnit.MILLISECONDS);
+        return () -> transport.connect(new Callback() {
+            @Override
+            public void onConnect() {
+                onConnected(generation);
+            }
+
+            @Override
+            public void onDisconnect() {
+                onDisconnected(generation);
+            }
+        });
+    }
+
+    private void onConnected(long generation) {
+        synchronized (this) {
+            if (generation != this.generation || this.state != State.CONNECTING) {
+                return;
+            }
+            this.state = State.CONNECTED;
+            cancelTimer();
+            this.backoff.reset();
+            this.connectTime = this.clock.now() - this.connectStartTime;
+            this.connectCount++;
+        }
+        for (Listener listener : this.listeners) {
+            listener.onConnect();
+        }
+    }
+
+    private void onDisconnected(long generation) {
+        final boolean wasConnected;
+        synchronized (this) {
+            if (generation != this.generation || (this.state != State.CONNECTING && this.state != State.CONNECTED)) {
+                return;
+            }
+            wasConnected = this.state == State.CONNECTED;
+        }
+        fail(generation);
+        if (wasConnected) {
+            notifyDisconnect();
+        }
+    }
+
+    private void onTimeout(long generation) {
+        synchronized (this) {
+            if (generation != this.generation || this.state != State.CONNECTING) {
+                return;
+            }
+        }
+        fail(generation);
+    }
+
+    /**
+     * 今の接続を捨てて、待ってから繋ぎ直す
+     */
+    private void fail(long generation) {
+        final Transport old;
+        synchronized (this) {
+            if (generation != this.generation) {
+                return;
+            }
+            this.generation++;
+            final long nextGeneration = this.generation;
+            this.state = State.WAITING;
+            this.failureCount++;
+            cancelTimer();
+            old = this.transport;
+            this.transport = null;
+            this.timer = this.executor.schedule(() -> {
+                final Runnable connect;
+                synchronized (ActorConnection.this) {
+                    if (nextGeneration != this.generation || this.state != State.WAITING) {
+                        return;
+                    }
+                    connect = prepareAttempt();
+                }
+                connect.run();
+            }, this.backoff.next(), TimeUnit.MILLISECONDS);
+        }
+        if (old != null) {
+            old.disconnect();
+        }
+    }
+
+    private void cancelTimer() {
+        if (this.timer != null) {
+            this.timer.cancel(false);
+            this.timer = null;
+        }
+    }
+
+    private void notifyDisconnect() {
+        for (Listener listener : this.listeners) {
+            listener.onDisconnect();
+        }
+    }
+
+}
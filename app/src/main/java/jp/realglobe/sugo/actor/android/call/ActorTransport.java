@@ -0,0 +1,90 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import jp.realglobe.sugo.actor.Actor;
+import jp.realglobe.sugo.actor.Emitter;
+
+/**
+ * sugo-actor による接続。
+ * 詰めた形で送るときは、モジュールのバージョンに {@link CompactReportEncoder#VERSION_SUFFIX} か
+ * {@link BinaryReportEncoder#VERSION_SUFFIX} を付けて hub に知らせる。
+ * hub が {@link ReportModule#acceptEncoding} で受け取れると返すまでは、詰めずに送る
+ */
+final class ActorTransport implements ActorConnection.Transport {
+
+    private final String server;
+    private final Actor actor;
+    private final ReportEmitter emitter;
+
+    /**
+     * @param server        hub の URL
+     * @param key           actor のキー
+     * @param name          名前
+     * @param version       モジュールのバージョン
+     * @param description   説明
+     * @param encoder       通報データを詰めるもの。詰めないなら null
+     * @param binaryEncoder 通報データをバイト列に詰めるもの。encoder より優先する。詰めないなら null
+     * @param module        呼び出し側から使えるモジュール
+     */
+    ActorTransport(String server, String key, String name, String version, String description, CompactReportEncoder encoder, BinaryReportEncoder binaryEncoder, ReportModule module) {
+        this.server = server;
+        this.actor = new Actor(key, name, null);
+        final String moduleVersion;
+        if (binaryEncoder != null) {
+            moduleVersion = version + BinaryReportEncoder.VERSION_SUFFIX;
+        } else if (encoder != null) {
+            moduleVersion = version + CompactReportEncoder.VERSION_SUFFIX;
+        } else {
+            moduleVersion = version;
+        }
+        final Emitter emitter = this.actor.addModule(name, moduleVersion, description, module);
+        this.emitter = new ReportEmitter((event, data) -> emitter.emit(event, data), encoder, binaryEncoder);
+    }
+
+    @Override
+    public void connect(ActorConnection.Callback callback) {
+        this.actor.setOnConnect(callback::onConnect);
+        this.actor.setOnDisconnect(callback::onDisconnect);
+        this.actor.connect(this.server);
+    }
+
+    /**
+     * hub が詰めた形を受け取れると知らせてきた
+     *
+     * @param encoding 形の名前
+     * @throws IllegalArgumentException その形では送らない
+     */
+    void acceptEncoding(String encoding) {
+        this.emitter.accept(encoding);
+    }
+
+    /**
+     * 送る。
+     * 報告の送信、一斉送信、送り直しが別々のスレッドから来るので、詰めるのと送るのをまとめて 1 つずつ行う
+     */
+    @Override
+    public void emit(String event, Object data) {
+        this.emitter.emit(event, data);
+    }
+
+    @Override
+    public void disconnect() {
+        this.actor.disconnect();
+    }
+
+}
@@ -0,0 +1,341 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+/**
+ * 報告間隔と位置情報の取得間隔を状況に合わせて決める。
+ * 動いているときや位置の精度が悪いときは最短にし、
+ * 止まっているときや電池が少ないときは最長まで指数的に延ばす。
+ * hub との通信状態が悪いときは、受領が返ってくるより速くは報告しない。
+ * <p>
+ * 省電力モードでは、報告を位置情報の取得に合わせて、位置が届いた直後に起きるようにする。
+ * 止まっていて位置の精度が十分なら、位置情報の取得を精度より電力を優先するものに落とす。
+ * 電力を優先した取得はもともと誤差が大きいので、その間は精度が悪いとみなす誤差を緩める。
+ * <p>
+ * hub から報告間隔を指定されたら、範囲や状況に関わらずその間隔で報告する。
+ * 位置情報はその間隔より遅くは取得しない。
+ */
+final class AdaptiveIntervalPolicy {
+
+    /**
+     * 位置情報の取得の優先度
+     */
+    enum LocationPriority {
+        // GPS を使う
+        HIGH_ACCURACY,
+        // Wi-Fi や基地局を使う
+        BALANCED_POWER_ACCURACY,
+    }
+
+    // これより速ければ動いているとみなす（メートル毎秒）
+    static final double MOVING_SPEED = 1.0;
+    // これより誤差が大きければ精度が悪いとみなす（メートル）
+    static final double POOR_ACCURACY = 50.0;
+    // 電力を優先した取得では、これより誤差が大きければ精度が悪いとみなす（メートル）
+    static final double BALANCED_POOR_ACCURACY = 200.0;
+    // これより少なければ電池が少ないとみなす（割合）
+    static final double LOW_BATTERY = 0.2;
+    // 最後に動いてからこの間は動いているとみなす（ミリ秒）
+    static final long MOTION_HOLD_TIME = 30_000L;
+
+    private static final int BACKOFF_FACTOR = 2;
+    private static final int LOW_BATTERY_FACTOR = 4;
+    // これより損失率が高ければ通信状態が悪いとみなす
+    static final double HIGH_LOSS_RATE = 0.2;
+    // 報告間隔を往復時間のこの倍以上にする
+    private static final int ROUND_TRIP_FACTOR = 2;
+    private static final int HIGH_LOSS_FACTOR = 2;
+    // これより誤差が小さければ、省電力モードで取得の優先度を落とす（メートル）
+    static final double GOOD_ACCURACY = 20.0;
+    // 優先度を落とすのは、前に変えてからこれだけ経ってから（ミリ秒）
+    static final long PRIORITY_DWELL_TIME = 60_000L;
+    // 位置が届く予定からこれだけ遅らせて報告する（ミリ秒）
+    static final long FIX_SLACK = 500L;
+    // hub から指定できる報告間隔の範囲（ミリ秒）
+    static final long MIN_REMOTE_INTERVAL = 1_000L;
+    static final long MAX_REMOTE_INTERVAL = 60 * 60_000L;
+
+    private final Clock clock;
+    private long minReportInterval;
+    private long maxReportInterval;
+    private long minLocationInterval;
+    private long maxLocationInterval;
+
+    private long reportInterval;
+    private long locationInterval;
+
+    // 最後の位置
+    private boolean hasFix;
+    private double latitude;
+    private double longitude;
+    private double accuracy;
+    private long fixTime;
+    private long lastMotionTime = Long.MIN_VALUE;
+
+    private double batteryLevel = 1.0;
+    private boolean charging;
+
+    private double roundTripTime = Double.NaN;
+    private double lossRate;
+
+    private boolean lowPower;
+    private LocationPriority locationPriority = LocationPriority.HIGH_ACCURACY;
+    private long priorityChangeTime = Long.MIN_VALUE;
+
+    // hub から指定された報告間隔（ミリ秒）。指定されていなければ 0
+    private long remoteInterval;
+
+    /**
+     * @param clock               時計
+     * @param minReportInterval   最短の報告間隔（ミリ秒）
+     * @param maxReportInterval   最長の報告間隔（ミリ秒）
+     * @param minLocationInterval 最短の位置情報の取得間隔（ミリ秒）
+     * @param maxLocationInterval 最長の位置情報の取得間隔（ミリ秒）
+     */
+    AdaptiveIntervalPolicy(Clock clock, long minReportInterval, long maxReportInterval, long minLocationInterval, long maxLocationInterval) {
+        this.clock = clock;
+        setBounds(minReportInterval, maxReportInterval, minLocationInterval, maxLocationInterval);
+        this.reportInterval = minReportInterval;
+        this.locationInterval = minLocationInterval;
+    }
+
+    /**
+     * 間隔の範囲を変える
+     *
+     * @param minReportInterval   最短の報告間隔（ミリ秒）
+     * @param maxReportInterval   最長の報告間隔（ミリ秒）
+     * @param minLocationInterval 最短の位置情報の取得間隔（ミリ秒）
+     * @param maxLocationInterval 最長の位置情報の取得間隔（ミリ秒）
+     */
+    synchronized void setBounds(long minReportInterval, long maxReportInterval, long minLocationInterval, long maxLocationInterval) {
+        if (minReportInterval <= 0 || maxReportInterval < minReportInterval) {
+            throw new IllegalArgumentException("Invalid report interval " + minReportInterval + ", " + maxReportInterval);
+        }
+        if (minLocationInterval <= 0 || maxLocationInterval < minLocationInterval) {
+            throw new IllegalArgumentException("Invalid location interval " + minLocationInterval + ", " + maxLocationInterval);
+        }
+        this.minReportInterval = minReportInterval;
+        this.maxReportInterval = maxReportInterval;
+        this.minLocationInterval = minLocationInterval;
+        this.maxLocationInterval = maxLocationInterval;
+        this.reportInterval = Math.max(minReportInterval, Math.min(this.reportInterval, maxReportInterval));
+        this.locationInterval = Math.max(minLocationInterval, Math.min(this.locationInterval, maxLocationInterval));
+    }
+
+    /**
+     * 位置情報を渡す
+     *
+     * @param latitude  緯度
+     * @param longitude 経度
+     * @param speed     速さ（メートル毎秒）。分からなければ NaN
+     * @param accuracy  誤差（メートル）。分からなければ NaN
+     */
+    synchronized void onLocation(double latitude, double longitude, double speed, double accuracy) {
+        final long now = this.clock.now();
+        if (Double.isNaN(speed) && this.hasFix && now > this.fixTime) {
+            // 前の位置との差から求める。誤差以内の移動は数えない
+            final double distance = Geo.distance(this.latitude, this.longitude, latitude, longitude);
+            final double error = Double.isNaN(accuracy) ? 0 : Math.max(accuracy, this.accuracy);
+            speed = distance > error ? 1_000.0 * distance / (now - this.fixTime) : 0;
+        }
+        if (speed >= MOVING_SPEED) {
+            this.lastMotionTime = now;
+        }
+
+        this.hasFix = true;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = Double.isNaN(accuracy) ? 0 : accuracy;
+        this.fixTime = now;
+        updateLocationPriority(now);
+    }
+
+    /**
+     * 省電力モードにするか決める
+     *
+     * @param lowPower 省電力モードにするなら true
+     */
+    synchronized void setLowPower(boolean lowPower) {
+        this.lowPower = lowPower;
+        updateLocationPriority(this.clock.now());
+    }
+
+    synchronized boolean isLowPower() {
+        return this.lowPower;
+    }
+
+    private void updateLocationPriority(long now) {
+        final LocationPriority priority;
+        if (!this.lowPower || isUrgent()) {
+            // 精度が要るときはすぐに上げる
+            priority = LocationPriority.HIGH_ACCURACY;
+        } else if (this.accuracy <= GOOD_ACCURACY
+                && (this.priorityChangeTime == Long.MIN_VALUE || now - this.priorityChangeTime >= PRIORITY_DWELL_TIME)) {
+            priority = LocationPriority.BALANCED_POWER_ACCURACY;
+        } else {
+            priority = this.locationPriority;
+        }
+        if (priority != this.locationPriority) {
+            this.locationPriority = priority;
+            this.priorityChangeTime = now;
+        }
+    }
+
+    /**
+     * hub から報告間隔を指定する
+     *
+     * @param interval 報告間隔（ミリ秒）。0 なら指定を取り消す
+     */
+    synchronized void setRemoteInterval(long interval) {
+        if (interval != 0 && (interval < MIN_REMOTE_INTERVAL || interval > MAX_REMOTE_INTERVAL)) {
+            throw new IllegalArgumentException("Invalid remote interval " + interval);
+        }
+        this.remoteInterval = interval;
+    }
+
+    /**
+     * @return hub から指定された報告間隔（ミリ秒）。指定されていなければ 0
+     */
+    synchronized long getRemoteInterval() {
+        return this.remoteInterval;
+    }
+
+    /**
+     * 電池の状態を渡す
+     *
+     * @param level    残量の割合
+     * @param charging 充電中なら true
+     */
+    synchronized void onBattery(double level, boolean charging) {
+        this.batteryLevel = level;
+        this.charging = charging;
+    }
+
+    /**
+     * hub との通信状態を渡す
+     *
+     * @param roundTripTime 受領の往復時間（ミリ秒）。分からなければ NaN
+     * @param lossRate      損失率
+     */
+    synchronized void onLink(double roundTripTime, double lossRate) {
+        this.roundTripTime = roundTripTime;
+        this.lossRate = lossRate;
+    }
+
+    /**
+     * 次の報告までの間隔を決める。報告ごとに 1 回呼ぶ
+     *
+     * @return 報告間隔（ミリ秒）
+     */
+    synchronized long nextReportInterval() {
+        final boolean lowBattery = !this.charging && this.batteryLevel < LOW_BATTERY;
+        if (isUrgent()) {
+            if (lowBattery) {
+                this.reportInterval = Math.min(LOW_BATTERY_FACTOR * this.minReportInterval, this.maxReportInterval);
+                this.locationInterval = Math.min(LOW_BATTERY_FACTOR * this.minLocationInterval, this.maxLocationInterval);
+            } else {
+                this.reportInterval = this.minReportInterval;
+                this.locationInterval = this.minLocationInterval;
+            }
+        } else {
+            final int factor = lowBattery ? LOW_BATTERY_FACTOR : BACKOFF_FACTOR;
+            this.reportInterval = Math.min(factor * this.reportInterval, this.maxReportInterval);
+            this.locationInterval = Math.min(factor * this.locationInterval, this.maxLocationInterval);
+        }
+        if (this.remoteInterval > 0) {
+            // 報告するたびに新しい位置を送れるようにする
+            this.locationInterval = Math.max(this.minLocationInterval, Math.min(this.locationInterval, this.remoteInterval));
+            return this.remoteInterval;
+        }
+        final long interval = Math.max(this.reportInterval, getLinkInterval());
+        if (!this.lowPower) {
+            return interval;
+        }
+
+        // 位置を取りに起きたついでに報告する
+        final long alignedInterval = Math.max(interval, this.locationInterval);
+        if (!this.hasFix) {
+            return alignedInterval;
+        }
+        final long sinceFix = this.clock.now() - this.fixTime - FIX_SLACK;
+        long phase = sinceFix % this.locationInterval;
+        if (phase < 0) {
+            phase += this.locationInterval;
+        }
+        return alignedInterval - phase;
+    }
+
+    /**
+     * @return 通信状態から決まる最短の報告間隔（ミリ秒）
+     */
+    private long getLinkInterval() {
+        long interval = 0;
+        if (!Double.isNaN(this.roundTripTime)) {
+            interval = (long) (ROUND_TRIP_FACTOR * this.roundTripTime);
+        }
+        if (this.lossRate > HIGH_LOSS_RATE) {
+            interval = Math.max(interval, HIGH_LOSS_FACTOR * this.minReportInterval);
+        }
+        return Math.min(interval, this.maxReportInterval);
+    }
+
+    /**
+     * @return 動いているか位置の精度が悪いなら true
+     */
+    synchronized boolean isUrgent() {
+        if (!this.hasFix || this.accuracy > getPoorAccuracy()) {
+            return true;
+        }
+        return this.lastMotionTime != Long.MIN_VALUE && this.clock.now() - this.lastMotionTime <= MOTION_HOLD_TIME;
+    }
+
+    /**
+     * @return これより誤差が大きければ精度が悪いとみなす誤差（メートル）
+     */
+    private double getPoorAccuracy() {
+        if (this.lowPower && this.locationPriority == LocationPriority.BALANCED_POWER_ACCURACY) {
+            // 上げても落とす条件を満たさないので、すぐにまた落とすことにはならない
+            return BALANCED_POOR_ACCURACY;
+        }
+        return POOR_ACCURACY;
+    }
+
+    /**
+     * @return 現在の報告間隔（ミリ秒）
+     */
+    synchronized long getReportInterval() {
+        if (this.remoteInterval > 0) {
+            return this.remoteInterval;
+        }
+        return Math.max(this.reportInterval, getLinkInterval());
+    }
+
+    /**
+     * @return 現在の位置情報の取得の優先度
+     */
+    synchronized LocationPriority getLocationPriority() {
+        return this.locationPriority;
+    }
+
+    /**
+     * @return 現在の位置情報の取得間隔（ミリ秒）
+     */
+    synchronized long getLocationInterval() {
+        return this.locationInterval;
+    }
+
+}
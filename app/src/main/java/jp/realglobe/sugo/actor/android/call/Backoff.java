@@ -0,0 +1,71 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.Random;
+
+/**
+ * 再試行までの待ち時間を決める。
+ * 失敗するたびに上限を倍にし、上限の半分から上限までの間でばらつかせる。
+ * 多くの端末が同時に切断されても一斉に再接続しないようにするため。
+ */
+final class Backoff {
+
+    private final long base;
+    private final long max;
+    private final Random random;
+
+    private int attempt;
+
+    /**
+     * @param base   最初の待ち時間の上限（ミリ秒）
+     * @param max    待ち時間の上限の最大（ミリ秒）
+     * @param random 乱数
+     */
+    Backoff(long base, long max, Random random) {
+        if (base <= 0 || max < base) {
+            throw new IllegalArgumentException("Invalid backoff " + base + ", " + max);
+        }
+        this.base = base;
+        this.max = max;
+        this.random = random;
+    }
+
+    /**
+     * @return 次の待ち時間（ミリ秒）
+     */
+    synchronized long next() {
+        long cap = this.base;
+        for (int i = 0; i < this.attempt && cap < this.max; i++) {
+            cap *= 2;
+        }
+        cap = Math.min(cap, this.max);
+        if (cap < this.max) {
+            this.attempt++;
+        }
+        final long half = cap / 2;
+        return half + (long) (this.random.nextDouble() * (cap - half));
+    }
+
+    /**
+     * 成功したので最初に戻す
+     */
+    synchronized void reset() {
+        this.attempt = 0;
+    }
+
+}
@@ -0,0 +1,159 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SimpleTimeZone;
+
+/**
+ * {@link BinaryReportEncoder} で詰めたものを通報データに戻す。
+ * hub 側で受け取るためのもの。1 つの接続から届いた順に渡すこと。
+ * 座標は 10^-6 度、高度は 1 cm、精度は 10 cm の単位に丸められている。
+ */
+final class BinaryReportDecoder {
+
+    private boolean hasBase;
+    private int id;
+    private long time;
+    private String phoneNumber;
+    private final long[] location = new long[3];
+    private Rfc3339Formatter formatter;
+    private final char[] date = new char[Rfc3339Formatter.MAX_LENGTH];
+
+    // 読んでいるもの
+    private byte[] data;
+    private int position;
+
+    /**
+     * 戻す
+     *
+     * @param data 詰めたもの
+     * @return 通報データの配列
+     * @throws IllegalArgumentException 形式が違うか、キーフレームを受け取っていない
+     */
+    synchronized List<Map<String, Object>> decode(byte[] data) {
+        this.data = data;
+        this.position = 0;
+        try {
+            final int version = readByte();
+            if (version != BinaryReportEncoder.VERSION) {
+                throw new IllegalArgumentException("Unknown version " + version);
+            }
+            final long count = readUnsigned();
+            if (count > data.length) {
+                throw new IllegalArgumentException("Invalid count " + count);
+            }
+            final List<Map<String, Object>> reports = new ArrayList<>((int) count);
+            for (long i = 0; i < count; i++) {
+                reports.add(decodeReport());
+            }
+            if (this.position != data.length) {
+                throw new IllegalArgumentException("Trailing bytes");
+            }
+            return reports;
+        } finally {
+            this.data = null;
+        }
+    }
+
+    private Map<String, Object> decodeReport() {
+        final int flags = readByte();
+        if ((flags & BinaryReportEncoder.FLAG_KEYFRAME) != 0) {
+            final int required = BinaryReportEncoder.FLAG_ID | BinaryReportEncoder.FLAG_ZONE | BinaryReportEncoder.FLAG_PHONE_NUMBER;
+            if ((flags & required) != required) {
+                throw new IllegalArgumentException("Incomplete keyframe");
+            }
+            this.time = 0;
+            Arrays.fill(this.location, 0);
+            this.hasBase = true;
+        } else if (!this.hasBase) {
+            throw new IllegalArgumentException("No keyframe");
+        }
+        if ((flags & BinaryReportEncoder.FLAG_ID) != 0) {
+            this.id = (int) readSigned();
+        }
+        if ((flags & BinaryReportEncoder.FLAG_ZONE) != 0) {
+            this.formatter = new Rfc3339Formatter(new SimpleTimeZone((int) readSigned() * 60_000, "UTC"));
+        }
+        this.time += readSigned();
+        if ((flags & BinaryReportEncoder.FLAG_PHONE_NUMBER) != 0) {
+            final long length = readUnsigned();
+            this.phoneNumber = length == 0 ? null : readString((int) (length - 1));
+        }
+
+        final Map<String, Object> report = new HashMap<>();
+        report.put(Report.KEY_ID, this.id);
+        report.put(Report.KEY_DATE, new String(this.date, 0, this.formatter.format(this.time, this.date, 0)));
+        report.put(Report.KEY_PHONE_NUMBER, this.phoneNumber);
+        if ((flags & BinaryReportEncoder.FLAG_LOCATION) != 0) {
+            for (int i = 0; i < this.location.length; i++) {
+                this.location[i] += readSigned();
+            }
+            report.put(Report.KEY_LOCATION, Arrays.asList(
+                    this.location[0] / BinaryReportEncoder.COORDINATE_SCALE,
+                    this.location[1] / BinaryReportEncoder.COORDINATE_SCALE,
+                    this.location[2] / BinaryReportEncoder.ALTITUDE_SCALE));
+            report.put(Report.KEY_LOCATION_ACCURACY, (flags & BinaryReportEncoder.FLAG_ACCURACY) != 0 ? readUnsigned() / BinaryReportEncoder.ACCURACY_SCALE : null);
+            report.put(Report.KEY_LOCATION_AGE, (flags & BinaryReportEncoder.FLAG_AGE) != 0 ? readUnsigned() : null);
+        } else {
+            report.put(Report.KEY_LOCATION, null);
+            report.put(Report.KEY_LOCATION_ACCURACY, null);
+            report.put(Report.KEY_LOCATION_AGE, null);
+        }
+        report.put(Report.KEY_REPORT_KEY, Report.reportKey(this.id, this.time));
+        return report;
+    }
+
+    private int readByte() {
+        if (this.position >= this.data.length) {
+            throw new IllegalArgumentException("Truncated");
+        }
+        return this.data[this.position++] & 0xff;
+    }
+
+    private long readUnsigned() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Too long varint");
+    }
+
+    private long readSigned() {
+        final long value = readUnsigned();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private String readString(int length) {
+        if (length < 0 || length > this.data.length - this.position) {
+            throw new IllegalArgumentException("Truncated");
+        }
+        final String value = new String(this.data, this.position, length, BinaryReportEncoder.UTF_8);
+        this.position += length;
+        return value;
+    }
+
+}
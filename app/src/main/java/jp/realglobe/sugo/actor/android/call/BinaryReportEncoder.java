@@ -0,0 +1,233 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 通報データを可変長整数で詰めたバイト列にする。
+ * {@link CompactReportEncoder} と同じく、ときどき全部の値を持つキーフレームを送り、その間は前の報告からの差分だけを送る。
+ * <p>
+ * バイト列は版 1 バイト、報告の数、報告の並びになる。各報告は印 1 バイトと以下の値の並びで、
+ * 印が付いていない値は前の報告と同じとして省く。キーフレームには全ての印が付く。
+ * <ul>
+ * <li>{@link #FLAG_ID}: id</li>
+ * <li>{@link #FLAG_ZONE}: 時差（分）</li>
+ * <li>日時（UNIX 時間のミリ秒）の前の報告からの差。キーフレームでは 0 からの差</li>
+ * <li>{@link #FLAG_PHONE_NUMBER}: 電話番号の UTF-8 のバイト数 + 1 とその中身。無ければ 0 だけ</li>
+ * <li>{@link #FLAG_LOCATION}: 緯度と経度（10^-6 度）と高度（cm）の、前に書いた位置からの差。キーフレームでは 0 からの差</li>
+ * <li>{@link #FLAG_ACCURACY}: 精度（10 cm）</li>
+ * <li>{@link #FLAG_AGE}: 位置の古さ（ミリ秒）</li>
+ * </ul>
+ * 整数は 7 ビットずつの可変長で、符号付きのものは zigzag 符号化する。
+ * 差分は接続ごとに数え直すので、接続し直したら {@link #reset()} するか作り直すこと。
+ */
+final class BinaryReportEncoder {
+
+    // 送信イベント
+    static final String EVENT_EMERGENCY_BINARY = "emergencyBinary";
+    // 形の名前
+    static final String ENCODING = "binary";
+    // この形で送るときにモジュールのバージョンに付ける印
+    static final String VERSION_SUFFIX = "+" + ENCODING;
+
+    static final int VERSION = 1;
+
+    static final int FLAG_ID = 1;
+    static final int FLAG_ZONE = 1 << 1;
+    static final int FLAG_PHONE_NUMBER = 1 << 2;
+    static final int FLAG_LOCATION = 1 << 3;
+    static final int FLAG_ACCURACY = 1 << 4;
+    static final int FLAG_AGE = 1 << 5;
+    static final int FLAG_KEYFRAME = 1 << 6;
+
+    static final double COORDINATE_SCALE = 1_000_000.0;
+    static final double ALTITUDE_SCALE = 100.0;
+    static final double ACCURACY_SCALE = 10.0;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int keyframeInterval;
+    private final long keyframeAge;
+
+    // 使い回す書き出し先
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    // 前の報告
+    private boolean hasBase;
+    private int id;
+    private int zone;
+    private long time;
+    private String phoneNumber;
+    private final long[] location = new long[3];
+
+    // 前のキーフレーム
+    private int entriesSinceKeyframe;
+    private long keyframeTime;
+
+    /**
+     * @param keyframeInterval これだけ差分を送ったらキーフレームを送る
+     * @param keyframeAge      前のキーフレームからこれだけ経ったらキーフレームを送る（ミリ秒）
+     */
+    BinaryReportEncoder(int keyframeInterval, long keyframeAge) {
+        this.keyframeInterval = keyframeInterval;
+        this.keyframeAge = keyframeAge;
+    }
+
+    /**
+     * 詰める
+     *
+     * @param frame 通報データか、その配列
+     * @return 詰めたもの
+     */
+    synchronized byte[] encode(Object frame) {
+        this.length = 0;
+        writeByte(VERSION);
+        if (frame instanceof List) {
+            final List<?> reports = (List<?>) frame;
+            writeUnsigned(reports.size());
+            for (Object report : reports) {
+                encodeReport((Map<?, ?>) report);
+            }
+        } else {
+            writeUnsigned(1);
+            encodeReport((Map<?, ?>) frame);
+        }
+        return Arrays.copyOf(this.buffer, this.length);
+    }
+
+    /**
+     * 次をキーフレームから始める
+     */
+    synchronized void reset() {
+        this.hasBase = false;
+    }
+
+    private void encodeReport(Map<?, ?> report) {
+        final int id = ((Number) report.get(Report.KEY_ID)).intValue();
+        final String date = (String) report.get(Report.KEY_DATE);
+        final long time = Rfc3339Formatter.parse(date);
+        final int zone = Rfc3339Formatter.parseZoneOffset(date) / 60_000;
+        final String phoneNumber = (String) report.get(Report.KEY_PHONE_NUMBER);
+        final List<?> location = (List<?>) report.get(Report.KEY_LOCATION);
+        final Object accuracy = report.get(Report.KEY_LOCATION_ACCURACY);
+        final Object age = report.get(Report.KEY_LOCATION_AGE);
+
+        final boolean keyframe = !this.hasBase
+                || id != this.id
+                || this.entriesSinceKeyframe >= this.keyframeInterval
+                || time - this.keyframeTime >= this.keyframeAge;
+        int flags = 0;
+        if (keyframe) {
+            flags |= FLAG_KEYFRAME | FLAG_ID | FLAG_ZONE | FLAG_PHONE_NUMBER;
+            this.time = 0;
+            Arrays.fill(this.location, 0);
+            this.entriesSinceKeyframe = 0;
+            this.keyframeTime = time;
+        } else {
+            if (zone != this.zone) {
+                flags |= FLAG_ZONE;
+            }
+            if (!(phoneNumber == null ? this.phoneNumber == null : phoneNumber.equals(this.phoneNumber))) {
+                flags |= FLAG_PHONE_NUMBER;
+            }
+            this.entriesSinceKeyframe++;
+        }
+        if (location != null) {
+            flags |= FLAG_LOCATION;
+            if (accuracy != null) {
+                flags |= FLAG_ACCURACY;
+            }
+            if (age != null) {
+                flags |= FLAG_AGE;
+            }
+        }
+
+        writeByte(flags);
+        if ((flags & FLAG_ID) != 0) {
+            writeSigned(id);
+        }
+        if ((flags & FLAG_ZONE) != 0) {
+            writeSigned(zone);
+        }
+        writeSigned(time - this.time);
+        if ((flags & FLAG_PHONE_NUMBER) != 0) {
+            if (phoneNumber == null) {
+                writeUnsigned(0);
+            } else {
+                final byte[] bytes = phoneNumber.getBytes(UTF_8);
+                writeUnsigned(bytes.length + 1);
+                ensureCapacity(bytes.length);
+                System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+                this.length += bytes.length;
+            }
+        }
+        if (location != null) {
+            final long latitude = Math.round(((Number) location.get(0)).doubleValue() * COORDINATE_SCALE);
+            final long longitude = Math.round(((Number) location.get(1)).doubleValue() * COORDINATE_SCALE);
+            final long altitude = Math.round(((Number) location.get(2)).doubleValue() * ALTITUDE_SCALE);
+            writeSigned(latitude - this.location[0]);
+            writeSigned(longitude - this.location[1]);
+            writeSigned(altitude - this.location[2]);
+            this.location[0] = latitude;
+            this.location[1] = longitude;
+            this.location[2] = altitude;
+            if (accuracy != null) {
+                writeUnsigned(Math.round(((Number) accuracy).doubleValue() * ACCURACY_SCALE));
+            }
+            if (age != null) {
+                writeUnsigned(((Number) age).longValue());
+            }
+        }
+
+        this.hasBase = true;
+        this.id = id;
+        this.zone = zone;
+        this.time = time;
+        this.phoneNumber = phoneNumber;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (this.length + extra > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.length + extra));
+        }
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        this.buffer[this.length++] = (byte) value;
+    }
+
+    private void writeSigned(long value) {
+        writeUnsigned((value << 1) ^ (value >> 63));
+    }
+
+    private void writeUnsigned(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7fL) != 0) {
+            this.buffer[this.length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        this.buffer[this.length++] = (byte) value;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SimpleTimeZone;
+
+/**
+ * {@link CompactReportEncoder} で詰めたものを通報データに戻す。
+ * hub 側で受け取るためのもの。1 つの接続から届いた順に渡すこと。
+ * 座標は 10^-7 度、高度は 1 cm、精度は 10 cm の単位に丸められている。
+ */
+final class CompactReportDecoder {
+
+    private boolean hasBase;
+    private Object id;
+    private String phoneNumber;
+    private boolean hasLocation;
+    private long time;
+    private long latitude;
+    private long longitude;
+    private long altitude;
+    private Rfc3339Formatter formatter;
+    private final char[] date = new char[Rfc3339Formatter.MAX_LENGTH];
+
+    /**
+     * 戻す
+     *
+     * @param frame 詰めたもの
+     * @return 通報データの配列
+     * @throws IllegalArgumentException 形式が違うか、キーフレームを受け取っていない
+     */
+    synchronized List<Map<String, Object>> decode(List<?> frame) {
+        final List<Map<String, Object>> reports = new ArrayList<>(frame.size());
+        for (Object entry : frame) {
+            reports.add(decodeEntry((List<?>) entry));
+        }
+        return reports;
+    }
+
+    private Map<String, Object> decodeEntry(List<?> entry) {
+        final int tag = ((Number) entry.get(0)).intValue();
+        Object accuracy = null;
+        Object age = null;
+        final String date;
+        if (tag == CompactReportEncoder.TAG_KEYFRAME) {
+            this.id = entry.get(1);
+            date = (String) entry.get(2);
+            this.phoneNumber = (String) entry.get(3);
+            this.hasLocation = entry.get(4) != null;
+            if (this.hasLocation) {
+                this.latitude = ((Number) entry.get(4)).longValue();
+                this.longitude = ((Number) entry.get(5)).longValue();
+                this.altitude = ((Number) entry.get(6)).longValue();
+                accuracy = entry.get(7);
+                age = entry.get(8);
+            }
+            this.time = Rfc3339Formatter.parse(date);
+            final int zoneOffset = Rfc3339Formatter.parseZoneOffset(date);
+            this.formatter = new Rfc3339Formatter(new SimpleTimeZone(zoneOffset, "UTC"));
+            this.hasBase = true;
+        } else if (tag == CompactReportEncoder.TAG_DELTA) {
+            if (!this.hasBase) {
+                throw new IllegalArgumentException("No keyframe");
+            }
+            this.time += ((Number) entry.get(1)).longValue();
+            if (this.hasLocation) {
+                this.latitude += ((Number) entry.get(2)).longValue();
+                this.longitude += ((Number) entry.get(3)).longValue();
+                this.altitude += ((Number) entry.get(4)).longValue();
+                accuracy = entry.get(5);
+                age = entry.get(6);
+            }
+            date = new String(this.date, 0, this.formatter.format(this.time, this.date, 0));
+        } else {
+            throw new IllegalArgumentException("Unknown tag " + tag);
+        }
+
+        final Map<String, Object> report = new HashMap<>();
+        report.put(Report.KEY_ID, this.id);
+        report.put(Report.KEY_DATE, date);
+        report.put(Report.KEY_PHONE_NUMBER, this.phoneNumber);
+        report.put(Report.KEY_LOCATION, this.hasLocation ? Arrays.asList(
+                this.latitude / CompactReportEncoder.COORDINATE_SCALE,
+                this.longitude / CompactReportEncoder.COORDINATE_SCALE,
+                this.altitude / CompactReportEncoder.ALTITUDE_SCALE) : null);
+        report.put(Report.KEY_LOCATION_ACCURACY, accuracy == null ? null : ((Number) accuracy).longValue() / CompactReportEncoder.ACCURACY_SCALE);
+        report.put(Report.KEY_LOCATION_AGE, age == null ? null : ((Number) age).longValue());
+        report.put(Report.KEY_REPORT_KEY, Report.reportKey(this.id, this.time));
+        return report;
+    }
+
+}
@@ -0,0 +1,157 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 通報データを差分で詰めた形にする。
+ * ときどき全部の値を持つキーフレームを送り、その間は前の報告からの差分だけを送る。
+ * 座標などは固定小数点の整数にする。
+ * <p>
+ * 1 回分の送信データは要素の配列で、各要素は以下のどちらかになる。
+ * <ul>
+ * <li>キーフレーム: [0, id, date, phoneNumber, 緯度 * 10^7, 経度 * 10^7, 高度 * 100, 精度 * 10, 位置の古さ]</li>
+ * <li>差分: [1, 日時の差, 緯度の差, 経度の差, 高度の差, 精度 * 10, 位置の古さ]。位置が無ければ [1, 日時の差]</li>
+ * </ul>
+ * 位置が無ければキーフレームの座標以降は null になる。精度と古さは分からなければ null。
+ * 差分は接続ごとに数え直すので、接続し直したら {@link #reset()} するか作り直すこと。
+ * hub が {@link #ENCODING} を受け取れると知らせるまではこの形で送らない（{@link ReportEmitter}）。
+ */
+final class CompactReportEncoder {
+
+    // 送信イベント
+    static final String EVENT_EMERGENCY_COMPACT = "emergencyCompact";
+    // 形の名前
+    static final String ENCODING = "compact";
+    // この形で送るときにモジュールのバージョンに付ける印
+    static final String VERSION_SUFFIX = "+" + ENCODING;
+
+    static final int TAG_KEYFRAME = 0;
+    static final int TAG_DELTA = 1;
+
+    static final double COORDINATE_SCALE = 10_000_000.0;
+    static final double ALTITUDE_SCALE = 100.0;
+    static final double ACCURACY_SCALE = 10.0;
+
+    private final int keyframeInterval;
+    private final long keyframeAge;
+
+    // 直前の報告
+    private boolean hasBase;
+    private Object id;
+    private String phoneNumber;
+    private boolean hasLocation;
+    private long time;
+    private long latitude;
+    private long longitude;
+    private long altitude;
+
+    // 直前のキーフレーム
+    private int entriesSinceKeyframe;
+    private long keyframeTime;
+
+    /**
+     * @param keyframeInterval これだけ差分を送ったらキーフレームを送る
+     * @param keyframeAge      前のキーフレームからこれだけ経ったらキーフレームを送る（ミリ秒）
+     */
+    CompactReportEncoder(int keyframeInterval, long keyframeAge) {
+        this.keyframeInterval = keyframeInterval;
+        this.keyframeAge = keyframeAge;
+    }
+
+    /**
+     * 詰める
+     *
+     * @param frame 通報データか、その配列
+     * @return 詰めたもの
+     */
+    synchronized List<Object> encode(Object frame) {
+        final List<Object> entries = new ArrayList<>();
+        if (frame instanceof List) {
+            for (Object report : (List<?>) frame) {
+                entries.add(encodeReport((Map<?, ?>) report));
+            }
+        } else {
+            entries.add(encodeReport((Map<?, ?>) frame));
+        }
+        return entries;
+    }
+
+    /**
+     * 次をキーフレームから始める
+     */
+    synchronized void reset() {
+        this.hasBase = false;
+    }
+
+    private List<Object> encodeReport(Map<?, ?> report) {
+        final Object id = report.get(Report.KEY_ID);
+        final String date = (String) report.get(Report.KEY_DATE);
+        final String phoneNumber = (String) report.get(Report.KEY_PHONE_NUMBER);
+        final List<?> location = (List<?>) report.get(Report.KEY_LOCATION);
+        final Long accuracy = scale(report.get(Report.KEY_LOCATION_ACCURACY), ACCURACY_SCALE);
+        final Object age = report.get(Report.KEY_LOCATION_AGE);
+        final Long ageValue = age == null ? null : ((Number) age).longValue();
+
+        final long time = Rfc3339Formatter.parse(date);
+        final boolean hasLocation = location != null;
+        final long latitude = hasLocation ? Math.round(((Number) location.get(0)).doubleValue() * COORDINATE_SCALE) : 0;
+        final long longitude = hasLocation ? Math.round(((Number) location.get(1)).doubleValue() * COORDINATE_SCALE) : 0;
+        final long altitude = hasLocation ? Math.round(((Number) location.get(2)).doubleValue() * ALTITUDE_SCALE) : 0;
+
+        final boolean keyframe = !this.hasBase
+                || !id.equals(this.id)
+                || !(phoneNumber == null ? this.phoneNumber == null : phoneNumber.equals(this.phoneNumber))
+                || hasLocation != this.hasLocation
+                || time < this.time
+                || this.entriesSinceKeyframe >= this.keyframeInterval
+                || time - this.keyframeTime >= this.keyframeAge;
+
+        final List<Object> entry;
+        if (keyframe) {
+            entry = hasLocation
+                    ? Arrays.<Object>asList(TAG_KEYFRAME, id, date, phoneNumber, latitude, longitude, altitude, accuracy, ageValue)
+                    : Arrays.<Object>asList(TAG_KEYFRAME, id, date, phoneNumber, null, null, null, null, null);
+            this.entriesSinceKeyframe = 0;
+            this.keyframeTime = time;
+        } else {
+            entry = hasLocation
+                    ? Arrays.<Object>asList(TAG_DELTA, time - this.time, latitude - this.latitude, longitude - this.longitude, altitude - this.altitude, accuracy, ageValue)
+                    : Arrays.<Object>asList(TAG_DELTA, time - this.time);
+            this.entriesSinceKeyframe++;
+        }
+
+        this.hasBase = true;
+        this.id = id;
+        this.phoneNumber = phoneNumber;
+        this.hasLocation = hasLocation;
+        this.time = time;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+        return entry;
+    }
+
+    private static Long scale(Object value, double scale) {
+        return value == null ? null : Math.round(((Number) value).doubleValue() * scale);
+    }
+
+}
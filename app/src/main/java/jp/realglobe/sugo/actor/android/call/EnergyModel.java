@@ -0,0 +1,185 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+
+package jp.realglobe.sugo.actor.android.call;
+
+/**
+ * 通報中の電力消費の見積もり。
+ * CPU を起こした回数と起きていた時間、無線が高電力状態だった時間、位置情報の取得の優先度ごとの時間から求める。
+ * 無線は送信の後もしばらく高電力状態に留まるので、間を空けた送信はその分だけ余計に電力を使う。
+ * 起きている間や無線が高電力状態の間の処理は、新しく起こしたとは数えない。
+ * <p>
+ * 電力の値は端末によって違うので、典型的な値を使って比べるためのもの。
+ */
+final class EnergyModel {
+
+    // 眠っている間の電力（mW）
+    static final double SLEEP_POWER = 10.0;
+    // CPU が起きている間の電力（mW）
+    static final double AWAKE_POWER = 250.0;
+    // 1 回起こしたときに起きている時間（ミリ秒）
+    static final long AWAKE_TIME = 1_000L;
+    // 無線が高電力状態の間の電力（mW）
+    static final double RADIO_POWER = 800.0;
+    // 送信してから無線が高電力状態に留まる時間（ミリ秒）
+    static final long RADIO_TAIL = 5_000L;
+    // 位置情報の取得中の電力（mW）
+    static final double HIGH_ACCURACY_POWER = 350.0;
+    static final double BALANCED_POWER = 40.0;
+
+    private final Clock clock;
+    private final long startTime;
+
+    private long wakeupCount;
+    private long awakeUntil = Long.MIN_VALUE;
+    private long awakeTime;
+
+    private long transmissionCount;
+    private long radioBurstCount;
+    private long radioOnUntil = Long.MIN_VALUE;
+    private long radioOnTime;
+
+    // 位置情報を取得していなければ null
+    private AdaptiveIntervalPolicy.LocationPriority locationPriority;
+    private long locationPriorityTime;
+    private long highAccuracyTime;
+    private long balancedTime;
+
+    /**
+     * @param clock 時計
+     */
+    EnergyModel(Clock clock) {
+        this.clock = clock;
+        this.startTime = clock.now();
+        this.locationPriorityTime = this.startTime;
+    }
+
+    /**
+     * CPU を起こした
+     */
+    synchronized void wakeup() {
+        final long now = this.clock.now();
+        if (now >= this.awakeUntil) {
+            this.wakeupCount++;
+            this.awakeTime += AWAKE_TIME;
+        } else {
+            this.awakeTime += now + AWAKE_TIME - this.awakeUntil;
+        }
+        this.awakeUntil = Math.max(this.awakeUntil, now + AWAKE_TIME);
+    }
+
+    /**
+     * 送信した。送信のために CPU も起きる
+     */
+    synchronized void transmit() {
+        wakeup();
+        final long now = this.clock.now();
+        this.transmissionCount++;
+        if (now >= this.radioOnUntil) {
+            this.radioBurstCount++;
+            this.radioOnTime += RADIO_TAIL;
+        } else {
+            this.radioOnTime += now + RADIO_TAIL - this.radioOnUntil;
+        }
+        this.radioOnUntil = Math.max(this.radioOnUntil, now + RADIO_TAIL);
+    }
+
+    /**
+     * 位置情報の取得の優先度を変えた
+     *
+     * @param priority 優先度。取得をやめたなら null
+     */
+    synchronized void setLocationPriority(AdaptiveIntervalPolicy.LocationPriority priority) {
+        accumulateLocation(this.clock.now());
+        this.locationPriority = priority;
+    }
+
+    private void accumulateLocation(long now) {
+        if (this.locationPriority == AdaptiveIntervalPolicy.LocationPriority.HIGH_ACCURACY) {
+            this.highAccuracyTime += now - this.locationPriorityTime;
+        } else if (this.locationPriority == AdaptiveIntervalPolicy.LocationPriority.BALANCED_POWER_ACCURACY) {
+            this.balancedTime += now - this.locationPriorityTime;
+        }
+        this.locationPriorityTime = now;
+    }
+
+    /**
+     * @return CPU を新しく起こした回数
+     */
+    synchronized long getWakeupCount() {
+        return this.wakeupCount;
+    }
+
+    /**
+     * @return 送信した回数
+     */
+    synchronized long getTransmissionCount() {
+        return this.transmissionCount;
+    }
+
+    /**
+     * @return 無線を高電力状態にした回数
+     */
+    synchronized long getRadioBurstCount() {
+        return this.radioBurstCount;
+    }
+
+    /**
+     * @return 無線が高電力状態だった時間（ミリ秒）。送信の後の留まる時間を含む
+     */
+    synchronized long getRadioOnTime() {
+        return this.radioOnTime;
+    }
+
+    /**
+     * @return CPU が起きていた時間（ミリ秒）
+     */
+    synchronized long getAwakeTime() {
+        return this.awakeTime;
+    }
+
+    /**
+     * @return 使った電力量（mJ）
+     */
+    synchronized double getEnergy() {
+        final long now = this.clock.now();
+        accumulateLocation(now);
+        final double microJoules = SLEEP_POWER * (now - this.startTime)
+                + AWAKE_POWER * this.awakeTime
+                + RADIO_POWER * this.radioOnTime
+                + HIGH_ACCURACY_POWER * this.highAccuracyTime
+                + BALANCED_POWER * this.balancedTime;
+        return microJoules / 1_000.0;
+    }
+
+    /**
+     * @return 平均の電力（mW）。時間が経っていなければ NaN
+     */
+    synchronized double getAveragePower() {
+        final long elapsed = this.clock.now() - this.startTime;
+        return elapsed <= 0 ? Double.NaN : 1_000.0 * getEnergy() / elapsed;
+    }
+
+    /**
+     * @param batteryCapacity 電池の容量（mWh）
+     * @return 今の平均の電力で電池が持つ時間（時間）
+     */
+    synchronized double estimateBatteryLife(double batteryCapacity) {
+        return batteryCapacity / getAveragePower();
+    }
+
+}
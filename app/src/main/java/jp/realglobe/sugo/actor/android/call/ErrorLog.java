@@ -0,0 +1,71 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 最近のエラーを決まった数だけ覚えておく。
+ * 一杯になったら一番古いものを捨てる。
+ */
+final class ErrorLog {
+
+    private final String[] entries;
+    private int head;
+    private int size;
+    private long totalCount;
+
+    /**
+     * @param capacity 覚えておく数
+     */
+    ErrorLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.entries = new String[capacity];
+    }
+
+    synchronized void add(String error) {
+        this.entries[(this.head + this.size) % this.entries.length] = error;
+        if (this.size < this.entries.length) {
+            this.size++;
+        } else {
+            this.head = (this.head + 1) % this.entries.length;
+        }
+        this.totalCount++;
+    }
+
+    /**
+     * @return 覚えているエラー。古い順
+     */
+    synchronized List<String> getEntries() {
+        final List<String> entries = new ArrayList<>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            entries.add(this.entries[(this.head + i) % this.entries.length]);
+        }
+        return entries;
+    }
+
+    /**
+     * @return 今までに加えられた数
+     */
+    synchronized long getTotalCount() {
+        return this.totalCount;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+/**
+ * 緯度経度の計算
+ */
+final class Geo {
+
+    // 地球の半径（メートル）
+    static final double EARTH_RADIUS = 6_371_008.8;
+
+    private Geo() {
+    }
+
+    /**
+     * 2 点間の距離を求める
+     *
+     * @param latitude1  1 点目の緯度
+     * @param longitude1 1 点目の経度
+     * @param latitude2  2 点目の緯度
+     * @param longitude2 2 点目の経度
+     * @return 距離（メートル）
+     */
+    static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        final double phi1 = Math.toRadians(latitude1);
+        final double phi2 = Math.toRadians(latitude2);
+        final double sinDeltaPhi = Math.sin((phi2 - phi1) / 2);
+        final double sinDeltaLambda = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        final double a = sinDeltaPhi * sinDeltaPhi + Math.cos(phi1) * Math.cos(phi2) * sinDeltaLambda * sinDeltaLambda;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * 1 点目から 2 点目への方位を求める
+     *
+     * @param latitude1  1 点目の緯度
+     * @param longitude1 1 点目の経度
+     * @param latitude2  2 点目の緯度
+     * @param longitude2 2 点目の経度
+     * @return 北から時計回りの角度（度）。0 以上 360 未満
+     */
+    static double bearing(double latitude1, double longitude1, double latitude2, double longitude2) {
+        final double phi1 = Math.toRadians(latitude1);
+        final double phi2 = Math.toRadians(latitude2);
+        final double deltaLambda = Math.toRadians(longitude2 - longitude1);
+        final double y = Math.sin(deltaLambda) * Math.cos(phi2);
+        final double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(deltaLambda);
+        final double bearing = Math.toDegrees(Math.atan2(y, x));
+        return bearing < 0 ? bearing + 360 : bearing;
+    }
+
+    /**
+     * 2 つの方位の差を求める
+     *
+     * @param bearing1 1 つ目の方位（度）
+     * @param bearing2 2 つ目の方位（度）
+     * @return 差（度）。0 以上 180 以下
+     */
+    static double bearingDifference(double bearing1, double bearing2) {
+        final double difference = Math.abs(bearing1 - bearing2) % 360;
+        return difference > 180 ? 360 - difference : difference;
+    }
+
+    /**
+     * 点から線分までの距離を求める。
+     * 線分の始点の周りを平面とみなすので、数 km までの線分に使う
+     *
+     * @param latitude       点の緯度
+     * @param longitude      点の経度
+     * @param startLatitude  線分の始点の緯度
+     * @param startLongitude 線分の始点の経度
+     * @param endLatitude    線分の終点の緯度
+     * @param endLongitude   線分の終点の経度
+     * @return 距離（メートル）
+     */
+    static double distanceToSegment(double latitude, double longitude, double startLatitude, double startLongitude, double endLatitude, double endLongitude) {
+        final double scale = Math.cos(Math.toRadians(startLatitude));
+        final double x = Math.toRadians(longitude - startLongitude) * scale * EARTH_RADIUS;
+        final double y = Math.toRadians(latitude - startLatitude) * EARTH_RADIUS;
+        final double endX = Math.toRadians(endLongitude - startLongitude) * scale * EARTH_RADIUS;
+        final double endY = Math.toRadians(endLatitude - startLatitude) * EARTH_RADIUS;
+        final double lengthSquared = endX * endX + endY * endY;
+        final double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, (x * endX + y * endY) / lengthSquared));
+        final double dx = x - t * endX;
+        final double dy = y - t * endY;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+}
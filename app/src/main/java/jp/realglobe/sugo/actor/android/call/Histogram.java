@@ -0,0 +1,148 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 値の分布を数える。
+ * HdrHistogram と同じく、2 の冪ごとの区間を更に等分した目盛りで数えるので、
+ * 相対誤差 1/{@value #SUB_BUCKET_HALF} 以内で任意の大きさの値を固定の領域で記録できる。
+ * 記録はロックを使わないので、複数のスレッドから呼んでも待たない。
+ */
+final class Histogram {
+
+    // 1 単位ずつ数える範囲。以降は 2 の冪ごとに SUB_BUCKET_HALF 等分する
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 記録する
+     *
+     * @param value 値。負なら 0 とみなす
+     */
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        this.counts.incrementAndGet(indexOf(value));
+        this.sum.addAndGet(value);
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * 今までの分布を写し取る
+     *
+     * @param reset 写し取った分を消すなら true
+     * @return 分布
+     */
+    Snapshot snapshot(boolean reset) {
+        final long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = reset ? this.counts.getAndSet(i, 0) : this.counts.get(i);
+            count += counts[i];
+        }
+        final long sum = reset ? this.sum.getAndSet(0) : this.sum.get();
+        final long max = reset ? this.max.getAndSet(0) : this.max.get();
+        return new Snapshot(counts, count, sum, max);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS + 1;
+        final int subBucket = (int) (value >>> shift);
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+    }
+
+    /**
+     * @param index 目盛りの番号
+     * @return その目盛りに入る最大の値
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int offset = index - SUB_BUCKET_COUNT;
+        final int shift = offset / SUB_BUCKET_HALF + 1;
+        final long subBucket = offset % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * 写し取った分布
+     */
+    static final class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        long getCount() {
+            return this.count;
+        }
+
+        long getMax() {
+            return this.max;
+        }
+
+        double getMean() {
+            return this.count == 0 ? 0 : (double) this.sum / this.count;
+        }
+
+        /**
+         * @param quantile 0 から 1 までの割合
+         * @return その割合の値がこれ以下になる値。記録が無ければ 0
+         */
+        long getValueAtQuantile(double quantile) {
+            if (this.count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(quantile * this.count));
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueAt(i), this.max);
+                }
+            }
+            return this.max;
+        }
+
+    }
+
+}
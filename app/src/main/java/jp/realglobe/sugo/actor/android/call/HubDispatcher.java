@@ -0,0 +1,948 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 複数の hub に通報データを送る。
+ * 通報が求められてから最初の送信は、接続している全ての hub に並行して送り、どれかが受け取れば成功とする。
+ * その後は受領の往復時間が一番短い hub を主にして、そこにだけ送る。
+ * 受領が再送までの時間内に来なければ同じ hub に送り直す。
+ * 主が切れたり受領を返さなくなったりしたら、次の hub に切り替えて受領されていない分を送り直す。
+ * 受け取る側は通報データの reportKey で重複を捨てる。
+ * 1 つの hub へは、並行して送るものも送り直すものも呼ばれた順に 1 つずつ送る。
+ * <p>
+ * 受領を一度も返していない hub は受領を返さない古い hub とみなし、受領が無くても使い続ける。
+ * そういう hub が受け付けたものは、受領を待たずに届いたとみなす。
+ */
+final class HubDispatcher implements ReportPipeline.Sink {
+
+    // 往復時間が分かるまでの再送までの時間（ミリ秒）
+    private static final long INITIAL_RETRANSMIT_TIMEOUT = 1_000L;
+    // 再送までの最短時間（ミリ秒）
+    private static final long MIN_RETRANSMIT_TIMEOUT = 200L;
+    // 1 件を同じ hub に再送する最大回数
+    private static final int MAX_RETRANSMITS = 3;
+    // 主を替えるのは、往復時間がこの割合より短い hub が現れたとき
+    private static final double SWITCH_RATIO = 0.8;
+
+    /**
+     * 送った結果を受け取る。ロックを持たずに呼ばれる。
+     * {@link #onSent()} か {@link #onFailure} のどちらかが一度だけ呼ばれる。
+     * 送れたら、それとは別に {@link #onDelivered()} か {@link #onLost()} のどちらかが一度だけ呼ばれる。
+     * 全ての hub に送ったときは並行して送るスレッドから、受領は受領を受け取ったスレッドから呼ばれる
+     */
+    interface Callback {
+        /**
+         * どれかの hub が受け付けた
+         */
+        void onSent();
+
+        /**
+         * どの hub も受け付けなかった
+         */
+        void onFailure(RuntimeException e);
+
+        /**
+         * 受領が来た。受領を返さない hub なら受け付けたとき
+         */
+        void onDelivered();
+
+        /**
+         * 受領を待つのを諦めた
+         */
+        void onLost();
+    }
+
+    private final List<Hub> hubs;
+    private final String event;
+    private final Clock clock;
+    private final long ackTimeout;
+
+    private Hub primary;
+    private boolean fanOut;
+    private long failoverCount;
+
+    private long reportRequestTime;
+    private boolean awaitingFirstReport;
+    private long timeToFirstReport = -1;
+
+    /**
+     * @param connections hub ごとの接続。順番が hub の番号になる
+     * @param event       通報データを送るイベント名
+     * @param executor    並行して送るためのスレッド
+     * @param clock       時計
+     * @param ackTimeout  これだけ待っても受領が無ければ hub を諦める（ミリ秒）
+     * @param window      hub ごとの受領待ちの最大数
+     */
+    HubDispatcher(List<ActorConnection> connections, String event, Executor executor, Clock clock, long ackTimeout, int window) {
+        if (connections.isEmpty()) {
+            throw new IllegalArgumentException("No hub");
+        }
+        // 諦める前に何度か再送できるようにする
+        final long maxTimeout = Math.max(1L, ackTimeout / 2);
+        final long minTimeout = Math.max(1L, Math.min(MIN_RETRANSMIT_TIMEOUT, ackTimeout / 4));
+        final long initialTimeout = Math.min(INITIAL_RETRANSMIT_TIMEOUT, maxTimeout);
+        final List<Hub> hubs = new ArrayList<>(connections.size());
+        for (ActorConnection connection : connections) {
+            final Hub hub = new Hub(hubs.size(), connection, new AckTracker(clock, window, initialTimeout, minTimeout, maxTimeout, MAX_RETRANSMITS), new SendQueue(executor));
+            hubs.add(hub);
+            connection.addListener(new ActorConnection.Listener() {
+                @Override
+                public void onConnect() {
+                    onConnected(hub);
+                }
+
+                @Override
+                public void onDisconnect() {
+                    onDisconnected(hub);
+                }
+            });
+        }
+        this.hubs = Collections.unmodifiableList(hubs);
+        this.event = event;
+        this.clock = clock;
+        this.ackTimeout = ackTimeout;
+    }
+
+    /**
+     * 全ての hub への接続を始める
+     */
+    void open() {
+        for (Hub hub : this.hubs) {
+            hub.connection.open();
+        }
+    }
+
+    /**
+     * 全ての hub から切断する。受領を待っているものは諦める
+     */
+    void close() {
+        final List<Runnable> notices = new ArrayList<>();
+        synchronized (this) {
+            for (Hub hub : this.hubs) {
+                notices.addAll(lose(hub));
+            }
+        }
+        for (Hub hub : this.hubs) {
+            hub.connection.close();
+        }
+        runAll(notices);
+    }
+
+    /**
+     * @return どれかの hub に接続していれば true
+     */
+    boolean isConnected() {
+        for (Hub hub : this.hubs) {
+            if (hub.connection.isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 通報が求められたことを記録する。
+     * 次の送信は全ての hub に送り、ここから最初に送れるまでの時間を測る
+     */
+    synchronized void markReportRequested() {
+        this.fanOut = true;
+        this.reportRequestTime = this.clock.now();
+        this.awaitingFirstReport = true;
+    }
+
+    /**
+     * 通報データを送り、送り終わるまで待つ
+     *
+     * @param frame 通報データかその配列
+     * @throws IllegalStateException どの hub にも送れなかった
+     */
+    @Override
+    public void send(Object frame) {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<RuntimeException> error = new AtomicReference<>();
+        send(frame, new Callback() {
+            @Override
+            public void onSent() {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(RuntimeException e) {
+                error.set(e);
+                done.countDown();
+            }
+
+            @Override
+            public void onDelivered() {
+            }
+
+            @Override
+            public void onLost() {
+            }
+        });
+        // 送っている途中で諦めると、届いたものを失敗として送り直すことになる
+        awaitUninterruptibly(done);
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    /**
+     * 通報データを送る。
+     * 全ての hub に送るときは並行して送り、結果を待たずに戻る
+     *
+     * @param frame    通報データかその配列
+     * @param callback 結果を受け取る
+     */
+    void send(Object frame, Callback callback) {
+        final boolean fanOut;
+        final List<Hub> targets;
+        synchronized (this) {
+            fanOut = this.fanOut;
+            targets = fanOut ? getConnected() : rank();
+            if (!targets.isEmpty()) {
+                // 結果を待たずに次を送るので、ここで戻す。全て失敗したらまた全てに送る。
+                // hub ごとに順に送るので、次の送信が並行して送っているものを追い越すことはない
+                this.fanOut = false;
+            }
+        }
+        if (targets.isEmpty()) {
+            callback.onFailure(new IllegalStateException("No hub connected"));
+            return;
+        }
+        final Object key = keyOf(frame);
+        final Delivery delivery = new Delivery(callback);
+        if (fanOut) {
+            sendToAll(targets, frame, key, delivery);
+            return;
+        }
+        try {
+            sendToPrimary(targets, frame, key, delivery);
+        } catch (RuntimeException e) {
+            callback.onFailure(e);
+            return;
+        }
+        onSent();
+        callback.onSent();
+    }
+
+    /**
+     * 受領を確認しないデータを主の hub に送る
+     *
+     * @param event イベント名
+     * @param data  データ
+     * @throws IllegalStateException どの hub にも送れなかった
+     */
+    void emit(String event, Object data) {
+        final List<Hub> targets;
+        synchronized (this) {
+            targets = rank();
+        }
+        RuntimeException error = new IllegalStateException("No hub connected");
+        for (Hub hub : targets) {
+            try {
+                hub.connection.emit(event, data);
+                return;
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+        throw error;
+    }
+
+    /**
+     * hub からの受領を反映する。
+     * 受領は累積で、あるキーの受領はそれより前に同じ hub に送ったものの受領も兼ねる
+     *
+     * @param index hub の番号
+     * @param key   受領した通報データの reportKey かその配列
+     */
+    void onAck(int index, Object key) {
+        if (key instanceof List) {
+            for (Object element : (List<?>) key) {
+                onAck(index, element);
+            }
+            return;
+        }
+        final Hub hub = this.hubs.get(index);
+        final List<Runnable> notices;
+        synchronized (this) {
+            if (hub.tracker.ack(key)) {
+                hub.suspect = false;
+            }
+            notices = settle(hub);
+        }
+        runAll(notices);
+    }
+
+    /**
+     * 受領が遅れているものを同じ hub に送り直し、受領を返さなくなった hub を諦める。定期的に呼ぶ
+     */
+    void checkTimeouts() {
+        final List<Hub> retransmitHubs = new ArrayList<>();
+        final List<List<AckTracker.Pending>> retransmits = new ArrayList<>();
+        final List<Runnable> notices = new ArrayList<>();
+        Runnable resend = null;
+        synchronized (this) {
+            for (Hub hub : this.hubs) {
+                if (!hub.tracker.hasAcked() || hub.suspect) {
+                    // 受領を返さない hub と、受領を返さなくなった hub には再送しない
+                    continue;
+                }
+                final List<AckTracker.Pending> expired = hub.tracker.expire();
+                notices.addAll(settle(hub));
+                if (hub.tracker.getOldestAge() > this.ackTimeout) {
+                    hub.suspect = true;
+                    if (hub != this.primary) {
+                        notices.addAll(lose(hub));
+                    }
+                } else if (!expired.isEmpty()) {
+                    retransmitHubs.add(hub);
+                    retransmits.add(expired);
+                }
+            }
+            if (this.primary != null && this.primary.suspect) {
+                resend = failover(this.primary);
+            }
+        }
+        runAll(notices);
+        for (int i = 0; i < retransmitHubs.size(); i++) {
+            final Hub hub = retransmitHubs.get(i);
+            final List<AckTracker.Pending> expired = retransmits.get(i);
+            hub.sends.post(() -> {
+                for (AckTracker.Pending pending : expired) {
+                    try {
+                        hub.connection.emit(this.event, pending.getFrame());
+                    } catch (RuntimeException e) {
+                        // 切れたら主の切り替えで送り直す
+                        break;
+                    }
+                }
+            });
+        }
+        if (resend != null) {
+            resend.run();
+        }
+    }
+
+    /**
+     * @return 主の hub の番号。まだ決まっていなければ -1
+     */
+    synchronized int getPrimary() {
+        return this.primary == null ? -1 : this.primary.index;
+    }
+
+    /**
+     * @param index hub の番号
+     * @return 平滑化した受領の往復時間（ミリ秒）。まだ受領が無ければ NaN
+     */
+    synchronized double getRoundTripTime(int index) {
+        return this.hubs.get(index).tracker.getSmoothedRtt();
+    }
+
+    /**
+     * @param index hub の番号
+     * @return 受領の損失率
+     */
+    synchronized double getLossRate(int index) {
+        return this.hubs.get(index).tracker.getLossRate();
+    }
+
+    /**
+     * @param index hub の番号
+     * @return 受領待ちの数
+     */
+    synchronized int getPendingCount(int index) {
+        return this.hubs.get(index).tracker.getPendingCount();
+    }
+
+    /**
+     * @return 今の状態
+     */
+    synchronized Status getStatus() {
+        int connected = 0;
+        int pending = 0;
+        long retransmits = 0;
+        long lost = 0;
+        for (Hub hub : this.hubs) {
+            connected += hub.connection.isConnected() ? 1 : 0;
+            if (!hub.tracker.hasAcked()) {
+                // 受領を返さない hub の受領待ちは数えない
+                continue;
+            }
+            pending += hub.tracker.getPendingCount();
+            retransmits += hub.tracker.getRetransmitCount();
+            lost += hub.tracker.getLostCount();
+        }
+        final Hub primary = this.primary;
+        return new Status(this.hubs.size(), connected, primary == null ? -1 : primary.index,
+                primary == null ? Double.NaN : primary.tracker.getSmoothedRtt(), primary == null ? 0 : primary.tracker.getLossRate(),
+                pending, retransmits, lost);
+    }
+
+    /**
+     * @return 主の hub が使えなくなって切り替えた回数
+     */
+    synchronized long getFailoverCount() {
+        return this.failoverCount;
+    }
+
+    /**
+     * @return 最後の通報で、求められてから最初に送信するまでの時間（ミリ秒）。まだなら -1
+     */
+    synchronized long getTimeToFirstReport() {
+        return this.timeToFirstReport;
+    }
+
+    /**
+     * 受領を待つためのキーを取り出す。配列なら最後の通報データのキーを使う
+     */
+    private static Object keyOf(Object frame) {
+        if (frame instanceof List) {
+            final List<?> list = (List<?>) frame;
+            return list.isEmpty() ? null : keyOf(list.get(list.size() - 1));
+        } else if (frame instanceof Map) {
+            return ((Map<?, ?>) frame).get(Report.KEY_REPORT_KEY);
+        }
+        return null;
+    }
+
+    /**
+     * 全ての hub に並行して送る。どれかが受け取れば成功、全て失敗すれば失敗を知らせる。
+     * 送っている途中のものがある間は失敗にしない
+     */
+    private void sendToAll(List<Hub> targets, Object frame, Object key, Delivery delivery) {
+        final Callback callback = delivery.callback;
+        final AtomicBoolean accepted = new AtomicBoolean();
+        final AtomicInteger remaining = new AtomicInteger(targets.size());
+        for (Hub hub : targets) {
+            hub.sends.post(() -> {
+                if (emitTo(hub, frame, key, delivery)) {
+                    synchronized (this) {
+                        // 最初に受け取った hub を往復時間が分かるまでの主にする
+                        if (this.primary == null || !isUsable(this.primary)) {
+                            this.primary = hub;
+                        }
+                    }
+                    if (accepted.compareAndSet(false, true)) {
+                        onSent();
+                        callback.onSent();
+                    }
+                    remaining.decrementAndGet();
+                } else if (remaining.decrementAndGet() == 0 && !accepted.get()) {
+                    synchronized (this) {
+                        this.fanOut = true;
+                    }
+                    callback.onFailure(new IllegalStateException("No hub accepted the report"));
+                }
+            });
+        }
+    }
+
+    /**
+     * 主の hub に送る。送れなければ次の候補に送る。
+     * その hub に送っている途中のものがあれば、それが終わってから送る
+     */
+    private void sendToPrimary(List<Hub> targets, Object frame, Object key, Delivery delivery) {
+        for (Hub hub : targets) {
+            final AtomicBoolean emitted = new AtomicBoolean();
+            hub.sends.run(() -> emitted.set(emitTo(hub, frame, key, delivery)));
+            if (!emitted.get()) {
+                continue;
+            }
+            final Runnable resend;
+            synchronized (this) {
+                final Hub old = this.primary;
+                this.primary = hub;
+                resend = (old != null && old != hub && !isUsable(old)) ? takeOver(old, hub) : null;
+            }
+            if (resend != null) {
+                resend.run();
+            }
+            return;
+        }
+        throw new IllegalStateException("No hub accepted the report");
+    }
+
+    /**
+     * 1 つの hub に送る。受領待ちに入れてから送るので、すぐに受領が来ても取りこぼさない
+     *
+     * @return 送れたら true
+     */
+    private boolean emitTo(Hub hub, Object frame, Object key, Delivery delivery) {
+        AckTracker.Pending pending = null;
+        if (key != null) {
+            final List<Runnable> notices;
+            synchronized (this) {
+                pending = hub.tracker.track(key, frame, delivery);
+                delivery.copies++;
+                notices = settle(hub);
+            }
+            runAll(notices);
+        }
+        final List<Runnable> notices = new ArrayList<>();
+        try {
+            hub.connection.emit(this.event, frame);
+        } catch (RuntimeException e) {
+            if (pending != null) {
+                synchronized (this) {
+                    hub.tracker.cancel(pending);
+                    release(delivery, false, notices);
+                }
+                runAll(notices);
+            }
+            return false;
+        }
+        synchronized (this) {
+            delivery.sent = true;
+            if (pending == null || !hub.tracker.hasAcked()) {
+                // 受領は来ない
+                deliver(delivery, notices);
+            } else {
+                // 送っている間に諦めたかもしれない
+                abandon(delivery, notices);
+            }
+        }
+        runAll(notices);
+        return true;
+    }
+
+    /**
+     * 別の hub から移した受領待ちを送り直す
+     */
+    private void resend(Hub to, AckTracker.Pending pending) {
+        final Delivery delivery = (Delivery) pending.getAttachment();
+        emitTo(to, pending.getFrame(), pending.getKey(), delivery);
+        final List<Runnable> notices = new ArrayList<>();
+        synchronized (this) {
+            // 移す間は残しておいた分
+            release(delivery, false, notices);
+        }
+        runAll(notices);
+    }
+
+    /**
+     * 受領したものと諦めたものの結果を決める。ロックを持って呼び、返り値はロックを離してから実行する
+     *
+     * @return 結果を知らせる処理
+     */
+    private List<Runnable> settle(Hub hub) {
+        final List<Runnable> notices = new ArrayList<>();
+        for (AckTracker.Pending pending : hub.tracker.takeFinished()) {
+            release((Delivery) pending.getAttachment(), pending.isAcked(), notices);
+        }
+        return notices;
+    }
+
+    /**
+     * hub の受領待ちを全て諦める。ロックを持って呼び、返り値はロックを離してから実行する
+     *
+     * @return 結果を知らせる処理
+     */
+    private List<Runnable> lose(Hub hub) {
+        final List<Runnable> notices = settle(hub);
+        for (AckTracker.Pending pending : hub.tracker.drain()) {
+            release((Delivery) pending.getAttachment(), false, notices);
+        }
+        return notices;
+    }
+
+    /**
+     * 受領待ちから 1 つ外れた。受領されたか、どの hub でも受領を待たなくなったら結果を決める
+     */
+    private static void release(Delivery delivery, boolean acked, List<Runnable> notices) {
+        if (delivery == null) {
+            return;
+        }
+        delivery.copies--;
+        if (acked) {
+            deliver(delivery, notices);
+        } else {
+            abandon(delivery, notices);
+        }
+    }
+
+    /**
+     * 送ったのに、どの hub でも受領を待たなくなったら諦める
+     */
+    private static void abandon(Delivery delivery, List<Runnable> notices) {
+        if (delivery.copies <= 0 && delivery.sent && !delivery.settled) {
+            delivery.settled = true;
+            notices.add(delivery.callback::onLost);
+        }
+    }
+
+    private static void deliver(Delivery delivery, List<Runnable> notices) {
+        if (!delivery.settled) {
+            delivery.settled = true;
+            notices.add(delivery.callback::onDelivered);
+        }
+    }
+
+    private static void runAll(List<Runnable> notices) {
+        for (Runnable notice : notices) {
+            notice.run();
+        }
+    }
+
+    /**
+     * 使えなくなった主の代わりを選ぶ。ロックを持って呼び、返り値はロックを離してから実行する
+     *
+     * @param failed 使えなくなった hub
+     * @return 受領されていない分を送り直す処理
+     */
+    private Runnable failover(Hub failed) {
+        final List<Hub> candidates = rank();
+        if (candidates.isEmpty() || candidates.get(0) == failed) {
+            // 代わりが無いので、受領されていない分は諦めて送り直してもらう
+            final List<Runnable> notices = lose(failed);
+            return () -> runAll(notices);
+        }
+        final Hub next = candidates.get(0);
+        this.primary = next;
+        return takeOver(failed, next);
+    }
+
+    /**
+     * 受領されていない分を移す。ロックを持って呼び、返り値はロックを離してから実行する
+     */
+    private Runnable takeOver(Hub from, Hub to) {
+        this.failoverCount++;
+        final List<Runnable> notices = settle(from);
+        // 送り直すまでは受領待ちに数えたままにする
+        final List<AckTracker.Pending> moved = from.tracker.drain();
+        return () -> {
+            runAll(notices);
+            to.sends.post(() -> {
+                for (AckTracker.Pending pending : moved) {
+                    resend(to, pending);
+                }
+            });
+        };
+    }
+
+    /**
+     * 割り込まれても終わるまで待つ
+     */
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 最初に送れるまでの時間を記録する
+     */
+    private synchronized void onSent() {
+        if (this.awaitingFirstReport) {
+            this.awaitingFirstReport = false;
+            this.timeToFirstReport = this.clock.now() - this.reportRequestTime;
+        }
+    }
+
+    private void onConnected(Hub hub) {
+        synchronized (this) {
+            // 繋ぎ直したらもう一度機会を与える
+            hub.suspect = false;
+        }
+    }
+
+    private void onDisconnected(Hub hub) {
+        final Runnable resend;
+        synchronized (this) {
+            if (hub != this.primary) {
+                final List<Runnable> notices = lose(hub);
+                resend = () -> runAll(notices);
+            } else {
+                resend = failover(hub);
+            }
+        }
+        resend.run();
+    }
+
+    /**
+     * @return 接続している hub
+     */
+    private List<Hub> getConnected() {
+        final List<Hub> connected = new ArrayList<>(this.hubs.size());
+        for (Hub hub : this.hubs) {
+            if (hub.connection.isConnected()) {
+                connected.add(hub);
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * @return 接続していて、受領を返さなくなっておらず、受領待ちがいっぱいでなければ true
+     */
+    private static boolean isUsable(Hub hub) {
+        return !hub.suspect && !(hub.tracker.hasAcked() && hub.tracker.isFull()) && hub.connection.isConnected();
+    }
+
+    /**
+     * 送り先の候補を良い順に並べる。今の主は、他がかなり良くない限り先頭に置く。
+     * 使える hub が無ければ、受領を返さなくなった hub も接続していれば候補にする
+     *
+     * @return 送り先の候補
+     */
+    private List<Hub> rank() {
+        final List<Hub> candidates = new ArrayList<>(this.hubs.size());
+        for (Hub hub : this.hubs) {
+            if (isUsable(hub)) {
+                candidates.add(hub);
+            }
+        }
+        if (candidates.isEmpty()) {
+            candidates.addAll(getConnected());
+        }
+        Collections.sort(candidates, (hub1, hub2) -> Double.compare(hub1.getScore(), hub2.getScore()));
+        final Hub primary = this.primary;
+        if (primary != null && candidates.contains(primary) && candidates.get(0) != primary
+                && candidates.get(0).getScore() >= primary.getScore() * SWITCH_RATIO) {
+            candidates.remove(primary);
+            candidates.add(0, primary);
+        }
+        return candidates;
+    }
+
+    /**
+     * 送り先の状態
+     */
+    static final class Status {
+
+        private final int hubCount;
+        private final int connectedCount;
+        private final int primary;
+        private final double roundTripTime;
+        private final double lossRate;
+        private final int pendingCount;
+        private final long retransmitCount;
+        private final long lostCount;
+
+        private Status(int hubCount, int connectedCount, int primary, double roundTripTime, double lossRate, int pendingCount, long retransmitCount, long lostCount) {
+            this.hubCount = hubCount;
+            this.connectedCount = connectedCount;
+            this.primary = primary;
+            this.roundTripTime = roundTripTime;
+            this.lossRate = lossRate;
+            this.pendingCount = pendingCount;
+            this.retransmitCount = retransmitCount;
+            this.lostCount = lostCount;
+        }
+
+        int getHubCount() {
+            return this.hubCount;
+        }
+
+        int getConnectedCount() {
+            return this.connectedCount;
+        }
+
+        /**
+         * @return 主の hub の番号。まだ決まっていなければ -1
+         */
+        int getPrimary() {
+            return this.primary;
+        }
+
+        /**
+         * @return 主の hub の平滑化した往復時間（ミリ秒）。分からなければ NaN
+         */
+        double getRoundTripTime() {
+            return this.roundTripTime;
+        }
+
+        /**
+         * @return 主の hub の損失率
+         */
+        double getLossRate() {
+            return this.lossRate;
+        }
+
+        /**
+         * @return 全ての hub の受領待ちの数
+         */
+        int getPendingCount() {
+            return this.pendingCount;
+        }
+
+        /**
+         * @return 全ての hub に再送した数
+         */
+        long getRetransmitCount() {
+            return this.retransmitCount;
+        }
+
+        /**
+         * @return 全ての hub で受領を諦めた数
+         */
+        long getLostCount() {
+            return this.lostCount;
+        }
+
+    }
+
+    /**
+     * 1 つの hub への送信を、渡された順に 1 つずつ実行する。
+     * 差分で詰めた形は送った順に戻すので、並行して送るものや送り直すものが追い越されないようにする。
+     * 渡す処理は例外を投げないこと
+     */
+    private static final class SendQueue {
+
+        private final Executor executor;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        // 実行している途中か
+        private boolean running;
+
+        private SendQueue(Executor executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * 前のものが終わってから、別のスレッドで実行する。終わるのを待たない
+         */
+        private void post(Runnable task) {
+            synchronized (this) {
+                this.tasks.addLast(task);
+                if (this.running) {
+                    return;
+                }
+                this.running = true;
+            }
+            this.executor.execute(this::drain);
+        }
+
+        /**
+         * 前のものが終わってから実行し、終わるまで待つ。
+         * 前のものが無ければ呼び出したスレッドで実行する
+         */
+        private void run(Runnable task) {
+            final boolean idle;
+            synchronized (this) {
+                idle = !this.running;
+                if (idle) {
+                    this.running = true;
+                }
+            }
+            if (!idle) {
+                final CountDownLatch done = new CountDownLatch(1);
+                post(() -> {
+                    task.run();
+                    done.countDown();
+                });
+                awaitUninterruptibly(done);
+                return;
+            }
+            task.run();
+            synchronized (this) {
+                if (this.tasks.isEmpty()) {
+                    this.running = false;
+                    return;
+                }
+            }
+            // 実行している間に渡されたものは別のスレッドに任せる
+            this.executor.execute(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                final Runnable task;
+                synchronized (this) {
+                    task = this.tasks.pollFirst();
+                    if (task == null) {
+                        this.running = false;
+                        return;
+                    }
+                }
+                task.run();
+            }
+        }
+
+    }
+
+    /**
+     * 1 件の通報データの受領待ち。ロックを持って扱う
+     */
+    private static final class Delivery {
+
+        private final Callback callback;
+        // 受領待ちに入っている hub の数
+        private int copies;
+        // どれかの hub が受け付けたか
+        private boolean sent;
+        // 届いたか諦めたかを知らせたか
+        private boolean settled;
+
+        private Delivery(Callback callback) {
+            this.callback = callback;
+        }
+
+    }
+
+    private static final class Hub {
+
+        private final int index;
+        private final ActorConnection connection;
+        private final AckTracker tracker;
+        private final SendQueue sends;
+        // 受領を返さなくなったか
+        private boolean suspect;
+
+        private Hub(int index, ActorConnection connection, AckTracker tracker, SendQueue sends) {
+            this.index = index;
+            this.connection = connection;
+            this.tracker = tracker;
+            this.sends = sends;
+        }
+
+        /**
+         * @return 小さいほど良い。往復時間が分からなければ接続に掛かった時間で代える
+         */
+        private double getScore() {
+            final double roundTripTime = this.tracker.getSmoothedRtt();
+            if (!Double.isNaN(roundTripTime)) {
+                return roundTripTime;
+            }
+            final long connectTime = this.connection.getConnectTime();
+            return connectTime < 0 ? Double.MAX_VALUE : connectTime;
+        }
+
+    }
+
+}
@@ -0,0 +1,140 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+/**
+ * 最近の測位結果を覚えておき、その中から一番良いものを選ぶ。
+ * 古い測位ほど今の位置からずれているとみなして、精度と古さを合わせて比べる。
+ * 古すぎる測位は使わない。
+ */
+final class LocationCache {
+
+    // 精度が分からない測位の精度とみなす値（メートル）
+    static final double UNKNOWN_ACCURACY = 100;
+    // 測位してからこの速さで精度が落ちていくとみなす（メートル毎秒）
+    static final double DEGRADE_SPEED = 1.0;
+
+    private final long maxAge;
+
+    // 古い順に並べた環状の配列
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] altitudes;
+    private final double[] accuracies;
+    private final long[] times;
+    private int head;
+    private int size;
+
+    /**
+     * @param capacity 覚えておく測位の数
+     * @param maxAge   これより古い測位は使わない（ミリ秒）
+     */
+    LocationCache(int capacity, long maxAge) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.maxAge = maxAge;
+        this.latitudes = new double[capacity];
+        this.longitudes = new double[capacity];
+        this.altitudes = new double[capacity];
+        this.accuracies = new double[capacity];
+        this.times = new long[capacity];
+    }
+
+    /**
+     * 測位結果を加える。一杯なら一番古いものを捨てる
+     *
+     * @param latitude  緯度
+     * @param longitude 経度
+     * @param altitude  高度
+     * @param accuracy  精度（メートル）。分からなければ NaN
+     * @param time      測位した日時（UNIX 時間のミリ秒）
+     */
+    synchronized void offer(double latitude, double longitude, double altitude, double accuracy, long time) {
+        for (int i = 0; i < this.size; i++) {
+            final int index = (this.head + i) % this.times.length;
+            if (this.times[index] == time && Double.compare(this.latitudes[index], latitude) == 0
+                    && Double.compare(this.longitudes[index], longitude) == 0) {
+                // 前回の位置で初期化したときなどに同じ測位が 2 回来る
+                return;
+            }
+        }
+        final int index;
+        if (this.size < this.times.length) {
+            index = (this.head + this.size) % this.times.length;
+            this.size++;
+        } else {
+            index = this.head;
+            this.head = (this.head + 1) % this.times.length;
+        }
+        this.latitudes[index] = latitude;
+        this.longitudes[index] = longitude;
+        this.altitudes[index] = altitude;
+        this.accuracies[index] = accuracy;
+        this.times[index] = time;
+    }
+
+    /**
+     * 一番良い測位を通報データに設定する
+     *
+     * @param now    現在日時（UNIX 時間のミリ秒）
+     * @param report 通報データ
+     * @return 使える測位があって設定したら true
+     */
+    synchronized boolean select(long now, Report report) {
+        int best = -1;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < this.size; i++) {
+            final int index = (this.head + i) % this.times.length;
+            final long age = now - this.times[index];
+            if (age > this.maxAge) {
+                continue;
+            }
+            final double score = score(this.accuracies[index], age);
+            // 同点なら新しい方
+            if (score <= bestScore) {
+                best = index;
+                bestScore = score;
+            }
+        }
+        if (best < 0) {
+            return false;
+        }
+        report.setLocation(this.latitudes[best], this.longitudes[best], this.altitudes[best], this.accuracies[best], this.times[best]);
+        return true;
+    }
+
+    /**
+     * @return 覚えている測位の数
+     */
+    synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * 測位の悪さ。小さいほど良い
+     *
+     * @param accuracy 精度（メートル）。分からなければ NaN
+     * @param age      古さ（ミリ秒）
+     * @return 今の位置とのずれの見込み（メートル）
+     */
+    static double score(double accuracy, long age) {
+        final double base = Double.isNaN(accuracy) ? UNKNOWN_ACCURACY : accuracy;
+        return base + DEGRADE_SPEED * Math.max(0, age) / 1_000.0;
+    }
+
+}
@@ -17,21 +17,20 @@
 package jp.realglobe.sugo.actor.android.call;
 
 import android.Manifest;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.location.Location;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.IBinder;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AppCompatActivity;
-import android.telephony.TelephonyManager;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -40,41 +39,15 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.location.LocationListener;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationServices;
-
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Locale;
-import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicReference;
-
-import jp.realglobe.sugo.actor.Actor;
-import jp.realglobe.sugo.actor.Emitter;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String LOG_TAG = MainActivity.class.getName();
 
-    private static final long LOCATION_DETECTOR_INTERVAL = 10_000L;
-
-    // 送信イベント
-    private static final String EVENT_EMERGENCY = "emergency";
-
-    // 送信データのキー
-    private static final String KEY_LOCATION = "location";
-    private static final String KEY_DATE = "date";
-    private static final String KEY_ID = "id";
-    private static final String KEY_PHONE_NUMBER = "phoneNumber";
-
     private static final int PERMISSION_REQUEST_CODE = 24876;
     private static final String[] REQUIRED_PERMISSIONS = new String[]{
             Manifest.permission.ACCESS_FINE_LOCATION,
@@ -83,92 +56,60 @@ public class MainActivity extends AppCompatActivity {
             Manifest.permission.CALL_PHONE,
     };
 
-    private GoogleApiClient googleApiClient;
-
-    private LinkedList<String> errors;
-
-    // 現在位置
-    private volatile Location location;
-    // 電話番号
-    private volatile String phoneNumber;
+    // 覚えておくエラーの数
+    private static final int ERROR_LOG_CAPACITY = 50;
+    // 通信状態の表示を更新する間隔（ミリ秒）
+    private static final long STATUS_INTERVAL = 1_000L;
+
+    private final ErrorLog errors = new ErrorLog(ERROR_LOG_CAPACITY);
+
+    private ReportService service;
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            MainActivity.this.service = ((ReportService.LocalBinder) binder).getService();
+            MainActivity.this.service.setErrorCallback(MainActivity.this::showError);
+            if (MainActivity.this.service.isReporting()) {
+                // 画面が作り直されても通報は続いている
+                showCalled();
+            }
+        }
 
-    private Actor actor;
-    private int reportId;
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            MainActivity.this.service = null;
+        }
+    };
 
     private TextView messageView;
     private Button callButton;
     private Button talkButton;
     private Button resetButton;
     private TextView errorView;
-    private Handler handler;
-
-    /**
-     * 位置情報取得モジュールを設定
-     *
-     * @param interval      位置情報を何ミリ秒ごとに更新するか
-     * @param context       コンテクスト
-     * @param listener      位置情報を受け取る関数
-     * @param errorCallback エラー時に呼ばれる関数
-     * @return 位置情報取得モジュール
-     */
-    private static GoogleApiClient setupLocationClient(long interval, Context context, LocationListener listener, StringCallback errorCallback) {
-        final AtomicReference<GoogleApiClient> client = new AtomicReference<>();
-        client.set((new GoogleApiClient.Builder(context))
-                .addApi(LocationServices.API)
-                .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                    @Override
-                    public void onConnected(@Nullable Bundle bundle) {
-                        if (ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED &&
-                                ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
-                            return;
-                        }
-                        LocationServices.FusedLocationApi.requestLocationUpdates(
-                                client.get(),
-                                LocationRequest.create()
-                                        .setInterval(interval)
-                                        .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY),
-                                location -> {
-                                    Log.d(LOG_TAG, "Location changed to " + location);
-                                    if (listener != null) {
-                                        listener.onLocationChanged(location);
-                                    }
-                                });
-                        Log.d(LOG_TAG, "Location monitor started");
-                    }
-
-                    @Override
-                    public void onConnectionSuspended(int i) {
-                        Log.d(LOG_TAG, "Location monitor suspended");
-                    }
-                })
-                .addOnConnectionFailedListener(connectionResult -> {
-                    final String warning = "Location detector error: " + connectionResult;
-                    Log.w(LOG_TAG, warning);
-                    if (errorCallback != null) {
-                        errorCallback.call(connectionResult.getErrorMessage());
-                    }
-                })
-                .build());
-        return client.get();
-    }
+    private TextView statusView;
+    private final Runnable statusUpdater = new Runnable() {
+        @Override
+        public void run() {
+            showStatus();
+            MainActivity.this.statusView.postDelayed(this, STATUS_INTERVAL);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTimeline.getInstance().mark(StartupTimeline.PHASE_LAUNCH);
 
         // 初回に actor ID を生成する
         final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
         final String actorSuffix = preferences.getString(getString(R.string.key_actor_suffix), null);
         if (actorSuffix == null) {
             preferences.edit().putString(getString(R.string.key_actor_suffix), String.valueOf(Math.abs((new Random(System.currentTimeMillis())).nextInt()))).apply();
+            ReportConfigStore.getInstance(this).reload();
         }
 
-        // 位置情報の取得準備
-        this.googleApiClient = setupLocationClient(LOCATION_DETECTOR_INTERVAL, this, location -> this.location = location, this::showError);
-
-        this.errors = new LinkedList<>();
-
-        this.reportId = Math.abs((new Random(System.currentTimeMillis())).nextInt());
+        // 報告はサービスで行う
+        bindService(new Intent(this, ReportService.class), this.serviceConnection, Context.BIND_AUTO_CREATE);
 
         setContentView(R.layout.activity_main);
 
@@ -177,25 +118,38 @@ public class MainActivity extends AppCompatActivity {
         this.talkButton = (Button) findViewById(R.id.button_talk);
         this.resetButton = (Button) findViewById(R.id.button_reset);
         this.errorView = (TextView) findViewById(R.id.text_error);
-        this.handler = new Handler();
+        this.statusView = (TextView) findViewById(R.id.text_status);
 
         this.callButton.setOnClickListener(view -> call());
         this.talkButton.setOnClickListener(view -> talk());
         this.resetButton.setOnClickListener(view -> reset());
 
-        reset();
+        showIdle();
 
         checkPermission();
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+        this.statusView.post(this.statusUpdater);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        this.statusView.removeCallbacks(this.statusUpdater);
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (this.actor != null) {
-            this.actor.disconnect();
-            this.actor = null;
+        if (this.service != null) {
+            this.service.setErrorCallback(null);
+            this.service = null;
         }
-        this.googleApiClient.disconnect();
+        // 画面が作り直されるだけのこともあるので、通報は止めない
+        unbindService(this.serviceConnection);
     }
 
     @Override
@@ -225,6 +179,22 @@ public class MainActivity extends AppCompatActivity {
         this.errorView.post(() -> this.errorView.setText(error));
     }
 
+    /**
+     * hub との通信状態を表示する
+     */
+    private void showStatus() {
+        final ReportService service = this.service;
+        if (service == null) {
+            this.statusView.setText("");
+            return;
+        }
+        final HubDispatcher.Status status = service.getLinkStatus();
+        final double roundTripTime = status.getRoundTripTime();
+        this.statusView.setText(getString(R.string.status_link, status.getConnectedCount(), status.getHubCount(),
+                Double.isNaN(roundTripTime) ? getString(R.string.status_unknown) : String.valueOf(Math.round(roundTripTime)),
+                Math.round(100 * status.getLossRate()), status.getPendingCount()));
+    }
+
     /**
      * 必要な許可を取得しているか調べて、取得していなかったら要求する
      */
@@ -234,6 +204,7 @@ public class MainActivity extends AppCompatActivity {
             this.requestPermissions(REQUIRED_PERMISSIONS, PERMISSION_REQUEST_CODE);
         } else {
             showPermissionStatus(true);
+            warmUp();
         }
     }
 
@@ -254,13 +225,16 @@ public class MainActivity extends AppCompatActivity {
             required.remove(permissions[i]);
         }
 
-        if (!required.contains(Manifest.permission.READ_SMS)) {
-            final TelephonyManager manager = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
-            this.phoneNumber = manager.getLine1Number();
-            Log.i(LOG_TAG, "Phone number is " + this.phoneNumber);
-        }
-
         showPermissionStatus(required.isEmpty());
+        warmUp();
+    }
+
+    /**
+     * 許可が分かったので、通報を待たずに準備を始める
+     */
+    private void warmUp() {
+        StartupTimeline.getInstance().mark(StartupTimeline.PHASE_PERMISSIONS);
+        startService(new Intent(this, ReportService.class).setAction(ReportService.ACTION_WARM_UP));
     }
 
     /**
@@ -279,12 +253,16 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private synchronized void reset() {
-        if (this.actor != null) {
-            this.actor.disconnect();
-            this.actor = null;
+        if (this.service != null) {
+            this.service.stop();
         }
-        this.googleApiClient.disconnect();
+        showIdle();
+    }
 
+    /**
+     * 通報していないときの表示にする
+     */
+    private void showIdle() {
         this.messageView.setText("");
 
         this.callButton.setEnabled(true);
@@ -298,6 +276,15 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private synchronized void call() {
+        showCalled();
+        report();
+        talk();
+    }
+
+    /**
+     * 通報中の表示にする
+     */
+    private void showCalled() {
         this.messageView.setText(getString(R.string.message_called));
 
         this.callButton.setEnabled(false);
@@ -308,70 +295,21 @@ public class MainActivity extends AppCompatActivity {
 
         this.resetButton.setEnabled(true);
         this.resetButton.setVisibility(View.VISIBLE);
-
-        if (!(this.googleApiClient.isConnecting() || this.googleApiClient.isConnected())) {
-            this.googleApiClient.connect();
-        }
-        report();
-        talk();
     }
 
     /**
-     * 通報データを hub に送る
+     * 通報データを hub に送り始める
      */
     private void report() {
-        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
-        final String server = preferences.getString(getString(R.string.key_server), getString(R.string.default_server));
-        final String key = getString(R.string.actor_prefix) + preferences.getString(getString(R.string.key_actor_suffix), getString(R.string.default_actor_suffix));
-
-        this.actor = new Actor(key, getString(R.string.name), null);
-        final Emitter emitter;
-        try {
-            emitter = this.actor.addModule(getString(R.string.name), getPackageManager().getPackageInfo(this.getPackageName(), 0).versionName, getString(R.string.description), new Object());
-        } catch (PackageManager.NameNotFoundException e) {
-            throw new RuntimeException();
-        }
-        this.actor.setOnConnect(() -> reportRoutine(emitter, nextReportId()));
-        this.actor.connect(server);
-    }
-
-    private synchronized int nextReportId() {
-        if (this.reportId < 0) {
-            this.reportId = 0;
-        }
-        return this.reportId++;
-    }
-
-    private void reportRoutine(Emitter emitter, int reportId) {
-        if (this.actor == null) {
-            // 終了
-            return;
-        }
-
-        final Map<String, Object> data = new HashMap<>();
-        data.put(KEY_ID, reportId);
-        data.put(KEY_DATE, (new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZZZZZ", Locale.US)).format(new Date()));
-        final Location curLocation = this.location;
-        if (curLocation != null) {
-            data.put(KEY_LOCATION, Arrays.asList(curLocation.getLatitude(), curLocation.getLongitude(), curLocation.getAltitude()));
-        } else {
-            data.put(KEY_LOCATION, null);
-        }
-        data.put(KEY_PHONE_NUMBER, this.phoneNumber);
-        emitter.emit(EVENT_EMERGENCY, data);
-        Log.d(LOG_TAG, "Sent report");
-
-        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
-        final long interval = 1_000L * Long.parseLong(preferences.getString(getString(R.string.key_report_interval), String.valueOf(getResources().getInteger(R.integer.default_report_interval))));
-        this.handler.postDelayed(() -> reportRoutine(emitter, reportId), interval);
+        // 電話番号はサービスが調べる
+        startService(new Intent(this, ReportService.class).setAction(ReportService.ACTION_START));
     }
 
     /**
      * 電話を掛ける
      */
     private void talk() {
-        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
-        final String phoneNumber = preferences.getString(getString(R.string.key_phone_number), null);
+        final String phoneNumber = ReportConfigStore.getInstance(this).get().getPhoneNumber();
         if (phoneNumber == null) {
             Log.e(LOG_TAG, "No phone number");
             showError("通報先電話番号が設定されていません");
@@ -385,9 +323,4 @@ public class MainActivity extends AppCompatActivity {
         startActivity(new Intent(Intent.ACTION_CALL, Uri.parse("tel:" + phoneNumber)));
     }
 
-
-    private interface StringCallback {
-        void call(String error);
-    }
-
 }
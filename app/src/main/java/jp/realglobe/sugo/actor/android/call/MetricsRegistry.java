@@ -0,0 +1,115 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 動作状況の計測値を名前で管理する。
+ * 数は {@link AtomicLong} で、分布は {@link Histogram} で数えるので、報告の処理を待たせない。
+ * まとめて hub に送れる形にできる。
+ */
+final class MetricsRegistry {
+
+    /**
+     * その時々の値
+     */
+    interface Gauge {
+        long get();
+    }
+
+    // 送信イベント
+    static final String EVENT_METRICS = "metrics";
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * @param name 名前
+     * @return その名前の数。無ければ作る
+     */
+    AtomicLong counter(String name) {
+        final AtomicLong counter = this.counters.get(name);
+        if (counter != null) {
+            return counter;
+        }
+        final AtomicLong created = new AtomicLong();
+        final AtomicLong existing = this.counters.putIfAbsent(name, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * @param name 名前
+     * @return その名前の分布。無ければ作る
+     */
+    Histogram histogram(String name) {
+        final Histogram histogram = this.histograms.get(name);
+        if (histogram != null) {
+            return histogram;
+        }
+        final Histogram created = new Histogram();
+        final Histogram existing = this.histograms.putIfAbsent(name, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * @param name  名前
+     * @param gauge 値を返すもの
+     */
+    void gauge(String name, Gauge gauge) {
+        this.gauges.put(name, gauge);
+    }
+
+    /**
+     * 送信用のデータにする。
+     * 数は累計を、分布は前回からの分を返す
+     *
+     * @return 送信用のデータ
+     */
+    Map<String, Object> export() {
+        final Map<String, Object> counters = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : this.counters.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : this.gauges.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().get());
+        }
+        final Map<String, Object> histograms = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : this.histograms.entrySet()) {
+            final Histogram.Snapshot snapshot = entry.getValue().snapshot(true);
+            final Map<String, Object> summary = new HashMap<>();
+            summary.put("count", snapshot.getCount());
+            summary.put("mean", snapshot.getMean());
+            summary.put("p50", snapshot.getValueAtQuantile(0.5));
+            summary.put("p90", snapshot.getValueAtQuantile(0.9));
+            summary.put("p99", snapshot.getValueAtQuantile(0.99));
+            summary.put("max", snapshot.getMax());
+            histograms.put(entry.getKey(), summary);
+        }
+        final Map<String, Object> data = new HashMap<>();
+        data.put("counters", counters);
+        data.put("histograms", histograms);
+        return data;
+    }
+
+}
@@ -0,0 +1,313 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 送るものを優先度ごとの列に分け、専用のスレッドで優先度の高い列から送る。
+ * 混んでいても、通報の最初の報告が定期的な報告や計測値の後ろで待たないようにする。
+ * <p>
+ * 列ごとに長さの上限があり、溢れたときの扱いが違う。
+ * <ul>
+ * <li>{@link Overflow#REJECT}: 受け付けない。呼び出し側が持ち続け、空いたら {@link Listener#onAvailable} で知らせる</li>
+ * <li>{@link Overflow#DROP_OLDEST}: 一番古いものを捨てる</li>
+ * </ul>
+ * 通報データは送り終わるまで呼び出し側のジャーナルに残っているので、列からは捨てない。
+ */
+final class PriorityLanes {
+
+    enum Overflow {
+        REJECT,
+        DROP_OLDEST,
+    }
+
+    /**
+     * 列。先に書いたものほど優先する
+     */
+    enum Lane {
+        // 通報の最初の報告
+        ALERT(16, Overflow.REJECT),
+        // 位置などが変わった報告
+        STATE_CHANGE(64, Overflow.REJECT),
+        // 変わらない状態の定期的な報告と、前の通報の溜まっていた報告
+        REFRESH(64, Overflow.REJECT),
+        // 計測値
+        DIAGNOSTICS(4, Overflow.DROP_OLDEST);
+
+        private final int capacity;
+        private final Overflow overflow;
+
+        Lane(int capacity, Overflow overflow) {
+            this.capacity = capacity;
+            this.overflow = overflow;
+        }
+
+        int getCapacity() {
+            return this.capacity;
+        }
+
+        Overflow getOverflow() {
+            return this.overflow;
+        }
+    }
+
+    /**
+     * 実際に送る。送れなければ例外を投げる。
+     * 返ったら送り終わったとみなす
+     */
+    interface Sender {
+        void send(Lane lane, Object frame);
+    }
+
+    /**
+     * ロックを持たずに送信スレッドから呼ばれる
+     */
+    interface Listener {
+        /**
+         * 送れなかった。取り出したものは列に戻さない
+         */
+        void onFailure(Lane lane, Object frame, RuntimeException e);
+
+        /**
+         * 受け付けなかった列が空いた
+         */
+        void onAvailable(Lane lane);
+    }
+
+    private static final Lane[] LANES = Lane.values();
+
+    private static final class Entry {
+        private final Object frame;
+        private final long enqueueTime;
+
+        private Entry(Object frame, long enqueueTime) {
+            this.frame = frame;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    private final Sender sender;
+    private final Listener listener;
+    private final Map<Lane, Histogram> queueDelays;
+
+    private final List<ArrayDeque<Entry>> queues = new ArrayList<>();
+    private final boolean[] rejecting = new boolean[LANES.length];
+    private final long[] sentCounts = new long[LANES.length];
+    private final long[] droppedCounts = new long[LANES.length];
+    private final long[] rejectedCounts = new long[LANES.length];
+    private final long[] failureCounts = new long[LANES.length];
+
+    private Thread thread;
+    private boolean running;
+    // 送っている途中なら true
+    private boolean sending;
+
+    /**
+     * @param sender      実際に送るもの
+     * @param listener    送れなかったときと、列が空いたときの通知先
+     * @param queueDelays 列ごとの待ち時間（マイクロ秒）を記録する先。記録しない列は入れない
+     */
+    PriorityLanes(Sender sender, Listener listener, Map<Lane, Histogram> queueDelays) {
+        this.sender = sender;
+        this.listener = listener;
+        this.queueDelays = new EnumMap<>(Lane.class);
+        this.queueDelays.putAll(queueDelays);
+        for (Lane lane : LANES) {
+            this.queues.add(new ArrayDeque<>(lane.capacity));
+        }
+    }
+
+    /**
+     * 送信スレッドを始める
+     *
+     * @param threadName スレッド名
+     */
+    synchronized void start(String threadName) {
+        if (this.running) {
+            return;
+        }
+        this.running = true;
+        this.thread = new Thread(this::run, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 送信スレッドを終わらせる。列に残っているものは捨てる
+     */
+    void shutdown() {
+        final Thread thread;
+        synchronized (this) {
+            this.running = false;
+            thread = this.thread;
+            this.thread = null;
+            notifyAll();
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * 列に入れる。待たない
+     *
+     * @param lane  列
+     * @param frame 送るもの
+     * @return 受け付けなかったら false
+     */
+    synchronized boolean offer(Lane lane, Object frame) {
+        final ArrayDeque<Entry> queue = this.queues.get(lane.ordinal());
+        final long now = System.nanoTime();
+        if (queue.size() >= lane.capacity) {
+            switch (lane.overflow) {
+                case REJECT:
+                    this.rejecting[lane.ordinal()] = true;
+                    this.rejectedCounts[lane.ordinal()]++;
+                    return false;
+                case DROP_OLDEST:
+                    queue.pollFirst();
+                    this.droppedCounts[lane.ordinal()]++;
+                    break;
+            }
+        }
+        queue.addLast(new Entry(frame, now));
+        notifyAll();
+        return true;
+    }
+
+    private void run() {
+        while (true) {
+            final Lane lane;
+            final Entry entry;
+            final boolean available;
+            synchronized (this) {
+                Lane next = null;
+                while (this.running && (next = nextLane()) == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // running を見直す
+                    }
+                }
+                if (!this.running) {
+                    return;
+                }
+                lane = next;
+                entry = this.queues.get(lane.ordinal()).pollFirst();
+                available = this.rejecting[lane.ordinal()];
+                this.rejecting[lane.ordinal()] = false;
+                this.sending = true;
+            }
+
+            final Histogram queueDelay = this.queueDelays.get(lane);
+            if (queueDelay != null) {
+                queueDelay.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - entry.enqueueTime));
+            }
+            RuntimeException failure = null;
+            try {
+                this.sender.send(lane, entry.frame);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            synchronized (this) {
+                this.sending = false;
+                if (failure == null) {
+                    this.sentCounts[lane.ordinal()]++;
+                } else {
+                    this.failureCounts[lane.ordinal()]++;
+                }
+                notifyAll();
+            }
+            if (failure != null) {
+                this.listener.onFailure(lane, entry.frame, failure);
+            }
+            if (available) {
+                this.listener.onAvailable(lane);
+            }
+        }
+    }
+
+    private Lane nextLane() {
+        for (Lane lane : LANES) {
+            if (!this.queues.get(lane.ordinal()).isEmpty()) {
+                return lane;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 列が全て空になるまで待つ
+     *
+     * @param timeout 最大の待ち時間（ミリ秒）
+     * @return 空になったら true
+     * @throws InterruptedException 割り込まれた
+     */
+    synchronized boolean awaitEmpty(long timeout) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeout;
+        while (this.sending || nextLane() != null) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * @return 列で待っている数
+     */
+    synchronized int getPendingCount(Lane lane) {
+        return this.queues.get(lane.ordinal()).size();
+    }
+
+    /**
+     * @return 送った数
+     */
+    synchronized long getSentCount(Lane lane) {
+        return this.sentCounts[lane.ordinal()];
+    }
+
+    /**
+     * @return 溢れたので捨てた数
+     */
+    synchronized long getDroppedCount(Lane lane) {
+        return this.droppedCounts[lane.ordinal()];
+    }
+
+    /**
+     * @return 溢れたので受け付けなかった数
+     */
+    synchronized long getRejectedCount(Lane lane) {
+        return this.rejectedCounts[lane.ordinal()];
+    }
+
+    /**
+     * @return 送れなかった数
+     */
+    synchronized long getFailureCount(Lane lane) {
+        return this.failureCounts[lane.ordinal()];
+    }
+
+}
@@ -0,0 +1,216 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 1 回分の通報データ。
+ * 使い回せるように値はすべて書き換えられる。
+ */
+final class Report {
+
+    // 送信イベント
+    static final String EVENT_EMERGENCY = "emergency";
+
+    // 送信データのキー
+    static final String KEY_LOCATION = "location";
+    static final String KEY_LOCATION_ACCURACY = "locationAccuracy";
+    static final String KEY_LOCATION_AGE = "locationAge";
+    static final String KEY_DATE = "date";
+    static final String KEY_ID = "id";
+    static final String KEY_PHONE_NUMBER = "phoneNumber";
+    static final String KEY_REPORT_KEY = "reportKey";
+
+    private int id;
+    private long time;
+    private final char[] date = new char[Rfc3339Formatter.MAX_LENGTH];
+    private int dateLength;
+    private boolean hasLocation;
+    private double latitude;
+    private double longitude;
+    private double altitude;
+    private double locationAccuracy = Double.NaN;
+    private long locationTime;
+    private String phoneNumber;
+
+    int getId() {
+        return this.id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return 日時（UNIX 時間のミリ秒）
+     */
+    long getTime() {
+        return this.time;
+    }
+
+    /**
+     * 日時を設定する
+     *
+     * @param time      日時（UNIX 時間のミリ秒）
+     * @param formatter 文字列にするもの
+     */
+    void setTime(long time, Rfc3339Formatter formatter) {
+        this.time = time;
+        this.dateLength = formatter.format(time, this.date, 0);
+    }
+
+    /**
+     * @return RFC3339 形式の日時
+     */
+    String getDate() {
+        return new String(this.date, 0, this.dateLength);
+    }
+
+    boolean hasLocation() {
+        return this.hasLocation;
+    }
+
+    double getLatitude() {
+        return this.latitude;
+    }
+
+    double getLongitude() {
+        return this.longitude;
+    }
+
+    double getAltitude() {
+        return this.altitude;
+    }
+
+    /**
+     * @return 位置の精度（メートル）。分からなければ NaN
+     */
+    double getLocationAccuracy() {
+        return this.locationAccuracy;
+    }
+
+    /**
+     * @return 測位した日時（UNIX 時間のミリ秒）
+     */
+    long getLocationTime() {
+        return this.locationTime;
+    }
+
+    /**
+     * 位置を設定する
+     *
+     * @param latitude     緯度
+     * @param longitude    経度
+     * @param altitude     高度
+     * @param accuracy     精度（メートル）。分からなければ NaN
+     * @param locationTime 測位した日時（UNIX 時間のミリ秒）
+     */
+    void setLocation(double latitude, double longitude, double altitude, double accuracy, long locationTime) {
+        this.hasLocation = true;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+        this.locationAccuracy = accuracy;
+        this.locationTime = locationTime;
+    }
+
+    void clearLocation() {
+        this.hasLocation = false;
+        this.latitude = 0;
+        this.longitude = 0;
+        this.altitude = 0;
+        this.locationAccuracy = Double.NaN;
+        this.locationTime = 0;
+    }
+
+    String getPhoneNumber() {
+        return this.phoneNumber;
+    }
+
+    void setPhoneNumber(String phoneNumber) {
+        this.phoneNumber = phoneNumber;
+    }
+
+    /**
+     * 受け取る側が重複を捨てるためのキーを作る。
+     * 同じ通報の同じ時刻の報告は、どの hub から届いても同じキーになる
+     *
+     * @param id   通報の識別番号
+     * @param time 日時（UNIX 時間のミリ秒）
+     * @return キー
+     */
+    static String reportKey(Object id, long time) {
+        return id + "-" + time;
+    }
+
+    /**
+     * 位置と電話番号が同じか調べる。位置の精度と古さは比べない
+     *
+     * @param other 比べる相手
+     * @return 同じなら true
+     */
+    boolean hasSameState(Report other) {
+        if (this.hasLocation != other.hasLocation) {
+            return false;
+        } else if (this.hasLocation && (Double.compare(this.latitude, other.latitude) != 0
+                || Double.compare(this.longitude, other.longitude) != 0
+                || Double.compare(this.altitude, other.altitude) != 0)) {
+            return false;
+        }
+        return this.phoneNumber == null ? other.phoneNumber == null : this.phoneNumber.equals(other.phoneNumber);
+    }
+
+    /**
+     * 中身を写す
+     *
+     * @param other 写し元
+     */
+    void copyFrom(Report other) {
+        this.id = other.id;
+        this.time = other.time;
+        System.arraycopy(other.date, 0, this.date, 0, other.dateLength);
+        this.dateLength = other.dateLength;
+        this.hasLocation = other.hasLocation;
+        this.latitude = other.latitude;
+        this.longitude = other.longitude;
+        this.altitude = other.altitude;
+        this.locationAccuracy = other.locationAccuracy;
+        this.locationTime = other.locationTime;
+        this.phoneNumber = other.phoneNumber;
+    }
+
+    /**
+     * 送信用のデータにする
+     *
+     * @return 送信用のデータ
+     */
+    Map<String, Object> toMap() {
+        final Map<String, Object> data = new HashMap<>();
+        data.put(KEY_ID, this.id);
+        data.put(KEY_DATE, getDate());
+        data.put(KEY_LOCATION, this.hasLocation ? Arrays.asList(this.latitude, this.longitude, this.altitude) : null);
+        data.put(KEY_LOCATION_ACCURACY, (!this.hasLocation || Double.isNaN(this.locationAccuracy)) ? null : this.locationAccuracy);
+        data.put(KEY_LOCATION_AGE, this.hasLocation ? Math.max(0L, this.time - this.locationTime) : null);
+        data.put(KEY_PHONE_NUMBER, this.phoneNumber);
+        data.put(KEY_REPORT_KEY, reportKey(this.id, this.time));
+        return data;
+    }
+
+}
@@ -0,0 +1,50 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+/**
+ * 通報データを作る。
+ * 毎回同じ {@link Report} を書き換えて返すので、返り値は次に呼ぶまでに使い終えること。
+ */
+final class ReportBuilder {
+
+    private final Rfc3339Formatter formatter;
+    private final Report report = new Report();
+
+    /**
+     * @param formatter 日時を文字列にするもの
+     */
+    ReportBuilder(Rfc3339Formatter formatter) {
+        this.formatter = formatter;
+    }
+
+    /**
+     * 新しい通報データを始める。位置と電話番号は空になる
+     *
+     * @param id   通報の識別番号
+     * @param time 日時（UNIX 時間のミリ秒）
+     * @return 通報データ
+     */
+    Report start(int id, long time) {
+        this.report.setId(id);
+        this.report.setTime(time, this.formatter);
+        this.report.clearLocation();
+        this.report.setPhoneNumber(null);
+        return this.report;
+    }
+
+}
@@ -0,0 +1,280 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 設定値のスナップショット。
+ * 変更できないので、どのスレッドからもロックせずに読める。
+ * 設定が変わったら作り直して差し替える。
+ */
+final class ReportConfig {
+
+    private final List<String> servers;
+    private final String actorKey;
+    private final String phoneNumber;
+    private final long minReportInterval;
+    private final long maxReportInterval;
+    private final long minLocationInterval;
+    private final long maxLocationInterval;
+    private final long batchAge;
+    private final double trackTolerance;
+    private final boolean compact;
+    private final boolean binary;
+    private final boolean lowPower;
+
+    private ReportConfig(Builder builder) {
+        this.servers = builder.servers;
+        this.actorKey = builder.actorKey;
+        this.phoneNumber = builder.phoneNumber;
+        this.minReportInterval = builder.minReportInterval;
+        this.maxReportInterval = builder.maxReportInterval;
+        this.minLocationInterval = builder.minLocationInterval;
+        this.maxLocationInterval = builder.maxLocationInterval;
+        this.batchAge = builder.batchAge;
+        this.trackTolerance = builder.trackTolerance;
+        this.compact = builder.compact;
+        this.binary = builder.binary;
+        this.lowPower = builder.lowPower;
+    }
+
+    /**
+     * @return 通報先 sugo-hub の URL。1 つ以上ある
+     */
+    List<String> getServers() {
+        return this.servers;
+    }
+
+    /**
+     * @return sugo-actor としてのキー
+     */
+    String getActorKey() {
+        return this.actorKey;
+    }
+
+    /**
+     * @return 通報先電話番号。設定されていなければ null
+     */
+    String getPhoneNumber() {
+        return this.phoneNumber;
+    }
+
+    /**
+     * @return 最短の報告間隔（ミリ秒）
+     */
+    long getMinReportInterval() {
+        return this.minReportInterval;
+    }
+
+    /**
+     * @return 最長の報告間隔（ミリ秒）
+     */
+    long getMaxReportInterval() {
+        return this.maxReportInterval;
+    }
+
+    /**
+     * @return 最短の位置情報の取得間隔（ミリ秒）
+     */
+    long getMinLocationInterval() {
+        return this.minLocationInterval;
+    }
+
+    /**
+     * @return 最長の位置情報の取得間隔（ミリ秒）
+     */
+    long getMaxLocationInterval() {
+        return this.maxLocationInterval;
+    }
+
+    /**
+     * @return 状態が変わらなくても報告する間隔（ミリ秒）
+     */
+    long getBatchAge() {
+        return this.batchAge;
+    }
+
+    /**
+     * @return 移動の軌跡を間引くときに許す位置のずれ（メートル）
+     */
+    double getTrackTolerance() {
+        return this.trackTolerance;
+    }
+
+    /**
+     * @return 差分で詰めた形で送るなら true
+     */
+    boolean isCompact() {
+        return this.compact;
+    }
+
+    /**
+     * @return バイト列に詰めた形で送るなら true。{@link #isCompact()} より優先する
+     */
+    boolean isBinary() {
+        return this.binary;
+    }
+
+    /**
+     * @return 省電力モードなら true
+     */
+    boolean isLowPower() {
+        return this.lowPower;
+    }
+
+    /**
+     * 設定値の文字列から作る。
+     * 値がおかしければ {@link IllegalArgumentException} を投げる
+     */
+    static final class Builder {
+
+        private List<String> servers;
+        private String actorKey;
+        private String phoneNumber;
+        private long minReportInterval;
+        private long maxReportInterval;
+        private long minLocationInterval;
+        private long maxLocationInterval;
+        private long batchAge;
+        private double trackTolerance;
+        private boolean compact;
+        private boolean binary;
+        private boolean lowPower;
+
+        /**
+         * @param servers 改行かカンマで区切った URL
+         */
+        Builder setServers(String servers) {
+            final List<String> list = new ArrayList<>();
+            for (String server : (servers == null ? "" : servers).split("[,\\s]+")) {
+                if (server.isEmpty()) {
+                    continue;
+                } else if (!(server.startsWith("http://") || server.startsWith("https://"))) {
+                    throw new IllegalArgumentException("URL は http:// か https:// で始めてください");
+                } else if (!list.contains(server)) {
+                    list.add(server);
+                }
+            }
+            if (list.isEmpty()) {
+                throw new IllegalArgumentException("URL を入力してください");
+            }
+            this.servers = Collections.unmodifiableList(list);
+            return this;
+        }
+
+        Builder setActorKey(String actorKey) {
+            if (actorKey == null || actorKey.isEmpty()) {
+                throw new IllegalArgumentException("ID を入力してください");
+            }
+            this.actorKey = actorKey;
+            return this;
+        }
+
+        Builder setPhoneNumber(String phoneNumber) {
+            this.phoneNumber = (phoneNumber == null || phoneNumber.isEmpty()) ? null : phoneNumber;
+            return this;
+        }
+
+        Builder setMinReportInterval(String seconds) {
+            this.minReportInterval = parseSeconds(seconds);
+            return this;
+        }
+
+        Builder setMaxReportInterval(String seconds) {
+            this.maxReportInterval = parseSeconds(seconds);
+            return this;
+        }
+
+        Builder setMinLocationInterval(String seconds) {
+            this.minLocationInterval = parseSeconds(seconds);
+            return this;
+        }
+
+        Builder setMaxLocationInterval(String seconds) {
+            this.maxLocationInterval = parseSeconds(seconds);
+            return this;
+        }
+
+        Builder setBatchAge(String seconds) {
+            this.batchAge = parseSeconds(seconds);
+            return this;
+        }
+
+        Builder setTrackTolerance(String meters) {
+            this.trackTolerance = parsePositive(meters, 10_000L);
+            return this;
+        }
+
+        Builder setCompact(boolean compact) {
+            this.compact = compact;
+            return this;
+        }
+
+        Builder setBinary(boolean binary) {
+            this.binary = binary;
+            return this;
+        }
+
+        Builder setLowPower(boolean lowPower) {
+            this.lowPower = lowPower;
+            return this;
+        }
+
+        ReportConfig build() {
+            if (this.servers == null || this.actorKey == null || this.minReportInterval == 0 || this.maxReportInterval == 0
+                    || this.minLocationInterval == 0 || this.maxLocationInterval == 0 || this.batchAge == 0
+                    || this.trackTolerance == 0) {
+                throw new IllegalStateException("Not all values are set");
+            }
+            if (this.maxReportInterval < this.minReportInterval) {
+                throw new IllegalArgumentException("最長報告間隔は最短報告間隔以上にしてください");
+            }
+            if (this.maxLocationInterval < this.minLocationInterval) {
+                throw new IllegalArgumentException("最長位置取得間隔は最短位置取得間隔以上にしてください");
+            }
+            return new ReportConfig(this);
+        }
+
+        /**
+         * 秒数を読む
+         *
+         * @param seconds 秒数の文字列
+         * @return ミリ秒
+         */
+        private static long parseSeconds(String seconds) {
+            return 1_000L * parsePositive(seconds, Long.MAX_VALUE / 1_000L);
+        }
+
+        private static long parsePositive(String value, long max) {
+            final long number;
+            try {
+                number = Long.parseLong(value == null ? "" : value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("数値を入力してください");
+            }
+            if (number <= 0 || number > max) {
+                throw new IllegalArgumentException("正の数値を入力してください");
+            }
+            return number;
+        }
+
+    }
+
+}
@@ -0,0 +1,179 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 設定値のスナップショットを持つ。
+ * 設定画面で値が変わったら読み直して差し替える。
+ */
+final class ReportConfigStore {
+
+    private static final String LOG_TAG = ReportConfigStore.class.getName();
+
+    /**
+     * 設定値が変わったときに呼ばれる
+     */
+    interface Listener {
+        void onChanged(ReportConfig config);
+    }
+
+    private static ReportConfigStore instance;
+
+    private final Context context;
+    private final AtomicReference<ReportConfig> config = new AtomicReference<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param context コンテクスト
+     * @return アプリケーションで 1 つの設定値
+     */
+    static synchronized ReportConfigStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReportConfigStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ReportConfigStore(Context context) {
+        this.context = context;
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        ReportConfig config;
+        try {
+            config = read(preferences, null, null);
+        } catch (IllegalArgumentException e) {
+            // 以前の版で保存されたおかしな値は既定値にする
+            Log.w(LOG_TAG, "Invalid preference: " + e.getMessage());
+            config = readDefaults();
+        }
+        this.config.set(config);
+    }
+
+    /**
+     * @return 現在の設定値
+     */
+    ReportConfig get() {
+        return this.config.get();
+    }
+
+    /**
+     * 設定を読み直す。おかしな値があれば今の値のままにする
+     */
+    void reload() {
+        final ReportConfig config;
+        try {
+            config = read(PreferenceManager.getDefaultSharedPreferences(this.context), null, null);
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Invalid preference: " + e.getMessage());
+            return;
+        }
+        this.config.set(config);
+        for (Listener listener : this.listeners) {
+            listener.onChanged(config);
+        }
+    }
+
+    /**
+     * 設定値を変えてよいか調べる
+     *
+     * @param key   キー
+     * @param value 新しい値
+     * @return おかしければその理由。よければ null
+     */
+    String validate(String key, String value) {
+        try {
+            read(PreferenceManager.getDefaultSharedPreferences(this.context), key, value);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    void addListener(Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * 設定値を読む
+     *
+     * @param preferences   設定
+     * @param overrideKey   差し替えるキー。無ければ null
+     * @param overrideValue 差し替える値
+     * @return 設定値
+     */
+    private ReportConfig read(SharedPreferences preferences, String overrideKey, String overrideValue) {
+        final ValueReader reader = (keyId, defaultValue) -> {
+            final String key = this.context.getString(keyId);
+            if (key.equals(overrideKey)) {
+                return overrideValue;
+            }
+            return preferences.getString(key, defaultValue);
+        };
+        return (new ReportConfig.Builder())
+                .setServers(reader.read(R.string.key_server, this.context.getString(R.string.default_server)))
+                .setActorKey(this.context.getString(R.string.actor_prefix) + reader.read(R.string.key_actor_suffix, this.context.getString(R.string.default_actor_suffix)))
+                .setPhoneNumber(reader.read(R.string.key_phone_number, null))
+                .setMinReportInterval(reader.read(R.string.key_report_interval, getDefaultInteger(R.integer.default_report_interval)))
+                .setMaxReportInterval(reader.read(R.string.key_report_interval_max, getDefaultInteger(R.integer.default_report_interval_max)))
+                .setMinLocationInterval(reader.read(R.string.key_location_interval_min, getDefaultInteger(R.integer.default_location_interval_min)))
+                .setMaxLocationInterval(reader.read(R.string.key_location_interval_max, getDefaultInteger(R.integer.default_location_interval_max)))
+                .setBatchAge(reader.read(R.string.key_report_batch_age, getDefaultInteger(R.integer.default_report_batch_age)))
+                .setTrackTolerance(reader.read(R.string.key_track_tolerance, getDefaultInteger(R.integer.default_track_tolerance)))
+                .setCompact(preferences.getBoolean(this.context.getString(R.string.key_compact), this.context.getResources().getBoolean(R.bool.default_compact)))
+                .setBinary(preferences.getBoolean(this.context.getString(R.string.key_binary), this.context.getResources().getBoolean(R.bool.default_binary)))
+                .setLowPower(preferences.getBoolean(this.context.getString(R.string.key_low_power), this.context.getResources().getBoolean(R.bool.default_low_power)))
+                .build();
+    }
+
+    private ReportConfig readDefaults() {
+        return (new ReportConfig.Builder())
+                .setServers(this.context.getString(R.string.default_server))
+                .setActorKey(this.context.getString(R.string.actor_prefix) + this.context.getString(R.string.default_actor_suffix))
+                .setPhoneNumber(null)
+                .setMinReportInterval(getDefaultInteger(R.integer.default_report_interval))
+                .setMaxReportInterval(getDefaultInteger(R.integer.default_report_interval_max))
+                .setMinLocationInterval(getDefaultInteger(R.integer.default_location_interval_min))
+                .setMaxLocationInterval(getDefaultInteger(R.integer.default_location_interval_max))
+                .setBatchAge(getDefaultInteger(R.integer.default_report_batch_age))
+                .setTrackTolerance(getDefaultInteger(R.integer.default_track_tolerance))
+                .setCompact(this.context.getResources().getBoolean(R.bool.default_compact))
+                .setBinary(this.context.getResources().getBoolean(R.bool.default_binary))
+                .setLowPower(this.context.getResources().getBoolean(R.bool.default_low_power))
+                .build();
+    }
+
+    private String getDefaultInteger(int id) {
+        return String.valueOf(this.context.getResources().getInteger(id));
+    }
+
+    private interface ValueReader {
+        String read(int keyId, String defaultValue);
+    }
+
+}
@@ -0,0 +1,110 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+/**
+ * 通報データを hub が受け取れる形にして送る。
+ * 差分は送った順に数えるので、詰めるのと送るのを 1 つずつまとめて行う。
+ * hub が {@link #accept(String)} するまでは詰めずに送る
+ */
+final class ReportEmitter {
+
+    /**
+     * 送り先
+     */
+    interface Sink {
+        void emit(String event, Object data);
+    }
+
+    private final Sink sink;
+    // 詰めない場合は null
+    private final CompactReportEncoder encoder;
+    // バイト列にしない場合は null
+    private final BinaryReportEncoder binaryEncoder;
+    // hub が詰めた形を受け取れると知らせたか
+    private boolean accepted;
+
+    /**
+     * @param sink          送り先
+     * @param encoder       通報データを詰めるもの。詰めないなら null
+     * @param binaryEncoder 通報データをバイト列に詰めるもの。encoder より優先する。詰めないなら null
+     */
+    ReportEmitter(Sink sink, CompactReportEncoder encoder, BinaryReportEncoder binaryEncoder) {
+        this.sink = sink;
+        this.encoder = binaryEncoder == null ? encoder : null;
+        this.binaryEncoder = binaryEncoder;
+    }
+
+    /**
+     * @return hub に知らせる形の名前。詰めないなら null
+     */
+    String getEncoding() {
+        if (this.binaryEncoder != null) {
+            return BinaryReportEncoder.ENCODING;
+        } else if (this.encoder != null) {
+            return CompactReportEncoder.ENCODING;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * hub が詰めた形を受け取れると知らせてきた
+     *
+     * @param encoding 形の名前
+     * @throws IllegalArgumentException その形では送らない
+     */
+    synchronized void accept(String encoding) {
+        final String offered = getEncoding();
+        if (offered == null || !offered.equals(encoding)) {
+            throw new IllegalArgumentException("Not offered " + encoding);
+        }
+        this.accepted = true;
+    }
+
+    /**
+     * 送る。
+     * 詰めた順と送った順が食い違うと hub で戻せないので、送り終わるまでほかの送信を待たせる
+     *
+     * @param event イベント
+     * @param data  データ
+     */
+    synchronized void emit(String event, Object data) {
+        if (!this.accepted || !Report.EVENT_EMERGENCY.equals(event)) {
+            this.sink.emit(event, data);
+            return;
+        }
+        if (this.binaryEncoder != null) {
+            try {
+                this.sink.emit(BinaryReportEncoder.EVENT_EMERGENCY_BINARY, this.binaryEncoder.encode(data));
+            } catch (RuntimeException e) {
+                // 届いたか分からないので次はキーフレームから送る
+                this.binaryEncoder.reset();
+                throw e;
+            }
+            return;
+        }
+        try {
+            this.sink.emit(CompactReportEncoder.EVENT_EMERGENCY_COMPACT, this.encoder.encode(data));
+        } catch (RuntimeException e) {
+            // 届いたか分からないので次はキーフレームから送る
+            this.encoder.reset();
+            throw e;
+        }
+    }
+
+}
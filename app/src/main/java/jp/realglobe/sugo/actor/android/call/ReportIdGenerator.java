@@ -0,0 +1,49 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 通報の識別番号を作る。
+ * 0 以上の値を順に返し、int の最大値の次は 0 に戻る。
+ */
+final class ReportIdGenerator {
+
+    private final AtomicInteger next;
+
+    /**
+     * @param first 最初に返す値。負なら 0 にする
+     */
+    ReportIdGenerator(int first) {
+        this.next = new AtomicInteger(Math.max(0, first));
+    }
+
+    /**
+     * @return 次の識別番号
+     */
+    int next() {
+        while (true) {
+            final int current = this.next.get();
+            final int next = current == Integer.MAX_VALUE ? 0 : current + 1;
+            if (this.next.compareAndSet(current, next)) {
+                return current;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,311 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 送信待ちの通報データを溜めておくファイル。
+ * 固定長のファイルをメモリマップしたリングバッファで、一杯になったら古いものから捨てる。
+ * プロセスが終了しても次に開いたときに続きから読める。
+ * <p>
+ * レコードは [長さ (int)][通報の識別番号 (int)][通し番号 (long)][データ] の形式。
+ */
+final class ReportJournal implements Closeable {
+
+    private static final int MAGIC = 0x53524a31; // "SRJ1"
+
+    // ヘッダの位置
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_CAPACITY = 4;
+    private static final int OFFSET_HEAD = 8;
+    private static final int OFFSET_TAIL = 16;
+    private static final int OFFSET_COUNT = 24;
+    private static final int OFFSET_NEXT_SEQUENCE = 32;
+    private static final int HEADER_SIZE = 64;
+
+    private static final int RECORD_HEADER_SIZE = 16;
+    // ここから先は先頭に戻るという印
+    private static final int WRAP = -1;
+
+    /**
+     * 読み出したレコード
+     */
+    static final class Record {
+        private final int reportId;
+        private final long sequence;
+        private final byte[] data;
+
+        private Record(int reportId, long sequence, byte[] data) {
+            this.reportId = reportId;
+            this.sequence = sequence;
+            this.data = data;
+        }
+
+        int getReportId() {
+            return this.reportId;
+        }
+
+        long getSequence() {
+            return this.sequence;
+        }
+
+        byte[] getData() {
+            return this.data;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int dataSize;
+
+    // 以下はデータ領域内の位置
+    private int head;
+    private int tail;
+    private int count;
+    private long nextSequence;
+
+    private long droppedCount;
+
+    /**
+     * ファイルを開く。無ければ作る
+     *
+     * @param path     ファイル
+     * @param capacity ファイルの大きさ（バイト）
+     * @throws IOException ファイルを開けなかった
+     */
+    ReportJournal(File path, int capacity) throws IOException {
+        if (capacity <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Too small capacity " + capacity);
+        }
+        this.file = new RandomAccessFile(path, "rw");
+        try {
+            this.file.setLength(capacity);
+            this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+        this.dataSize = capacity - HEADER_SIZE;
+
+        if (this.buffer.getInt(OFFSET_MAGIC) == MAGIC && this.buffer.getInt(OFFSET_CAPACITY) == capacity && isValidHeader()) {
+            this.head = (int) this.buffer.getLong(OFFSET_HEAD);
+            this.tail = (int) this.buffer.getLong(OFFSET_TAIL);
+            this.count = this.buffer.getInt(OFFSET_COUNT);
+            this.nextSequence = this.buffer.getLong(OFFSET_NEXT_SEQUENCE);
+        } else {
+            this.buffer.putInt(OFFSET_CAPACITY, capacity);
+            this.head = 0;
+            this.tail = 0;
+            this.count = 0;
+            this.nextSequence = 0;
+            writeHeader();
+            this.buffer.putInt(OFFSET_MAGIC, MAGIC);
+        }
+    }
+
+    private boolean isValidHeader() {
+        final long head = this.buffer.getLong(OFFSET_HEAD);
+        final long tail = this.buffer.getLong(OFFSET_TAIL);
+        final int count = this.buffer.getInt(OFFSET_COUNT);
+        return 0 <= head && head < this.dataSize && 0 <= tail && tail <= this.dataSize && count >= 0;
+    }
+
+    private void writeHeader() {
+        this.buffer.putLong(OFFSET_HEAD, this.head);
+        this.buffer.putLong(OFFSET_TAIL, this.tail);
+        this.buffer.putInt(OFFSET_COUNT, this.count);
+        this.buffer.putLong(OFFSET_NEXT_SEQUENCE, this.nextSequence);
+    }
+
+    /**
+     * 末尾に追加する。入り切らなければ古いものから捨てる
+     *
+     * @param reportId 通報の識別番号
+     * @param data     データ
+     * @return 通し番号
+     */
+    synchronized long append(int reportId, byte[] data) {
+        final int size = RECORD_HEADER_SIZE + data.length;
+        if (size > this.dataSize) {
+            throw new IllegalArgumentException("Too large record " + data.length);
+        }
+
+        int position;
+        while (true) {
+            if (this.count == 0) {
+                this.head = 0;
+                this.tail = 0;
+                position = 0;
+                break;
+            }
+            if (this.head < this.tail) {
+                if (this.tail + size <= this.dataSize) {
+                    position = this.tail;
+                    break;
+                } else if (size <= this.head) {
+                    position = 0;
+                    break;
+                }
+            } else if (this.tail + size <= this.head) {
+                position = this.tail;
+                break;
+            }
+            removeHead();
+            this.droppedCount++;
+        }
+
+        if (position != this.tail && this.tail + 4 <= this.dataSize) {
+            this.buffer.putInt(HEADER_SIZE + this.tail, WRAP);
+        }
+        final int offset = HEADER_SIZE + position;
+        this.buffer.putInt(offset, data.length);
+        this.buffer.putInt(offset + 4, reportId);
+        this.buffer.putLong(offset + 8, this.nextSequence);
+        for (int i = 0; i < data.length; i++) {
+            this.buffer.put(offset + RECORD_HEADER_SIZE + i, data[i]);
+        }
+
+        // 中身を書いてからヘッダを更新する
+        final long sequence = this.nextSequence;
+        this.tail = position + size;
+        this.count++;
+        this.nextSequence++;
+        writeHeader();
+        return sequence;
+    }
+
+    /**
+     * 先頭から読む。読んだものは消さない
+     *
+     * @param max 最大件数
+     * @return 古い順のレコード
+     */
+    synchronized List<Record> peek(int max) {
+        return peekFrom(Long.MIN_VALUE, max);
+    }
+
+    /**
+     * 通し番号が指定したもの以降のレコードを読む。読んだものは消さない
+     *
+     * @param sequence 最初の通し番号
+     * @param max      最大件数
+     * @return 古い順のレコード
+     */
+    synchronized List<Record> peekFrom(long sequence, int max) {
+        final List<Record> records = new ArrayList<>(Math.min(max, this.count));
+        int position = this.head;
+        for (int i = 0; i < this.count && records.size() < max; i++) {
+            position = normalize(position);
+            final int offset = HEADER_SIZE + position;
+            final int length = this.buffer.getInt(offset);
+            final long recordSequence = this.buffer.getLong(offset + 8);
+            if (recordSequence >= sequence) {
+                final byte[] data = new byte[length];
+                for (int j = 0; j < length; j++) {
+                    data[j] = this.buffer.get(offset + RECORD_HEADER_SIZE + j);
+                }
+                records.add(new Record(this.buffer.getInt(offset + 4), recordSequence, data));
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return records;
+    }
+
+    /**
+     * @return 先頭のレコードの通し番号。空なら -1
+     */
+    synchronized long getFirstSequence() {
+        if (this.count == 0) {
+            return -1;
+        }
+        return this.buffer.getLong(HEADER_SIZE + normalize(this.head) + 8);
+    }
+
+    /**
+     * 先頭から消す
+     *
+     * @param n 件数
+     */
+    synchronized void remove(int n) {
+        for (int i = 0; i < n && this.count > 0; i++) {
+            removeHead();
+        }
+        writeHeader();
+    }
+
+    private void removeHead() {
+        this.head = normalize(this.head);
+        this.head += RECORD_HEADER_SIZE + this.buffer.getInt(HEADER_SIZE + this.head);
+        this.count--;
+        if (this.count == 0) {
+            this.head = 0;
+            this.tail = 0;
+        } else {
+            this.head = normalize(this.head);
+        }
+    }
+
+    /**
+     * 先頭に戻る印があれば戻す
+     */
+    private int normalize(int position) {
+        if (position + 4 > this.dataSize || this.buffer.getInt(HEADER_SIZE + position) == WRAP) {
+            return 0;
+        }
+        return position;
+    }
+
+    /**
+     * @return 溜まっている件数
+     */
+    synchronized int size() {
+        return this.count;
+    }
+
+    synchronized boolean isEmpty() {
+        return this.count == 0;
+    }
+
+    /**
+     * @return 入り切らずに捨てた件数
+     */
+    synchronized long getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /**
+     * 内容を記憶装置に書き出す
+     */
+    synchronized void sync() {
+        this.buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.buffer.force();
+        this.file.close();
+    }
+
+}
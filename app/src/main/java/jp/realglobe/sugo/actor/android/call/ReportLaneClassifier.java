@@ -0,0 +1,116 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 送る通報データを {@link PriorityLanes} のどの列に入れるか決める。
+ * <ul>
+ * <li>今の通報の最初のものは {@link PriorityLanes.Lane#ALERT}</li>
+ * <li>今の通報で、前に送ったものから位置か電話番号が変わったものは {@link PriorityLanes.Lane#STATE_CHANGE}</li>
+ * <li>それ以外と、前の通報の溜まっていたものは {@link PriorityLanes.Lane#REFRESH}</li>
+ * </ul>
+ * 配列の場合は最後の通報データで決める。
+ * 列に入れられなかったものを送ったことにしないよう、入れられたら {@link #commit} で知らせる。
+ */
+final class ReportLaneClassifier {
+
+    private final String idKey;
+
+    private boolean hasSession;
+    private int reportId;
+    private boolean alerted;
+    private Object lastLocation;
+    private Object lastPhoneNumber;
+
+    /**
+     * @param idKey 通報の識別番号のキー
+     */
+    ReportLaneClassifier(String idKey) {
+        this.idKey = idKey;
+    }
+
+    /**
+     * 通報を始めた
+     *
+     * @param reportId 通報の識別番号
+     */
+    synchronized void startSession(int reportId) {
+        this.hasSession = true;
+        this.reportId = reportId;
+        this.alerted = false;
+        this.lastLocation = null;
+        this.lastPhoneNumber = null;
+    }
+
+    /**
+     * 入れる列を決める。覚えている状態は変えない
+     *
+     * @param frame 通報データかその配列
+     * @return 入れる列
+     */
+    synchronized PriorityLanes.Lane classify(Object frame) {
+        final Map<?, ?> report = getSessionReport(frame);
+        if (report == null) {
+            return PriorityLanes.Lane.REFRESH;
+        } else if (!this.alerted) {
+            return PriorityLanes.Lane.ALERT;
+        } else if (!equal(report.get(Report.KEY_LOCATION), this.lastLocation) || !equal(report.get(Report.KEY_PHONE_NUMBER), this.lastPhoneNumber)) {
+            return PriorityLanes.Lane.STATE_CHANGE;
+        } else {
+            return PriorityLanes.Lane.REFRESH;
+        }
+    }
+
+    /**
+     * 列に入れられたので、次からはこれを前に送ったものとして扱う
+     *
+     * @param frame 通報データかその配列
+     */
+    synchronized void commit(Object frame) {
+        final Map<?, ?> report = getSessionReport(frame);
+        if (report == null) {
+            return;
+        }
+        this.alerted = true;
+        this.lastLocation = report.get(Report.KEY_LOCATION);
+        this.lastPhoneNumber = report.get(Report.KEY_PHONE_NUMBER);
+    }
+
+    /**
+     * @return 今の通報の通報データなら、列を決める通報データ。そうでなければ null
+     */
+    private Map<?, ?> getSessionReport(Object frame) {
+        final Object last = frame instanceof List ? ((List<?>) frame).get(((List<?>) frame).size() - 1) : frame;
+        if (!(last instanceof Map)) {
+            return null;
+        }
+        final Map<?, ?> report = (Map<?, ?>) last;
+        final Object id = report.get(this.idKey);
+        if (!this.hasSession || !(id instanceof Number) || ((Number) id).intValue() != this.reportId) {
+            return null;
+        }
+        return report;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+}
@@ -0,0 +1,219 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通報の状態。ロックを使わずに遷移させる。
+ * <pre>
+ * IDLE -(start)-> CONNECTING -(activate)-> REPORTING
+ *                     |                        |
+ *                     +--------(stop)----------+--> STOPPING -(finish)-> IDLE
+ * </pre>
+ * start するたびに世代を増やす。報告の処理は世代を持ち、今の世代の REPORTING の間だけ {@link #enter} できる。
+ * stop した後は {@link #awaitTicks} で実行中の報告の処理が抜けるのを待てるので、その後に残りを送れば取りこぼさない。
+ * <p>
+ * 状態、実行中の報告の処理の数、世代を 1 つの long にまとめ、compare-and-set で一度に変える。
+ * 止め終わるのを待つときだけモニタで待ち、最後の報告の処理が抜けたときに起こす。
+ */
+final class ReportLifecycle {
+
+    enum State {
+        IDLE,
+        CONNECTING,
+        REPORTING,
+        STOPPING,
+    }
+
+    private static final State[] STATES = State.values();
+
+    // 下位 2 ビットが状態、次の 20 ビットが実行中の報告の処理の数、残りが世代
+    private static final int STATE_BITS = 2;
+    private static final int TICK_BITS = 20;
+    private static final long STATE_MASK = (1L << STATE_BITS) - 1;
+    private static final long TICK_UNIT = 1L << STATE_BITS;
+    private static final long TICK_MASK = ((1L << TICK_BITS) - 1) << STATE_BITS;
+    private static final int GENERATION_SHIFT = STATE_BITS + TICK_BITS;
+
+    private final AtomicLong word = new AtomicLong(pack(State.IDLE, 0, 0));
+
+    private static long pack(State state, long ticks, long generation) {
+        return (generation << GENERATION_SHIFT) | (ticks << STATE_BITS) | state.ordinal();
+    }
+
+    private static State state(long word) {
+        return STATES[(int) (word & STATE_MASK)];
+    }
+
+    private static long ticks(long word) {
+        return (word & TICK_MASK) >>> STATE_BITS;
+    }
+
+    private static long generation(long word) {
+        return word >>> GENERATION_SHIFT;
+    }
+
+    /**
+     * 通報を始める
+     *
+     * @return 新しい世代。IDLE でなければ -1
+     */
+    long start() {
+        while (true) {
+            final long current = this.word.get();
+            if (state(current) != State.IDLE) {
+                return -1;
+            }
+            final long generation = generation(current) + 1;
+            if (this.word.compareAndSet(current, pack(State.CONNECTING, 0, generation))) {
+                return generation;
+            }
+        }
+    }
+
+    /**
+     * 報告の準備が済んだ
+     *
+     * @param generation {@link #start} が返した世代
+     * @return REPORTING にしたら true。その間に stop されていたら false
+     */
+    boolean activate(long generation) {
+        while (true) {
+            final long current = this.word.get();
+            if (state(current) != State.CONNECTING || generation(current) != generation) {
+                return false;
+            }
+            if (this.word.compareAndSet(current, pack(State.REPORTING, 0, generation))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 通報を止め始める。これより後に {@link #enter} は成功しない
+     *
+     * @return 止める世代。CONNECTING でも REPORTING でもなければ -1
+     */
+    long stop() {
+        while (true) {
+            final long current = this.word.get();
+            final State state = state(current);
+            if (state != State.CONNECTING && state != State.REPORTING) {
+                return -1;
+            }
+            if (this.word.compareAndSet(current, pack(State.STOPPING, ticks(current), generation(current)))) {
+                return generation(current);
+            }
+        }
+    }
+
+    /**
+     * 実行中の報告の処理が全て抜けるまで待つ。
+     * 報告の処理は送信で待つこともあるので、CPU を使わずに眠って待つ
+     *
+     * @param generation {@link #stop} が返した世代
+     */
+    void awaitTicks(long generation) {
+        if (isDrained(generation)) {
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (this) {
+            while (!isDrained(generation)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // 抜けるまで待ってから割り込みを戻す
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean isDrained(long generation) {
+        final long current = this.word.get();
+        return generation(current) != generation || state(current) != State.STOPPING || ticks(current) == 0;
+    }
+
+    /**
+     * 止め終わった
+     *
+     * @param generation {@link #stop} が返した世代
+     * @return IDLE にしたら true
+     */
+    boolean finish(long generation) {
+        while (true) {
+            final long current = this.word.get();
+            if (state(current) != State.STOPPING || generation(current) != generation) {
+                return false;
+            }
+            if (ticks(current) != 0) {
+                awaitTicks(generation);
+                continue;
+            }
+            if (this.word.compareAndSet(current, pack(State.IDLE, 0, generation))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 報告の処理に入る。成功したら必ず {@link #exit} を呼ぶ
+     *
+     * @param generation 報告の処理の世代
+     * @return 今の世代が REPORTING なら true
+     */
+    boolean enter(long generation) {
+        while (true) {
+            final long current = this.word.get();
+            if (state(current) != State.REPORTING || generation(current) != generation) {
+                return false;
+            }
+            if (ticks(current) == TICK_MASK >>> STATE_BITS) {
+                throw new IllegalStateException("Too many ticks");
+            }
+            if (this.word.compareAndSet(current, current + TICK_UNIT)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 報告の処理から出る
+     */
+    void exit() {
+        final long current = this.word.addAndGet(-TICK_UNIT);
+        if (state(current) == State.STOPPING && ticks(current) == 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    State getState() {
+        return state(this.word.get());
+    }
+
+    long getGeneration() {
+        return generation(this.word.get());
+    }
+
+}
@@ -0,0 +1,160 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+/**
+ * hub を通して呼び出し側から使える sugo-actor のモジュール。
+ * 呼び出し側から見えるように public にしている。
+ * <p>
+ * 受領の通知のほかに、混んでいる hub が報告を控えさせたり、特定の通報者に速く報告させたりできる。
+ * 詰めた形で送れるのは、hub が受け取れると知らせてから。
+ * 操作は接続し直さずに、動いている報告にそのまま効く。
+ */
+public final class ReportModule {
+
+    /**
+     * 受領の通知先
+     */
+    interface AckListener {
+        void onAck(Object key);
+    }
+
+    /**
+     * 報告の操作先
+     */
+    interface Controller {
+        /**
+         * @param interval 報告間隔（ミリ秒）。0 なら指定を取り消す
+         */
+        void setInterval(long interval);
+
+        /**
+         * @throws IllegalStateException 通報中でない
+         */
+        void requestFix();
+
+        /**
+         * @throws IllegalStateException 通報中でない
+         */
+        void pause();
+
+        /**
+         * @throws IllegalStateException 通報中でない
+         */
+        void resume();
+    }
+
+    /**
+     * 詰めた形を受け取れることの通知先
+     */
+    interface EncodingListener {
+        /**
+         * @param encoding 形の名前
+         * @throws IllegalArgumentException その形では送らない
+         */
+        void onAccept(String encoding);
+    }
+
+    private final AckListener ackListener;
+    private final Controller controller;
+    private final EncodingListener encodingListener;
+
+    /**
+     * @param ackListener      受領の通知先
+     * @param controller       報告の操作先。操作を受け付けないなら null
+     * @param encodingListener 詰めた形を受け取れることの通知先。詰めないなら null
+     */
+    ReportModule(AckListener ackListener, Controller controller, EncodingListener encodingListener) {
+        this.ackListener = ackListener;
+        this.controller = controller;
+        this.encodingListener = encodingListener;
+    }
+
+    /**
+     * 通報データを受け取ったことを知らせる。
+     * 受け取ったものより前に送られたものも受け取ったとみなす
+     *
+     * @param key 受け取った通報データの reportKey かその配列
+     */
+    public void ack(Object key) {
+        if (key != null) {
+            this.ackListener.onAck(key);
+        }
+    }
+
+    /**
+     * 詰めた形を受け取れることを知らせる。
+     * モジュールのバージョンの末尾に付いた形を渡すと、その後の報告をその形で送る。
+     * 知らされるまでは詰めずに送るので、対応していない hub にも届く
+     *
+     * @param encoding 形の名前。"compact" か "binary"
+     */
+    public void acceptEncoding(Object encoding) {
+        if (!(encoding instanceof String)) {
+            throw new IllegalArgumentException("Invalid encoding " + encoding);
+        } else if (this.encodingListener == null) {
+            throw new IllegalArgumentException("Not offered " + encoding);
+        }
+        this.encodingListener.onAccept((String) encoding);
+    }
+
+    /**
+     * 報告間隔を指定する。端末の設定や状況より優先する
+     *
+     * @param interval 報告間隔（ミリ秒）。null か 0 なら指定を取り消す
+     */
+    public void setInterval(Object interval) {
+        final long value;
+        if (interval == null) {
+            value = 0;
+        } else if (interval instanceof Number && ((Number) interval).doubleValue() == ((Number) interval).longValue()) {
+            value = ((Number) interval).longValue();
+        } else {
+            throw new IllegalArgumentException("Invalid interval " + interval);
+        }
+        getController().setInterval(value);
+    }
+
+    /**
+     * 精度の高い位置をすぐに取り直し、取れたらすぐに報告する
+     */
+    public void requestFix() {
+        getController().requestFix();
+    }
+
+    /**
+     * 報告を止める。通報は続いていて、{@link #resume} か次の通報で再開する
+     */
+    public void pause() {
+        getController().pause();
+    }
+
+    /**
+     * 止めていた報告を再開し、すぐに報告する
+     */
+    public void resume() {
+        getController().resume();
+    }
+
+    private Controller getController() {
+        if (this.controller == null) {
+            throw new UnsupportedOperationException("Not controllable");
+        }
+        return this.controller;
+    }
+
+}
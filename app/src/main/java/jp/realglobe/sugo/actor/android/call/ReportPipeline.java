@@ -0,0 +1,180 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 通報データを間引いてまとめて送る。
+ * 状態が変わらない報告は 1 つにまとめ、状態が変わったときだけすぐに送る。
+ * 状態が変わらなくても maxBatchAge ごとには送る。
+ * 1 回に送るのが 1 件なら通報データそのものを、複数件ならその配列を送る。
+ * <p>
+ * 送る間隔（burst interval）を決めると、最初の送信の後は状態が変わってもすぐには送らず、
+ * その間隔ごとにまとめて送る。通信を集めて無線を起こす回数を減らすためのもの。
+ * <p>
+ * 受け取った {@link Report} は写して持つので、呼び出し側で使い回してよい。
+ * 送らない間はオブジェクトを生成しない。
+ */
+final class ReportPipeline {
+
+    /**
+     * 送信先
+     */
+    interface Sink {
+        void send(Object frame);
+    }
+
+    private final Sink sink;
+    private final long maxBatchAge;
+    private long burstInterval;
+
+    private final Report[] pending;
+    private int pendingCount;
+    // pending の末尾が状態の変わらない報告をまとめたものか
+    private boolean tailCoalesced;
+    // 最後に受け取った状態
+    private final Report lastState = new Report();
+    private boolean hasLastState;
+    private long lastFlushTime;
+
+    private long offeredCount;
+    private long coalescedCount;
+    private long frameCount;
+
+    /**
+     * @param sink         送信先
+     * @param maxBatchSize 1 回にまとめて送る最大件数
+     * @param maxBatchAge  状態が変わらなくても送る間隔（ミリ秒）
+     */
+    ReportPipeline(Sink sink, int maxBatchSize, long maxBatchAge) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size " + maxBatchSize);
+        }
+        if (maxBatchAge < 0) {
+            throw new IllegalArgumentException("Invalid batch age " + maxBatchAge);
+        }
+        this.sink = sink;
+        this.maxBatchAge = maxBatchAge;
+        this.pending = new Report[maxBatchSize];
+        for (int i = 0; i < this.pending.length; i++) {
+            this.pending[i] = new Report();
+        }
+    }
+
+    /**
+     * 報告を渡す
+     *
+     * @param report 通報データ
+     * @param now    現在時刻（ミリ秒）
+     */
+    synchronized void offer(Report report, long now) {
+        this.offeredCount++;
+
+        if (!this.hasLastState || !this.lastState.hasSameState(report)) {
+            // 状態が変わった
+            this.lastState.copyFrom(report);
+            this.hasLastState = true;
+            if (this.pendingCount == this.pending.length) {
+                flush(now);
+            }
+            this.pending[this.pendingCount++].copyFrom(report);
+            this.tailCoalesced = false;
+            if (this.frameCount == 0 || this.pendingCount >= this.pending.length || now - this.lastFlushTime >= this.burstInterval) {
+                flush(now);
+            }
+            return;
+        }
+
+        this.coalescedCount++;
+        if (this.tailCoalesced) {
+            // 最新のものだけ残す
+            this.pending[this.pendingCount - 1].copyFrom(report);
+        } else {
+            if (this.pendingCount == this.pending.length) {
+                flush(now);
+            }
+            this.pending[this.pendingCount++].copyFrom(report);
+            this.tailCoalesced = true;
+        }
+        if (this.pendingCount >= this.pending.length || now - this.lastFlushTime >= Math.max(this.maxBatchAge, this.burstInterval)) {
+            flush(now);
+        }
+    }
+
+    /**
+     * 送る間隔を決める
+     *
+     * @param burstInterval 最初の送信の後、状態が変わっても送らずに溜める間隔（ミリ秒）。0 ならすぐに送る
+     */
+    synchronized void setBurstInterval(long burstInterval) {
+        if (burstInterval < 0) {
+            throw new IllegalArgumentException("Invalid burst interval " + burstInterval);
+        }
+        this.burstInterval = burstInterval;
+    }
+
+    /**
+     * 溜まっている報告を送る
+     *
+     * @param now 現在時刻（ミリ秒）
+     */
+    synchronized void flush(long now) {
+        this.lastFlushTime = now;
+        if (this.pendingCount == 0) {
+            return;
+        }
+        final Object frame;
+        if (this.pendingCount == 1) {
+            frame = this.pending[0].toMap();
+        } else {
+            final List<Map<String, Object>> batch = new ArrayList<>(this.pendingCount);
+            for (int i = 0; i < this.pendingCount; i++) {
+                batch.add(this.pending[i].toMap());
+            }
+            frame = batch;
+        }
+        this.pendingCount = 0;
+        this.tailCoalesced = false;
+        this.frameCount++;
+        this.sink.send(frame);
+    }
+
+    /**
+     * @return 受け取った報告の数
+     */
+    synchronized long getOfferedCount() {
+        return this.offeredCount;
+    }
+
+    /**
+     * @return 状態が変わらなかったためにまとめられた報告の数
+     */
+    synchronized long getCoalescedCount() {
+        return this.coalescedCount;
+    }
+
+    /**
+     * @return 送信した回数
+     */
+    synchronized long getFrameCount() {
+        return this.frameCount;
+    }
+
+}
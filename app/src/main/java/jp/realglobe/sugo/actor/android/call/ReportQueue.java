@@ -0,0 +1,306 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 通報データを一旦 {@link ReportJournal} に書いてから送る。
+ * 接続していない間は溜めておき、接続したら古い順に送る。
+ * <p>
+ * 送信先が受け付けても、{@link #complete} で届いたと知らされるまではジャーナルから消さない。
+ * 途中でプロセスが落ちても、次に開いたときに送り直す。
+ * {@link #fail} で送れなかったと知らされたら、{@link #setConnected} で知らされるまで溜まっているものは送らない。
+ * 何度送っても届かないものは壊れているとみなして捨て、後ろのものを送れるようにする。
+ * <p>
+ * 送信先が受け付けなかったら、接続し直すまで溜まっているものは送らない。
+ * その間も新しい通報データは直接渡してみるので、送信先が優先度ごとに受け付けるなら通報の最初の報告が溜まっているものの後ろで待たない。
+ */
+final class ReportQueue implements ReportPipeline.Sink {
+
+    private final ReportJournal journal;
+    private final ReportPipeline.Sink sink;
+    private final String idKey;
+    private final int maxReplayBatch;
+    private final int maxAttempts;
+
+    private boolean connected;
+    // 送信先が受け付けなかったら true
+    private boolean blocked;
+    // これより前の通し番号は送信先に渡し済みか送り終わっている
+    private long cursor;
+    // 送信先に渡して送り終わっていないものと、その通し番号
+    private final Map<Object, long[]> inFlight = new IdentityHashMap<>();
+    private final Set<Long> inFlightSequences = new HashSet<>();
+    // 送り終わったが、前のものが残っているのでジャーナルから消していない通し番号
+    private final Set<Long> completedSequences = new HashSet<>();
+    // 送れなかった回数
+    private final Map<Long, Integer> failures = new HashMap<>();
+    private long sentCount;
+    private long discardedCount;
+
+    /**
+     * @param journal        溜めておく場所
+     * @param sink           送信先。受け付けなければ例外を投げる
+     * @param idKey          通報の識別番号のキー
+     * @param maxReplayBatch 溜まっていたものを 1 回に送る最大件数
+     * @param maxAttempts    1 件を送ってみる最大回数。これだけ送れなければ捨てる
+     */
+    ReportQueue(ReportJournal journal, ReportPipeline.Sink sink, String idKey, int maxReplayBatch, int maxAttempts) {
+        if (maxReplayBatch < 1) {
+            throw new IllegalArgumentException("Invalid replay batch " + maxReplayBatch);
+        }
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Invalid attempts " + maxAttempts);
+        }
+        this.journal = journal;
+        this.sink = sink;
+        this.idKey = idKey;
+        this.maxReplayBatch = maxReplayBatch;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * 通報データを溜めて、接続していれば送る
+     *
+     * @param frame 通報データかその配列
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized void send(Object frame) {
+        final long[] sequences;
+        if (frame instanceof List) {
+            final List<?> reports = (List<?>) frame;
+            sequences = new long[reports.size()];
+            for (int i = 0; i < sequences.length; i++) {
+                sequences[i] = append((Map<String, Object>) reports.get(i));
+            }
+        } else {
+            sequences = new long[]{append((Map<String, Object>) frame)};
+        }
+        if (this.connected && this.blocked) {
+            handOut(frame, sequences);
+        }
+        drain();
+    }
+
+    private long append(Map<String, Object> report) {
+        final Object id = report.get(this.idKey);
+        return this.journal.append(id instanceof Number ? ((Number) id).intValue() : 0, ReportSerializer.serialize(report));
+    }
+
+    /**
+     * 送信先に渡す
+     *
+     * @return 受け付けられたら true
+     */
+    private boolean handOut(Object frame, long[] sequences) {
+        // 渡している途中で送り終わることもあるので、先に覚えておく
+        this.inFlight.put(frame, sequences);
+        for (long sequence : sequences) {
+            this.inFlightSequences.add(sequence);
+        }
+        try {
+            this.sink.send(frame);
+            return true;
+        } catch (RuntimeException e) {
+            if (this.inFlight.remove(frame) != null) {
+                for (long sequence : sequences) {
+                    this.inFlightSequences.remove(sequence);
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 接続状態を変える。接続したら溜まっていたものを送る
+     *
+     * @param connected 接続したなら true
+     */
+    synchronized void setConnected(boolean connected) {
+        this.connected = connected;
+        this.blocked = false;
+        drain();
+    }
+
+    synchronized boolean isConnected() {
+        return this.connected && !this.blocked;
+    }
+
+    /**
+     * 接続していれば溜まっているもののうち、送信先に渡していないものを古い順に送る
+     */
+    synchronized void drain() {
+        while (this.connected && !this.blocked) {
+            final List<ReportJournal.Record> records = this.journal.peekFrom(this.cursor, this.maxReplayBatch);
+            // 渡し済みのものを飛ばし、続いている渡していないものをまとめる
+            int start = 0;
+            while (start < records.size() && isHandedOut(records.get(start).getSequence())) {
+                start++;
+            }
+            if (start == records.size()) {
+                if (records.isEmpty()) {
+                    return;
+                }
+                this.cursor = records.get(start - 1).getSequence() + 1;
+                continue;
+            }
+            int end = start;
+            while (end < records.size() && !isHandedOut(records.get(end).getSequence())) {
+                end++;
+            }
+
+            final long[] sequences = new long[end - start];
+            final List<Map<String, Object>> reports = new ArrayList<>(sequences.length);
+            for (int i = start; i < end; i++) {
+                sequences[i - start] = records.get(i).getSequence();
+                try {
+                    reports.add(ReportSerializer.deserialize(records.get(i).getData()));
+                } catch (IOException e) {
+                    // 壊れたものは飛ばす
+                }
+            }
+            if (reports.isEmpty()) {
+                markCompleted(sequences);
+            } else if (!handOut(reports.size() == 1 ? reports.get(0) : reports, sequences)) {
+                // 残しておき、次に接続したときに送る
+                this.blocked = true;
+                return;
+            }
+            this.cursor = sequences[sequences.length - 1] + 1;
+        }
+    }
+
+    private boolean isHandedOut(long sequence) {
+        return this.inFlightSequences.contains(sequence) || this.completedSequences.contains(sequence);
+    }
+
+    /**
+     * 送信先に渡したものを送り終わった
+     *
+     * @param frame 送信先に渡したもの
+     */
+    synchronized void complete(Object frame) {
+        final long[] sequences = this.inFlight.remove(frame);
+        if (sequences == null) {
+            return;
+        }
+        for (long sequence : sequences) {
+            this.inFlightSequences.remove(sequence);
+            this.failures.remove(sequence);
+        }
+        this.sentCount += frame instanceof List ? ((List<?>) frame).size() : 1;
+        markCompleted(sequences);
+    }
+
+    /**
+     * 送信先に渡したものを送れなかった。
+     * 次に {@link #setConnected} で知らされたときに送り直す。送ってみる回数を使い切ったものは捨てる
+     *
+     * @param frame 送信先に渡したもの
+     */
+    synchronized void fail(Object frame) {
+        final long[] sequences = this.inFlight.remove(frame);
+        if (sequences == null) {
+            return;
+        }
+        final List<Long> discarded = new ArrayList<>();
+        for (long sequence : sequences) {
+            this.inFlightSequences.remove(sequence);
+            final Integer count = this.failures.get(sequence);
+            final int attempts = count == null ? 1 : count + 1;
+            if (attempts >= this.maxAttempts) {
+                this.failures.remove(sequence);
+                discarded.add(sequence);
+            } else {
+                this.failures.put(sequence, attempts);
+                this.cursor = Math.min(this.cursor, sequence);
+            }
+        }
+        if (!discarded.isEmpty()) {
+            final long[] discardedSequences = new long[discarded.size()];
+            for (int i = 0; i < discardedSequences.length; i++) {
+                discardedSequences[i] = discarded.get(i);
+            }
+            this.discardedCount += discardedSequences.length;
+            markCompleted(discardedSequences);
+        }
+        // 接続状態は変えず、知らされるまで溜まっているものを送らない
+        this.blocked = true;
+    }
+
+    /**
+     * 送り終わったものを、先頭から続いている分だけジャーナルから消す
+     */
+    private void markCompleted(long[] sequences) {
+        for (long sequence : sequences) {
+            this.completedSequences.add(sequence);
+        }
+        final long first = this.journal.getFirstSequence();
+        // ジャーナルから溢れて消えたものは忘れる
+        for (Iterator<Long> iterator = this.completedSequences.iterator(); iterator.hasNext(); ) {
+            final long sequence = iterator.next();
+            if (first < 0 || sequence < first) {
+                iterator.remove();
+            }
+        }
+        for (Iterator<Long> iterator = this.failures.keySet().iterator(); iterator.hasNext(); ) {
+            final long sequence = iterator.next();
+            if (first < 0 || sequence < first) {
+                iterator.remove();
+            }
+        }
+        int count = 0;
+        while (this.completedSequences.remove(first + count)) {
+            count++;
+        }
+        if (count > 0) {
+            this.journal.remove(count);
+        }
+    }
+
+    /**
+     * @return 送り終わっていない件数
+     */
+    int getPendingCount() {
+        return this.journal.size();
+    }
+
+    /**
+     * @return 送り終わった件数
+     */
+    synchronized long getSentCount() {
+        return this.sentCount;
+    }
+
+    /**
+     * @return 何度送っても届かずに捨てた件数
+     */
+    synchronized long getDiscardedCount() {
+        return this.discardedCount;
+    }
+
+}
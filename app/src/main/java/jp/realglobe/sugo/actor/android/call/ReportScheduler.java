@@ -0,0 +1,246 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 専用のスレッドで定期的に処理を実行する。
+ * 次の実行予定は前回の予定に間隔を足したものにするので、処理時間や遅れが積み重ならない。
+ * 予定より 1 間隔以上遅れたら、遅れた分は飛ばして今から数え直す。
+ * 処理が例外を投げても前回と同じ間隔で続ける。
+ * 処理が負の間隔を返したらそこで終わる。
+ * {@link #runNow} で次の予定を待たずに実行し、そこから数え直せる。
+ */
+final class ReportScheduler {
+
+    /**
+     * 定期的に実行する処理
+     */
+    interface Task {
+        /**
+         * @return 次に実行するまでの間隔（ミリ秒）。負なら終わる
+         */
+        long run();
+    }
+
+    // 最初の処理が例外を投げたときの間隔（ミリ秒）
+    private static final long DEFAULT_INTERVAL = 1_000L;
+
+    private final ScheduledExecutorService executor;
+    // 遅れの分布（マイクロ秒）。数えないなら null
+    private final Histogram jitterHistogram;
+
+    // start するたびに増やす。古い処理は実行しない。ロックを持たずに読めるようにする
+    private volatile long generation;
+    private ScheduledFuture<?> future;
+    private Tick tick;
+    // 実行中に runNow されたら true。終わったらすぐにもう一度実行する
+    private boolean runRequested;
+
+    // 予定からの遅れ（ナノ秒）
+    private long tickCount;
+    private long jitterSum;
+    private long maxJitter;
+    private long skippedCount;
+    private long failureCount;
+
+    /**
+     * @param threadName スレッド名
+     */
+    ReportScheduler(String threadName) {
+        this(threadName, null);
+    }
+
+    /**
+     * @param threadName      スレッド名
+     * @param jitterHistogram 予定からの遅れ（マイクロ秒）を記録する先。記録しないなら null
+     */
+    ReportScheduler(String threadName, Histogram jitterHistogram) {
+        this.jitterHistogram = jitterHistogram;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 実行を始める。実行中の処理があれば止める
+     *
+     * @param task 処理
+     */
+    synchronized void start(Task task) {
+        stop();
+        final long generation = this.generation;
+        this.tick = new Tick(task, generation, System.nanoTime());
+        this.future = this.executor.schedule(this.tick, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 次の予定を待たずにすぐ実行する。その後はそこから数え直す。
+     * 実行中なら終わってからもう一度実行する。止まっていたら何もしない
+     */
+    synchronized void runNow() {
+        if (this.future == null || this.executor.isShutdown()) {
+            return;
+        }
+        if (this.future.cancel(false)) {
+            this.tick.deadline = System.nanoTime();
+            this.future = this.executor.schedule(this.tick, 0, TimeUnit.NANOSECONDS);
+        } else {
+            this.runRequested = true;
+        }
+    }
+
+    /**
+     * 実行を止める。実行中の処理は最後まで実行されるが、次は実行されない
+     */
+    synchronized void stop() {
+        this.generation++;
+        if (this.future != null) {
+            this.future.cancel(false);
+            this.future = null;
+        }
+        this.tick = null;
+        this.runRequested = false;
+    }
+
+    /**
+     * スレッドを終わらせる
+     */
+    void shutdown() {
+        stop();
+        this.executor.shutdownNow();
+    }
+
+    private synchronized void record(long jitter, boolean skipped, boolean failed) {
+        if (this.jitterHistogram != null) {
+            this.jitterHistogram.record(TimeUnit.NANOSECONDS.toMicros(jitter));
+        }
+        this.tickCount++;
+        if (failed) {
+            this.failureCount++;
+        }
+        this.jitterSum += jitter;
+        this.maxJitter = Math.max(this.maxJitter, jitter);
+        if (skipped) {
+            this.skippedCount++;
+        }
+    }
+
+    /**
+     * @return 実行した回数
+     */
+    synchronized long getTickCount() {
+        return this.tickCount;
+    }
+
+    /**
+     * @return 予定からの遅れの平均（ナノ秒）
+     */
+    synchronized long getMeanJitter() {
+        return this.tickCount == 0 ? 0 : this.jitterSum / this.tickCount;
+    }
+
+    /**
+     * @return 予定からの遅れの最大（ナノ秒）
+     */
+    synchronized long getMaxJitter() {
+        return this.maxJitter;
+    }
+
+    /**
+     * @return 遅れすぎて数え直した回数
+     */
+    synchronized long getSkippedCount() {
+        return this.skippedCount;
+    }
+
+    /**
+     * @return 処理が例外を投げた回数
+     */
+    synchronized long getFailureCount() {
+        return this.failureCount;
+    }
+
+    private final class Tick implements Runnable {
+
+        private final Task task;
+        private final long generation;
+        // 予定時刻（System.nanoTime）
+        private long deadline;
+        // 前回の間隔（ミリ秒）
+        private long lastInterval;
+
+        private Tick(Task task, long generation, long deadline) {
+            this.task = task;
+            this.generation = generation;
+            this.deadline = deadline;
+            this.lastInterval = DEFAULT_INTERVAL;
+        }
+
+        @Override
+        public void run() {
+            if (this.generation != ReportScheduler.this.generation) {
+                return;
+            }
+
+            final long jitter = Math.max(0, System.nanoTime() - this.deadline);
+            boolean failed = false;
+            try {
+                this.lastInterval = this.task.run();
+            } catch (RuntimeException e) {
+                failed = true;
+            }
+            if (this.lastInterval < 0) {
+                record(jitter, false, false);
+                synchronized (ReportScheduler.this) {
+                    if (this.generation == ReportScheduler.this.generation) {
+                        ReportScheduler.this.future = null;
+                    }
+                }
+                return;
+            }
+            final long interval = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, this.lastInterval));
+
+            this.deadline += interval;
+            final long now = System.nanoTime();
+            final boolean skipped = now - this.deadline > interval;
+            if (skipped) {
+                this.deadline = now + interval;
+            }
+            record(jitter, skipped, failed);
+
+            synchronized (ReportScheduler.this) {
+                if (this.generation != ReportScheduler.this.generation || ReportScheduler.this.executor.isShutdown()) {
+                    return;
+                }
+                if (ReportScheduler.this.runRequested) {
+                    ReportScheduler.this.runRequested = false;
+                    this.deadline = now;
+                }
+                ReportScheduler.this.future = ReportScheduler.this.executor.schedule(this, this.deadline - now, TimeUnit.NANOSECONDS);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,157 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 通報データをバイト列にする。
+ * 値は null、数値、真偽値、文字列とそれらの配列、連想配列に限る。
+ */
+final class ReportSerializer {
+
+    private static final byte TAG_NULL = 'N';
+    private static final byte TAG_INT = 'I';
+    private static final byte TAG_LONG = 'L';
+    private static final byte TAG_DOUBLE = 'D';
+    private static final byte TAG_BOOLEAN = 'B';
+    private static final byte TAG_STRING = 'S';
+    private static final byte TAG_LIST = 'A';
+    private static final byte TAG_MAP = 'M';
+
+    private ReportSerializer() {
+    }
+
+    /**
+     * バイト列にする
+     *
+     * @param report 通報データ
+     * @return バイト列
+     */
+    static byte[] serialize(Map<String, Object> report) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (final DataOutputStream output = new DataOutputStream(bytes)) {
+            write(output, report);
+        } catch (IOException e) {
+            // メモリ上なので起こらない
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * バイト列から戻す
+     *
+     * @param data バイト列
+     * @return 通報データ
+     * @throws IOException 壊れていた
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> deserialize(byte[] data) throws IOException {
+        try (final DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+            final Object value = read(input);
+            if (!(value instanceof Map)) {
+                throw new IOException("Not a report");
+            }
+            return (Map<String, Object>) value;
+        }
+    }
+
+    private static void write(DataOutputStream output, Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(TAG_NULL);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            output.writeByte(TAG_INT);
+            output.writeInt(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            output.writeByte(TAG_LONG);
+            output.writeLong((Long) value);
+        } else if (value instanceof Number) {
+            output.writeByte(TAG_DOUBLE);
+            output.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            output.writeByte(TAG_BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        } else if (value instanceof CharSequence) {
+            output.writeByte(TAG_STRING);
+            output.writeUTF(value.toString());
+        } else if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            output.writeByte(TAG_LIST);
+            output.writeInt(list.size());
+            for (Object element : list) {
+                write(output, element);
+            }
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            output.writeByte(TAG_MAP);
+            output.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                output.writeUTF(String.valueOf(entry.getKey()));
+                write(output, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value " + value.getClass().getName());
+        }
+    }
+
+    private static Object read(DataInputStream input) throws IOException {
+        final byte tag = input.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_INT:
+                return input.readInt();
+            case TAG_LONG:
+                return input.readLong();
+            case TAG_DOUBLE:
+                return input.readDouble();
+            case TAG_BOOLEAN:
+                return input.readBoolean();
+            case TAG_STRING:
+                return input.readUTF();
+            case TAG_LIST: {
+                final int size = input.readInt();
+                final List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(read(input));
+                }
+                return list;
+            }
+            case TAG_MAP: {
+                final int size = input.readInt();
+                final Map<String, Object> map = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    final String key = input.readUTF();
+                    map.put(key, read(input));
+                }
+                return map;
+            }
+            default:
+                throw new IOException("Unknown tag " + tag);
+        }
+    }
+
+}
@@ -0,0 +1,1168 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import android.Manifest;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.BatteryManager;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.support.annotation.Nullable;
+import android.support.v4.app.ActivityCompat;
+import android.support.v7.app.NotificationCompat;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.location.LocationListener;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationServices;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 通報データを hub に送り続ける。
+ * 画面が裏に回っても止まらないように、フォアグラウンドサービスとして専用のスレッドで報告する。
+ * 通報を待たずに hub へ接続しておき、通報のたびに同じ接続を使う。
+ */
+public class ReportService extends Service {
+
+    private static final String LOG_TAG = ReportService.class.getName();
+
+    static final String ACTION_START = ReportService.class.getName() + ".START";
+    static final String ACTION_STOP = ReportService.class.getName() + ".STOP";
+    static final String ACTION_WARM_UP = ReportService.class.getName() + ".WARM_UP";
+    static final String EXTRA_PHONE_NUMBER = "phoneNumber";
+
+    private static final int NOTIFICATION_ID = 1;
+
+    // 送信待ちの通報データを溜めておくファイル
+    private static final String JOURNAL_FILE = "report.journal";
+    private static final int JOURNAL_CAPACITY = 1024 * 1024;
+    // 通報ごとの記録の置き場所と合計の上限（バイト）
+    private static final String HISTORY_DIRECTORY = "history";
+    private static final long HISTORY_CAPACITY = 4 * 1024 * 1024;
+    // 通報ごとの記録をファイルに書き出す間隔（ミリ秒）
+    private static final long HISTORY_SYNC_INTERVAL = 10_000L;
+    // 溜まっていた通報データを 1 回に送る最大件数
+    private static final int MAX_REPLAY_BATCH = 50;
+    // 1 件を送ってみる最大回数。これだけ送れなければ壊れているとみなして捨てる
+    private static final int MAX_SEND_ATTEMPTS = 10;
+    // 送れなかったものを送り直すまでの待ち時間の範囲（ミリ秒）
+    private static final long MIN_RETRY_DELAY = 1_000L;
+    private static final long MAX_RETRY_DELAY = 60_000L;
+
+    // hub への接続を諦めるまでの時間（ミリ秒）
+    private static final long CONNECT_TIMEOUT = 30_000L;
+    // 再接続までの待ち時間の範囲（ミリ秒）
+    private static final long MIN_RECONNECT_DELAY = 1_000L;
+    private static final long MAX_RECONNECT_DELAY = 60_000L;
+    // これだけ待っても受領が無ければ次の hub に切り替える（ミリ秒）
+    private static final long ACK_TIMEOUT = 10_000L;
+    // hub ごとの受領待ちの最大数
+    private static final int ACK_WINDOW = 100;
+    // 受領の遅れを調べる間隔（ミリ秒）
+    private static final long ACK_CHECK_INTERVAL = 250L;
+
+    // 覚えておく測位の数
+    private static final int LOCATION_CACHE_SIZE = 10;
+    // これより古い測位は送らない（ミリ秒）
+    private static final long LOCATION_MAX_AGE = 5 * 60_000L;
+    // 軌跡を間引くときに曲がったとみなす向きの変化（度）
+    private static final double TRACK_HEADING_THRESHOLD = 45.0;
+    // 軌跡を間引くときに覚えておく測位の数
+    private static final int TRACK_WINDOW = 16;
+    // 軌跡を間引いても位置をこれ以上遅らせない（ミリ秒）
+    private static final long TRACK_MAX_LAG = 10_000L;
+
+    // 詰めた形で送るときにキーフレームを送る間隔
+    private static final int KEYFRAME_INTERVAL = 60;
+    private static final long KEYFRAME_AGE = 60_000L;
+
+    // 省電力モードで位置などの変化をまとめて送る間隔（ミリ秒）
+    private static final long LOW_POWER_BURST_INTERVAL = 30_000L;
+    // 1 回にまとめて送る最大件数。状態が変わればすぐに送るので、溜まるのは省電力モードのときだけ
+    private static final int MAX_BATCH_SIZE = 10;
+
+    // hub に報告を止められている間に起きる間隔（ミリ秒）。再開されたらすぐに起きる
+    private static final long PAUSE_INTERVAL = 60 * 60_000L;
+    // hub に求められて位置を取り直すのを諦めるまでの時間（ミリ秒）
+    private static final long FIX_TIMEOUT = 30_000L;
+
+    // 計測値を hub に送る間隔（ミリ秒）
+    private static final long METRICS_INTERVAL = 60_000L;
+    // 覚えておくエラーの数
+    private static final int ERROR_LOG_CAPACITY = 50;
+
+    // 計測値の名前
+    private static final String METRIC_REPORTS_SENT = "reportsSent";
+    private static final String METRIC_EMIT_FAILURES = "emitFailures";
+    private static final String METRIC_ERRORS = "errors";
+    private static final String METRIC_QUEUED_REPORTS = "queuedReports";
+    private static final String METRIC_DROPPED_REPORTS = "droppedReports";
+    private static final String METRIC_EMIT_LATENCY = "emitLatencyMicros";
+    private static final String METRIC_TICK_JITTER = "tickJitterMicros";
+    private static final String METRIC_CONNECT_TIME = "connectTimeMillis";
+    private static final String METRIC_LOCATION_AGE = "locationAgeMillis";
+    private static final String METRIC_PENDING_ACKS = "pendingAcks";
+    private static final String METRIC_RETRANSMITS = "retransmits";
+    private static final String METRIC_LOST_REPORTS = "lostReports";
+    private static final String METRIC_ACK_RTT = "ackRttMillis";
+    private static final String METRIC_STARTUP_READY = "startupReadyMillis";
+    private static final String METRIC_CALL_TO_FIRST_REPORT = "callToFirstReportMillis";
+    private static final String METRIC_HISTORY_BYTES = "historyBytes";
+    private static final String METRIC_LANE_REJECTED = "laneRejected";
+    private static final String METRIC_LANE_DROPPED = "laneDropped";
+    private static final String METRIC_WAKEUPS = "wakeups";
+    private static final String METRIC_RADIO_ON_TIME = "radioOnMillis";
+    private static final String METRIC_ESTIMATED_POWER = "estimatedPowerMilliwatts";
+    private static final String METRIC_REMOTE_INTERVAL = "remoteIntervalMillis";
+    // 列ごとの待ち時間の分布の名前の末尾
+    private static final String METRIC_QUEUE_DELAY_SUFFIX = "QueueMicros";
+
+    /**
+     * 画面から使うための窓口
+     */
+    class LocalBinder extends Binder {
+        ReportService getService() {
+            return ReportService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+
+    private ReportConfigStore configStore;
+    private ReportConfigStore.Listener configListener;
+
+    private GoogleApiClient googleApiClient;
+    private LocationListener locationListener;
+    // hub に求められて取り直した位置を受け取る
+    private LocationListener fixListener;
+    private volatile long locationInterval;
+    private volatile AdaptiveIntervalPolicy.LocationPriority locationPriority;
+    private AdaptiveIntervalPolicy intervalPolicy;
+    // 起きた回数と通信した時間から電力を見積もる
+    private final EnergyModel energyModel = new EnergyModel(Clock.SYSTEM);
+    private BroadcastReceiver batteryReceiver;
+
+    private ReportJournal journal;
+    // 開けなければ null
+    private SessionHistory history;
+    private ScheduledExecutorService connectionExecutor;
+    private ExecutorService dispatchExecutor;
+    private volatile HubDispatcher dispatcher;
+    private ReportQueue queue;
+    // 送れなかったものを送り直すまでの待ち時間
+    private final Backoff retryBackoff = new Backoff(MIN_RETRY_DELAY, MAX_RETRY_DELAY, new Random());
+    private final AtomicBoolean retryScheduled = new AtomicBoolean();
+    private PriorityLanes lanes;
+    private final ReportLaneClassifier laneClassifier = new ReportLaneClassifier(Report.KEY_ID);
+    private Rfc3339Formatter dateFormatter;
+    private ReportScheduler scheduler;
+    private Handler handler;
+
+    private volatile StringCallback errorCallback;
+    private final ErrorLog errorLog = new ErrorLog(ERROR_LOG_CAPACITY);
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    // 最近の測位
+    private LocationCache locationCache;
+    // 電話番号
+    private volatile String phoneNumber;
+
+    private final ReportLifecycle lifecycle = new ReportLifecycle();
+    // 止め終える処理を 1 つずつにする
+    private final Object finishLock = new Object();
+    private volatile ReportPipeline pipeline;
+    // 通報中の軌跡の間引き。通報していなければ null
+    private volatile TrackFilter trackFilter;
+    private ReportIdGenerator reportIdGenerator;
+    // hub に報告を止められていたら true
+    private volatile boolean paused;
+    private final ReportModule.Controller remoteController = new RemoteController();
+
+    private final StartupTimeline timeline = StartupTimeline.getInstance();
+    private boolean warmedUp;
+
+    /**
+     * 位置情報取得モジュールを設定
+     *
+     * @param request       位置情報の更新の要求を作る関数
+     * @param context       コンテクスト
+     * @param listener      位置情報を受け取る関数
+     * @param lastListener  接続時に前回の位置を受け取る関数
+     * @param errorCallback エラー時に呼ばれる関数
+     * @param timeline      起動の段階の記録
+     * @return 位置情報取得モジュール
+     */
+    private static GoogleApiClient setupLocationClient(LocationRequestSupplier request, Context context, LocationListener listener, LocationListener lastListener, StringCallback errorCallback,
+                                                       StartupTimeline timeline) {
+        final AtomicReference<GoogleApiClient> client = new AtomicReference<>();
+        client.set((new GoogleApiClient.Builder(context))
+                .addApi(LocationServices.API)
+                .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
+                    @Override
+                    public void onConnected(@Nullable Bundle bundle) {
+                        timeline.mark(StartupTimeline.PHASE_LOCATION_CONNECTED);
+                        if (hasLocationPermission(context)) {
+                            final Location last = LocationServices.FusedLocationApi.getLastLocation(client.get());
+                            if (last != null) {
+                                lastListener.onLocationChanged(last);
+                            }
+                        }
+                        if (requestLocationUpdates(client.get(), request.get(), context, listener)) {
+                            Log.d(LOG_TAG, "Location monitor started");
+                        }
+                    }
+
+                    @Override
+                    public void onConnectionSuspended(int i) {
+                        Log.d(LOG_TAG, "Location monitor suspended");
+                    }
+                })
+                .addOnConnectionFailedListener(connectionResult -> {
+                    final String warning = "Location detector error: " + connectionResult;
+                    Log.w(LOG_TAG, warning);
+                    if (errorCallback != null) {
+                        errorCallback.call(connectionResult.getErrorMessage());
+                    }
+                })
+                .build());
+        return client.get();
+    }
+
+    /**
+     * 位置情報の更新を要求する。同じ listener で要求済みなら間隔と精度を変える
+     *
+     * @param client   位置情報取得モジュール
+     * @param request  要求
+     * @param context  コンテクスト
+     * @param listener 位置情報を受け取る関数
+     * @return 要求できたら true
+     */
+    private static boolean requestLocationUpdates(GoogleApiClient client, LocationRequest request, Context context, LocationListener listener) {
+        if (!hasLocationPermission(context)) {
+            return false;
+        }
+        LocationServices.FusedLocationApi.requestLocationUpdates(client, request, listener);
+        return true;
+    }
+
+    /**
+     * 今の取得間隔と精度で位置情報の更新の要求を作る
+     *
+     * @return 要求
+     */
+    private LocationRequest newLocationRequest() {
+        final AdaptiveIntervalPolicy.LocationPriority priority = this.locationPriority;
+        this.energyModel.setLocationPriority(priority);
+        return LocationRequest.create()
+                .setInterval(this.locationInterval)
+                .setPriority(priority == AdaptiveIntervalPolicy.LocationPriority.HIGH_ACCURACY
+                        ? LocationRequest.PRIORITY_HIGH_ACCURACY : LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
+    }
+
+    private static boolean hasLocationPermission(Context context) {
+        return ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED ||
+                ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        this.configStore = ReportConfigStore.getInstance(this);
+        final ReportConfig config = this.configStore.get();
+
+        // 報告間隔と位置情報の取得間隔
+        this.intervalPolicy = new AdaptiveIntervalPolicy(Clock.SYSTEM,
+                config.getMinReportInterval(), config.getMaxReportInterval(),
+                config.getMinLocationInterval(), config.getMaxLocationInterval());
+        this.intervalPolicy.setLowPower(config.isLowPower());
+        final AtomicReference<ReportConfig> connectedConfig = new AtomicReference<>(config);
+        this.configListener = newConfig -> {
+            this.intervalPolicy.setBounds(
+                    newConfig.getMinReportInterval(), newConfig.getMaxReportInterval(),
+                    newConfig.getMinLocationInterval(), newConfig.getMaxLocationInterval());
+            this.intervalPolicy.setLowPower(newConfig.isLowPower());
+            final ReportConfig oldConfig = connectedConfig.getAndSet(newConfig);
+            if (!(oldConfig.getServers().equals(newConfig.getServers()) && oldConfig.getActorKey().equals(newConfig.getActorKey())
+                    && oldConfig.isCompact() == newConfig.isCompact() && oldConfig.isBinary() == newConfig.isBinary())) {
+                // hub の数が変わるかもしれないので作り直す。
+                // 前の送り先で受領を待っていたものは諦めて、ジャーナルから新しい送り先に送り直す
+                final HubDispatcher old = this.dispatcher;
+                this.dispatcher = newDispatcher(newConfig);
+                old.close();
+                this.dispatcher.open();
+            }
+        };
+        this.configStore.addListener(this.configListener);
+        this.locationInterval = this.intervalPolicy.getLocationInterval();
+        this.locationPriority = this.intervalPolicy.getLocationPriority();
+        this.batteryReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                final int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                final int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                final int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+                if (level < 0 || scale <= 0) {
+                    return;
+                }
+                ReportService.this.intervalPolicy.onBattery((double) level / scale,
+                        status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL);
+            }
+        };
+        registerReceiver(this.batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+
+        // 位置情報の取得準備
+        this.locationCache = new LocationCache(LOCATION_CACHE_SIZE, LOCATION_MAX_AGE);
+        this.locationListener = location -> {
+            Log.d(LOG_TAG, "Location changed to " + location);
+            this.energyModel.wakeup();
+            offerLocation(location);
+            this.intervalPolicy.onLocation(location.getLatitude(), location.getLongitude(),
+                    location.hasSpeed() ? location.getSpeed() : Double.NaN,
+                    location.hasAccuracy() ? location.getAccuracy() : Double.NaN);
+        };
+        this.fixListener = location -> {
+            Log.d(LOG_TAG, "Location fixed to " + location);
+            this.locationListener.onLocationChanged(location);
+            // 待たずに報告する
+            this.scheduler.runNow();
+        };
+        this.googleApiClient = setupLocationClient(this::newLocationRequest, this, this.locationListener, this::offerLocation, this::showError, this.timeline);
+
+        this.dateFormatter = new Rfc3339Formatter(TimeZone.getDefault());
+
+        try {
+            this.journal = new ReportJournal(new File(getFilesDir(), JOURNAL_FILE), JOURNAL_CAPACITY);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        try {
+            this.history = new SessionHistory(new File(getFilesDir(), HISTORY_DIRECTORY), HISTORY_CAPACITY);
+        } catch (IOException e) {
+            // 無くても通報はできる
+            Log.w(LOG_TAG, "Opening history failed", e);
+        }
+
+        // 接続していない間の通報データは溜めておき、接続したら送る
+        this.connectionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatchExecutor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "dispatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final AtomicLong reportsSent = this.metrics.counter(METRIC_REPORTS_SENT);
+        final AtomicLong emitFailures = this.metrics.counter(METRIC_EMIT_FAILURES);
+        final Histogram emitLatency = this.metrics.histogram(METRIC_EMIT_LATENCY);
+        // 溜めたものは優先度ごとの列に分けて、通報の最初の報告を先に送る
+        final Map<PriorityLanes.Lane, Histogram> queueDelays = new EnumMap<>(PriorityLanes.Lane.class);
+        for (PriorityLanes.Lane lane : PriorityLanes.Lane.values()) {
+            queueDelays.put(lane, this.metrics.histogram(toMetricName(lane) + METRIC_QUEUE_DELAY_SUFFIX));
+        }
+        this.lanes = new PriorityLanes((lane, frame) -> {
+            if (lane == PriorityLanes.Lane.DIAGNOSTICS) {
+                this.dispatcher.emit(MetricsRegistry.EVENT_METRICS, frame);
+                this.energyModel.transmit();
+                return;
+            }
+            final long start = System.nanoTime();
+            // 全ての hub に送るときは結果を待たずに次を送る
+            this.dispatcher.send(frame, new HubDispatcher.Callback() {
+                @Override
+                public void onSent() {
+                    emitLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                    ReportService.this.energyModel.transmit();
+                    reportsSent.incrementAndGet();
+                    if (ReportService.this.timeline.mark(StartupTimeline.PHASE_FIRST_REPORT)) {
+                        logStartup();
+                    }
+                }
+
+                @Override
+                public void onFailure(RuntimeException e) {
+                    emitFailures.incrementAndGet();
+                    // ジャーナルに残っているので、後で送り直す
+                    retry(frame);
+                }
+
+                @Override
+                public void onDelivered() {
+                    // 受領されたのでジャーナルから消す
+                    ReportService.this.queue.complete(frame);
+                    ReportService.this.retryBackoff.reset();
+                }
+
+                @Override
+                public void onLost() {
+                    // 切断や送り先の作り直しで受領が来なくなった。ジャーナルから送り直す
+                    retry(frame);
+                }
+            });
+        }, new PriorityLanes.Listener() {
+            @Override
+            public void onFailure(PriorityLanes.Lane lane, Object frame, RuntimeException e) {
+                if (lane == PriorityLanes.Lane.DIAGNOSTICS) {
+                    Log.w(LOG_TAG, "Sending metrics failed", e);
+                    return;
+                }
+                // ジャーナルに残っているので、後で送り直す
+                retry(frame);
+            }
+
+            @Override
+            public void onAvailable(PriorityLanes.Lane lane) {
+                ReportService.this.queue.setConnected(ReportService.this.dispatcher.isConnected());
+            }
+        }, queueDelays);
+        // 列の処理から使うので、始める前に作る
+        this.queue = new ReportQueue(this.journal, frame -> {
+            if (!this.lanes.offer(this.laneClassifier.classify(frame), frame)) {
+                // 空いたら送り直す。入れられなかったものは送ったことにしない
+                throw new IllegalStateException("Lane is full");
+            }
+            this.laneClassifier.commit(frame);
+        }, Report.KEY_ID, MAX_REPLAY_BATCH, MAX_SEND_ATTEMPTS);
+        this.lanes.start("lanes");
+        this.metrics.gauge(METRIC_LANE_REJECTED, () -> {
+            long rejected = 0;
+            for (PriorityLanes.Lane lane : PriorityLanes.Lane.values()) {
+                rejected += this.lanes.getRejectedCount(lane);
+            }
+            return rejected;
+        });
+        this.metrics.gauge(METRIC_LANE_DROPPED, () -> {
+            long dropped = 0;
+            for (PriorityLanes.Lane lane : PriorityLanes.Lane.values()) {
+                dropped += this.lanes.getDroppedCount(lane);
+            }
+            return dropped;
+        });
+        this.metrics.gauge(METRIC_WAKEUPS, this.energyModel::getWakeupCount);
+        this.metrics.gauge(METRIC_RADIO_ON_TIME, this.energyModel::getRadioOnTime);
+        this.metrics.gauge(METRIC_ESTIMATED_POWER, () -> Math.round(this.energyModel.getAveragePower()));
+        this.metrics.gauge(METRIC_REMOTE_INTERVAL, this.intervalPolicy::getRemoteInterval);
+        this.metrics.gauge(METRIC_QUEUED_REPORTS, this.queue::getPendingCount);
+        this.metrics.gauge(METRIC_DROPPED_REPORTS, () -> this.journal.getDroppedCount() + this.queue.getDiscardedCount());
+        this.dispatcher = newDispatcher(config);
+        this.dispatcher.open();
+        this.connectionExecutor.scheduleAtFixedRate(this::sendMetrics, METRICS_INTERVAL, METRICS_INTERVAL, TimeUnit.MILLISECONDS);
+        this.connectionExecutor.scheduleWithFixedDelay(this::checkLink, ACK_CHECK_INTERVAL, ACK_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+        if (this.history != null) {
+            this.connectionExecutor.scheduleWithFixedDelay(this::syncHistory, HISTORY_SYNC_INTERVAL, HISTORY_SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+            this.metrics.gauge(METRIC_HISTORY_BYTES, this.history::getTotalSize);
+        }
+        this.metrics.gauge(METRIC_STARTUP_READY, this.timeline::getReadyTime);
+        this.metrics.gauge(METRIC_CALL_TO_FIRST_REPORT, () -> this.timeline.between(StartupTimeline.PHASE_CALL, StartupTimeline.PHASE_FIRST_REPORT));
+        this.metrics.gauge(METRIC_PENDING_ACKS, () -> this.dispatcher.getStatus().getPendingCount());
+        this.metrics.gauge(METRIC_RETRANSMITS, () -> this.dispatcher.getStatus().getRetransmitCount());
+        this.metrics.gauge(METRIC_LOST_REPORTS, () -> this.dispatcher.getStatus().getLostCount());
+        this.metrics.gauge(METRIC_ACK_RTT, () -> {
+            final double roundTripTime = this.dispatcher.getStatus().getRoundTripTime();
+            return Double.isNaN(roundTripTime) ? -1 : Math.round(roundTripTime);
+        });
+
+        this.scheduler = new ReportScheduler("report", this.metrics.histogram(METRIC_TICK_JITTER));
+        this.handler = new Handler();
+
+        this.reportIdGenerator = new ReportIdGenerator(Math.abs((new Random(System.currentTimeMillis())).nextInt()));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        final String action = intent == null ? null : intent.getAction();
+        if (ACTION_START.equals(action)) {
+            start(intent.getStringExtra(EXTRA_PHONE_NUMBER));
+        } else if (ACTION_WARM_UP.equals(action)) {
+            warmUp();
+        } else if (ACTION_STOP.equals(action)) {
+            stop();
+        } else {
+            // 知らない指示で通報を止めない
+            Log.w(LOG_TAG, "Unknown action " + action);
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return this.binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        stop();
+        if (this.lifecycle.getState() == ReportLifecycle.State.STOPPING) {
+            // 接続用のスレッドはこの後すぐに終わらせるので、ここで止め終える
+            finishReporting(this.lifecycle.getGeneration());
+        }
+        this.scheduler.shutdown();
+        this.configStore.removeListener(this.configListener);
+        this.lanes.shutdown();
+        this.dispatcher.close();
+        this.googleApiClient.disconnect();
+        // 溜まっている記録を書いてから閉じる
+        writeHistory(this::closeHistory);
+        this.connectionExecutor.shutdown();
+        this.dispatchExecutor.shutdownNow();
+        unregisterReceiver(this.batteryReceiver);
+        try {
+            this.journal.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Closing journal failed", e);
+        }
+    }
+
+    /**
+     * エラーの通知先を設定する
+     *
+     * @param errorCallback エラー時に呼ばれる関数
+     */
+    void setErrorCallback(StringCallback errorCallback) {
+        this.errorCallback = errorCallback;
+    }
+
+    /**
+     * @return 通報中なら true
+     */
+    boolean isReporting() {
+        final ReportLifecycle.State state = this.lifecycle.getState();
+        return state == ReportLifecycle.State.CONNECTING || state == ReportLifecycle.State.REPORTING;
+    }
+
+    /**
+     * @return 最後の通報で、求められてから最初に送信するまでの時間（ミリ秒）。まだなら -1
+     */
+    long getTimeToFirstReport() {
+        return this.dispatcher.getTimeToFirstReport();
+    }
+
+    /**
+     * @return hub との通信状態
+     */
+    HubDispatcher.Status getLinkStatus() {
+        return this.dispatcher.getStatus();
+    }
+
+    /**
+     * @return 通報ごとの記録。開けなかったら null
+     */
+    SessionHistory getHistory() {
+        return this.history;
+    }
+
+    private void showError(String error) {
+        this.errorLog.add(error);
+        final long time = System.currentTimeMillis();
+        writeHistory(() -> {
+            try {
+                this.history.recordError(time, error);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Recording error failed", e);
+            }
+        });
+        this.metrics.counter(METRIC_ERRORS).incrementAndGet();
+        final StringCallback callback = this.errorCallback;
+        if (callback != null) {
+            callback.call(error);
+        }
+    }
+
+    /**
+     * 許可が分かったら、通報を待たずに測位、hub への接続、電話番号の取得を並行して始める。
+     * どれもメインスレッドを待たせない
+     */
+    private synchronized void warmUp() {
+        if (this.warmedUp) {
+            return;
+        }
+        this.warmedUp = true;
+        this.timeline.mark(StartupTimeline.PHASE_WARM_UP);
+        this.dispatcher.open();
+        if (!(this.googleApiClient.isConnecting() || this.googleApiClient.isConnected())) {
+            this.googleApiClient.connect();
+        }
+        this.dispatchExecutor.execute(() -> {
+            seedLocation();
+            lookUpPhoneNumber();
+        });
+    }
+
+    /**
+     * 端末の電話番号を調べる。時間が掛かることがあるのでメインスレッドでは呼ばない
+     */
+    private void lookUpPhoneNumber() {
+        try {
+            final String phoneNumber = ((TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE)).getLine1Number();
+            Log.i(LOG_TAG, "Phone number is " + phoneNumber);
+            if (this.phoneNumber == null) {
+                this.phoneNumber = phoneNumber;
+            }
+        } catch (SecurityException e) {
+            Log.w(LOG_TAG, "Phone number is not available", e);
+        }
+        this.timeline.mark(StartupTimeline.PHASE_PHONE_NUMBER);
+    }
+
+    /**
+     * 起動の段階ごとの時間を記録する
+     */
+    private void logStartup() {
+        Log.i(LOG_TAG, "Startup phases " + this.timeline.toMap());
+        final long ready = this.timeline.getReadyTime();
+        if (ready > StartupTimeline.TARGET_READY) {
+            Log.w(LOG_TAG, "Ready in " + ready + " ms, target " + StartupTimeline.TARGET_READY + " ms");
+        }
+        final long callToFirstReport = this.timeline.between(StartupTimeline.PHASE_CALL, StartupTimeline.PHASE_FIRST_REPORT);
+        if (callToFirstReport > StartupTimeline.TARGET_CALL_TO_FIRST_REPORT) {
+            Log.w(LOG_TAG, "First report in " + callToFirstReport + " ms after call, target " + StartupTimeline.TARGET_CALL_TO_FIRST_REPORT + " ms");
+        }
+    }
+
+    /**
+     * 報告を始める
+     *
+     * @param phoneNumber 電話番号。端末から調べるなら null
+     */
+    private void start(String phoneNumber) {
+        final long generation = this.lifecycle.start();
+        if (generation < 0) {
+            if (this.lifecycle.getState() == ReportLifecycle.State.STOPPING) {
+                // 止め終わってから始める。止める処理は同じスレッドに先に入っている
+                this.connectionExecutor.execute(() -> this.handler.post(() -> {
+                    // 終わった後は始めない
+                    if (!this.connectionExecutor.isShutdown()) {
+                        start(phoneNumber);
+                    }
+                }));
+            }
+            return;
+        }
+        this.timeline.mark(StartupTimeline.PHASE_CALL);
+        if (phoneNumber != null) {
+            this.phoneNumber = phoneNumber;
+        }
+
+        final PendingIntent contentIntent = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), 0);
+        startForeground(NOTIFICATION_ID, (new NotificationCompat.Builder(this))
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.notification_reporting))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .build());
+
+        if (!(this.googleApiClient.isConnecting() || this.googleApiClient.isConnected())) {
+            // 準備が済んでいなければ、前回の位置を入れてから測位を始める
+            seedLocation();
+            this.googleApiClient.connect();
+        }
+        report(generation);
+    }
+
+    /**
+     * 報告を止める。
+     * 実行中の報告の処理が抜けるのを待ってから残りを送るので、止めた後に古い報告が送られることはない。
+     * 報告の処理は送信で待つこともあるので、待つのは接続用のスレッドで行い、呼び出し元は待たせない
+     */
+    void stop() {
+        final long generation = this.lifecycle.stop();
+        if (generation >= 0) {
+            this.scheduler.stop();
+            this.connectionExecutor.execute(() -> finishReporting(generation));
+        }
+        // 次の通報に備えて、測位と hub への接続は本当に終わるまで残す。
+        // 画面が繋がっている間は終わらない
+        stopForeground(true);
+        stopSelf();
+    }
+
+    /**
+     * 実行中の報告の処理が抜けるのを待って、残りを送る
+     *
+     * @param generation 止めた世代
+     */
+    private void finishReporting(long generation) {
+        synchronized (this.finishLock) {
+            if (this.lifecycle.getState() != ReportLifecycle.State.STOPPING || this.lifecycle.getGeneration() != generation) {
+                // 止め終わっている
+                return;
+            }
+            this.lifecycle.awaitTicks(generation);
+            final ReportPipeline pipeline = this.pipeline;
+            if (pipeline != null) {
+                this.pipeline = null;
+                pipeline.flush(System.currentTimeMillis());
+            }
+            this.trackFilter = null;
+            // 残りの記録の後に終わらせる
+            final long time = System.currentTimeMillis();
+            writeHistory(() -> {
+                try {
+                    this.history.endSession(time);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Ending history session failed", e);
+                }
+            });
+            this.lifecycle.finish(generation);
+        }
+    }
+
+    private void offerLocation(Location location) {
+        this.timeline.mark(StartupTimeline.PHASE_FIRST_FIX);
+        this.locationCache.offer(location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                location.hasAccuracy() ? location.getAccuracy() : Double.NaN, location.getTime());
+        final TrackFilter trackFilter = this.trackFilter;
+        if (trackFilter != null) {
+            // 報告に使わない測位も軌跡には含める
+            trackFilter.offer(location.getLatitude(), location.getLongitude(), location.getAltitude(), location.getTime());
+        }
+    }
+
+    /**
+     * 最初の通報から位置を送れるように、端末が覚えている前回の位置を入れておく
+     */
+    private void seedLocation() {
+        if (!hasLocationPermission(this)) {
+            return;
+        }
+        final LocationManager locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        for (String provider : locationManager.getProviders(true)) {
+            final Location last = locationManager.getLastKnownLocation(provider);
+            if (last != null) {
+                offerLocation(last);
+            }
+        }
+    }
+
+    /**
+     * 通報データを hub に送る
+     *
+     * @param generation 通報の世代
+     */
+    private void report(long generation) {
+        final ReportConfig config = this.configStore.get();
+
+        this.dispatcher.markReportRequested();
+        // 切れていたらすぐに繋ぎ直す
+        this.dispatcher.open();
+        final int reportId = this.reportIdGenerator.next();
+        this.laneClassifier.startSession(reportId);
+        // 新しい通報は止められていても送る
+        this.paused = false;
+        final ReportPipeline.Sink sink;
+        if (this.history == null) {
+            sink = this.queue;
+        } else {
+            final long time = System.currentTimeMillis();
+            writeHistory(() -> {
+                try {
+                    this.history.startSession(reportId, time);
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Starting history session failed", e);
+                }
+            });
+            sink = frame -> {
+                recordHistory(frame);
+                this.queue.send(frame);
+            };
+        }
+        final ReportPipeline pipeline = new ReportPipeline(sink, MAX_BATCH_SIZE, config.getBatchAge());
+        if (config.isLowPower()) {
+            // 通報の最初の報告はすぐに送り、その後の変化はまとめて送って通信の回数を減らす
+            pipeline.setBurstInterval(LOW_POWER_BURST_INTERVAL);
+        }
+        this.pipeline = pipeline;
+        final TrackFilter trackFilter = new TrackFilter(config.getTrackTolerance(), TRACK_HEADING_THRESHOLD, TRACK_WINDOW, TRACK_MAX_LAG);
+        this.trackFilter = trackFilter;
+        if (!this.lifecycle.activate(generation)) {
+            Log.d(LOG_TAG, "Stopped before reporting " + generation);
+            return;
+        }
+        // この後に止められても、報告の処理は古い世代だと分かって自分で終わる
+        this.scheduler.start(new ReportTask(generation, pipeline, trackFilter, reportId));
+    }
+
+    /**
+     * 送った通報データを通報ごとの記録に書く。書けなくても送信は続ける
+     *
+     * @param frame 通報データかその配列
+     */
+    private void recordHistory(Object frame) {
+        final long time = System.currentTimeMillis();
+        writeHistory(() -> {
+            try {
+                this.history.recordReports(time, frame);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Recording report failed", e);
+            }
+        });
+    }
+
+    /**
+     * 送れなかったものをジャーナルに戻し、少し待ってから送り直す。
+     * 送り直すときは hub に繋がっているかを調べ直す。続けて失敗するほど長く待つ
+     *
+     * @param frame 送れなかったもの
+     */
+    private void retry(Object frame) {
+        this.queue.fail(frame);
+        if (!this.retryScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.connectionExecutor.schedule(() -> {
+                this.retryScheduled.set(false);
+                this.queue.setConnected(this.dispatcher.isConnected());
+            }, this.retryBackoff.next(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 終わった後は送り直さない
+            this.retryScheduled.set(false);
+        }
+    }
+
+    /**
+     * 通報ごとの記録への書き込みを接続用のスレッドで順に行う。
+     * 書き込みは古いセッションの削除や同期を伴うので、画面や報告の処理を待たせない
+     *
+     * @param write 書き込み
+     */
+    private void writeHistory(Runnable write) {
+        if (this.history == null) {
+            return;
+        }
+        try {
+            this.connectionExecutor.execute(write);
+        } catch (RejectedExecutionException e) {
+            // 終わった後は書かない
+            Log.w(LOG_TAG, "History is already closed", e);
+        }
+    }
+
+    private void closeHistory() {
+        try {
+            this.history.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Closing history failed", e);
+        }
+    }
+
+    private void syncHistory() {
+        try {
+            this.history.sync();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Syncing history failed", e);
+        }
+    }
+
+    /**
+     * 受領の遅れを調べ、通信状態を報告間隔に反映する
+     */
+    private void checkLink() {
+        final HubDispatcher dispatcher = this.dispatcher;
+        dispatcher.checkTimeouts();
+        final HubDispatcher.Status status = dispatcher.getStatus();
+        this.intervalPolicy.onLink(status.getRoundTripTime(), status.getLossRate());
+    }
+
+    /**
+     * 計測値を hub に送る。接続していなければ捨てずに次に回す
+     */
+    private void sendMetrics() {
+        if (!this.dispatcher.isConnected()) {
+            return;
+        }
+        this.lanes.offer(PriorityLanes.Lane.DIAGNOSTICS, this.metrics.export());
+    }
+
+    /**
+     * @param lane 列
+     * @return 計測値の名前に使う列の名前。ALERT なら alert、STATE_CHANGE なら stateChange
+     */
+    private static String toMetricName(PriorityLanes.Lane lane) {
+        final StringBuilder name = new StringBuilder();
+        for (String word : lane.name().toLowerCase(Locale.US).split("_")) {
+            name.append(name.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+        }
+        return name.toString();
+    }
+
+    /**
+     * 設定された hub ごとの接続と、それらに送るものを作る
+     *
+     * @param config 設定
+     * @return hub に送るもの
+     */
+    private HubDispatcher newDispatcher(ReportConfig config) {
+        final Histogram connectTime = this.metrics.histogram(METRIC_CONNECT_TIME);
+        final List<ActorConnection> connections = new ArrayList<>();
+        // 受領は作ったあとの送り先に渡す
+        final AtomicReference<HubDispatcher> dispatcher = new AtomicReference<>();
+        for (String server : config.getServers()) {
+            final int index = connections.size();
+            // 詰めた形を受け取れるかは今の接続に知らせる
+            final AtomicReference<ActorTransport> transport = new AtomicReference<>();
+            final ReportModule module = new ReportModule(key -> dispatcher.get().onAck(index, key), this.remoteController, encoding -> {
+                final ActorTransport current = transport.get();
+                if (current == null) {
+                    throw new IllegalStateException("Not connected");
+                }
+                current.acceptEncoding(encoding);
+                Log.d(LOG_TAG, server + " accepted " + encoding);
+            });
+            final ActorConnection connection = new ActorConnection(() -> {
+                final ActorTransport created = newTransport(server, module);
+                transport.set(created);
+                return created;
+            }, new Backoff(MIN_RECONNECT_DELAY, MAX_RECONNECT_DELAY, new Random()), this.connectionExecutor, Clock.SYSTEM, CONNECT_TIMEOUT);
+            connection.addListener(new ActorConnection.Listener() {
+                @Override
+                public void onConnect() {
+                    Log.d(LOG_TAG, "Connected to " + server + " in " + connection.getConnectTime() + " ms");
+                    ReportService.this.timeline.mark(StartupTimeline.PHASE_HUB_CONNECTED);
+                    connectTime.record(connection.getConnectTime());
+                    ReportService.this.queue.setConnected(true);
+                }
+
+                @Override
+                public void onDisconnect() {
+                    Log.d(LOG_TAG, "Disconnected from " + server);
+                    final HubDispatcher current = ReportService.this.dispatcher;
+                    ReportService.this.queue.setConnected(current != null && current.isConnected());
+                }
+            });
+            connections.add(connection);
+        }
+        dispatcher.set(new HubDispatcher(connections, Report.EVENT_EMERGENCY, this.dispatchExecutor, Clock.SYSTEM,
+                ACK_TIMEOUT, ACK_WINDOW));
+        return dispatcher.get();
+    }
+
+    /**
+     * 今の設定で hub への接続を作る
+     *
+     * @param server hub の URL
+     * @param module 呼び出し側から使えるモジュール
+     * @return 接続
+     */
+    private ActorTransport newTransport(String server, ReportModule module) {
+        final ReportConfig config = this.configStore.get();
+        final String version;
+        try {
+            version = getPackageManager().getPackageInfo(this.getPackageName(), 0).versionName;
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        // 差分は接続ごとに数え直す
+        final BinaryReportEncoder binaryEncoder = config.isBinary() ? new BinaryReportEncoder(KEYFRAME_INTERVAL, KEYFRAME_AGE) : null;
+        final CompactReportEncoder encoder = binaryEncoder == null && config.isCompact() ? new CompactReportEncoder(KEYFRAME_INTERVAL, KEYFRAME_AGE) : null;
+        return new ActorTransport(server, config.getActorKey(), getString(R.string.name), version, getString(R.string.description), encoder, binaryEncoder, module);
+    }
+
+    /**
+     * 定期的に通報データを作ってパイプラインに渡す。
+     * 毎回同じものを使い回す
+     */
+    private final class ReportTask implements ReportScheduler.Task {
+
+        private final long generation;
+        private final ReportPipeline pipeline;
+        private final TrackFilter trackFilter;
+        private final int reportId;
+        private final ReportBuilder builder;
+        private final Histogram locationAge;
+
+        private ReportTask(long generation, ReportPipeline pipeline, TrackFilter trackFilter, int reportId) {
+            this.generation = generation;
+            this.pipeline = pipeline;
+            this.trackFilter = trackFilter;
+            this.reportId = reportId;
+            this.builder = new ReportBuilder(ReportService.this.dateFormatter);
+            this.locationAge = ReportService.this.metrics.histogram(METRIC_LOCATION_AGE);
+        }
+
+        @Override
+        public long run() {
+            final ReportLifecycle lifecycle = ReportService.this.lifecycle;
+            if (!lifecycle.enter(this.generation)) {
+                // 止められた世代の処理は捨てて、繰り返しも終わらせる
+                return -1;
+            }
+            try {
+                return tick();
+            } finally {
+                lifecycle.exit();
+            }
+        }
+
+        private long tick() {
+            final AdaptiveIntervalPolicy policy = ReportService.this.intervalPolicy;
+            ReportService.this.energyModel.wakeup();
+            final long now = System.currentTimeMillis();
+            if (ReportService.this.paused) {
+                // 溜めている分は送っておく
+                this.pipeline.flush(now);
+                return PAUSE_INTERVAL;
+            }
+            final Report report = this.builder.start(this.reportId, now);
+            if (ReportService.this.locationCache.select(now, report)) {
+                this.locationAge.record(now - report.getLocationTime());
+                // 止まっているときのぶれやまっすぐ進んでいる途中の点は送らない
+                this.trackFilter.apply(report);
+            }
+            report.setPhoneNumber(ReportService.this.phoneNumber);
+            this.pipeline.offer(report, now);
+
+            final long interval = policy.nextReportInterval();
+            final long locationInterval = policy.getLocationInterval();
+            final AdaptiveIntervalPolicy.LocationPriority locationPriority = policy.getLocationPriority();
+            if (locationInterval != ReportService.this.locationInterval || locationPriority != ReportService.this.locationPriority) {
+                ReportService.this.handler.post(() -> updateLocationRequest(locationInterval, locationPriority));
+            }
+            return interval;
+        }
+
+    }
+
+    /**
+     * 位置情報の取得間隔と精度を変える。メインスレッドで呼ぶ
+     *
+     * @param interval 取得間隔（ミリ秒）
+     * @param priority 精度
+     */
+    private void updateLocationRequest(long interval, AdaptiveIntervalPolicy.LocationPriority priority) {
+        if (interval == this.locationInterval && priority == this.locationPriority) {
+            return;
+        }
+        this.locationInterval = interval;
+        this.locationPriority = priority;
+        if (this.googleApiClient.isConnected()) {
+            requestLocationUpdates(this.googleApiClient, newLocationRequest(), this, this.locationListener);
+            Log.d(LOG_TAG, "Location request changed to " + interval + " ms, " + priority);
+        }
+    }
+
+    /**
+     * hub からの報告の操作を受ける。sugo-actor のスレッドから呼ばれる
+     */
+    private final class RemoteController implements ReportModule.Controller {
+
+        @Override
+        public void setInterval(long interval) {
+            ReportService.this.intervalPolicy.setRemoteInterval(interval);
+            Log.d(LOG_TAG, "Remote interval set to " + interval);
+            // 次の報告から新しい間隔にする
+            ReportService.this.scheduler.runNow();
+        }
+
+        @Override
+        public void requestFix() {
+            checkReporting();
+            if (!ReportService.this.googleApiClient.isConnected()) {
+                throw new IllegalStateException("Location is not available");
+            }
+            ReportService.this.handler.post(ReportService.this::requestFix);
+        }
+
+        @Override
+        public void pause() {
+            checkReporting();
+            ReportService.this.paused = true;
+            Log.d(LOG_TAG, "Reporting paused");
+            ReportService.this.scheduler.runNow();
+        }
+
+        @Override
+        public void resume() {
+            checkReporting();
+            ReportService.this.paused = false;
+            Log.d(LOG_TAG, "Reporting resumed");
+            ReportService.this.scheduler.runNow();
+        }
+
+        /**
+         * 位置の取り直しや報告の停止は通報中にしか意味が無い。
+         * 止めた後も位置情報の接続は残っているので、通報の状態で調べる
+         */
+        private void checkReporting() {
+            if (!isReporting()) {
+                throw new IllegalStateException("Not reporting");
+            }
+        }
+
+    }
+
+    /**
+     * 精度の高い位置を 1 回だけ取り直す。メインスレッドで呼ぶ
+     */
+    private void requestFix() {
+        if (!this.googleApiClient.isConnected()) {
+            return;
+        }
+        final LocationRequest request = LocationRequest.create()
+                .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
+                .setInterval(0)
+                .setNumUpdates(1)
+                .setExpirationDuration(FIX_TIMEOUT);
+        if (requestLocationUpdates(this.googleApiClient, request, this, this.fixListener)) {
+            Log.d(LOG_TAG, "Location fix requested");
+        }
+    }
+
+    interface StringCallback {
+        void call(String error);
+    }
+
+    private interface LocationRequestSupplier {
+        LocationRequest get();
+    }
+
+}
@@ -0,0 +1,192 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.TimeZone;
+
+/**
+ * 日時を RFC3339 形式 (yyyy-MM-dd'T'HH:mm:ss.SSS+hh:mm) の文字列にする。
+ * 秒が変わったときだけ日付部分を計算し直し、それ以外はオブジェクトを生成しない。
+ * 複数のスレッドから使える。
+ */
+final class Rfc3339Formatter {
+
+    /**
+     * 書き出す最大の文字数
+     */
+    static final int MAX_LENGTH = 29;
+
+    private static final int PREFIX_LENGTH = 19;
+
+    private final TimeZone zone;
+
+    // 以下は最後に計算した秒のもの
+    private long cachedSecond = Long.MIN_VALUE;
+    private final char[] prefix = new char[PREFIX_LENGTH];
+    private final char[] suffix = new char[6];
+    private int suffixLength;
+
+    /**
+     * @param zone タイムゾーン
+     */
+    Rfc3339Formatter(TimeZone zone) {
+        this.zone = (TimeZone) zone.clone();
+    }
+
+    /**
+     * 書き出す
+     *
+     * @param millis 日時（UNIX 時間のミリ秒）
+     * @param dest   書き出し先
+     * @param offset 書き出し始める位置
+     * @return 書き出した文字数
+     */
+    synchronized int format(long millis, char[] dest, int offset) {
+        final long second = floorDiv(millis, 1_000L);
+        if (second != this.cachedSecond) {
+            update(second);
+        }
+
+        System.arraycopy(this.prefix, 0, dest, offset, PREFIX_LENGTH);
+        int position = offset + PREFIX_LENGTH;
+        final int milli = (int) (millis - second * 1_000L);
+        dest[position++] = '.';
+        dest[position++] = (char) ('0' + milli / 100);
+        dest[position++] = (char) ('0' + milli / 10 % 10);
+        dest[position++] = (char) ('0' + milli % 10);
+        System.arraycopy(this.suffix, 0, dest, position, this.suffixLength);
+        return position + this.suffixLength - offset;
+    }
+
+    private void update(long second) {
+        final int zoneOffset = this.zone.getOffset(second * 1_000L);
+        final long localSecond = second + zoneOffset / 1_000;
+        final long days = floorDiv(localSecond, 86_400L);
+        final int secondOfDay = (int) (localSecond - days * 86_400L);
+
+        // 日数から年月日を求める
+        final long z = days + 719_468L;
+        final long era = floorDiv(z, 146_097L);
+        final long dayOfEra = z - era * 146_097L;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1_460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        final long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        final long monthPart = (5 * dayOfYear + 2) / 153;
+        final int day = (int) (dayOfYear - (153 * monthPart + 2) / 5 + 1);
+        final int month = (int) (monthPart < 10 ? monthPart + 3 : monthPart - 9);
+        final int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        putDigits(this.prefix, 0, year, 4);
+        this.prefix[4] = '-';
+        putDigits(this.prefix, 5, month, 2);
+        this.prefix[7] = '-';
+        putDigits(this.prefix, 8, day, 2);
+        this.prefix[10] = 'T';
+        putDigits(this.prefix, 11, secondOfDay / 3_600, 2);
+        this.prefix[13] = ':';
+        putDigits(this.prefix, 14, secondOfDay / 60 % 60, 2);
+        this.prefix[16] = ':';
+        putDigits(this.prefix, 17, secondOfDay % 60, 2);
+
+        if (zoneOffset == 0) {
+            this.suffix[0] = 'Z';
+            this.suffixLength = 1;
+        } else {
+            final int offsetMinutes = Math.abs(zoneOffset) / 60_000;
+            this.suffix[0] = zoneOffset < 0 ? '-' : '+';
+            putDigits(this.suffix, 1, offsetMinutes / 60, 2);
+            this.suffix[3] = ':';
+            putDigits(this.suffix, 4, offsetMinutes % 60, 2);
+            this.suffixLength = 6;
+        }
+        this.cachedSecond = second;
+    }
+
+    /**
+     * {@link #format} で書き出した文字列を読む
+     *
+     * @param text 文字列
+     * @return 日時（UNIX 時間のミリ秒）
+     * @throws IllegalArgumentException 形式が違う
+     */
+    static long parse(CharSequence text) {
+        if (text.length() < 24 || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+                || text.charAt(13) != ':' || text.charAt(16) != ':' || text.charAt(19) != '.') {
+            throw new IllegalArgumentException("Invalid date " + text);
+        }
+        final int year = getDigits(text, 0, 4);
+        final int month = getDigits(text, 5, 2);
+        final int day = getDigits(text, 8, 2);
+        final int secondOfDay = getDigits(text, 11, 2) * 3_600 + getDigits(text, 14, 2) * 60 + getDigits(text, 17, 2);
+        final int milli = getDigits(text, 20, 3);
+        final int zoneOffset = parseZoneOffset(text);
+
+        // 年月日から日数を求める
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = floorDiv(y, 400L);
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        final long days = era * 146_097L + dayOfEra - 719_468L;
+
+        return ((days * 86_400L + secondOfDay) - zoneOffset / 1_000) * 1_000L + milli;
+    }
+
+    /**
+     * {@link #format} で書き出した文字列の時差を読む
+     *
+     * @param text 文字列
+     * @return 時差（ミリ秒）
+     * @throws IllegalArgumentException 形式が違う
+     */
+    static int parseZoneOffset(CharSequence text) {
+        if (text.length() == 24 && text.charAt(23) == 'Z') {
+            return 0;
+        } else if (text.length() != 29 || text.charAt(26) != ':' || (text.charAt(23) != '+' && text.charAt(23) != '-')) {
+            throw new IllegalArgumentException("Invalid date " + text);
+        }
+        final int minutes = getDigits(text, 24, 2) * 60 + getDigits(text, 27, 2);
+        return (text.charAt(23) == '-' ? -minutes : minutes) * 60_000;
+    }
+
+    private static int getDigits(CharSequence text, int offset, int width) {
+        int value = 0;
+        for (int i = offset; i < offset + width; i++) {
+            final char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Invalid date " + text);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void putDigits(char[] dest, int offset, int value, int width) {
+        for (int i = offset + width - 1; i >= offset; i--) {
+            dest[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        final long quotient = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            return quotient - 1;
+        }
+        return quotient;
+    }
+
+}
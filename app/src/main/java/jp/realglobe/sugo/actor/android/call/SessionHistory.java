@@ -0,0 +1,704 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 通報ごとに、送った通報データとエラーを後から見られるように残しておく。
+ * リセットしても消えないので、事後の調査に使う。
+ * <p>
+ * 通報 1 回を 1 セッションとし、セッションごとに追記だけのファイルに
+ * [長さ (int)][種類 (byte)][日時 (long)][データ] の形式で書く。
+ * {@value #STRIDE} 件ごとに [日時 (long)][位置 (long)] を別のファイルに書き、日時の範囲で引くときに読み飛ばす。
+ * セッションの一覧は小さな索引ファイルに書き、合計が上限を超えたら最後に使われたのが古いセッションから消す。
+ * <p>
+ * 書き込みはバッファに溜めるだけなので、報告の処理を待たせない。
+ * 溜めたものは {@link #sync()} かセッションの終わりに書き出す。
+ */
+final class SessionHistory implements Closeable {
+
+    static final byte TYPE_REPORT = 'R';
+    static final byte TYPE_ERROR = 'E';
+
+    private static final int MAGIC = 0x53534831; // "SSH1"
+    private static final String INDEX_FILE = "sessions";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String TIME_INDEX_SUFFIX = ".idx";
+
+    private static final int RECORD_HEADER_SIZE = 13;
+    private static final int TIME_INDEX_ENTRY_SIZE = 16;
+    // この件数ごとに日時の索引を書く
+    private static final int STRIDE = 32;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * セッションの概要
+     */
+    static final class Session {
+        private final long id;
+        private final int reportId;
+        private final long startTime;
+        // 終わっていなければ -1
+        private long endTime;
+        private long lastTime;
+        private int recordCount;
+        private long size;
+
+        private Session(long id, int reportId, long startTime) {
+            this.id = id;
+            this.reportId = reportId;
+            this.startTime = startTime;
+            this.endTime = -1;
+            this.lastTime = startTime;
+        }
+
+        private Session(Session original) {
+            this.id = original.id;
+            this.reportId = original.reportId;
+            this.startTime = original.startTime;
+            this.endTime = original.endTime;
+            this.lastTime = original.lastTime;
+            this.recordCount = original.recordCount;
+            this.size = original.size;
+        }
+
+        long getId() {
+            return this.id;
+        }
+
+        /**
+         * @return 通報の識別番号
+         */
+        int getReportId() {
+            return this.reportId;
+        }
+
+        long getStartTime() {
+            return this.startTime;
+        }
+
+        /**
+         * @return 終わった日時。続いていれば -1
+         */
+        long getEndTime() {
+            return this.endTime;
+        }
+
+        int getRecordCount() {
+            return this.recordCount;
+        }
+
+        /**
+         * @return ファイルの大きさ（バイト）
+         */
+        long getSize() {
+            return this.size;
+        }
+
+        private boolean overlaps(long from, long to) {
+            return this.startTime <= to && from <= (this.endTime < 0 ? this.lastTime : this.endTime);
+        }
+    }
+
+    /**
+     * 読み出したレコード
+     */
+    static final class Entry {
+        private final byte type;
+        private final long time;
+        private final byte[] data;
+
+        private Entry(byte type, long time, byte[] data) {
+            this.type = type;
+            this.time = time;
+            this.data = data;
+        }
+
+        /**
+         * @return {@link #TYPE_REPORT} か {@link #TYPE_ERROR}
+         */
+        byte getType() {
+            return this.type;
+        }
+
+        long getTime() {
+            return this.time;
+        }
+
+        /**
+         * @return 通報データ
+         * @throws IOException 壊れていた
+         */
+        Map<String, Object> getReport() throws IOException {
+            if (this.type != TYPE_REPORT) {
+                throw new IllegalStateException("Not a report");
+            }
+            return ReportSerializer.deserialize(this.data);
+        }
+
+        /**
+         * @return エラー
+         */
+        String getError() {
+            if (this.type != TYPE_ERROR) {
+                throw new IllegalStateException("Not an error");
+            }
+            return new String(this.data, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final File directory;
+    private final long capacity;
+
+    // 最後に使われたのが古い順
+    private final LinkedHashMap<Long, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    // 続いているセッション
+    private Session current;
+    private DataOutputStream log;
+    private DataOutputStream timeIndex;
+    private long logSize;
+
+    private long droppedCount;
+    private long evictedCount;
+
+    /**
+     * 開く。無ければ作る。
+     * 前回終わらずに止まったセッションは、最後の完全なレコードまでで終わらせる
+     *
+     * @param directory 置き場所
+     * @param capacity  全てのセッションの合計の上限（バイト）
+     * @throws IOException 開けなかった
+     */
+    SessionHistory(File directory, long capacity) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.capacity = capacity;
+
+        readIndex();
+        for (Session session : this.sessions.values()) {
+            if (session.endTime < 0 || session.size != logFile(session.id).length() + timeIndexFile(session.id).length()) {
+                recover(session);
+            }
+            this.totalSize += session.size;
+        }
+        deleteOrphans();
+        evict(0);
+        writeIndex();
+    }
+
+    /**
+     * セッションを始める。続いているセッションがあれば終わらせる
+     *
+     * @param reportId 通報の識別番号
+     * @param time     日時（UNIX 時間のミリ秒）
+     * @return セッションの識別番号
+     * @throws IOException 書けなかった
+     */
+    synchronized long startSession(int reportId, long time) throws IOException {
+        endSession(time);
+
+        long id = time;
+        for (Long existing : this.sessions.keySet()) {
+            id = Math.max(id, existing + 1);
+        }
+        final Session session = new Session(id, reportId, time);
+        this.log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile(id)), BUFFER_SIZE));
+        this.timeIndex = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(timeIndexFile(id)), TIME_INDEX_ENTRY_SIZE * 64));
+        this.logSize = 0;
+        this.current = session;
+        this.sessions.put(id, session);
+        writeIndex();
+        return id;
+    }
+
+    /**
+     * 続いているセッションを終わらせる。無ければ何もしない
+     *
+     * @param time 日時（UNIX 時間のミリ秒）
+     * @throws IOException 書けなかった
+     */
+    synchronized void endSession(long time) throws IOException {
+        if (this.current == null) {
+            return;
+        }
+        final Session session = this.current;
+        this.current = null;
+        try {
+            closeStreams();
+        } finally {
+            session.endTime = Math.max(time, session.lastTime);
+            writeIndex();
+        }
+    }
+
+    /**
+     * 送った通報データを書く。セッションが無ければ何もしない
+     *
+     * @param time  日時（UNIX 時間のミリ秒）
+     * @param frame 通報データかその配列
+     * @throws IOException 書けなかった
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void recordReports(long time, Object frame) throws IOException {
+        if (this.current == null) {
+            return;
+        }
+        if (frame instanceof List) {
+            for (Object report : (List<?>) frame) {
+                append(TYPE_REPORT, time, ReportSerializer.serialize((Map<String, Object>) report));
+            }
+        } else {
+            append(TYPE_REPORT, time, ReportSerializer.serialize((Map<String, Object>) frame));
+        }
+    }
+
+    /**
+     * エラーを書く。セッションが無ければ何もしない
+     *
+     * @param time  日時（UNIX 時間のミリ秒）
+     * @param error エラー
+     * @throws IOException 書けなかった
+     */
+    synchronized void recordError(long time, String error) throws IOException {
+        if (this.current == null) {
+            return;
+        }
+        append(TYPE_ERROR, time, String.valueOf(error).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void append(byte type, long time, byte[] data) throws IOException {
+        final Session session = this.current;
+        final boolean indexed = session.recordCount % STRIDE == 0;
+        final long size = RECORD_HEADER_SIZE + data.length + (indexed ? TIME_INDEX_ENTRY_SIZE : 0);
+        if (this.totalSize + size > this.capacity) {
+            evict(size);
+            if (this.totalSize + size > this.capacity) {
+                this.droppedCount++;
+                return;
+            }
+        }
+        // 時計が戻っても日時の順に並ぶようにする
+        final long recordTime = Math.max(time, session.lastTime);
+        if (indexed) {
+            this.timeIndex.writeLong(recordTime);
+            this.timeIndex.writeLong(this.logSize);
+        }
+        this.log.writeInt(data.length);
+        this.log.writeByte(type);
+        this.log.writeLong(recordTime);
+        this.log.write(data);
+
+        this.logSize += RECORD_HEADER_SIZE + data.length;
+        session.lastTime = recordTime;
+        session.recordCount++;
+        session.size += size;
+        this.totalSize += size;
+    }
+
+    /**
+     * 溜めたものをファイルに書き出す
+     *
+     * @throws IOException 書けなかった
+     */
+    synchronized void sync() throws IOException {
+        if (this.current == null) {
+            return;
+        }
+        this.timeIndex.flush();
+        this.log.flush();
+    }
+
+    /**
+     * @return セッションの一覧。新しい順
+     */
+    synchronized List<Session> getSessions() {
+        final List<Session> sessions = new ArrayList<>(this.sessions.size());
+        for (Session session : this.sessions.values()) {
+            sessions.add(new Session(session));
+        }
+        Collections.sort(sessions, (session1, session2) -> Long.compare(session2.id, session1.id));
+        return sessions;
+    }
+
+    /**
+     * @param reportId 通報の識別番号
+     * @return その通報の最新のセッション。無ければ null
+     */
+    synchronized Session findByReportId(int reportId) {
+        Session found = null;
+        for (Session session : this.sessions.values()) {
+            if (session.reportId == reportId && (found == null || session.id > found.id)) {
+                found = session;
+            }
+        }
+        return found == null ? null : new Session(found);
+    }
+
+    /**
+     * セッションから日時の範囲のレコードを読む
+     *
+     * @param sessionId セッションの識別番号
+     * @param from      この日時以降（UNIX 時間のミリ秒）
+     * @param to        この日時以前（UNIX 時間のミリ秒）
+     * @return 古い順のレコード。セッションが無ければ空
+     * @throws IOException 読めなかった
+     */
+    synchronized List<Entry> query(long sessionId, long from, long to) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        final Session session = this.sessions.get(sessionId);
+        if (session != null) {
+            read(session, from, to, entries);
+        }
+        return entries;
+    }
+
+    /**
+     * 全てのセッションから日時の範囲のレコードを読む
+     *
+     * @param from この日時以降（UNIX 時間のミリ秒）
+     * @param to   この日時以前（UNIX 時間のミリ秒）
+     * @return 古い順のレコード
+     * @throws IOException 読めなかった
+     */
+    synchronized List<Entry> query(long from, long to) throws IOException {
+        final List<Session> targets = new ArrayList<>();
+        for (Session session : this.sessions.values()) {
+            if (session.overlaps(from, to)) {
+                targets.add(session);
+            }
+        }
+        Collections.sort(targets, (session1, session2) -> Long.compare(session1.id, session2.id));
+        final List<Entry> entries = new ArrayList<>();
+        for (Session session : targets) {
+            // 読んだことを LRU に反映する
+            this.sessions.get(session.id);
+            read(session, from, to, entries);
+        }
+        return entries;
+    }
+
+    private void read(Session session, long from, long to, List<Entry> entries) throws IOException {
+        if (!session.overlaps(from, to)) {
+            return;
+        }
+        if (session == this.current) {
+            sync();
+        }
+        final long start = seek(session, from);
+        final long logSize = logFile(session.id).length();
+        final FileInputStream file = new FileInputStream(logFile(session.id));
+        try {
+            file.getChannel().position(start);
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(file, BUFFER_SIZE));
+            long position = start;
+            while (position + RECORD_HEADER_SIZE <= logSize) {
+                final int length = input.readInt();
+                final byte type = input.readByte();
+                final long time = input.readLong();
+                if (time > to || position + RECORD_HEADER_SIZE + length > logSize) {
+                    break;
+                }
+                final byte[] data = new byte[length];
+                input.readFully(data);
+                if (time >= from) {
+                    entries.add(new Entry(type, time, data));
+                }
+                position += RECORD_HEADER_SIZE + length;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return 日時の索引から求めた、from 以降のレコードを含む最初の位置
+     */
+    private long seek(Session session, long from) throws IOException {
+        final File file = timeIndexFile(session.id);
+        final int count = (int) (file.length() / TIME_INDEX_ENTRY_SIZE);
+        if (count == 0) {
+            return 0;
+        }
+        final long[] times = new long[count];
+        final long[] positions = new long[count];
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            for (int i = 0; i < count; i++) {
+                times[i] = input.readLong();
+                positions[i] = input.readLong();
+            }
+        } finally {
+            input.close();
+        }
+        // from より前の最後の索引から読めばよい
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (times[middle] < from) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return positions[low];
+    }
+
+    /**
+     * @return 全てのセッションの合計（バイト）
+     */
+    synchronized long getTotalSize() {
+        return this.totalSize;
+    }
+
+    /**
+     * @return 上限を超えるので書かなかったレコードの数
+     */
+    synchronized long getDroppedCount() {
+        return this.droppedCount;
+    }
+
+    /**
+     * @return 上限を超えるので消したセッションの数
+     */
+    synchronized long getEvictedCount() {
+        return this.evictedCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.current == null) {
+            return;
+        }
+        // 終わらせずに閉じる。次に開いたときに最後のレコードで終わらせる
+        this.current = null;
+        try {
+            closeStreams();
+        } finally {
+            writeIndex();
+        }
+    }
+
+    private void closeStreams() throws IOException {
+        try {
+            this.timeIndex.close();
+        } finally {
+            this.log.close();
+        }
+        this.timeIndex = null;
+        this.log = null;
+    }
+
+    /**
+     * 続いているセッション以外を、最後に使われたのが古い順に消して空きを作る
+     *
+     * @param needed 作る空き（バイト）
+     */
+    private void evict(long needed) throws IOException {
+        boolean changed = false;
+        final List<Session> sessions = new ArrayList<>(this.sessions.values());
+        for (Session session : sessions) {
+            if (this.totalSize + needed <= this.capacity) {
+                break;
+            } else if (session == this.current) {
+                continue;
+            }
+            this.sessions.remove(session.id);
+            deleteFiles(session.id);
+            this.totalSize -= session.size;
+            this.evictedCount++;
+            changed = true;
+        }
+        if (changed && this.current != null) {
+            writeIndex();
+        }
+    }
+
+    /**
+     * 最後の完全なレコードまでを残し、日時の索引を作り直す
+     */
+    private void recover(Session session) throws IOException {
+        final File log = logFile(session.id);
+        final long logSize = log.length();
+        int count = 0;
+        long position = 0;
+        long lastTime = session.startTime;
+        final DataOutputStream timeIndex = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(timeIndexFile(session.id)), BUFFER_SIZE));
+        try {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(log), BUFFER_SIZE));
+            try {
+                while (position + RECORD_HEADER_SIZE <= logSize) {
+                    final int length = input.readInt();
+                    input.readByte();
+                    final long time = input.readLong();
+                    if (length < 0 || position + RECORD_HEADER_SIZE + length > logSize) {
+                        break;
+                    }
+                    input.skipBytes(length);
+                    if (count % STRIDE == 0) {
+                        timeIndex.writeLong(time);
+                        timeIndex.writeLong(position);
+                    }
+                    count++;
+                    lastTime = Math.max(lastTime, time);
+                    position += RECORD_HEADER_SIZE + length;
+                }
+            } catch (EOFException e) {
+                // 途中で切れていた
+            } finally {
+                input.close();
+            }
+        } finally {
+            timeIndex.close();
+        }
+        if (position < logSize) {
+            final RandomAccessFile file = new RandomAccessFile(log, "rw");
+            try {
+                file.setLength(position);
+            } finally {
+                file.close();
+            }
+        }
+        session.recordCount = count;
+        session.lastTime = lastTime;
+        session.endTime = Math.max(session.endTime, lastTime);
+        session.size = position + (count + STRIDE - 1) / STRIDE * (long) TIME_INDEX_ENTRY_SIZE;
+    }
+
+    private void readIndex() {
+        final File file = new File(this.directory, INDEX_FILE);
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (input.readInt() != MAGIC) {
+                    return;
+                }
+                final int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    final Session session = new Session(input.readLong(), input.readInt(), input.readLong());
+                    session.endTime = input.readLong();
+                    session.lastTime = input.readLong();
+                    session.recordCount = input.readInt();
+                    session.size = input.readLong();
+                    if (logFile(session.id).isFile()) {
+                        this.sessions.put(session.id, session);
+                    }
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            // 壊れていたら読めた分だけ使う
+        }
+    }
+
+    /**
+     * セッションの一覧を書く。一時ファイルに書いてから置き換えるので、途中で止まっても前のものが残る
+     */
+    private void writeIndex() throws IOException {
+        final File temporary = new File(this.directory, INDEX_FILE + ".tmp");
+        final FileOutputStream file = new FileOutputStream(temporary);
+        try {
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file));
+            output.writeInt(MAGIC);
+            output.writeInt(this.sessions.size());
+            for (Session session : this.sessions.values()) {
+                output.writeLong(session.id);
+                output.writeInt(session.reportId);
+                output.writeLong(session.startTime);
+                output.writeLong(session.endTime);
+                output.writeLong(session.lastTime);
+                output.writeInt(session.recordCount);
+                output.writeLong(session.size);
+            }
+            output.flush();
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+        if (!temporary.renameTo(new File(this.directory, INDEX_FILE))) {
+            throw new IOException("Cannot replace index in " + this.directory);
+        }
+    }
+
+    /**
+     * 一覧に無いファイルを消す
+     */
+    private void deleteOrphans() {
+        final File[] files = this.directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            final int dot = name.lastIndexOf('.');
+            if (dot < 0 || !(name.endsWith(LOG_SUFFIX) || name.endsWith(TIME_INDEX_SUFFIX))) {
+                continue;
+            }
+            final long id;
+            try {
+                id = Long.parseLong(name.substring(0, dot));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (!this.sessions.containsKey(id)) {
+                file.delete();
+            }
+        }
+    }
+
+    private void deleteFiles(long id) {
+        logFile(id).delete();
+        timeIndexFile(id).delete();
+    }
+
+    private File logFile(long id) {
+        return new File(this.directory, id + LOG_SUFFIX);
+    }
+
+    private File timeIndexFile(long id) {
+        return new File(this.directory, id + TIME_INDEX_SUFFIX);
+    }
+
+}
@@ -20,6 +20,7 @@ import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.EditTextPreference;
 import android.preference.PreferenceFragment;
+import android.widget.Toast;
 
 import java.util.Arrays;
 import java.util.HashSet;
@@ -44,15 +45,35 @@ public class SettingsPreferenceFragment extends PreferenceFragment {
                 getString(R.string.key_phone_number),
                 getString(R.string.key_server),
                 getString(R.string.key_report_interval),
+                getString(R.string.key_report_interval_max),
+                getString(R.string.key_location_interval_min),
+                getString(R.string.key_location_interval_max),
+                getString(R.string.key_report_batch_age),
+                getString(R.string.key_track_tolerance),
                 getString(R.string.key_actor_suffix)
         ));
 
         addPreferencesFromResource(R.xml.settings);
         showDefaults();
+
+        // おかしな値は保存させない
+        final ReportConfigStore configStore = ReportConfigStore.getInstance(getActivity());
+        for (String key : showDefaultKeys) {
+            findPreference(key).setOnPreferenceChangeListener((preference, newValue) -> {
+                final String error = configStore.validate(preference.getKey(), String.valueOf(newValue));
+                if (error != null) {
+                    Toast.makeText(getActivity(), error, Toast.LENGTH_LONG).show();
+                    return false;
+                }
+                return true;
+            });
+        }
+
         changeListener = (sharedPreferences, key) -> {
             if (showDefaultKeys.contains(key)) {
                 showDefault(key);
             }
+            configStore.reload();
         };
     }
 
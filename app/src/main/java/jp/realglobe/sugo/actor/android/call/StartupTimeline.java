@@ -0,0 +1,125 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 起動から最初の通報までの各段階に掛かった時間を記録する。
+ * 各段階は最初の 1 回だけ記録する。プロセスで 1 つ。
+ */
+final class StartupTimeline {
+
+    // 段階
+    static final String PHASE_LAUNCH = "launch";
+    static final String PHASE_PERMISSIONS = "permissions";
+    static final String PHASE_WARM_UP = "warmUp";
+    static final String PHASE_HUB_CONNECTED = "hubConnected";
+    static final String PHASE_LOCATION_CONNECTED = "locationConnected";
+    static final String PHASE_FIRST_FIX = "firstFix";
+    static final String PHASE_PHONE_NUMBER = "phoneNumber";
+    static final String PHASE_CALL = "call";
+    static final String PHASE_FIRST_REPORT = "firstReport";
+
+    // 目標。起動してから hub への接続と測位の準備ができるまで（ミリ秒）
+    static final long TARGET_READY = 3_000L;
+    // 目標。通報ボタンを押してから最初の通報が届くまで（ミリ秒）
+    static final long TARGET_CALL_TO_FIRST_REPORT = 1_000L;
+
+    private static StartupTimeline instance;
+
+    private final Clock clock;
+    // 記録した順
+    private final Map<String, Long> marks = new LinkedHashMap<>();
+
+    /**
+     * @return プロセスで 1 つの記録
+     */
+    static synchronized StartupTimeline getInstance() {
+        if (instance == null) {
+            instance = new StartupTimeline(Clock.SYSTEM);
+        }
+        return instance;
+    }
+
+    /**
+     * @param clock 時計
+     */
+    StartupTimeline(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * 段階に達したことを記録する。
+     * 起動を記録する前に呼ばれたら、そこを起動とみなす
+     *
+     * @param phase 段階
+     * @return 初めてなら true
+     */
+    synchronized boolean mark(String phase) {
+        if (this.marks.containsKey(phase)) {
+            return false;
+        }
+        final long now = this.clock.now();
+        if (this.marks.isEmpty() && !PHASE_LAUNCH.equals(phase)) {
+            this.marks.put(PHASE_LAUNCH, now);
+        }
+        this.marks.put(phase, now);
+        return true;
+    }
+
+    /**
+     * @param phase 段階
+     * @return 起動からその段階までの時間（ミリ秒）。まだなら -1
+     */
+    synchronized long get(String phase) {
+        return between(PHASE_LAUNCH, phase);
+    }
+
+    /**
+     * @param from 始まりの段階
+     * @param to   終わりの段階
+     * @return 2 つの段階の間の時間（ミリ秒）。どちらかがまだなら -1
+     */
+    synchronized long between(String from, String to) {
+        final Long start = this.marks.get(from);
+        final Long end = this.marks.get(to);
+        return (start == null || end == null) ? -1 : end - start;
+    }
+
+    /**
+     * @return 起動してから hub に接続し測位もできるまでの時間（ミリ秒）。まだなら -1
+     */
+    synchronized long getReadyTime() {
+        final long hub = get(PHASE_HUB_CONNECTED);
+        final long fix = get(PHASE_FIRST_FIX);
+        return (hub < 0 || fix < 0) ? -1 : Math.max(hub, fix);
+    }
+
+    /**
+     * @return 段階から起動からの時間（ミリ秒）への対応。記録した順
+     */
+    synchronized Map<String, Long> toMap() {
+        final Map<String, Long> map = new LinkedHashMap<>();
+        for (String phase : this.marks.keySet()) {
+            map.put(phase, get(phase));
+        }
+        return map;
+    }
+
+}
@@ -0,0 +1,215 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+/**
+ * 移動の軌跡を間引き、意味のある点だけを通報データの位置にする。
+ * 送った点（キー）を直線で結んだものが、受け取った測位から許容誤差以上ずれないようにする。
+ * <ul>
+ * <li>キーから許容誤差以内の測位は、止まっているときのぶれとみなして位置を変えない</li>
+ * <li>キーから今の測位への線分から、その間の測位のどれかが許容誤差より離れたら、1 つ前の測位を曲がり角としてキーにする</li>
+ * <li>進む向きが前の区間から大きく変わったら、今の測位をすぐにキーにする</li>
+ * <li>まっすぐ進んでいても、キーが古くなりすぎたら今の測位をキーにする</li>
+ * </ul>
+ * 2 つ目は Douglas-Peucker 法を窓で区切って逐次に行うもの。
+ * 曲がり角が分かるのは次の測位が来たときなので、まっすぐ進んでいる間の位置は最大で maxLag だけ遅れる。
+ * <p>
+ * 測位は届くたびに全て {@link #offer} に渡し、通報データには {@link #apply} でキーを入れる。
+ * 別々のスレッドから呼んでよい。
+ */
+final class TrackFilter {
+
+    private final double tolerance;
+    private final double headingThreshold;
+    private final long maxLag;
+
+    // キーの後の測位。キーから今の測位への線分に近いことを確かめる
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] altitudes;
+    private final long[] times;
+    private int count;
+
+    private boolean hasKey;
+    private double keyLatitude;
+    private double keyLongitude;
+    private double keyAltitude;
+    private long keyTime;
+    // 1 つ前のキーからの方位（度）。無ければ NaN
+    private double keyBearing = Double.NaN;
+
+    private long lastTime = Long.MIN_VALUE;
+    private long offeredCount;
+    private long keyCount;
+
+    /**
+     * @param tolerance        許容誤差（メートル）
+     * @param headingThreshold これ以上向きが変わったら曲がったとみなす（度）
+     * @param window           キーの後に覚えておく測位の最大数
+     * @param maxLag           キーをこれ以上古くしない（ミリ秒）
+     */
+    TrackFilter(double tolerance, double headingThreshold, int window, long maxLag) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("Invalid tolerance " + tolerance);
+        }
+        if (window < 1) {
+            throw new IllegalArgumentException("Invalid window " + window);
+        }
+        this.tolerance = tolerance;
+        this.headingThreshold = headingThreshold;
+        this.maxLag = maxLag;
+        this.latitudes = new double[window];
+        this.longitudes = new double[window];
+        this.altitudes = new double[window];
+        this.times = new long[window];
+    }
+
+    /**
+     * 測位を渡す。前に渡したものより古い測位は無視する
+     *
+     * @param latitude  緯度
+     * @param longitude 経度
+     * @param altitude  高度
+     * @param time      測位した日時（UNIX 時間のミリ秒）
+     * @return キーが変わったら true
+     */
+    synchronized boolean offer(double latitude, double longitude, double altitude, long time) {
+        if (time <= this.lastTime) {
+            return false;
+        }
+        this.lastTime = time;
+        this.offeredCount++;
+        if (!this.hasKey) {
+            setKey(latitude, longitude, altitude, time);
+            return true;
+        }
+
+        if (this.count > 0 && !fits(latitude, longitude)) {
+            // 1 つ前が曲がり角。曲がり角を飛ばさないように、今の測位は次に回す
+            final int last = this.count - 1;
+            setKey(this.latitudes[last], this.longitudes[last], this.altitudes[last], this.times[last]);
+            if (Geo.distance(this.keyLatitude, this.keyLongitude, latitude, longitude) >= this.tolerance) {
+                append(latitude, longitude, altitude, time);
+            }
+            return true;
+        }
+        if (Geo.distance(this.keyLatitude, this.keyLongitude, latitude, longitude) < this.tolerance) {
+            return false;
+        }
+        if (turned(latitude, longitude) || this.count == this.latitudes.length || time - this.keyTime >= this.maxLag) {
+            setKey(latitude, longitude, altitude, time);
+            return true;
+        }
+        append(latitude, longitude, altitude, time);
+        return false;
+    }
+
+    /**
+     * 通報データの位置をキーに置き換える。まだキーが無ければそのままにする。
+     * 今の測位がキーから許容誤差以内ならキーの位置は今も正しいので、測位した日時は今の測位のままにする
+     *
+     * @param report 位置を設定した通報データ
+     */
+    synchronized void apply(Report report) {
+        if (!report.hasLocation() || !this.hasKey) {
+            return;
+        }
+        final boolean current = Geo.distance(this.keyLatitude, this.keyLongitude, report.getLatitude(), report.getLongitude()) < this.tolerance;
+        report.setLocation(this.keyLatitude, this.keyLongitude, this.keyAltitude, report.getLocationAccuracy(),
+                current ? report.getLocationTime() : this.keyTime);
+    }
+
+    /**
+     * @return 今のキーの緯度
+     */
+    synchronized double getKeyLatitude() {
+        return this.keyLatitude;
+    }
+
+    /**
+     * @return 今のキーの経度
+     */
+    synchronized double getKeyLongitude() {
+        return this.keyLongitude;
+    }
+
+    /**
+     * @return 今のキーの測位の日時（UNIX 時間のミリ秒）
+     */
+    synchronized long getKeyTime() {
+        return this.keyTime;
+    }
+
+    /**
+     * @return 受け取った測位の数
+     */
+    synchronized long getOfferedCount() {
+        return this.offeredCount;
+    }
+
+    /**
+     * @return キーにした数
+     */
+    synchronized long getKeyCount() {
+        return this.keyCount;
+    }
+
+    private void append(double latitude, double longitude, double altitude, long time) {
+        this.latitudes[this.count] = latitude;
+        this.longitudes[this.count] = longitude;
+        this.altitudes[this.count] = altitude;
+        this.times[this.count] = time;
+        this.count++;
+    }
+
+    private void setKey(double latitude, double longitude, double altitude, long time) {
+        if (this.hasKey) {
+            this.keyBearing = Geo.bearing(this.keyLatitude, this.keyLongitude, latitude, longitude);
+        }
+        this.hasKey = true;
+        this.keyLatitude = latitude;
+        this.keyLongitude = longitude;
+        this.keyAltitude = altitude;
+        this.keyTime = time;
+        this.count = 0;
+        this.keyCount++;
+    }
+
+    /**
+     * @return キーからこの点への線分から、間の測位が全て許容誤差以内なら true
+     */
+    private boolean fits(double latitude, double longitude) {
+        for (int i = 0; i < this.count; i++) {
+            if (Geo.distanceToSegment(this.latitudes[i], this.longitudes[i], this.keyLatitude, this.keyLongitude, latitude, longitude) > this.tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return キーからこの点への向きが、前の区間の向きから閾値以上変わったら true
+     */
+    private boolean turned(double latitude, double longitude) {
+        if (Double.isNaN(this.keyBearing)) {
+            return false;
+        }
+        final double bearing = Geo.bearing(this.keyLatitude, this.keyLongitude, latitude, longitude);
+        return Geo.bearingDifference(this.keyBearing, bearing) >= this.headingThreshold;
+    }
+
+}
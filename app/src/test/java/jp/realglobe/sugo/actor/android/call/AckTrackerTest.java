@@ -0,0 +1,146 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AckTrackerTest {
+
+    private static AckTracker newTracker(SimulatedClock clock) {
+        return new AckTracker(clock, 4, 1_000L, 200L, 10_000L, 2);
+    }
+
+    @Test
+    public void roundTripTime() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AckTracker tracker = newTracker(clock);
+        assertTrue(Double.isNaN(tracker.getSmoothedRtt()));
+        assertEquals(1_000L, tracker.getTimeout());
+
+        for (int i = 0; i < 20; i++) {
+            tracker.track("k" + i, i);
+            clock.advance(100);
+            assertTrue(tracker.ack("k" + i));
+        }
+        assertEquals(100.0, tracker.getSmoothedRtt(), 1.0);
+        // ばらつきが無ければ最短になる
+        assertEquals(200L, tracker.getTimeout());
+        assertEquals(0.0, tracker.getLossRate(), 0.0);
+        assertEquals(20, tracker.getAckedCount());
+    }
+
+    @Test
+    public void cumulativeAck() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AckTracker tracker = newTracker(clock);
+        tracker.track("a", 1);
+        tracker.track("b", 2);
+        tracker.track("c", 3);
+        assertTrue(tracker.ack("b"));
+        assertEquals(1, tracker.getPendingCount());
+        assertFalse(tracker.ack("a"));
+        assertFalse(tracker.ack("unknown"));
+    }
+
+    @Test
+    public void retransmitWithBackoff() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AckTracker tracker = newTracker(clock);
+        tracker.track("a", 1);
+        clock.advance(999);
+        assertTrue(tracker.expire().isEmpty());
+        clock.advance(1);
+        final List<AckTracker.Pending> expired = tracker.expire();
+        assertEquals(1, expired.size());
+        assertEquals(1, expired.get(0).getFrame());
+        assertEquals(2_000L, tracker.getTimeout());
+        assertTrue(tracker.getLossRate() > 0);
+
+        // 再送したものの受領は往復時間に数えない
+        clock.advance(50);
+        assertTrue(tracker.ack("a"));
+        assertTrue(Double.isNaN(tracker.getSmoothedRtt()));
+        assertEquals(1, tracker.getRetransmitCount());
+        assertEquals(0, tracker.getLostCount());
+    }
+
+    @Test
+    public void giveUp() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AckTracker tracker = newTracker(clock);
+        tracker.track("a", 1);
+        for (int i = 0; i < 2; i++) {
+            clock.advance(tracker.getTimeout());
+            assertEquals(1, tracker.expire().size());
+        }
+        clock.advance(tracker.getTimeout());
+        assertTrue(tracker.expire().isEmpty());
+        assertEquals(0, tracker.getPendingCount());
+        assertEquals(1, tracker.getLostCount());
+        assertEquals(2, tracker.getRetransmitCount());
+    }
+
+    @Test
+    public void takeFinished() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AckTracker tracker = newTracker(clock);
+        tracker.track("a", 1, "A");
+        tracker.track("b", 2, "B");
+        tracker.track("c", 3, "C");
+        assertTrue(tracker.ack("b"));
+        List<AckTracker.Pending> finished = tracker.takeFinished();
+        assertEquals(2, finished.size());
+        assertEquals("A", finished.get(0).getAttachment());
+        assertTrue(finished.get(0).isAcked());
+        assertEquals("B", finished.get(1).getAttachment());
+        assertTrue(tracker.takeFinished().isEmpty());
+
+        // 再送し尽くしたものは受領されずに終わる
+        for (int i = 0; i < 3; i++) {
+            clock.advance(tracker.getTimeout());
+            tracker.expire();
+        }
+        finished = tracker.takeFinished();
+        assertEquals(1, finished.size());
+        assertEquals("C", finished.get(0).getAttachment());
+        assertFalse(finished.get(0).isAcked());
+    }
+
+    @Test
+    public void windowEvictsOldest() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AckTracker tracker = newTracker(clock);
+        for (int i = 0; i < 4; i++) {
+            tracker.track("k" + i, i);
+        }
+        assertTrue(tracker.isFull());
+        tracker.track("k4", 4);
+        assertEquals(4, tracker.getPendingCount());
+        assertEquals(1, tracker.getLostCount());
+        assertFalse(tracker.ack("k0"));
+        assertEquals("k1", tracker.drain().get(0).getKey());
+        assertEquals(0, tracker.getPendingCount());
+    }
+
+    @Test
+    public void lossRate() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AckTracker tracker = new AckTracker(clock, 100, 200L, 200L, 200L, 0);
+        // 4 件に 1 件届かない
+        for (int i = 0; i < 400; i++) {
+            tracker.track("k" + i, i);
+            clock.advance(50);
+            if (i % 4 != 0) {
+                tracker.ack("k" + i);
+            }
+            clock.advance(200);
+            tracker.expire();
+        }
+        assertEquals(0.25, tracker.getLossRate(), 0.1);
+    }
+
+}
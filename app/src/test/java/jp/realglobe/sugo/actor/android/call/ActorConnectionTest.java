@@ -0,0 +1,230 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActorConnectionTest {
+
+    // hub との接続確立に掛かる時間の代わり
+    private static final long HANDSHAKE_TIME = 100L;
+
+    private ScheduledExecutorService executor;
+    private StandInHub hub;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newSingleThreadScheduledExecutor();
+        this.hub = new StandInHub(this.executor, HANDSHAKE_TIME);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void warmConnectionShortensTimeToFirstReport() throws Exception {
+        // 毎回接続する場合
+        final long cold;
+        {
+            final ActorConnection connection = newConnection();
+            connection.markReportRequested();
+            connection.open();
+            awaitConnect(connection);
+            connection.emit(Report.EVENT_EMERGENCY, "report");
+            cold = connection.getTimeToFirstReport();
+            connection.close();
+        }
+
+        // 前もって接続しておく場合
+        final long warm;
+        {
+            final ActorConnection connection = newConnection();
+            connection.open();
+            awaitConnect(connection);
+            connection.markReportRequested();
+            connection.emit(Report.EVENT_EMERGENCY, "report");
+            warm = connection.getTimeToFirstReport();
+            connection.close();
+        }
+
+        assertTrue("Cold " + cold + " ms", cold >= HANDSHAKE_TIME);
+        assertTrue("Warm " + warm + " ms, cold " + cold + " ms", warm * 10 < cold);
+    }
+
+    @Test
+    public void reuseAcrossReports() throws Exception {
+        final ActorConnection connection = newConnection();
+        connection.open();
+        awaitConnect(connection);
+        for (int i = 0; i < 5; i++) {
+            // 通報とリセットを繰り返す
+            connection.markReportRequested();
+            connection.emit(Report.EVENT_EMERGENCY, i);
+            assertTrue(connection.getTimeToFirstReport() < HANDSHAKE_TIME);
+            connection.open();
+        }
+        connection.close();
+        assertEquals(1, this.hub.getCreateCount());
+        assertEquals(5, this.hub.getEmitCount());
+    }
+
+    @Test
+    public void reconnectAfterDrop() throws Exception {
+        final ActorConnection connection = newConnection();
+        final CountDownLatch disconnected = new CountDownLatch(1);
+        final CountDownLatch reconnected = new CountDownLatch(2);
+        connection.addListener(new ActorConnection.Listener() {
+            @Override
+            public void onConnect() {
+                reconnected.countDown();
+            }
+
+            @Override
+            public void onDisconnect() {
+                disconnected.countDown();
+            }
+        });
+        connection.open();
+        awaitConnect(connection);
+
+        this.hub.drop();
+        assertTrue(disconnected.await(10, TimeUnit.SECONDS));
+        assertFalse(connection.isConnected());
+        assertTrue(reconnected.await(10, TimeUnit.SECONDS));
+        assertEquals(2, this.hub.getCreateCount());
+        assertEquals(1, connection.getFailureCount());
+        connection.close();
+    }
+
+    @Test
+    public void retryAfterTimeout() throws Exception {
+        this.hub.setUnreachable(true);
+        final ActorConnection connection = newConnection();
+        connection.open();
+        Thread.sleep(HANDSHAKE_TIME * 4);
+        assertFalse(connection.isConnected());
+        assertTrue(connection.getFailureCount() >= 2);
+
+        this.hub.setUnreachable(false);
+        awaitConnect(connection);
+        connection.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emitWhileDisconnected() {
+        newConnection().emit(Report.EVENT_EMERGENCY, "report");
+    }
+
+    private ActorConnection newConnection() {
+        return new ActorConnection(this.hub, new Backoff(10L, 40L, new Random(1L)), this.executor, Clock.SYSTEM, HANDSHAKE_TIME / 2 * 3);
+    }
+
+    private static void awaitConnect(ActorConnection connection) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000L;
+        while (!connection.isConnected()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    /**
+     * example/hub.js の代わり。接続に時間が掛かる
+     */
+    private static final class StandInHub implements ActorConnection.TransportFactory {
+
+        private final ScheduledExecutorService executor;
+        private final long handshakeTime;
+        private final List<Transport> transports = new ArrayList<>();
+        private volatile boolean unreachable;
+        private int emitCount;
+
+        StandInHub(ScheduledExecutorService executor, long handshakeTime) {
+            this.executor = executor;
+            this.handshakeTime = handshakeTime;
+        }
+
+        @Override
+        public synchronized ActorConnection.Transport create() {
+            final Transport transport = new Transport();
+            this.transports.add(transport);
+            return transport;
+        }
+
+        synchronized int getCreateCount() {
+            return this.transports.size();
+        }
+
+        synchronized int getEmitCount() {
+            return this.emitCount;
+        }
+
+        void setUnreachable(boolean unreachable) {
+            this.unreachable = unreachable;
+        }
+
+        /**
+         * 今の接続を hub 側から切る
+         */
+        void drop() {
+            final Transport last;
+            synchronized (this) {
+                last = this.transports.get(this.transports.size() - 1);
+            }
+            last.drop();
+        }
+
+        private final class Transport implements ActorConnection.Transport {
+
+            private final AtomicBoolean open = new AtomicBoolean();
+            private volatile ActorConnection.Callback callback;
+
+            @Override
+            public void connect(ActorConnection.Callback callback) {
+                this.callback = callback;
+                if (StandInHub.this.unreachable) {
+                    return;
+                }
+                StandInHub.this.executor.schedule(() -> {
+                    if (this.open.compareAndSet(false, true)) {
+                        callback.onConnect();
+                    }
+                }, StandInHub.this.handshakeTime, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void emit(String event, Object data) {
+                synchronized (StandInHub.this) {
+                    StandInHub.this.emitCount++;
+                }
+            }
+
+            @Override
+            public void disconnect() {
+                // 切ったあとに接続を通知しない
+                this.open.set(true);
+            }
+
+            void drop() {
+                this.callback.onDisconnect();
+            }
+
+        }
+
+    }
+
+}
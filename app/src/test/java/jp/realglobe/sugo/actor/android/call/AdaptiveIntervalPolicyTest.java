@@ -0,0 +1,303 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdaptiveIntervalPolicyTest {
+
+    private static final long HOUR = 3_600_000L;
+
+    // 今までの固定間隔
+    private static final long FIXED_REPORT_INTERVAL = 1_000L;
+    private static final long FIXED_LOCATION_INTERVAL = 10_000L;
+
+    /**
+     * 通報者の動き
+     */
+    private interface Scenario {
+        /**
+         * @return 時刻 t での速さ（メートル毎秒）
+         */
+        double speed(long t);
+    }
+
+    private static final class Result {
+        private int reports;
+        private int fixes;
+
+        private int wakeups() {
+            return this.reports + this.fixes;
+        }
+    }
+
+    /**
+     * 1 時間動かして報告と位置取得の回数を数える
+     */
+    private static Result simulate(Scenario scenario, double accuracy, double battery) {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AdaptiveIntervalPolicy policy = new AdaptiveIntervalPolicy(clock, 1_000L, 60_000L, 5_000L, 120_000L);
+        policy.onBattery(battery, false);
+
+        final Result result = new Result();
+        long nextReport = 0;
+        long nextFix = 0;
+        double position = 0;
+        long lastFix = 0;
+        while (true) {
+            final long t = Math.min(nextReport, nextFix);
+            if (t >= HOUR) {
+                break;
+            }
+            clock.set(t);
+            if (nextFix <= nextReport) {
+                position += scenario.speed(t) * (t - lastFix) / 1_000.0;
+                lastFix = t;
+                // 北に進む
+                policy.onLocation(35.0 + position / 111_000.0, 139.0, Double.NaN, accuracy);
+                result.fixes++;
+                nextFix = t + policy.getLocationInterval();
+            } else {
+                result.reports++;
+                nextReport = t + policy.nextReportInterval();
+                // 取得間隔が変わったら位置情報の要求を出し直す
+                nextFix = Math.max(t, Math.min(nextFix, lastFix + policy.getLocationInterval()));
+            }
+        }
+        return result;
+    }
+
+    private static int fixedWakeups() {
+        return (int) (HOUR / FIXED_REPORT_INTERVAL + HOUR / FIXED_LOCATION_INTERVAL);
+    }
+
+    @Test
+    public void stationaryBacksOff() throws Exception {
+        final Result result = simulate(t -> 0, 10, 1.0);
+        // 最長 60 秒、120 秒に張り付く
+        assertTrue("reports/hour " + result.reports, result.reports <= 70);
+        assertTrue("fixes/hour " + result.fixes, result.fixes <= 40);
+        assertTrue(result.wakeups() * 20 < fixedWakeups());
+    }
+
+    @Test
+    public void movingKeepsMinimum() throws Exception {
+        final Result result = simulate(t -> 5, 10, 1.0);
+        assertTrue("reports/hour " + result.reports, result.reports >= 3_500);
+        assertTrue("fixes/hour " + result.fixes, result.fixes >= 700);
+    }
+
+    @Test
+    public void poorAccuracyKeepsMinimum() throws Exception {
+        final Result result = simulate(t -> 0, 100, 1.0);
+        assertEquals(3_600, result.reports);
+    }
+
+    @Test
+    public void lowBatteryBacksOffEvenWhenMoving() throws Exception {
+        final Result result = simulate(t -> 5, 10, 0.1);
+        assertTrue("reports/hour " + result.reports, result.reports <= 1_000);
+        assertTrue("reports/hour " + result.reports, result.reports >= 800);
+    }
+
+    @Test
+    public void mixed() throws Exception {
+        // 最初の 10 分だけ移動
+        final Result result = simulate(t -> t < 600_000L ? 5 : 0, 10, 1.0);
+        assertTrue("reports/hour " + result.reports, 600 <= result.reports && result.reports <= 700);
+        assertTrue(result.wakeups() * 3 < fixedWakeups());
+    }
+
+    @Test
+    public void snapBackOnMotion() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AdaptiveIntervalPolicy policy = new AdaptiveIntervalPolicy(clock, 1_000L, 60_000L, 5_000L, 120_000L);
+        policy.onLocation(35.0, 139.0, 0, 10);
+        long interval = 0;
+        for (int i = 0; i < 10; i++) {
+            interval = policy.nextReportInterval();
+            clock.advance(interval);
+        }
+        assertEquals(60_000L, interval);
+        assertEquals(120_000L, policy.getLocationInterval());
+
+        policy.onLocation(35.0, 139.0, 3, 10);
+        assertEquals(1_000L, policy.nextReportInterval());
+        assertEquals(5_000L, policy.getLocationInterval());
+
+        // 止まってもしばらくは最短のまま
+        clock.advance(AdaptiveIntervalPolicy.MOTION_HOLD_TIME);
+        policy.onLocation(35.0, 139.0, 0, 10);
+        assertEquals(1_000L, policy.nextReportInterval());
+        clock.advance(1);
+        assertEquals(2_000L, policy.nextReportInterval());
+    }
+
+    @Test
+    public void slowLinkLimitsReports() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AdaptiveIntervalPolicy policy = new AdaptiveIntervalPolicy(clock, 1_000L, 60_000L, 5_000L, 120_000L);
+        policy.onLocation(35.0, 139.0, 3, 10);
+        assertEquals(1_000L, policy.nextReportInterval());
+
+        // 受領より速くは報告しない
+        policy.onLink(800, 0);
+        assertEquals(1_600L, policy.nextReportInterval());
+        // 損失が多いときも控える
+        policy.onLink(100, 0.5);
+        assertEquals(2_000L, policy.nextReportInterval());
+        // 最長は超えない
+        policy.onLink(100_000, 0);
+        assertEquals(60_000L, policy.nextReportInterval());
+        // 位置の取得間隔は変えない
+        assertEquals(5_000L, policy.getLocationInterval());
+
+        policy.onLink(100, 0);
+        assertEquals(1_000L, policy.nextReportInterval());
+    }
+
+    @Test
+    public void changeBounds() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AdaptiveIntervalPolicy policy = new AdaptiveIntervalPolicy(clock, 1_000L, 60_000L, 5_000L, 120_000L);
+        policy.onLocation(35.0, 139.0, 0, 10);
+        for (int i = 0; i < 10; i++) {
+            clock.advance(policy.nextReportInterval());
+        }
+        assertEquals(60_000L, policy.getReportInterval());
+
+        policy.setBounds(2_000L, 30_000L, 10_000L, 60_000L);
+        assertEquals(30_000L, policy.getReportInterval());
+        assertEquals(60_000L, policy.getLocationInterval());
+
+        policy.onLocation(35.0, 139.0, 3, 10);
+        assertEquals(2_000L, policy.nextReportInterval());
+        assertEquals(10_000L, policy.getLocationInterval());
+    }
+
+    @Test
+    public void lowPowerAlignsWithFixes() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AdaptiveIntervalPolicy policy = new AdaptiveIntervalPolicy(clock, 1_000L, 60_000L, 5_000L, 120_000L);
+        policy.setLowPower(true);
+        policy.onLocation(35.0, 139.0, 3, 10);
+
+        // 位置が届いた直後に報告し、その後は取得間隔ごとに報告する
+        clock.advance(200L);
+        assertEquals(AdaptiveIntervalPolicy.FIX_SLACK - 200L, policy.nextReportInterval());
+        clock.set(AdaptiveIntervalPolicy.FIX_SLACK);
+        assertEquals(5_000L, policy.nextReportInterval());
+        // 位置が遅れて届いたら合わせ直す
+        clock.set(7_000L);
+        policy.onLocation(35.0001, 139.0, 3, 10);
+        clock.advance(AdaptiveIntervalPolicy.FIX_SLACK);
+        assertEquals(5_000L, policy.nextReportInterval());
+
+        policy.setLowPower(false);
+        assertEquals(1_000L, policy.nextReportInterval());
+    }
+
+    @Test
+    public void lowPowerLowersLocationPriority() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AdaptiveIntervalPolicy policy = new AdaptiveIntervalPolicy(clock, 1_000L, 60_000L, 5_000L, 120_000L);
+        policy.onLocation(35.0, 139.0, 0, 10);
+        assertEquals(AdaptiveIntervalPolicy.LocationPriority.HIGH_ACCURACY, policy.getLocationPriority());
+
+        // 止まっていて精度が十分なら落とす
+        policy.setLowPower(true);
+        assertEquals(AdaptiveIntervalPolicy.LocationPriority.BALANCED_POWER_ACCURACY, policy.getLocationPriority());
+        // 多少精度が悪くなってもそのまま
+        clock.advance(10_000L);
+        policy.onLocation(35.0, 139.0, 0, 40);
+        assertEquals(AdaptiveIntervalPolicy.LocationPriority.BALANCED_POWER_ACCURACY, policy.getLocationPriority());
+        // 精度がかなり悪くなったらすぐに上げる
+        clock.advance(10_000L);
+        policy.onLocation(35.0, 139.0, 0, 300);
+        assertEquals(AdaptiveIntervalPolicy.LocationPriority.HIGH_ACCURACY, policy.getLocationPriority());
+        // 続けて変えない
+        clock.advance(10_000L);
+        policy.onLocation(35.0, 139.0, 0, 10);
+        assertEquals(AdaptiveIntervalPolicy.LocationPriority.HIGH_ACCURACY, policy.getLocationPriority());
+        clock.advance(AdaptiveIntervalPolicy.PRIORITY_DWELL_TIME);
+        policy.onLocation(35.0, 139.0, 0, 10);
+        assertEquals(AdaptiveIntervalPolicy.LocationPriority.BALANCED_POWER_ACCURACY, policy.getLocationPriority());
+        // 動き出したらすぐに上げる
+        clock.advance(10_000L);
+        policy.onLocation(35.0, 139.0, 3, 10);
+        assertEquals(AdaptiveIntervalPolicy.LocationPriority.HIGH_ACCURACY, policy.getLocationPriority());
+
+        policy.setLowPower(false);
+        clock.advance(AdaptiveIntervalPolicy.PRIORITY_DWELL_TIME + AdaptiveIntervalPolicy.MOTION_HOLD_TIME);
+        policy.onLocation(35.0, 139.0, 0, 10);
+        assertEquals(AdaptiveIntervalPolicy.LocationPriority.HIGH_ACCURACY, policy.getLocationPriority());
+    }
+
+    @Test
+    public void keepBalancedWithBalancedAccuracy() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AdaptiveIntervalPolicy policy = new AdaptiveIntervalPolicy(clock, 1_000L, 60_000L, 5_000L, 120_000L);
+        policy.setLowPower(true);
+        policy.onLocation(35.0, 139.0, 0, 10);
+        assertEquals(AdaptiveIntervalPolicy.LocationPriority.BALANCED_POWER_ACCURACY, policy.getLocationPriority());
+
+        // Wi-Fi や基地局による位置の誤差では上げず、報告間隔も延ばし続ける
+        long interval = policy.nextReportInterval();
+        final double[] accuracies = {60, 100, 75, 90, 100, 60, 85, 70};
+        for (double accuracy : accuracies) {
+            clock.advance(interval);
+            policy.onLocation(35.0, 139.0, Double.NaN, accuracy);
+            assertEquals(AdaptiveIntervalPolicy.LocationPriority.BALANCED_POWER_ACCURACY, policy.getLocationPriority());
+            assertFalse(policy.isUrgent());
+            interval = policy.nextReportInterval();
+        }
+        assertEquals(60_000L, policy.getReportInterval());
+        assertEquals(120_000L, policy.getLocationInterval());
+
+        // 省電力モードでなければ普段の基準で精度が悪い
+        policy.setLowPower(false);
+        assertTrue(policy.isUrgent());
+        assertEquals(AdaptiveIntervalPolicy.LocationPriority.HIGH_ACCURACY, policy.getLocationPriority());
+    }
+
+    @Test
+    public void remoteInterval() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AdaptiveIntervalPolicy policy = new AdaptiveIntervalPolicy(clock, 1_000L, 60_000L, 5_000L, 120_000L);
+        policy.onLocation(35.0, 139.0, 0, 10);
+        for (int i = 0; i < 10; i++) {
+            clock.advance(policy.nextReportInterval());
+        }
+        assertEquals(60_000L, policy.getReportInterval());
+
+        // 最長を超えて控えさせられる
+        policy.setRemoteInterval(300_000L);
+        assertEquals(300_000L, policy.nextReportInterval());
+        assertEquals(300_000L, policy.getReportInterval());
+        assertEquals(120_000L, policy.getLocationInterval());
+
+        // 止まっていても速く報告させられる。位置もなるべく速く取る
+        policy.setRemoteInterval(2_000L);
+        assertEquals(2_000L, policy.nextReportInterval());
+        assertEquals(5_000L, policy.getLocationInterval());
+        policy.onLink(100_000, 0.5);
+        assertEquals(2_000L, policy.nextReportInterval());
+        policy.onLink(Double.NaN, 0);
+
+        try {
+            policy.setRemoteInterval(AdaptiveIntervalPolicy.MIN_REMOTE_INTERVAL - 1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+        assertEquals(2_000L, policy.getRemoteInterval());
+
+        // 取り消したら状況に合わせた間隔に戻る。止まったままなので最長
+        policy.setRemoteInterval(0);
+        assertEquals(60_000L, policy.nextReportInterval());
+    }
+
+}
@@ -0,0 +1,47 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BackoffTest {
+
+    @Test
+    public void growsWithinJitterRange() {
+        final Backoff backoff = new Backoff(100L, 1_000L, new Random(1L));
+        final long[] caps = {100L, 200L, 400L, 800L, 1_000L, 1_000L};
+        for (long cap : caps) {
+            final long delay = backoff.next();
+            assertTrue("Delay " + delay + " for cap " + cap, cap / 2 <= delay && delay <= cap);
+        }
+    }
+
+    @Test
+    public void resetStartsOver() {
+        final Backoff backoff = new Backoff(100L, 1_000L, new Random(1L));
+        for (int i = 0; i < 10; i++) {
+            backoff.next();
+        }
+        backoff.reset();
+        assertTrue(backoff.next() <= 100L);
+    }
+
+    @Test
+    public void spreadsDelays() {
+        // 同じ回数失敗した端末同士でも待ち時間がばらける
+        final Random random = new Random(1L);
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 100; i++) {
+            final long delay = new Backoff(1_000L, 1_000L, random).next();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(max - min > 300L);
+        assertEquals(1_000L, new Backoff(1_000L, 1_000L, new Random(1L)).next(), 500L);
+    }
+
+}
@@ -0,0 +1,180 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryReportCodecTest {
+
+    private static final long START = 1_478_856_695_593L;
+
+    private final ReportBuilder builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+
+    private Map<String, Object> report(int id, long time, double latitude, double longitude, double accuracy) {
+        final Report report = this.builder.start(id, time);
+        report.setLocation(latitude, longitude, 12.34, accuracy, time - 500L);
+        report.setPhoneNumber("0123456789");
+        return report.toMap();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        final BinaryReportEncoder encoder = new BinaryReportEncoder(60, 60_000L);
+        final BinaryReportDecoder decoder = new BinaryReportDecoder();
+        final List<Map<String, Object>> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            expected.add(report(331549022, START + i * 1_000L, 35.701526 + i * 0.0000123, 139.7531492 - i * 0.0000071, 4.5 + i % 3));
+        }
+        // 位置が無くなって、電話番号が変わる
+        final Report noLocation = this.builder.start(331549022, START + 200_000L);
+        expected.add(noLocation.toMap());
+        expected.add(this.builder.start(331549022, START + 201_000L).toMap());
+        // 位置が戻る。精度が分からない
+        final Report noAccuracy = this.builder.start(331549022, START + 202_000L);
+        noAccuracy.setLocation(-33.8688, 151.2093, -3.5, Double.NaN, START + 201_000L);
+        expected.add(noAccuracy.toMap());
+        // 通報し直した
+        expected.add(report(-5, START + 150_000L, 35.0, 139.0, 5));
+
+        final List<Map<String, Object>> actual = new ArrayList<>();
+        for (int i = 0; i < expected.size(); i += 3) {
+            final Object frame = i + 1 < expected.size() ? expected.subList(i, Math.min(i + 3, expected.size())) : expected.get(i);
+            actual.addAll(decoder.decode(encoder.encode(frame)));
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final Map<String, Object> want = expected.get(i);
+            final Map<String, Object> got = actual.get(i);
+            assertEquals(want.keySet(), got.keySet());
+            assertEquals(want.get(Report.KEY_ID), got.get(Report.KEY_ID));
+            assertEquals(want.get(Report.KEY_DATE), got.get(Report.KEY_DATE));
+            assertEquals(want.get(Report.KEY_REPORT_KEY), got.get(Report.KEY_REPORT_KEY));
+            assertEquals(want.get(Report.KEY_PHONE_NUMBER), got.get(Report.KEY_PHONE_NUMBER));
+            assertEquals(want.get(Report.KEY_LOCATION_AGE), got.get(Report.KEY_LOCATION_AGE));
+            final List<?> wantLocation = (List<?>) want.get(Report.KEY_LOCATION);
+            final List<?> gotLocation = (List<?>) got.get(Report.KEY_LOCATION);
+            if (wantLocation == null) {
+                assertNull(gotLocation);
+                assertNull(got.get(Report.KEY_LOCATION_ACCURACY));
+                continue;
+            }
+            assertEquals((Double) wantLocation.get(0), (Double) gotLocation.get(0), 1e-6);
+            assertEquals((Double) wantLocation.get(1), (Double) gotLocation.get(1), 1e-6);
+            assertEquals((Double) wantLocation.get(2), (Double) gotLocation.get(2), 0.01);
+            if (want.get(Report.KEY_LOCATION_ACCURACY) == null) {
+                assertNull(got.get(Report.KEY_LOCATION_ACCURACY));
+            } else {
+                assertEquals((Double) want.get(Report.KEY_LOCATION_ACCURACY), (Double) got.get(Report.KEY_LOCATION_ACCURACY), 0.1);
+            }
+        }
+    }
+
+    @Test
+    public void keepZoneOffset() throws Exception {
+        final BinaryReportEncoder encoder = new BinaryReportEncoder(60, 60_000L);
+        final ReportBuilder utc = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("UTC")));
+        final ReportBuilder newYork = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("America/New_York")));
+        final List<Map<String, Object>> frame = Arrays.asList(
+                utc.start(1, START).toMap(),
+                newYork.start(1, START + 1_000L).toMap(),
+                this.builder.start(1, START + 2_000L).toMap());
+        final List<Map<String, Object>> decoded = (new BinaryReportDecoder()).decode(encoder.encode(frame));
+        for (int i = 0; i < frame.size(); i++) {
+            assertEquals(frame.get(i).get(Report.KEY_DATE), decoded.get(i).get(Report.KEY_DATE));
+        }
+    }
+
+    @Test
+    public void keyframeCadence() throws Exception {
+        final BinaryReportEncoder encoder = new BinaryReportEncoder(3, 60_000L);
+        final List<Boolean> keyframes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            keyframes.add(isKeyframe(encoder.encode(report(1, START + i * 1_000L, 35.0, 139.0, 5))));
+        }
+        assertEquals(Arrays.asList(true, false, false, false, true, false, false, false), keyframes);
+
+        // 間が空いた
+        assertTrue(isKeyframe(encoder.encode(report(1, START + 120_000L, 35.0, 139.0, 5))));
+        // 通報し直した
+        assertTrue(isKeyframe(encoder.encode(report(2, START + 121_000L, 35.0, 139.0, 5))));
+        assertFalse(isKeyframe(encoder.encode(report(2, START + 122_000L, 35.0, 139.0, 5))));
+        // 接続し直した
+        encoder.reset();
+        assertTrue(isKeyframe(encoder.encode(report(2, START + 123_000L, 35.0, 139.0, 5))));
+    }
+
+    private static boolean isKeyframe(byte[] data) {
+        // 版と数の後の最初の報告の印
+        return (data[2] & BinaryReportEncoder.FLAG_KEYFRAME) != 0;
+    }
+
+    @Test
+    public void deltaLayout() throws Exception {
+        final BinaryReportEncoder encoder = new BinaryReportEncoder(60, 60_000L);
+        encoder.encode(report(1, START, 35.0, 139.0, 5));
+        final byte[] data = encoder.encode(report(1, START + 1_000L, 35.000001, 138.999999, 5.5));
+        // 差分は印、日時の差、位置の差、精度、古さだけ
+        assertEquals(11, data.length);
+        assertEquals(BinaryReportEncoder.VERSION, data[0]);
+        assertEquals(1, data[1]);
+        final byte[] second = Arrays.copyOfRange(data, 2, data.length);
+        assertEquals(BinaryReportEncoder.FLAG_LOCATION | BinaryReportEncoder.FLAG_ACCURACY | BinaryReportEncoder.FLAG_AGE, second[0]);
+        // 1000 を zigzag で 2000 にした可変長
+        assertEquals((byte) 0xd0, second[1]);
+        assertEquals(0x0f, second[2]);
+        // +1, -1, 0
+        assertEquals(2, second[3]);
+        assertEquals(1, second[4]);
+        assertEquals(0, second[5]);
+        assertEquals(55, second[6]);
+        // 500
+        assertEquals((byte) 0xf4, second[7]);
+        assertEquals(0x03, second[8]);
+    }
+
+    @Test
+    public void rejectBrokenData() throws Exception {
+        final byte[] data = (new BinaryReportEncoder(60, 60_000L)).encode(report(1, START, 35.0, 139.0, 5));
+        final byte[][] broken = {
+                new byte[0],
+                Arrays.copyOf(data, data.length - 1),
+                Arrays.copyOf(data, data.length + 1),
+                {(byte) (BinaryReportEncoder.VERSION + 1), 0},
+                // キーフレームに id が無い
+                {BinaryReportEncoder.VERSION, 1, BinaryReportEncoder.FLAG_KEYFRAME | BinaryReportEncoder.FLAG_ZONE | BinaryReportEncoder.FLAG_PHONE_NUMBER, 0, 0, 0},
+                // キーフレームより前の差分
+                {BinaryReportEncoder.VERSION, 1, 0, 0},
+        };
+        for (byte[] bytes : broken) {
+            try {
+                (new BinaryReportDecoder()).decode(bytes);
+                fail(Arrays.toString(bytes));
+            } catch (IllegalArgumentException e) {
+                // 正しい
+            }
+        }
+    }
+
+    @Test
+    public void smallerThanCompact() throws Exception {
+        final List<Map<String, Object>> frame = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            frame.add(report(331549022, START + i * 1_000L, 35.701526 + i * 0.0000123, 139.7531492 - i * 0.0000071, 4.5));
+        }
+        final int binary = (new BinaryReportEncoder(60, 60_000L)).encode(frame).length;
+        final int compact = Json.stringify((new CompactReportEncoder(60, 60_000L)).encode(frame)).length();
+        assertTrue(binary + " vs " + compact, binary * 2 < compact);
+    }
+
+}
@@ -0,0 +1,107 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompactReportCodecTest {
+
+    private static final long START = 1_478_856_695_593L;
+
+    private final ReportBuilder builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+
+    private Map<String, Object> report(int id, long time, double latitude, double longitude, double accuracy) {
+        final Report report = this.builder.start(id, time);
+        report.setLocation(latitude, longitude, 12.34, accuracy, time - 500L);
+        report.setPhoneNumber("0123456789");
+        return report.toMap();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        final CompactReportEncoder encoder = new CompactReportEncoder(60, 60_000L);
+        final CompactReportDecoder decoder = new CompactReportDecoder();
+        final List<Map<String, Object>> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            expected.add(report(331549022, START + i * 1_000L, 35.701526 + i * 0.0000123, 139.7531492 - i * 0.0000071, 4.5 + i % 3));
+        }
+        // 位置が無くなって、電話番号が変わる
+        final Report noLocation = this.builder.start(331549022, START + 200_000L);
+        expected.add(noLocation.toMap());
+        expected.add(this.builder.start(331549022, START + 201_000L).toMap());
+
+        final List<Map<String, Object>> actual = new ArrayList<>();
+        for (int i = 0; i < expected.size(); i += 3) {
+            final Object frame = i + 1 < expected.size() ? expected.subList(i, Math.min(i + 3, expected.size())) : expected.get(i);
+            actual.addAll(decoder.decode(encoder.encode(frame)));
+        }
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            final Map<String, Object> want = expected.get(i);
+            final Map<String, Object> got = actual.get(i);
+            assertEquals(want.get(Report.KEY_ID), got.get(Report.KEY_ID));
+            assertEquals(want.get(Report.KEY_DATE), got.get(Report.KEY_DATE));
+            assertEquals(want.get(Report.KEY_PHONE_NUMBER), got.get(Report.KEY_PHONE_NUMBER));
+            assertEquals(want.get(Report.KEY_LOCATION_AGE), got.get(Report.KEY_LOCATION_AGE));
+            final List<?> wantLocation = (List<?>) want.get(Report.KEY_LOCATION);
+            final List<?> gotLocation = (List<?>) got.get(Report.KEY_LOCATION);
+            if (wantLocation == null) {
+                assertNull(gotLocation);
+                assertNull(got.get(Report.KEY_LOCATION_ACCURACY));
+                continue;
+            }
+            assertEquals((Double) wantLocation.get(0), (Double) gotLocation.get(0), 1e-7);
+            assertEquals((Double) wantLocation.get(1), (Double) gotLocation.get(1), 1e-7);
+            assertEquals((Double) wantLocation.get(2), (Double) gotLocation.get(2), 0.01);
+            assertEquals((Double) want.get(Report.KEY_LOCATION_ACCURACY), (Double) got.get(Report.KEY_LOCATION_ACCURACY), 0.1);
+        }
+    }
+
+    @Test
+    public void keyframeCadence() throws Exception {
+        final CompactReportEncoder encoder = new CompactReportEncoder(3, 60_000L);
+        final List<Integer> tags = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            tags.add(tagOf(encoder.encode(report(1, START + i * 1_000L, 35.0, 139.0, 5))));
+        }
+        assertEquals(Arrays.asList(0, 1, 1, 1, 0, 1, 1, 1), tags);
+
+        // 間が空いた
+        assertEquals(0, tagOf(encoder.encode(report(1, START + 120_000L, 35.0, 139.0, 5))));
+        // 通報し直した
+        assertEquals(0, tagOf(encoder.encode(report(2, START + 121_000L, 35.0, 139.0, 5))));
+        assertEquals(1, tagOf(encoder.encode(report(2, START + 122_000L, 35.0, 139.0, 5))));
+        // 接続し直した
+        encoder.reset();
+        assertEquals(0, tagOf(encoder.encode(report(2, START + 123_000L, 35.0, 139.0, 5))));
+    }
+
+    @Test
+    public void deltaEntry() throws Exception {
+        final CompactReportEncoder encoder = new CompactReportEncoder(60, 60_000L);
+        encoder.encode(report(1, START, 35.0, 139.0, 5));
+        final List<Object> frame = encoder.encode(report(1, START + 1_000L, 35.0000012, 138.9999995, 5.5));
+        assertEquals(Arrays.asList(Arrays.asList(1, 1_000L, 12L, -5L, 0L, 55L, 500L)), frame);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void deltaWithoutKeyframe() throws Exception {
+        final CompactReportEncoder encoder = new CompactReportEncoder(60, 60_000L);
+        encoder.encode(report(1, START, 35.0, 139.0, 5));
+        final List<Object> frame = encoder.encode(report(1, START + 1_000L, 35.0, 139.0, 5));
+        (new CompactReportDecoder()).decode(frame);
+    }
+
+    private static int tagOf(List<Object> frame) {
+        return (Integer) ((List<?>) frame.get(0)).get(0);
+    }
+
+}
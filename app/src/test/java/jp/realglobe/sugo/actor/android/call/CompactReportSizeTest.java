@@ -0,0 +1,88 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 1 分あたりの送信量を通報データそのままの場合と差分で詰めた場合、バイト列に詰めた場合で比べる
+ */
+public class CompactReportSizeTest {
+
+    private static final long START = 1_483_196_400_000L;
+    // 1 秒ごとに報告する
+    private static final int SECONDS = 30 * 60;
+
+    @Test
+    public void stationary() throws Exception {
+        final long[] sizes = measure(0.0, 1L);
+        // 状態が変わらなければまとめられるので、どちらも元々小さい
+        assertTrue(sizes[1] < sizes[0]);
+        assertTrue(sizes[2] < sizes[1]);
+        assertTrue(sizes[2] < 256);
+    }
+
+    @Test
+    public void walking() throws Exception {
+        final long[] sizes = measure(1.4, 2L);
+        assertTrue(sizes[1] * 3 < sizes[0]);
+        assertTrue(sizes[2] * 2 < sizes[1]);
+        // 動いていても 1 分で 1 KB に収まる
+        assertTrue(sizes[2] < 1_024);
+    }
+
+    @Test
+    public void driving() throws Exception {
+        final long[] sizes = measure(15.0, 3L);
+        assertTrue(sizes[1] * 3 < sizes[0]);
+        assertTrue(sizes[2] * 2 < sizes[1]);
+        assertTrue(sizes[2] < 1_024);
+    }
+
+    /**
+     * @param speed 移動の速さ（メートル毎秒）
+     * @param seed  乱数の種
+     * @return そのままの場合、差分で詰めた場合、バイト列に詰めた場合の 1 分あたりのバイト数
+     */
+    private static long[] measure(double speed, long seed) {
+        final CompactReportEncoder encoder = new CompactReportEncoder(60, 60_000L);
+        final BinaryReportEncoder binaryEncoder = new BinaryReportEncoder(60, 60_000L);
+        final long[] bytes = new long[3];
+        final ReportPipeline pipeline = new ReportPipeline(frame -> {
+            bytes[0] += Json.stringify(frame).getBytes(StandardCharsets.UTF_8).length;
+            bytes[1] += Json.stringify(encoder.encode(frame)).getBytes(StandardCharsets.UTF_8).length;
+            bytes[2] += binaryEncoder.encode(frame).length;
+        }, 10, 10_000L);
+        final ReportBuilder builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+
+        // 端末の測位を真似る。止まっていれば同じ値が続き、動いていれば毎回変わる
+        final Random random = new Random(seed);
+        double latitude = 35.701526348712;
+        double longitude = 139.753149213355;
+        double altitude = 41.2;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        float accuracy = 4.8f;
+        for (int t = 0; t < SECONDS; t++) {
+            final long now = START + t * 1_000L;
+            if (speed > 0) {
+                heading += (random.nextDouble() - 0.5) * 0.2;
+                latitude += speed * Math.cos(heading) / 111_000.0 + random.nextGaussian() * 1e-6;
+                longitude += speed * Math.sin(heading) / 91_000.0 + random.nextGaussian() * 1e-6;
+                altitude += random.nextGaussian() * 0.3;
+                accuracy = 3.0f + random.nextInt(60) / 10.0f;
+            }
+            final Report report = builder.start(331549022, now);
+            report.setLocation(latitude, longitude, altitude, accuracy, now - random.nextInt(1_000));
+            report.setPhoneNumber("0123456789");
+            pipeline.offer(report, now);
+        }
+        pipeline.flush(START + SECONDS * 1_000L);
+
+        return new long[]{bytes[0] * 60 / SECONDS, bytes[1] * 60 / SECONDS, bytes[2] * 60 / SECONDS};
+    }
+
+}
@@ -0,0 +1,154 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EnergyModelTest {
+
+    private static final long MINUTE = 60_000L;
+    // 一般的な端末の電池（3.85 V、2,700 mAh 程度）
+    private static final double BATTERY_CAPACITY = 10_000.0;
+
+    @Test
+    public void mergeWakeupsAndRadioTail() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final EnergyModel model = new EnergyModel(clock);
+
+        model.wakeup();
+        // 起きている間に起こしても数えない
+        clock.advance(EnergyModel.AWAKE_TIME / 2);
+        model.wakeup();
+        assertEquals(1, model.getWakeupCount());
+        assertEquals(EnergyModel.AWAKE_TIME * 3 / 2, model.getAwakeTime());
+
+        clock.advance(10_000L);
+        model.transmit();
+        // 無線が高電力状態の間の送信はまとめて数える
+        clock.advance(EnergyModel.RADIO_TAIL - 1_000L);
+        model.transmit();
+        assertEquals(3, model.getWakeupCount());
+        assertEquals(2, model.getTransmissionCount());
+        assertEquals(1, model.getRadioBurstCount());
+        assertEquals(2 * EnergyModel.RADIO_TAIL - 1_000L, model.getRadioOnTime());
+    }
+
+    @Test
+    public void energy() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final EnergyModel model = new EnergyModel(clock);
+        model.setLocationPriority(AdaptiveIntervalPolicy.LocationPriority.HIGH_ACCURACY);
+        clock.advance(MINUTE);
+        model.setLocationPriority(AdaptiveIntervalPolicy.LocationPriority.BALANCED_POWER_ACCURACY);
+        clock.advance(MINUTE);
+        model.setLocationPriority(null);
+        model.transmit();
+        clock.advance(MINUTE);
+
+        final double expected = (EnergyModel.SLEEP_POWER * 3 * MINUTE
+                + EnergyModel.HIGH_ACCURACY_POWER * MINUTE
+                + EnergyModel.BALANCED_POWER * MINUTE
+                + EnergyModel.AWAKE_POWER * EnergyModel.AWAKE_TIME
+                + EnergyModel.RADIO_POWER * EnergyModel.RADIO_TAIL) / 1_000.0;
+        assertEquals(expected, model.getEnergy(), 1e-6);
+        assertEquals(expected / (3 * MINUTE / 1_000.0), model.getAveragePower(), 1e-6);
+        assertEquals(BATTERY_CAPACITY / model.getAveragePower(), model.estimateBatteryLife(BATTERY_CAPACITY), 1e-6);
+    }
+
+    @Test
+    public void lowPowerExtendsBatteryLife() throws Exception {
+        final Session normal = simulate(false);
+        final Session lowPower = simulate(true);
+
+        // 通報の最初の報告は遅らせない
+        assertEquals(0, normal.firstTransmission);
+        assertEquals(0, lowPower.firstTransmission);
+        assertTrue(lowPower.reports * 3 < normal.reports);
+        assertTrue(lowPower.model.getWakeupCount() * 3 < normal.model.getWakeupCount());
+        assertTrue(lowPower.model.getRadioOnTime() * 3 < normal.model.getRadioOnTime());
+        assertTrue(lowPower.batteryLife() > 2 * normal.batteryLife());
+        // 省電力モードなら 1 日は持つ（時間）
+        assertTrue(lowPower.batteryLife() > 24);
+    }
+
+    private static final class Session {
+        private EnergyModel model;
+        private long firstTransmission = -1;
+        private int reports;
+
+        private double batteryLife() {
+            return this.model.estimateBatteryLife(BATTERY_CAPACITY);
+        }
+    }
+
+    /**
+     * 20 分止まって、20 分歩いて、20 分止まる通報を、既定の設定で真似る
+     */
+    private static Session simulate(boolean lowPower) {
+        final SimulatedClock clock = new SimulatedClock(0);
+        final AdaptiveIntervalPolicy policy = new AdaptiveIntervalPolicy(clock, 1_000L, 60_000L, 5_000L, 120_000L);
+        policy.setLowPower(lowPower);
+        final Session session = new Session();
+        final EnergyModel model = new EnergyModel(clock);
+        session.model = model;
+        final ReportPipeline pipeline = new ReportPipeline(frame -> {
+            model.transmit();
+            if (session.firstTransmission < 0) {
+                session.firstTransmission = clock.now();
+            }
+        }, 10, 10_000L);
+        if (lowPower) {
+            pipeline.setBurstInterval(30_000L);
+        }
+        final ReportBuilder builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+
+        AdaptiveIntervalPolicy.LocationPriority priority = policy.getLocationPriority();
+        model.setLocationPriority(priority);
+        final long end = 60 * MINUTE;
+        long nextReport = 0;
+        long nextFix = 0;
+        long lastFix = 0;
+        double position = 0;
+        double reportedPosition = 0;
+        boolean hasFix = false;
+        while (true) {
+            final long t = Math.min(nextReport, nextFix);
+            if (t >= end) {
+                break;
+            }
+            clock.set(t);
+            model.wakeup();
+            final double speed = (20 * MINUTE <= t && t < 40 * MINUTE) ? 1.4 : 0;
+            if (nextFix <= nextReport) {
+                position += speed * (t - lastFix) / 1_000.0;
+                lastFix = t;
+                reportedPosition = position;
+                hasFix = true;
+                // Wi-Fi や基地局による位置は誤差が大きい
+                final double accuracy = priority == AdaptiveIntervalPolicy.LocationPriority.HIGH_ACCURACY ? 8 : 30;
+                policy.onLocation(35.0 + position / 111_000.0, 139.0, speed, accuracy);
+                if (policy.getLocationPriority() != priority) {
+                    priority = policy.getLocationPriority();
+                    model.setLocationPriority(priority);
+                }
+                nextFix = t + policy.getLocationInterval();
+            } else {
+                final Report report = builder.start(1, t);
+                if (hasFix) {
+                    report.setLocation(35.0 + reportedPosition / 111_000.0, 139.0, 10.0, 8.0, lastFix);
+                }
+                pipeline.offer(report, t);
+                session.reports++;
+                nextReport = t + policy.nextReportInterval();
+                nextFix = Math.max(t, Math.min(nextFix, lastFix + policy.getLocationInterval()));
+            }
+        }
+        clock.set(end);
+        pipeline.flush(end);
+        return session;
+    }
+
+}
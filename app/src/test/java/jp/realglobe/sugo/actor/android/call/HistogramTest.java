@@ -0,0 +1,90 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketBoundaries() throws Exception {
+        long previous = -1;
+        for (int index = 0; index < Histogram.indexOf(Long.MAX_VALUE) + 1; index++) {
+            final long highest = Histogram.highestValueAt(index);
+            assertTrue(highest > previous);
+            assertEquals(index, Histogram.indexOf(previous + 1));
+            assertEquals(index, Histogram.indexOf(highest));
+            previous = highest;
+        }
+        assertEquals(Long.MAX_VALUE, previous);
+    }
+
+    @Test
+    public void quantilesWithinRelativeError() throws Exception {
+        final Random random = new Random(1L);
+        final Histogram histogram = new Histogram();
+        final long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // 裾の長い分布
+            values[i] = (long) Math.exp(random.nextGaussian() * 2 + 8);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        final Histogram.Snapshot snapshot = histogram.snapshot(false);
+        assertEquals(values.length, snapshot.getCount());
+        assertEquals(values[values.length - 1], snapshot.getMax());
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            final long expected = values[(int) Math.ceil(quantile * values.length) - 1];
+            final long actual = snapshot.getValueAtQuantile(quantile);
+            assertTrue(quantile + ": " + actual + " vs " + expected, actual >= expected && actual <= expected + expected / 16 + 1);
+        }
+    }
+
+    @Test
+    public void resetOnSnapshot() throws Exception {
+        final Histogram histogram = new Histogram();
+        histogram.record(10);
+        histogram.record(-5);
+        assertEquals(2, histogram.snapshot(true).getCount());
+        final Histogram.Snapshot empty = histogram.snapshot(true);
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getValueAtQuantile(0.99));
+    }
+
+    @Test
+    public void concurrentRecording() throws Exception {
+        final Histogram histogram = new Histogram();
+        final int threads = 4;
+        final int perThread = 100_000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int offset = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < perThread; j++) {
+                    histogram.record(offset * 1_000 + j % 1_000);
+                }
+            });
+            workers[i].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        final Histogram.Snapshot snapshot = histogram.snapshot(false);
+        assertEquals(threads * perThread, snapshot.getCount());
+        assertEquals((threads - 1) * 1_000 + 999, snapshot.getMax());
+    }
+
+}
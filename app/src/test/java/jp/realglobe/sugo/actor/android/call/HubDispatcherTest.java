@@ -0,0 +1,615 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HubDispatcherTest {
+
+    private static final long HANDSHAKE_TIME = 20L;
+    private static final long ACK_TIMEOUT = 200L;
+
+    private ScheduledExecutorService executor;
+    private ExecutorService dispatchExecutor;
+    private final List<StandInHub> hubs = new ArrayList<>();
+    private final AtomicReference<HubDispatcher> dispatcher = new AtomicReference<>();
+    private int reportTime;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newScheduledThreadPool(4);
+        this.dispatchExecutor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        if (this.dispatcher.get() != null) {
+            this.dispatcher.get().close();
+        }
+        this.executor.shutdownNow();
+        this.dispatchExecutor.shutdownNow();
+    }
+
+    @Test
+    public void fanOutFirstReport() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(3);
+        this.hubs.get(0).emitDelay = 2_000L;
+        awaitConnected(dispatcher, 3);
+
+        dispatcher.markReportRequested();
+        final long start = System.currentTimeMillis();
+        dispatcher.send(newReport());
+        // 遅い hub を待たない
+        assertTrue(System.currentTimeMillis() - start < 1_000L);
+        assertTrue(dispatcher.getTimeToFirstReport() < 1_000L);
+        // 速い方が受け取った時点で戻るので、もう一方はまだかもしれない
+        assertTrue(this.hubs.get(1).getReceivedCount() + this.hubs.get(2).getReceivedCount() >= 1);
+        awaitReceived(this.hubs.get(1), 1);
+        awaitReceived(this.hubs.get(2), 1);
+        awaitReceived(this.hubs.get(0), 1);
+
+        // 次からは 1 つにだけ送る
+        dispatcher.send(newReport());
+        int total = 0;
+        for (StandInHub hub : this.hubs) {
+            total += hub.getReceivedCount();
+        }
+        assertEquals(4, total);
+    }
+
+    @Test
+    public void fanOutWithoutWaiting() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(2);
+        this.hubs.get(0).emitDelay = 300L;
+        this.hubs.get(1).emitDelay = 300L;
+        awaitConnected(dispatcher, 2);
+
+        dispatcher.markReportRequested();
+        final RecordingCallback callback = new RecordingCallback();
+        final long start = System.currentTimeMillis();
+        dispatcher.send(newReport(), callback);
+        // 送り終わるのを待たずに戻り、送っている途中は失敗にしない
+        assertTrue(System.currentTimeMillis() - start < 200L);
+        assertEquals(0, callback.sent.get());
+        assertEquals(0, callback.failed.get());
+
+        awaitReceived(this.hubs.get(0), 1);
+        awaitReceived(this.hubs.get(1), 1);
+        Thread.sleep(50L);
+        assertEquals(1, callback.sent.get());
+        assertEquals(0, callback.failed.get());
+    }
+
+    @Test
+    public void noOvertakingFanOut() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(2);
+        this.hubs.get(0).emitDelay = 300L;
+        this.hubs.get(1).emitDelay = 300L;
+        awaitConnected(dispatcher, 2);
+
+        dispatcher.markReportRequested();
+        final Map<String, Object> first = newReport();
+        dispatcher.send(first, new RecordingCallback());
+        Thread.sleep(50L);
+        this.hubs.get(0).emitDelay = 0L;
+        this.hubs.get(1).emitDelay = 0L;
+        // 並行して送っている途中の hub には、それが終わってから送る
+        final Map<String, Object> second = newReport();
+        dispatcher.send(second);
+        for (StandInHub hub : this.hubs) {
+            if (hub.hasReceived(second)) {
+                assertTrue(hub.indexOf(first) >= 0);
+                assertTrue(hub.indexOf(first) < hub.indexOf(second));
+            }
+        }
+    }
+
+    @Test
+    public void fanOutFailure() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(2);
+        awaitConnected(dispatcher, 2);
+        this.hubs.get(0).failing = true;
+        this.hubs.get(1).failing = true;
+
+        dispatcher.markReportRequested();
+        final RecordingCallback callback = new RecordingCallback();
+        dispatcher.send(newReport(), callback);
+        final long deadline = System.currentTimeMillis() + 10_000L;
+        while (callback.failed.get() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+        Thread.sleep(50L);
+        assertEquals(0, callback.sent.get());
+        assertEquals(1, callback.failed.get());
+
+        // 失敗したら次もまた全てに送る
+        this.hubs.get(0).failing = false;
+        this.hubs.get(1).failing = false;
+        dispatcher.send(newReport());
+        awaitReceived(this.hubs.get(0), 1);
+        awaitReceived(this.hubs.get(1), 1);
+    }
+
+    @Test
+    public void primaryByRoundTripTime() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(3);
+        this.hubs.get(0).ackDelay = 80L;
+        this.hubs.get(1).ackDelay = 5L;
+        this.hubs.get(2).ackDelay = 40L;
+        awaitConnected(dispatcher, 3);
+
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+        Thread.sleep(200L);
+        assertFalse(Double.isNaN(dispatcher.getRoundTripTime(0)));
+        assertTrue(dispatcher.getRoundTripTime(1) < dispatcher.getRoundTripTime(0));
+
+        final int before = this.hubs.get(1).getReceivedCount();
+        for (int i = 0; i < 5; i++) {
+            dispatcher.send(newReport());
+        }
+        assertEquals(1, dispatcher.getPrimary());
+        assertEquals(before + 5, this.hubs.get(1).getReceivedCount());
+    }
+
+    @Test
+    public void failoverWhenAcksStop() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(2);
+        this.hubs.get(0).ackDelay = 5L;
+        this.hubs.get(1).ackDelay = 50L;
+        awaitConnected(dispatcher, 2);
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+        Thread.sleep(100L);
+        dispatcher.send(newReport());
+        assertEquals(0, dispatcher.getPrimary());
+
+        // 主が受領を返さなくなる
+        this.hubs.get(0).acking.set(false);
+        final Map<String, Object> lost1 = newReport();
+        final Map<String, Object> lost2 = newReport();
+        dispatcher.send(lost1);
+        dispatcher.send(lost2);
+        assertFalse(this.hubs.get(1).hasReceived(lost2));
+
+        Thread.sleep(ACK_TIMEOUT * 2);
+        dispatcher.checkTimeouts();
+        assertEquals(1, dispatcher.getPrimary());
+        assertEquals(1, dispatcher.getFailoverCount());
+        // 受領されていない分が送り直される
+        awaitReceived(this.hubs.get(1), lost1);
+        awaitReceived(this.hubs.get(1), lost2);
+
+        final Map<String, Object> next = newReport();
+        dispatcher.send(next);
+        assertTrue(this.hubs.get(1).hasReceived(next));
+        assertFalse(this.hubs.get(0).hasReceived(next));
+    }
+
+    @Test
+    public void retransmitWhenAckLost() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(1);
+        this.hubs.get(0).ackDelay = 5L;
+        awaitConnected(dispatcher, 1);
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+        Thread.sleep(50L);
+
+        // 受領が 1 回だけ失われる
+        this.hubs.get(0).lostAcks.set(1);
+        final Map<String, Object> report = newReport();
+        dispatcher.send(report);
+        Thread.sleep(ACK_TIMEOUT / 2);
+        dispatcher.checkTimeouts();
+        Thread.sleep(50L);
+
+        assertEquals(2, this.hubs.get(0).getReceivedCount(report));
+        assertEquals(0, dispatcher.getPendingCount(0));
+        assertEquals(0, dispatcher.getPrimary());
+        final HubDispatcher.Status status = dispatcher.getStatus();
+        assertEquals(1, status.getRetransmitCount());
+        assertEquals(0, status.getLostCount());
+        assertTrue(status.getLossRate() > 0);
+        assertEquals(1, status.getConnectedCount());
+    }
+
+    @Test
+    public void noRetransmitToSuspectHub() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(1);
+        this.hubs.get(0).ackDelay = 5L;
+        awaitConnected(dispatcher, 1);
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+        Thread.sleep(50L);
+
+        this.hubs.get(0).acking.set(false);
+        final Map<String, Object> lost = newReport();
+        dispatcher.send(lost);
+        Thread.sleep(ACK_TIMEOUT + 50L);
+        dispatcher.checkTimeouts();
+        // 代わりが無いので主のまま、再送もしない
+        assertEquals(0, dispatcher.getPrimary());
+        final long retransmits = dispatcher.getStatus().getRetransmitCount();
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(ACK_TIMEOUT / 2);
+            dispatcher.checkTimeouts();
+        }
+        assertEquals(1, this.hubs.get(0).getReceivedCount(lost));
+        assertEquals(retransmits, dispatcher.getStatus().getRetransmitCount());
+    }
+
+    @Test
+    public void failoverOnDisconnect() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(2);
+        this.hubs.get(0).ackDelay = 5L;
+        this.hubs.get(1).ackDelay = 50L;
+        awaitConnected(dispatcher, 2);
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+        Thread.sleep(100L);
+        dispatcher.send(newReport());
+        assertEquals(0, dispatcher.getPrimary());
+
+        this.hubs.get(0).acking.set(false);
+        final Map<String, Object> lost = newReport();
+        dispatcher.send(lost);
+        this.hubs.get(0).drop();
+
+        assertEquals(1, dispatcher.getPrimary());
+        awaitReceived(this.hubs.get(1), lost);
+        assertTrue(dispatcher.isConnected());
+    }
+
+    @Test
+    public void emitFailureTriesNextHub() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(2);
+        awaitConnected(dispatcher, 2);
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+
+        this.hubs.get(dispatcher.getPrimary()).failing = true;
+        final Map<String, Object> report = newReport();
+        dispatcher.send(report);
+        assertTrue(this.hubs.get(0).hasReceived(report) || this.hubs.get(1).hasReceived(report));
+    }
+
+    @Test
+    public void hubWithoutAcksIsKept() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(2);
+        this.hubs.get(0).acking.set(false);
+        this.hubs.get(1).acking.set(false);
+        awaitConnected(dispatcher, 2);
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+        dispatcher.send(newReport());
+        final int primary = dispatcher.getPrimary();
+
+        Thread.sleep(ACK_TIMEOUT * 2);
+        dispatcher.checkTimeouts();
+        dispatcher.send(newReport());
+        assertEquals(primary, dispatcher.getPrimary());
+        assertEquals(0, dispatcher.getFailoverCount());
+    }
+
+    @Test
+    public void deliveredOnAck() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(1);
+        this.hubs.get(0).ackDelay = 5L;
+        awaitConnected(dispatcher, 1);
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+        Thread.sleep(50L);
+
+        // 受領を返す hub なら受領が来るまで届いたことにしない
+        this.hubs.get(0).ackDelay = 200L;
+        final RecordingCallback callback = new RecordingCallback();
+        dispatcher.send(newReport(), callback);
+        assertEquals(1, callback.sent.get());
+        assertEquals(0, callback.delivered.get());
+        awaitCount(callback.delivered, 1);
+        Thread.sleep(50L);
+        assertEquals(1, callback.delivered.get());
+        assertEquals(0, callback.lost.get());
+    }
+
+    @Test
+    public void deliveredWithoutAcks() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(1);
+        this.hubs.get(0).acking.set(false);
+        awaitConnected(dispatcher, 1);
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+
+        // 受領を返さない hub には送っただけで届いたとみなす
+        final RecordingCallback callback = new RecordingCallback();
+        dispatcher.send(newReport(), callback);
+        assertEquals(1, callback.sent.get());
+        assertEquals(1, callback.delivered.get());
+    }
+
+    @Test
+    public void lostOnDisconnect() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(1);
+        this.hubs.get(0).ackDelay = 5L;
+        awaitConnected(dispatcher, 1);
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+        Thread.sleep(50L);
+
+        // 送った直後に切れた
+        this.hubs.get(0).acking.set(false);
+        final RecordingCallback callback = new RecordingCallback();
+        dispatcher.send(newReport(), callback);
+        this.hubs.get(0).drop();
+        assertEquals(1, callback.sent.get());
+        assertEquals(0, callback.delivered.get());
+        assertEquals(1, callback.lost.get());
+        assertEquals(0, dispatcher.getPendingCount(0));
+    }
+
+    @Test
+    public void deliveredAfterFailover() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(2);
+        this.hubs.get(0).ackDelay = 5L;
+        this.hubs.get(1).ackDelay = 50L;
+        awaitConnected(dispatcher, 2);
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+        Thread.sleep(100L);
+        dispatcher.send(newReport());
+        assertEquals(0, dispatcher.getPrimary());
+
+        // 移した先で受領されれば届いたことにする
+        this.hubs.get(0).acking.set(false);
+        final RecordingCallback callback = new RecordingCallback();
+        dispatcher.send(newReport(), callback);
+        this.hubs.get(0).drop();
+        awaitCount(callback.delivered, 1);
+        assertEquals(0, callback.lost.get());
+    }
+
+    @Test
+    public void lostOnClose() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(1);
+        this.hubs.get(0).ackDelay = 5L;
+        awaitConnected(dispatcher, 1);
+        dispatcher.markReportRequested();
+        dispatcher.send(newReport());
+        Thread.sleep(50L);
+
+        // 作り直すときは受領を待っているものを諦める
+        this.hubs.get(0).acking.set(false);
+        final RecordingCallback callback = new RecordingCallback();
+        dispatcher.send(newReport(), callback);
+        dispatcher.close();
+        assertEquals(1, callback.lost.get());
+        assertEquals(0, callback.delivered.get());
+    }
+
+    @Test
+    public void noHubConnected() throws Exception {
+        final HubDispatcher dispatcher = newDispatcher(2);
+        try {
+            dispatcher.send(newReport());
+            fail();
+        } catch (IllegalStateException e) {
+            // OK
+        }
+        assertEquals(-1, dispatcher.getPrimary());
+    }
+
+    private static final class RecordingCallback implements HubDispatcher.Callback {
+
+        private final AtomicInteger sent = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger delivered = new AtomicInteger();
+        private final AtomicInteger lost = new AtomicInteger();
+
+        @Override
+        public void onSent() {
+            this.sent.incrementAndGet();
+        }
+
+        @Override
+        public void onFailure(RuntimeException e) {
+            this.failed.incrementAndGet();
+        }
+
+        @Override
+        public void onDelivered() {
+            this.delivered.incrementAndGet();
+        }
+
+        @Override
+        public void onLost() {
+            this.lost.incrementAndGet();
+        }
+    }
+
+    private static void awaitCount(AtomicInteger counter, int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000L;
+        while (counter.get() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    private HubDispatcher newDispatcher(int count) {
+        final List<ActorConnection> connections = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            final StandInHub hub = new StandInHub(this.executor, key -> this.dispatcher.get().onAck(index, key));
+            this.hubs.add(hub);
+            connections.add(new ActorConnection(hub, new Backoff(10L, 40L, new Random(i)), this.executor, Clock.SYSTEM, 1_000L));
+        }
+        final HubDispatcher dispatcher = new HubDispatcher(connections, Report.EVENT_EMERGENCY, this.dispatchExecutor, Clock.SYSTEM,
+                ACK_TIMEOUT, 100);
+        this.dispatcher.set(dispatcher);
+        dispatcher.open();
+        return dispatcher;
+    }
+
+    private Map<String, Object> newReport() {
+        final long time = 1_478_856_695_593L + 1_000L * this.reportTime++;
+        final Map<String, Object> report = new HashMap<>();
+        report.put(Report.KEY_ID, 331549022);
+        report.put(Report.KEY_REPORT_KEY, Report.reportKey(331549022, time));
+        return report;
+    }
+
+    private void awaitConnected(HubDispatcher dispatcher, int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000L;
+        while (true) {
+            int connected = 0;
+            for (StandInHub hub : this.hubs) {
+                connected += hub.isConnected() ? 1 : 0;
+            }
+            if (connected == count && dispatcher.isConnected()) {
+                return;
+            }
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    private static void awaitReceived(StandInHub hub, int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000L;
+        while (hub.getReceivedCount() < count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    private static void awaitReceived(StandInHub hub, Map<String, Object> report) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000L;
+        while (!hub.hasReceived(report)) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+    /**
+     * example/hub.js の代わり。届いた通報データの reportKey を返す。
+     * 送信の遅れ、受領の遅れ、受領の停止、送信の失敗、切断を起こせる
+     */
+    private static final class StandInHub implements ActorConnection.TransportFactory {
+
+        private final ScheduledExecutorService executor;
+        private final ReportModule.AckListener ackListener;
+        private final List<Object> received = new ArrayList<>();
+        private volatile Transport transport;
+
+        volatile long emitDelay;
+        volatile long ackDelay;
+        volatile boolean failing;
+        final AtomicBoolean acking = new AtomicBoolean(true);
+        final AtomicInteger lostAcks = new AtomicInteger();
+
+        StandInHub(ScheduledExecutorService executor, ReportModule.AckListener ackListener) {
+            this.executor = executor;
+            this.ackListener = ackListener;
+        }
+
+        @Override
+        public ActorConnection.Transport create() {
+            this.transport = new Transport();
+            return this.transport;
+        }
+
+        boolean isConnected() {
+            final Transport transport = this.transport;
+            return transport != null && transport.open.get();
+        }
+
+        synchronized int getReceivedCount() {
+            return this.received.size();
+        }
+
+        synchronized int getReceivedCount(Map<String, Object> report) {
+            int count = 0;
+            for (Object key : this.received) {
+                count += key.equals(report.get(Report.KEY_REPORT_KEY)) ? 1 : 0;
+            }
+            return count;
+        }
+
+        synchronized boolean hasReceived(Map<String, Object> report) {
+            return this.received.contains(report.get(Report.KEY_REPORT_KEY));
+        }
+
+        synchronized int indexOf(Map<String, Object> report) {
+            return this.received.indexOf(report.get(Report.KEY_REPORT_KEY));
+        }
+
+        void drop() {
+            this.transport.callback.onDisconnect();
+        }
+
+        private final class Transport implements ActorConnection.Transport {
+
+            private final AtomicBoolean open = new AtomicBoolean();
+            private volatile ActorConnection.Callback callback;
+
+            @Override
+            public void connect(ActorConnection.Callback callback) {
+                this.callback = callback;
+                StandInHub.this.executor.schedule(() -> {
+                    if (this.open.compareAndSet(false, true)) {
+                        callback.onConnect();
+                    }
+                }, HANDSHAKE_TIME, TimeUnit.MILLISECONDS);
+            }
+
+            @Override
+            public void emit(String event, Object data) {
+                if (StandInHub.this.failing) {
+                    throw new IllegalStateException("Emit failed");
+                }
+                if (StandInHub.this.emitDelay > 0) {
+                    try {
+                        Thread.sleep(StandInHub.this.emitDelay);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                final Object key = ((Map<?, ?>) data).get(Report.KEY_REPORT_KEY);
+                synchronized (StandInHub.this) {
+                    StandInHub.this.received.add(key);
+                }
+                if (StandInHub.this.lostAcks.getAndDecrement() > 0) {
+                    return;
+                }
+                if (StandInHub.this.acking.get()) {
+                    StandInHub.this.executor.schedule(() -> StandInHub.this.ackListener.onAck(key), StandInHub.this.ackDelay, TimeUnit.MILLISECONDS);
+                }
+            }
+
+            @Override
+            public void disconnect() {
+                this.open.set(false);
+            }
+
+        }
+
+    }
+
+}
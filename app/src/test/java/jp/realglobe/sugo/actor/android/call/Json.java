@@ -0,0 +1,72 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 送信データが JSON で何バイトになるか数えるためのもの
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    static String stringify(Object value) {
+        final StringBuilder builder = new StringBuilder();
+        write(builder, value);
+        return builder.toString();
+    }
+
+    private static void write(StringBuilder builder, Object value) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof String) {
+            builder.append('"');
+            final String text = (String) value;
+            for (int i = 0; i < text.length(); i++) {
+                final char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    builder.append('\\');
+                }
+                builder.append(c);
+            }
+            builder.append('"');
+        } else if (value instanceof Double) {
+            final double number = (Double) value;
+            if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+                builder.append((long) number);
+            } else {
+                builder.append(number);
+            }
+        } else if (value instanceof Number || value instanceof Boolean) {
+            builder.append(value);
+        } else if (value instanceof List) {
+            builder.append('[');
+            boolean first = true;
+            for (Object element : (List<?>) value) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                write(builder, element);
+            }
+            builder.append(']');
+        } else if (value instanceof Map) {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                write(builder, String.valueOf(entry.getKey()));
+                builder.append(':');
+                write(builder, entry.getValue());
+            }
+            builder.append('}');
+        } else {
+            throw new IllegalArgumentException("Unsupported " + value.getClass());
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LocationCacheTest {
+
+    private static final long START = 1_483_196_400_000L;
+
+    private final ReportBuilder builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("UTC")));
+
+    @Test
+    public void empty() {
+        final LocationCache cache = new LocationCache(5, 60_000L);
+        final Report report = this.builder.start(1, START);
+        assertFalse(cache.select(START, report));
+        assertFalse(report.hasLocation());
+    }
+
+    @Test
+    public void preferAccurateOverSlightlyNewer() {
+        final LocationCache cache = new LocationCache(5, 60_000L);
+        // GPS の後にネットワーク測位が来た
+        cache.offer(35.0, 139.0, 10, 5, START);
+        cache.offer(35.001, 139.001, 0, 500, START + 2_000L);
+
+        final Report report = this.builder.start(1, START + 3_000L);
+        assertTrue(cache.select(START + 3_000L, report));
+        assertEquals(35.0, report.getLatitude(), 0);
+        assertEquals(5, report.getLocationAccuracy(), 0);
+        assertEquals(3_000L, report.toMap().get(Report.KEY_LOCATION_AGE));
+    }
+
+    @Test
+    public void preferNewerWhenOldFixDegrades() {
+        final LocationCache cache = new LocationCache(5, 600_000L);
+        cache.offer(35.0, 139.0, 10, 5, START);
+        cache.offer(35.001, 139.001, 0, 30, START + 100_000L);
+
+        final Report report = this.builder.start(1, START + 101_000L);
+        assertTrue(cache.select(START + 101_000L, report));
+        // 100 秒前の 5 m より 1 秒前の 30 m の方が近いはず
+        assertEquals(35.001, report.getLatitude(), 0);
+    }
+
+    @Test
+    public void dropStaleFixes() {
+        final LocationCache cache = new LocationCache(5, 60_000L);
+        cache.offer(35.0, 139.0, 10, 5, START);
+
+        final Report report = this.builder.start(1, START + 60_001L);
+        assertFalse(cache.select(START + 60_001L, report));
+        assertFalse(report.hasLocation());
+    }
+
+    @Test
+    public void unknownAccuracyLosesToKnown() {
+        final LocationCache cache = new LocationCache(5, 60_000L);
+        cache.offer(35.0, 139.0, 10, 50, START);
+        cache.offer(35.001, 139.001, 0, Double.NaN, START);
+
+        final Report report = this.builder.start(1, START);
+        assertTrue(cache.select(START, report));
+        assertEquals(35.0, report.getLatitude(), 0);
+        assertEquals(50.0, report.toMap().get(Report.KEY_LOCATION_ACCURACY));
+    }
+
+    @Test
+    public void seedIsNotDuplicated() {
+        final LocationCache cache = new LocationCache(5, 60_000L);
+        // 前回の位置と、位置情報の更新で届いた同じ測位
+        cache.offer(35.0, 139.0, 10, 5, START);
+        cache.offer(35.0, 139.0, 10, 5, START);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void keepOnlyCapacity() {
+        final LocationCache cache = new LocationCache(3, Long.MAX_VALUE);
+        // 一番精度の良い測位は押し出される
+        cache.offer(35.0, 139.0, 0, 1, START);
+        for (int i = 1; i <= 3; i++) {
+            cache.offer(35.0 + i, 139.0, 0, 20, START + i);
+        }
+        assertEquals(3, cache.size());
+
+        final Report report = this.builder.start(1, START + 3);
+        assertTrue(cache.select(START + 3, report));
+        assertEquals(38.0, report.getLatitude(), 0);
+    }
+
+    @Test
+    public void syntheticStream() {
+        // 1 秒ごとに測位し、たまに精度の悪い測位や測位の途切れが混ざる
+        final Random random = new Random(1L);
+        final LocationCache cache = new LocationCache(10, 30_000L);
+        final double[] trueLatitudes = new double[600];
+        int selected = 0;
+        double errorSum = 0;
+        for (int t = 0; t < trueLatitudes.length; t++) {
+            // 北へ 1 m/s で歩く。緯度 1 度は約 111 km
+            trueLatitudes[t] = 35.0 + t / 111_000.0;
+            final long now = START + t * 1_000L;
+            if (t % 60 >= 50) {
+                // 途切れ
+            } else if (random.nextInt(4) == 0) {
+                final double accuracy = 300;
+                cache.offer(trueLatitudes[t] + (random.nextDouble() - 0.5) * 2 * accuracy / 111_000.0, 139.0, 0, accuracy, now);
+            } else {
+                final double accuracy = 5;
+                cache.offer(trueLatitudes[t] + (random.nextDouble() - 0.5) * 2 * accuracy / 111_000.0, 139.0, 0, accuracy, now);
+            }
+
+            final Report report = this.builder.start(1, now);
+            if (cache.select(now, report)) {
+                selected++;
+                errorSum += Math.abs(report.getLatitude() - trueLatitudes[t]) * 111_000.0;
+            }
+        }
+
+        // 途切れている間も直前の良い測位を使い続ける
+        assertEquals(trueLatitudes.length, selected);
+        final double meanError = errorSum / selected;
+        assertTrue("Mean error " + meanError + " m", meanError < 10);
+    }
+
+}
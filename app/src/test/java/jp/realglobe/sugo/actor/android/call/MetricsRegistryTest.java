@@ -0,0 +1,48 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void export() throws Exception {
+        final MetricsRegistry metrics = new MetricsRegistry();
+        assertSame(metrics.counter("reportsSent"), metrics.counter("reportsSent"));
+        metrics.counter("reportsSent").addAndGet(3);
+        metrics.gauge("queuedReports", () -> 7);
+        for (int i = 1; i <= 100; i++) {
+            metrics.histogram("emitLatencyMicros").record(i);
+        }
+
+        final Map<?, ?> data = metrics.export();
+        final Map<?, ?> counters = (Map<?, ?>) data.get("counters");
+        assertEquals(3L, counters.get("reportsSent"));
+        assertEquals(7L, counters.get("queuedReports"));
+        final Map<?, ?> latency = (Map<?, ?>) ((Map<?, ?>) data.get("histograms")).get("emitLatencyMicros");
+        assertEquals(100L, latency.get("count"));
+        assertEquals(50.5, (Double) latency.get("mean"), 0);
+        assertEquals(100L, latency.get("max"));
+
+        // 数は累計、分布は前回からの分
+        final Map<?, ?> next = metrics.export();
+        assertEquals(3L, ((Map<?, ?>) next.get("counters")).get("reportsSent"));
+        assertEquals(0L, ((Map<?, ?>) ((Map<?, ?>) next.get("histograms")).get("emitLatencyMicros")).get("count"));
+    }
+
+    @Test
+    public void errorLogIsBounded() throws Exception {
+        final ErrorLog log = new ErrorLog(3);
+        for (int i = 0; i < 10; i++) {
+            log.add("error " + i);
+        }
+        assertEquals(Arrays.asList("error 7", "error 8", "error 9"), log.getEntries());
+        assertEquals(10, log.getTotalCount());
+    }
+
+}
@@ -0,0 +1,216 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityLanesTest {
+
+    /**
+     * 最初の 1 つを送るまで止めておける送り先
+     */
+    private static final class BlockingSender implements PriorityLanes.Sender {
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final List<Object> sent = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void send(PriorityLanes.Lane lane, Object frame) {
+            this.started.countDown();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            this.sent.add(frame);
+        }
+    }
+
+    private static final class RecordingListener implements PriorityLanes.Listener {
+        private final List<Object> failures = Collections.synchronizedList(new ArrayList<>());
+        private final List<PriorityLanes.Lane> available = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onFailure(PriorityLanes.Lane lane, Object frame, RuntimeException e) {
+            this.failures.add(frame);
+        }
+
+        @Override
+        public void onAvailable(PriorityLanes.Lane lane) {
+            this.available.add(lane);
+        }
+    }
+
+    private static PriorityLanes newLanes(PriorityLanes.Sender sender, PriorityLanes.Listener listener) {
+        return new PriorityLanes(sender, listener, Collections.<PriorityLanes.Lane, Histogram>emptyMap());
+    }
+
+    @Test
+    public void sendHigherPriorityFirst() throws Exception {
+        final BlockingSender sender = new BlockingSender();
+        final PriorityLanes lanes = newLanes(sender, new RecordingListener());
+        lanes.start("lanes");
+        try {
+            lanes.offer(PriorityLanes.Lane.REFRESH, "refresh 0");
+            assertTrue(sender.started.await(10, TimeUnit.SECONDS));
+            // 送っている間に溜まったものは優先度の順に送る
+            lanes.offer(PriorityLanes.Lane.DIAGNOSTICS, "diagnostics");
+            lanes.offer(PriorityLanes.Lane.REFRESH, "refresh 1");
+            lanes.offer(PriorityLanes.Lane.STATE_CHANGE, "state change");
+            lanes.offer(PriorityLanes.Lane.ALERT, "alert");
+            sender.release.countDown();
+            assertTrue(lanes.awaitEmpty(10_000L));
+            assertEquals(Arrays.asList("refresh 0", "alert", "state change", "refresh 1", "diagnostics"), sender.sent);
+            assertEquals(2, lanes.getSentCount(PriorityLanes.Lane.REFRESH));
+        } finally {
+            lanes.shutdown();
+        }
+    }
+
+    @Test
+    public void keepRefresh() throws Exception {
+        final BlockingSender sender = new BlockingSender();
+        final RecordingListener listener = new RecordingListener();
+        final PriorityLanes lanes = newLanes(sender, listener);
+        lanes.start("lanes");
+        try {
+            lanes.offer(PriorityLanes.Lane.REFRESH, "first");
+            assertTrue(sender.started.await(10, TimeUnit.SECONDS));
+            final int capacity = PriorityLanes.Lane.REFRESH.getCapacity();
+            for (int i = 0; i < capacity; i++) {
+                assertTrue(lanes.offer(PriorityLanes.Lane.REFRESH, i));
+            }
+            // ジャーナルに残っている通報データなので、溢れても捨てずに受け付けない
+            assertFalse(lanes.offer(PriorityLanes.Lane.REFRESH, capacity));
+            assertEquals(capacity, lanes.getPendingCount(PriorityLanes.Lane.REFRESH));
+            sender.release.countDown();
+            assertTrue(lanes.awaitEmpty(10_000L));
+
+            assertEquals(capacity + 1, sender.sent.size());
+            assertEquals(0, lanes.getDroppedCount(PriorityLanes.Lane.REFRESH));
+            assertEquals(1, lanes.getRejectedCount(PriorityLanes.Lane.REFRESH));
+            assertEquals(Collections.singletonList(PriorityLanes.Lane.REFRESH), listener.available);
+        } finally {
+            lanes.shutdown();
+        }
+    }
+
+    @Test
+    public void dropOldestDiagnostics() throws Exception {
+        final BlockingSender sender = new BlockingSender();
+        final PriorityLanes lanes = newLanes(sender, new RecordingListener());
+        lanes.start("lanes");
+        try {
+            lanes.offer(PriorityLanes.Lane.DIAGNOSTICS, -1);
+            assertTrue(sender.started.await(10, TimeUnit.SECONDS));
+            final int capacity = PriorityLanes.Lane.DIAGNOSTICS.getCapacity();
+            for (int i = 0; i < capacity + 2; i++) {
+                assertTrue(lanes.offer(PriorityLanes.Lane.DIAGNOSTICS, i));
+            }
+            assertEquals(2, lanes.getDroppedCount(PriorityLanes.Lane.DIAGNOSTICS));
+            sender.release.countDown();
+            assertTrue(lanes.awaitEmpty(10_000L));
+            assertEquals(capacity + 1, sender.sent.size());
+            assertEquals(2, sender.sent.get(1));
+            assertEquals(capacity + 1, sender.sent.get(capacity));
+        } finally {
+            lanes.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectAndNotifyAvailable() throws Exception {
+        final BlockingSender sender = new BlockingSender();
+        final RecordingListener listener = new RecordingListener();
+        final PriorityLanes lanes = newLanes(sender, listener);
+        lanes.start("lanes");
+        try {
+            lanes.offer(PriorityLanes.Lane.DIAGNOSTICS, "blocker");
+            assertTrue(sender.started.await(10, TimeUnit.SECONDS));
+            final int capacity = PriorityLanes.Lane.ALERT.getCapacity();
+            for (int i = 0; i < capacity; i++) {
+                assertTrue(lanes.offer(PriorityLanes.Lane.ALERT, i));
+            }
+            assertFalse(lanes.offer(PriorityLanes.Lane.ALERT, "rejected"));
+            assertEquals(1, lanes.getRejectedCount(PriorityLanes.Lane.ALERT));
+            assertTrue(listener.available.isEmpty());
+
+            sender.release.countDown();
+            assertTrue(lanes.awaitEmpty(10_000L));
+            assertEquals(Collections.singletonList(PriorityLanes.Lane.ALERT), listener.available);
+            assertFalse(sender.sent.contains("rejected"));
+        } finally {
+            lanes.shutdown();
+        }
+    }
+
+    @Test
+    public void notifyFailure() throws Exception {
+        final RecordingListener listener = new RecordingListener();
+        final PriorityLanes lanes = newLanes((lane, frame) -> {
+            if ("bad".equals(frame)) {
+                throw new IllegalStateException("Not connected");
+            }
+        }, listener);
+        lanes.start("lanes");
+        try {
+            lanes.offer(PriorityLanes.Lane.STATE_CHANGE, "bad");
+            lanes.offer(PriorityLanes.Lane.STATE_CHANGE, "good");
+            assertTrue(lanes.awaitEmpty(10_000L));
+            // 送れなかった後も続ける
+            assertEquals(Collections.<Object>singletonList("bad"), listener.failures);
+            assertEquals(1, lanes.getFailureCount(PriorityLanes.Lane.STATE_CHANGE));
+            assertEquals(1, lanes.getSentCount(PriorityLanes.Lane.STATE_CHANGE));
+        } finally {
+            lanes.shutdown();
+        }
+    }
+
+    /**
+     * 送り先が遅く、定期的な報告が溜まっていても、最初の報告はすぐに送る
+     */
+    @Test
+    public void alertDoesNotWaitBehindRefresh() throws Exception {
+        final Map<PriorityLanes.Lane, Histogram> queueDelays = new EnumMap<>(PriorityLanes.Lane.class);
+        queueDelays.put(PriorityLanes.Lane.ALERT, new Histogram());
+        queueDelays.put(PriorityLanes.Lane.REFRESH, new Histogram());
+        final PriorityLanes lanes = new PriorityLanes((lane, frame) -> {
+            try {
+                Thread.sleep(5L);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }, new RecordingListener(), queueDelays);
+        lanes.start("lanes");
+        try {
+            for (int i = 0; i < 40; i++) {
+                lanes.offer(PriorityLanes.Lane.REFRESH, i);
+            }
+            for (int i = 0; i < 5; i++) {
+                lanes.offer(PriorityLanes.Lane.ALERT, i);
+                Thread.sleep(20L);
+            }
+            assertTrue(lanes.awaitEmpty(10_000L));
+
+            final long alertMax = queueDelays.get(PriorityLanes.Lane.ALERT).snapshot(false).getMax();
+            final long refreshMax = queueDelays.get(PriorityLanes.Lane.REFRESH).snapshot(false).getMax();
+            // 送っている 1 つを待つだけ
+            assertTrue(alertMax < 50_000L);
+            assertTrue(alertMax * 4 < refreshMax);
+        } finally {
+            lanes.shutdown();
+        }
+    }
+
+}
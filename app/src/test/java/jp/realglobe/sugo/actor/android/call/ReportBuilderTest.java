@@ -0,0 +1,80 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReportBuilderTest {
+
+    @Test
+    public void build() throws Exception {
+        final ReportBuilder builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+        final Report report = builder.start(331549022, 1_478_856_695_593L);
+        report.setLocation(35.701526, 139.7531492, 0, 12.5, 1_478_856_693_593L);
+        report.setPhoneNumber("0123456789");
+
+        final Map<String, Object> expected = new HashMap<>();
+        expected.put("id", 331549022);
+        expected.put("date", "2016-11-11T18:31:35.593+09:00");
+        expected.put("location", Arrays.asList(35.701526, 139.7531492, 0.0));
+        expected.put("locationAccuracy", 12.5);
+        expected.put("locationAge", 2_000L);
+        expected.put("phoneNumber", "0123456789");
+        expected.put("reportKey", "331549022-1478856695593");
+        assertEquals(expected, report.toMap());
+
+        final Report next = builder.start(331549022, 1_478_856_696_593L);
+        assertEquals(null, next.toMap().get("location"));
+        assertEquals(null, next.toMap().get("locationAccuracy"));
+        assertEquals(null, next.toMap().get("locationAge"));
+        assertEquals(null, next.toMap().get("phoneNumber"));
+        assertEquals("331549022-1478856696593", next.toMap().get("reportKey"));
+    }
+
+    @Test
+    public void noAllocationPerTick() throws Exception {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final List<Object> frames = new ArrayList<>();
+        final ReportBuilder builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+        // 動かない通報者。送信は最初の 1 回だけ
+        final ReportPipeline pipeline = new ReportPipeline(frames::add, 10, Long.MAX_VALUE);
+        final String phoneNumber = "0123456789";
+
+        final int ticks = 100_000;
+        long time = 1_483_196_400_000L;
+        final long threadId = Thread.currentThread().getId();
+        long allocated = 0;
+        for (int round = 0; round < 3; round++) {
+            // 最初の回で JIT を効かせる
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ticks; i++) {
+                time += 1_000L;
+                final Report report = builder.start(12, time);
+                report.setLocation(35.701526, 139.7531492, 0, 10, time);
+                report.setPhoneNumber(phoneNumber);
+                pipeline.offer(report, time);
+            }
+            allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        }
+
+        assertEquals(1, frames.size());
+        // 計測そのものの分を除けば 0
+        assertTrue("Allocated " + allocated + " bytes in " + ticks + " ticks", allocated < 1_024);
+    }
+
+}
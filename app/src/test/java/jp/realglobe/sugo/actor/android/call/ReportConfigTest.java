@@ -0,0 +1,77 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ReportConfigTest {
+
+    private static ReportConfig.Builder builder() {
+        return (new ReportConfig.Builder())
+                .setServers("http://localhost:8080/")
+                .setActorKey("qq:reporter:1")
+                .setPhoneNumber("")
+                .setMinReportInterval("1")
+                .setMaxReportInterval("60")
+                .setMinLocationInterval("5")
+                .setMaxLocationInterval("120")
+                .setBatchAge("10")
+                .setTrackTolerance("10");
+    }
+
+    @Test
+    public void build() throws Exception {
+        final ReportConfig config = builder().build();
+        assertEquals(Collections.singletonList("http://localhost:8080/"), config.getServers());
+        assertEquals("qq:reporter:1", config.getActorKey());
+        assertNull(config.getPhoneNumber());
+        assertEquals(1_000L, config.getMinReportInterval());
+        assertEquals(60_000L, config.getMaxReportInterval());
+        assertEquals(5_000L, config.getMinLocationInterval());
+        assertEquals(120_000L, config.getMaxLocationInterval());
+        assertEquals(10_000L, config.getBatchAge());
+        assertEquals(10.0, config.getTrackTolerance(), 0.0);
+    }
+
+    @Test
+    public void rejectInvalidValues() throws Exception {
+        for (String value : new String[]{"", "abc", "0", "-1", null}) {
+            try {
+                builder().setMinReportInterval(value);
+                fail(value);
+            } catch (IllegalArgumentException e) {
+                // OK
+            }
+        }
+        try {
+            builder().setServers("http://localhost:8080/ localhost");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+        try {
+            builder().setServers(" ,\n");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+        try {
+            builder().setMinReportInterval("100").build();
+            fail();
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void multipleServers() throws Exception {
+        final ReportConfig config = builder().setServers("http://localhost:8080/,\nhttps://example.com/hub  http://localhost:8080/").build();
+        assertEquals(Arrays.asList("http://localhost:8080/", "https://example.com/hub"), config.getServers());
+    }
+
+}
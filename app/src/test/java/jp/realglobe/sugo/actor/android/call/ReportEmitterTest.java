@@ -0,0 +1,190 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReportEmitterTest {
+
+    private static final long START = 1_478_856_695_593L;
+    private static final int THREADS = 4;
+    private static final int REPORTS = 200;
+
+    private final ReportBuilder builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+
+    /**
+     * 受け取った順に覚える送り先
+     */
+    private static final class StandInSink implements ReportEmitter.Sink {
+        final List<String> events = new ArrayList<>();
+        final List<Object> data = new ArrayList<>();
+
+        @Override
+        public void emit(String event, Object data) {
+            // ほかのスレッドに割り込ませる
+            Thread.yield();
+            synchronized (this) {
+                this.events.add(event);
+                this.data.add(data);
+            }
+        }
+    }
+
+    private Map<String, Object> report(int thread, int i) {
+        final long time = START + (i * THREADS + thread) * 1_000L;
+        final Report report = this.builder.start(331549022, time);
+        report.setLocation(35.0 + thread + i * 0.0001, 139.0 - thread - i * 0.0001, 10.0 * thread, 5.0, time - 500L);
+        return report.toMap();
+    }
+
+    /**
+     * 何本かのスレッドから同時に送る
+     *
+     * @return スレッドごとの送った報告
+     */
+    private List<List<Map<String, Object>>> emitConcurrently(ReportEmitter emitter) throws InterruptedException {
+        final List<List<Map<String, Object>>> sent = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < THREADS; t++) {
+            final List<Map<String, Object>> reports = new ArrayList<>();
+            for (int i = 0; i < REPORTS; i++) {
+                reports.add(report(t, i));
+            }
+            sent.add(reports);
+            final Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (Map<String, Object> report : reports) {
+                    emitter.emit(Report.EVENT_EMERGENCY, report);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return sent;
+    }
+
+    /**
+     * 戻した報告が送った報告とすべて合うか調べる
+     */
+    private static void assertDecoded(List<List<Map<String, Object>>> sent, List<Map<String, Object>> decoded) {
+        final Map<Object, Map<String, Object>> byKey = new HashMap<>();
+        for (List<Map<String, Object>> reports : sent) {
+            for (Map<String, Object> report : reports) {
+                byKey.put(report.get(Report.KEY_REPORT_KEY), report);
+            }
+        }
+        assertEquals(THREADS * REPORTS, decoded.size());
+        for (Map<String, Object> got : decoded) {
+            final Map<String, Object> want = byKey.remove(got.get(Report.KEY_REPORT_KEY));
+            assertNotNull(want);
+            assertEquals(want.get(Report.KEY_DATE), got.get(Report.KEY_DATE));
+            final List<?> wantLocation = (List<?>) want.get(Report.KEY_LOCATION);
+            final List<?> gotLocation = (List<?>) got.get(Report.KEY_LOCATION);
+            assertEquals((Double) wantLocation.get(0), (Double) gotLocation.get(0), 1e-6);
+            assertEquals((Double) wantLocation.get(1), (Double) gotLocation.get(1), 1e-6);
+            assertEquals((Double) wantLocation.get(2), (Double) gotLocation.get(2), 0.01);
+        }
+        assertTrue(byKey.isEmpty());
+    }
+
+    @Test
+    public void compactAfterAccept() throws Exception {
+        final StandInSink sink = new StandInSink();
+        final ReportEmitter emitter = new ReportEmitter(sink, new CompactReportEncoder(60, 60_000L), null);
+        assertEquals(CompactReportEncoder.ENCODING, emitter.getEncoding());
+
+        // 受け取れると知らされるまでは詰めない
+        final Map<String, Object> first = report(0, 0);
+        emitter.emit(Report.EVENT_EMERGENCY, first);
+        emitter.accept(CompactReportEncoder.ENCODING);
+        emitter.emit(Report.EVENT_EMERGENCY, report(0, 1));
+        // 通報以外は詰めない
+        emitter.emit("other", "data");
+
+        assertEquals(Arrays.asList(Report.EVENT_EMERGENCY, CompactReportEncoder.EVENT_EMERGENCY_COMPACT, "other"), sink.events);
+        assertSame(first, sink.data.get(0));
+        assertEquals(1, new CompactReportDecoder().decode((List<?>) sink.data.get(1)).size());
+        assertEquals("data", sink.data.get(2));
+    }
+
+    @Test
+    public void rejectNotOffered() throws Exception {
+        final ReportEmitter compact = new ReportEmitter(new StandInSink(), new CompactReportEncoder(60, 60_000L), null);
+        try {
+            compact.accept(BinaryReportEncoder.ENCODING);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+
+        final StandInSink sink = new StandInSink();
+        final ReportEmitter plain = new ReportEmitter(sink, null, null);
+        assertNull(plain.getEncoding());
+        try {
+            plain.accept(CompactReportEncoder.ENCODING);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+        plain.emit(Report.EVENT_EMERGENCY, report(0, 0));
+        assertEquals(Collections.singletonList(Report.EVENT_EMERGENCY), sink.events);
+    }
+
+    @Test
+    public void concurrentCompact() throws Exception {
+        final StandInSink sink = new StandInSink();
+        final ReportEmitter emitter = new ReportEmitter(sink, new CompactReportEncoder(60, 60_000L), null);
+        emitter.accept(CompactReportEncoder.ENCODING);
+
+        final List<List<Map<String, Object>>> sent = emitConcurrently(emitter);
+
+        final CompactReportDecoder decoder = new CompactReportDecoder();
+        final List<Map<String, Object>> decoded = new ArrayList<>();
+        for (int i = 0; i < sink.data.size(); i++) {
+            assertEquals(CompactReportEncoder.EVENT_EMERGENCY_COMPACT, sink.events.get(i));
+            decoded.addAll(decoder.decode((List<?>) sink.data.get(i)));
+        }
+        assertDecoded(sent, decoded);
+    }
+
+    @Test
+    public void concurrentBinary() throws Exception {
+        final StandInSink sink = new StandInSink();
+        final ReportEmitter emitter = new ReportEmitter(sink, null, new BinaryReportEncoder(60, 60_000L));
+        emitter.accept(BinaryReportEncoder.ENCODING);
+
+        final List<List<Map<String, Object>>> sent = emitConcurrently(emitter);
+
+        final BinaryReportDecoder decoder = new BinaryReportDecoder();
+        final List<Map<String, Object>> decoded = new ArrayList<>();
+        for (int i = 0; i < sink.data.size(); i++) {
+            assertEquals(BinaryReportEncoder.EVENT_EMERGENCY_BINARY, sink.events.get(i));
+            decoded.addAll(decoder.decode((byte[]) sink.data.get(i)));
+        }
+        assertDecoded(sent, decoded);
+    }
+
+}
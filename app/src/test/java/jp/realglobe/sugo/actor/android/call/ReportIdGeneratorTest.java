@@ -0,0 +1,24 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReportIdGeneratorTest {
+
+    @Test
+    public void sequential() throws Exception {
+        final ReportIdGenerator generator = new ReportIdGenerator(12);
+        assertEquals(12, generator.next());
+        assertEquals(13, generator.next());
+    }
+
+    @Test
+    public void wrapToZero() throws Exception {
+        final ReportIdGenerator generator = new ReportIdGenerator(Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE, generator.next());
+        assertEquals(0, generator.next());
+        assertEquals(0, (new ReportIdGenerator(Integer.MIN_VALUE)).next());
+    }
+
+}
@@ -0,0 +1,83 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReportJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] data(int i) {
+        return ("report-" + i).getBytes();
+    }
+
+    @Test
+    public void appendAndPeek() throws Exception {
+        try (final ReportJournal journal = new ReportJournal(folder.newFile(), 4096)) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, journal.append(7, data(i)));
+            }
+            assertEquals(10, journal.size());
+
+            final List<ReportJournal.Record> records = journal.peek(3);
+            assertEquals(3, records.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(7, records.get(i).getReportId());
+                assertEquals(i, records.get(i).getSequence());
+                assertArrayEquals(data(i), records.get(i).getData());
+            }
+
+            journal.remove(3);
+            assertEquals(7, journal.size());
+            assertEquals(3, journal.peek(1).get(0).getSequence());
+        }
+    }
+
+    @Test
+    public void wrapAroundDropsOldest() throws Exception {
+        try (final ReportJournal journal = new ReportJournal(folder.newFile(), 512)) {
+            for (int i = 0; i < 1000; i++) {
+                journal.append(1, data(i));
+                // 常に最新のものが残っていて順番どおり
+                final List<ReportJournal.Record> records = journal.peek(Integer.MAX_VALUE);
+                assertEquals(journal.size(), records.size());
+                for (int j = 0; j < records.size(); j++) {
+                    assertEquals(i - records.size() + 1 + j, records.get(j).getSequence());
+                }
+                if (i % 3 == 0) {
+                    journal.remove(1);
+                }
+            }
+            assertTrue(journal.getDroppedCount() > 0);
+        }
+    }
+
+    @Test
+    public void survivesReopen() throws Exception {
+        final File file = folder.newFile();
+        try (final ReportJournal journal = new ReportJournal(file, 4096)) {
+            for (int i = 0; i < 50; i++) {
+                journal.append(3, data(i));
+            }
+            journal.remove(45);
+        }
+        try (final ReportJournal journal = new ReportJournal(file, 4096)) {
+            final List<ReportJournal.Record> records = journal.peek(Integer.MAX_VALUE);
+            assertEquals(5, records.size());
+            for (int i = 0; i < 5; i++) {
+                assertArrayEquals(data(45 + i), records.get(i).getData());
+            }
+            assertEquals(50, journal.append(3, data(50)));
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReportLaneClassifierTest {
+
+    private static Map<String, Object> report(int id, double latitude) {
+        final Map<String, Object> report = new HashMap<>();
+        report.put(Report.KEY_ID, id);
+        report.put(Report.KEY_LOCATION, Arrays.asList(latitude, 139.0, 10.0));
+        return report;
+    }
+
+    /**
+     * 列に入れられたとして決める
+     */
+    private static PriorityLanes.Lane offer(ReportLaneClassifier classifier, Object frame) {
+        final PriorityLanes.Lane lane = classifier.classify(frame);
+        classifier.commit(frame);
+        return lane;
+    }
+
+    @Test
+    public void classify() {
+        final ReportLaneClassifier classifier = new ReportLaneClassifier(Report.KEY_ID);
+        // 通報を始める前のものは溜まっていたもの
+        assertEquals(PriorityLanes.Lane.REFRESH, offer(classifier, report(1, 35.0)));
+
+        classifier.startSession(2);
+        assertEquals(PriorityLanes.Lane.REFRESH, offer(classifier, report(1, 35.0)));
+        assertEquals(PriorityLanes.Lane.ALERT, offer(classifier, report(2, 35.0)));
+        assertEquals(PriorityLanes.Lane.REFRESH, offer(classifier, report(2, 35.0)));
+        assertEquals(PriorityLanes.Lane.STATE_CHANGE, offer(classifier, report(2, 35.1)));
+        // 配列は最後のもので決める
+        assertEquals(PriorityLanes.Lane.STATE_CHANGE, offer(classifier, Arrays.asList(report(2, 35.1), report(2, 35.2))));
+        assertEquals(PriorityLanes.Lane.REFRESH, offer(classifier, Arrays.asList(report(2, 35.2), report(2, 35.2))));
+
+        final Map<String, Object> called = report(2, 35.2);
+        called.put(Report.KEY_PHONE_NUMBER, "0123456789");
+        assertEquals(PriorityLanes.Lane.STATE_CHANGE, offer(classifier, called));
+
+        // 新しい通報はまた最初から
+        classifier.startSession(3);
+        assertEquals(PriorityLanes.Lane.ALERT, offer(classifier, report(3, 35.2)));
+        assertEquals(PriorityLanes.Lane.REFRESH, offer(classifier, "not a report"));
+    }
+
+    @Test
+    public void keepAlertUntilCommitted() {
+        final ReportLaneClassifier classifier = new ReportLaneClassifier(Report.KEY_ID);
+        classifier.startSession(2);
+        // 列に入れられなかった最初の報告は、送り直しても最初の報告のまま
+        assertEquals(PriorityLanes.Lane.ALERT, classifier.classify(report(2, 35.0)));
+        assertEquals(PriorityLanes.Lane.ALERT, classifier.classify(report(2, 35.0)));
+        classifier.commit(report(2, 35.0));
+        assertEquals(PriorityLanes.Lane.REFRESH, classifier.classify(report(2, 35.0)));
+        assertEquals(PriorityLanes.Lane.STATE_CHANGE, classifier.classify(report(2, 35.1)));
+        assertEquals(PriorityLanes.Lane.STATE_CHANGE, classifier.classify(report(2, 35.1)));
+    }
+
+}
@@ -0,0 +1,229 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReportLifecycleTest {
+
+    @Test
+    public void transitions() throws Exception {
+        final ReportLifecycle lifecycle = new ReportLifecycle();
+        assertEquals(ReportLifecycle.State.IDLE, lifecycle.getState());
+        assertEquals(-1, lifecycle.stop());
+
+        final long generation = lifecycle.start();
+        assertEquals(1, generation);
+        assertEquals(ReportLifecycle.State.CONNECTING, lifecycle.getState());
+        // 通報中にもう一度始めても何もしない
+        assertEquals(-1, lifecycle.start());
+        assertFalse(lifecycle.enter(generation));
+
+        assertTrue(lifecycle.activate(generation));
+        assertEquals(ReportLifecycle.State.REPORTING, lifecycle.getState());
+        assertTrue(lifecycle.enter(generation));
+        lifecycle.exit();
+
+        assertEquals(generation, lifecycle.stop());
+        assertEquals(ReportLifecycle.State.STOPPING, lifecycle.getState());
+        assertFalse(lifecycle.enter(generation));
+        assertEquals(-1, lifecycle.start());
+        lifecycle.awaitTicks(generation);
+        assertTrue(lifecycle.finish(generation));
+        assertEquals(ReportLifecycle.State.IDLE, lifecycle.getState());
+
+        // 古い世代の処理は入れない
+        final long next = lifecycle.start();
+        assertEquals(2, next);
+        assertTrue(lifecycle.activate(next));
+        assertFalse(lifecycle.enter(generation));
+        assertFalse(lifecycle.activate(generation));
+        assertFalse(lifecycle.finish(generation));
+    }
+
+    @Test
+    public void stopBeforeActivate() throws Exception {
+        final ReportLifecycle lifecycle = new ReportLifecycle();
+        final long generation = lifecycle.start();
+        assertEquals(generation, lifecycle.stop());
+        assertFalse(lifecycle.activate(generation));
+        assertTrue(lifecycle.finish(generation));
+        assertEquals(ReportLifecycle.State.IDLE, lifecycle.getState());
+    }
+
+    @Test
+    public void stopWaitsForTicks() throws Exception {
+        final ReportLifecycle lifecycle = new ReportLifecycle();
+        final long generation = lifecycle.start();
+        lifecycle.activate(generation);
+        assertTrue(lifecycle.enter(generation));
+
+        final long stopped = lifecycle.stop();
+        final CountDownLatch finished = new CountDownLatch(1);
+        final Thread stopper = new Thread(() -> {
+            lifecycle.awaitTicks(stopped);
+            lifecycle.finish(stopped);
+            finished.countDown();
+        });
+        stopper.start();
+        assertFalse(finished.await(50, TimeUnit.MILLISECONDS));
+        assertEquals(ReportLifecycle.State.STOPPING, lifecycle.getState());
+
+        lifecycle.exit();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(ReportLifecycle.State.IDLE, lifecycle.getState());
+    }
+
+    /**
+     * 多数のスレッドから通報とリセットを繰り返しても、報告の繰り返しは常に 1 つだけで、
+     * 止めた世代の報告は止めた後に実行されない
+     */
+    @Test
+    public void stress() throws Exception {
+        final ReportLifecycle lifecycle = new ReportLifecycle();
+        // 繰り返しごとに自分で次を予約する。止めても予約は取り消さない
+        final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+
+        // 報告の処理の中にいる数と、動いている繰り返しの数
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger loops = new AtomicInteger();
+        final AtomicLong ticks = new AtomicLong();
+        // 止め終わった最新の世代
+        final AtomicLong flushed = new AtomicLong();
+        final AtomicReference<String> violation = new AtomicReference<>();
+
+        final int threads = 8;
+        final int iterations = 3_000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                final Random random = new Random(t);
+                new Thread(() -> {
+                    try {
+                        for (int i = 0; i < iterations; i++) {
+                            if (random.nextBoolean()) {
+                                final long generation = lifecycle.start();
+                                if (generation < 0) {
+                                    continue;
+                                }
+                                if (!lifecycle.activate(generation)) {
+                                    continue;
+                                }
+                                // 以前の繰り返しが終わっていなくても、別の繰り返しを始めてしまう
+                                loops.incrementAndGet();
+                                executor.execute(new Loop(executor, () -> {
+                                    if (!lifecycle.enter(generation)) {
+                                        loops.decrementAndGet();
+                                        return -1;
+                                    }
+                                    try {
+                                        if (inside.incrementAndGet() != 1) {
+                                            violation.compareAndSet(null, "Concurrent ticks");
+                                        }
+                                        if (generation <= flushed.get()) {
+                                            violation.compareAndSet(null, "Tick after stop " + generation);
+                                        }
+                                        ticks.incrementAndGet();
+                                        inside.decrementAndGet();
+                                    } finally {
+                                        lifecycle.exit();
+                                    }
+                                    return 0L;
+                                }));
+                            } else {
+                                final long generation = lifecycle.stop();
+                                if (generation < 0) {
+                                    continue;
+                                }
+                                lifecycle.awaitTicks(generation);
+                                flushed.set(generation);
+                                lifecycle.finish(generation);
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }).start();
+            }
+            assertTrue(done.await(60, TimeUnit.SECONDS));
+            assertNull(violation.get(), violation.get());
+
+            // 最後に止めたら繰り返しは全て終わる
+            final long last = lifecycle.stop();
+            if (last >= 0) {
+                lifecycle.awaitTicks(last);
+                lifecycle.finish(last);
+            }
+            awaitLoops(loops, 0);
+
+            // 改めて始めると 1 つだけ動く
+            final long generation = lifecycle.start();
+            assertTrue(lifecycle.activate(generation));
+            loops.incrementAndGet();
+            final long before = ticks.get();
+            executor.execute(new Loop(executor, () -> {
+                if (!lifecycle.enter(generation)) {
+                    loops.decrementAndGet();
+                    return -1;
+                }
+                try {
+                    ticks.incrementAndGet();
+                } finally {
+                    lifecycle.exit();
+                }
+                return 1L;
+            }));
+            Thread.sleep(50L);
+            assertEquals(1, loops.get());
+            assertTrue(ticks.get() > before);
+            // 始めて止めるのを十分に繰り返した
+            assertTrue(lifecycle.getGeneration() >= 100);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 処理が負の間隔を返すまで繰り返す
+     */
+    private static final class Loop implements Runnable {
+
+        private final ScheduledExecutorService executor;
+        private final ReportScheduler.Task task;
+
+        private Loop(ScheduledExecutorService executor, ReportScheduler.Task task) {
+            this.executor = executor;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            final long interval = this.task.run();
+            if (interval >= 0 && !this.executor.isShutdown()) {
+                this.executor.schedule(this, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+    }
+
+    private static void awaitLoops(AtomicInteger loops, int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000L;
+        while (loops.get() != count) {
+            assertTrue("Loops " + loops.get(), System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+}
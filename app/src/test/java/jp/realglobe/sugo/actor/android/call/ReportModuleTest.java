@@ -0,0 +1,112 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ReportModuleTest {
+
+    /**
+     * 呼ばれた操作を覚えておく
+     */
+    private static final class RecordingController implements ReportModule.Controller {
+
+        private final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void setInterval(long interval) {
+            this.calls.add("setInterval " + interval);
+        }
+
+        @Override
+        public void requestFix() {
+            this.calls.add("requestFix");
+        }
+
+        @Override
+        public void pause() {
+            this.calls.add("pause");
+        }
+
+        @Override
+        public void resume() {
+            this.calls.add("resume");
+        }
+    }
+
+    @Test
+    public void control() throws Exception {
+        final RecordingController controller = new RecordingController();
+        final ReportModule module = new ReportModule(key -> {
+        }, controller, null);
+
+        // JSON の数は整数でも小数でも届く
+        module.setInterval(5_000);
+        module.setInterval(30_000.0);
+        module.setInterval(null);
+        module.requestFix();
+        module.pause();
+        module.resume();
+        assertEquals(Arrays.asList("setInterval 5000", "setInterval 30000", "setInterval 0", "requestFix", "pause", "resume"), controller.calls);
+
+        for (Object interval : new Object[]{"5000", 1.5, true}) {
+            try {
+                module.setInterval(interval);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // OK
+            }
+        }
+        assertEquals(6, controller.calls.size());
+    }
+
+    @Test
+    public void notControllable() throws Exception {
+        final List<Object> acks = new ArrayList<>();
+        final ReportModule module = new ReportModule(acks::add, null, null);
+        module.ack("1-2");
+        module.ack(null);
+        assertEquals(Arrays.<Object>asList("1-2"), acks);
+        try {
+            module.pause();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            // OK
+        }
+        try {
+            module.acceptEncoding("compact");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void acceptEncoding() throws Exception {
+        final List<String> encodings = new ArrayList<>();
+        final ReportModule module = new ReportModule(key -> {
+        }, null, encoding -> {
+            if (!CompactReportEncoder.ENCODING.equals(encoding)) {
+                throw new IllegalArgumentException("Not offered " + encoding);
+            }
+            encodings.add(encoding);
+        });
+        module.acceptEncoding("compact");
+        for (Object encoding : new Object[]{"binary", null, 1}) {
+            try {
+                module.acceptEncoding(encoding);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // OK
+            }
+        }
+        assertEquals(Collections.singletonList("compact"), encodings);
+    }
+
+}
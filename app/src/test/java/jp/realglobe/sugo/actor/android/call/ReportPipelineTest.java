@@ -0,0 +1,126 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReportPipelineTest {
+
+    private final ReportBuilder builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("UTC")));
+
+    private Report report(long date, double... location) {
+        final Report report = this.builder.start(1, date);
+        if (location.length > 0) {
+            report.setLocation(location[0], location[1], location[2], Double.NaN, date);
+        }
+        report.setPhoneNumber("0123456789");
+        return report;
+    }
+
+    @Test
+    public void stationaryCallerEmitsOncePerBatchAge() throws Exception {
+        final List<Object> frames = new ArrayList<>();
+        final ReportPipeline pipeline = new ReportPipeline(frames::add, 10, 10_000L);
+
+        // 1 秒間隔で 1 分間、動かない
+        for (long t = 0; t < 60_000L; t += 1_000L) {
+            pipeline.offer(report(t, 35.0, 139.0, 0.0), t);
+        }
+
+        // 毎回送っていたら 60 回
+        assertEquals(60, pipeline.getOfferedCount());
+        assertEquals(6, frames.size());
+        assertEquals(6, pipeline.getFrameCount());
+        assertEquals(59, pipeline.getCoalescedCount());
+    }
+
+    @Test
+    public void flushImmediatelyOnChange() throws Exception {
+        final List<Object> frames = new ArrayList<>();
+        final ReportPipeline pipeline = new ReportPipeline(frames::add, 10, 10_000L);
+
+        pipeline.offer(report(0), 0);
+        assertEquals(1, frames.size());
+        pipeline.offer(report(1_000), 1_000);
+        pipeline.offer(report(2_000), 2_000);
+        assertEquals(1, frames.size());
+
+        // 位置が取れた
+        pipeline.offer(report(3_000, 35.0, 139.0, 0.0), 3_000);
+        assertEquals(2, frames.size());
+
+        // まとめられていた最新の報告と変化した報告が一緒に送られる
+        final Object frame = frames.get(1);
+        assertTrue(frame instanceof List);
+        final List<?> batch = (List<?>) frame;
+        assertEquals(2, batch.size());
+        assertEquals("1970-01-01T00:00:02.000Z", ((Map<?, ?>) batch.get(0)).get("date"));
+        assertEquals("1970-01-01T00:00:03.000Z", ((Map<?, ?>) batch.get(1)).get("date"));
+    }
+
+    @Test
+    public void singleReportIsSentAsIs() throws Exception {
+        final List<Object> frames = new ArrayList<>();
+        final ReportPipeline pipeline = new ReportPipeline(frames::add, 10, 10_000L);
+
+        final Report report = report(0);
+        pipeline.offer(report, 0);
+        assertEquals(report.toMap(), frames.get(0));
+    }
+
+    @Test
+    public void movingCallerIsNotDelayed() throws Exception {
+        final List<Object> frames = new ArrayList<>();
+        final ReportPipeline pipeline = new ReportPipeline(frames::add, 10, 10_000L);
+
+        for (int i = 0; i < 60; i++) {
+            pipeline.offer(report(i * 1_000L, 35.0 + i * 0.0001, 139.0, 0.0), i * 1_000L);
+        }
+        assertEquals(60, frames.size());
+        assertEquals(0, pipeline.getCoalescedCount());
+    }
+
+    @Test
+    public void flushPending() throws Exception {
+        final List<Object> frames = new ArrayList<>();
+        final ReportPipeline pipeline = new ReportPipeline(frames::add, 10, 10_000L);
+
+        pipeline.offer(report(0), 0);
+        pipeline.offer(report(1_000), 1_000);
+        assertEquals(1, frames.size());
+        pipeline.flush(1_500);
+        assertEquals(2, frames.size());
+        pipeline.flush(2_000);
+        assertEquals(2, frames.size());
+    }
+
+    @Test
+    public void burstHoldsChanges() throws Exception {
+        final List<Object> frames = new ArrayList<>();
+        final ReportPipeline pipeline = new ReportPipeline(frames::add, 50, 10_000L);
+        pipeline.setBurstInterval(30_000L);
+
+        for (int i = 0; i < 60; i++) {
+            pipeline.offer(report(i * 1_000L, 35.0 + i * 0.0001, 139.0, 0.0), i * 1_000L);
+        }
+        // 最初の 1 つはすぐに送り、後は 30 秒ごとにまとめる
+        assertEquals(2, frames.size());
+        assertTrue(frames.get(0) instanceof Map);
+        assertEquals(30, ((List<?>) frames.get(1)).size());
+
+        // 止まっていても 30 秒より頻繁には送らない
+        for (int i = 60; i < 120; i++) {
+            pipeline.offer(report(i * 1_000L, 35.0 + 59 * 0.0001, 139.0, 0.0), i * 1_000L);
+        }
+        assertEquals(4, frames.size());
+        // 溜めていた 29 個と、止まってからのものをまとめた 1 つ
+        assertEquals(30, ((List<?>) frames.get(2)).size());
+    }
+
+}
@@ -0,0 +1,289 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReportQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * hub の代わり。切断中に送られたものは失われる。
+     * 受け付けたものは受領するまで届いておらず、その前に切れたら失われる
+     */
+    private static final class StandInEmitter implements ReportPipeline.Sink {
+        private final List<Integer> received = new ArrayList<>();
+        private final List<Object> inTransit = new ArrayList<>();
+        private ReportQueue queue;
+        private boolean connected;
+        private int frameCount;
+
+        @Override
+        public void send(Object frame) {
+            if (!this.connected) {
+                throw new IllegalStateException("Disconnected");
+            }
+            this.frameCount++;
+            this.inTransit.add(frame);
+        }
+
+        /**
+         * 受け付けたものが届いて受領を返す
+         */
+        void ack() {
+            final List<Object> frames = new ArrayList<>(this.inTransit);
+            this.inTransit.clear();
+            for (Object frame : frames) {
+                this.received.addAll(seqs(frame));
+                this.queue.complete(frame);
+            }
+        }
+
+        /**
+         * 切れて、受け付けたが届いていないものが失われる
+         *
+         * @param notify 受領を諦めたことを知らせるなら true。プロセスが落ちたなら false
+         */
+        void drop(boolean notify) {
+            this.connected = false;
+            final List<Object> frames = new ArrayList<>(this.inTransit);
+            this.inTransit.clear();
+            if (notify) {
+                for (Object frame : frames) {
+                    this.queue.fail(frame);
+                }
+            }
+        }
+    }
+
+    private static List<Integer> seqs(Object frame) {
+        final List<Integer> seqs = new ArrayList<>();
+        if (frame instanceof List) {
+            for (Object report : (List<?>) frame) {
+                seqs.add((Integer) ((Map<?, ?>) report).get("seq"));
+            }
+        } else {
+            seqs.add((Integer) ((Map<?, ?>) frame).get("seq"));
+        }
+        return seqs;
+    }
+
+    private static Map<String, Object> report(int seq) {
+        final Map<String, Object> report = new HashMap<>();
+        report.put("id", 12);
+        report.put("seq", seq);
+        report.put("date", "2017-01-01T00:00:00.000+09:00");
+        report.put("phoneNumber", null);
+        return report;
+    }
+
+    @Test
+    public void noLossAcrossDisconnects() throws Exception {
+        final File file = folder.newFile();
+        final StandInEmitter emitter = new StandInEmitter();
+        final Random random = new Random(1);
+
+        ReportJournal journal = new ReportJournal(file, 64 * 1024);
+        ReportQueue queue = new ReportQueue(journal, emitter, "id", 16, 3);
+        emitter.queue = queue;
+
+        int seq = 0;
+        for (int round = 0; round < 20; round++) {
+            // 接続中
+            emitter.connected = true;
+            queue.setConnected(true);
+            for (int i = random.nextInt(20); i > 0; i--) {
+                queue.send(report(seq++));
+            }
+            emitter.ack();
+
+            // 送った直後に切れて、受領が来ない
+            queue.send(report(seq++));
+            emitter.drop(round % 5 != 4);
+
+            // 切断中。切断を知る前の送信は失敗する
+            queue.send(report(seq++));
+            for (int i = random.nextInt(50); i > 0; i--) {
+                queue.send(report(seq++));
+            }
+
+            if (round % 5 == 4) {
+                // 受領を待っている間にプロセスが落ちた
+                journal.close();
+                journal = new ReportJournal(file, 64 * 1024);
+                queue = new ReportQueue(journal, emitter, "id", 16, 3);
+                emitter.queue = queue;
+            }
+        }
+        emitter.connected = true;
+        queue.setConnected(true);
+        emitter.ack();
+
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(seq, emitter.received.size());
+        for (int i = 0; i < seq; i++) {
+            assertEquals(i, (int) emitter.received.get(i));
+        }
+        journal.close();
+    }
+
+    @Test
+    public void replayInBoundedBatches() throws Exception {
+        final StandInEmitter emitter = new StandInEmitter();
+        try (final ReportJournal journal = new ReportJournal(folder.newFile(), 64 * 1024)) {
+            final ReportQueue queue = new ReportQueue(journal, emitter, "id", 10, 3);
+            emitter.queue = queue;
+            for (int i = 0; i < 95; i++) {
+                queue.send(report(i));
+            }
+            assertEquals(95, queue.getPendingCount());
+            assertTrue(emitter.received.isEmpty());
+
+            emitter.connected = true;
+            queue.setConnected(true);
+            emitter.ack();
+            assertEquals(95, emitter.received.size());
+            assertEquals(10, emitter.frameCount);
+            assertEquals(95, queue.getSentCount());
+        }
+    }
+
+    /**
+     * 受け付けただけで送り終わっていないものは、落ちても送り直す
+     */
+    @Test
+    public void keepUntilSent() throws Exception {
+        final File file = folder.newFile();
+        final List<Object> accepted = new ArrayList<>();
+        ReportJournal journal = new ReportJournal(file, 64 * 1024);
+        ReportQueue queue = new ReportQueue(journal, accepted::add, "id", 2, 3);
+        queue.setConnected(true);
+        for (int i = 0; i < 5; i++) {
+            queue.send(report(i));
+        }
+        assertEquals(5, accepted.size());
+        assertEquals(5, queue.getPendingCount());
+
+        // 後のものが先に送り終わっても、前のものが残っていれば消さない
+        queue.complete(accepted.get(1));
+        assertEquals(5, queue.getPendingCount());
+        queue.complete(accepted.get(0));
+        assertEquals(3, queue.getPendingCount());
+        assertEquals(2, queue.getSentCount());
+
+        // 送れなかったものは次に接続したときに送り直す
+        queue.fail(accepted.get(3));
+        assertFalse(queue.isConnected());
+        accepted.clear();
+        queue.setConnected(true);
+        assertEquals(1, accepted.size());
+        assertEquals(Arrays.asList(3), seqs(accepted.get(0)));
+
+        // 送り終わっていないものは落ちても残っている
+        journal.close();
+        journal = new ReportJournal(file, 64 * 1024);
+        accepted.clear();
+        queue = new ReportQueue(journal, accepted::add, "id", 2, 3);
+        queue.setConnected(true);
+        final List<Integer> replayed = new ArrayList<>();
+        for (Object frame : accepted) {
+            replayed.addAll(seqs(frame));
+        }
+        assertEquals(Arrays.asList(2, 3, 4), replayed);
+        for (Object frame : accepted) {
+            queue.complete(frame);
+        }
+        assertEquals(0, queue.getPendingCount());
+        journal.close();
+    }
+
+    /**
+     * 何度送っても届かないものは捨てて、後ろのものを送る
+     */
+    @Test
+    public void discardAfterMaxAttempts() throws Exception {
+        final List<Object> accepted = new ArrayList<>();
+        try (final ReportJournal journal = new ReportJournal(folder.newFile(), 64 * 1024)) {
+            final ReportQueue queue = new ReportQueue(journal, accepted::add, "id", 2, 3);
+            queue.setConnected(true);
+            queue.send(report(0));
+            queue.send(report(1));
+            assertEquals(2, accepted.size());
+            queue.complete(accepted.get(1));
+
+            // 送れなくても接続状態は変えず、知らされたら送り直す
+            Object frame = accepted.get(0);
+            for (int i = 1; i < 3; i++) {
+                queue.fail(frame);
+                assertFalse(queue.isConnected());
+                accepted.clear();
+                queue.setConnected(true);
+                assertEquals(1, accepted.size());
+                assertEquals(Arrays.asList(0), seqs(accepted.get(0)));
+                frame = accepted.get(0);
+            }
+
+            // 送ってみる回数を使い切ったら捨てる
+            queue.fail(frame);
+            assertEquals(1, queue.getDiscardedCount());
+            assertEquals(0, queue.getPendingCount());
+            accepted.clear();
+            queue.setConnected(true);
+            assertTrue(accepted.isEmpty());
+
+            // 後ろのものは送れる
+            queue.send(report(2));
+            assertEquals(1, accepted.size());
+            assertEquals(Arrays.asList(2), seqs(accepted.get(0)));
+        }
+    }
+
+    /**
+     * 受け付けられなかったら溜まっているものは送らないが、新しいものは渡してみる
+     */
+    @Test
+    public void offerNewWhileBlocked() throws Exception {
+        final List<Object> accepted = new ArrayList<>();
+        final boolean[] full = {false};
+        try (final ReportJournal journal = new ReportJournal(folder.newFile(), 64 * 1024)) {
+            final ReportQueue queue = new ReportQueue(journal, frame -> {
+                // 溜まっていたものが入る列だけ一杯
+                if (full[0] && seqs(frame).get(0) < 10) {
+                    throw new IllegalStateException("Lane is full");
+                }
+                accepted.add(frame);
+            }, "id", 10, 3);
+            for (int i = 0; i < 3; i++) {
+                queue.send(report(i));
+            }
+            full[0] = true;
+            queue.setConnected(true);
+            assertTrue(accepted.isEmpty());
+
+            queue.send(report(10));
+            assertEquals(1, accepted.size());
+            assertEquals(Arrays.asList(10), seqs(accepted.get(0)));
+
+            // 空いたら溜まっていたものを送り、渡し済みのものは渡さない
+            full[0] = false;
+            queue.setConnected(true);
+            assertEquals(2, accepted.size());
+            assertEquals(Arrays.asList(0, 1, 2), seqs(accepted.get(1)));
+        }
+    }
+
+}
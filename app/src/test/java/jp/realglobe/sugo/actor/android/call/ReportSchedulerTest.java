@@ -0,0 +1,187 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReportSchedulerTest {
+
+    @Test
+    public void fixedRateWithoutDrift() throws Exception {
+        final ReportScheduler scheduler = new ReportScheduler("test-scheduler");
+        try {
+            final int ticks = 50;
+            final long interval = 20L;
+            final CountDownLatch done = new CountDownLatch(ticks);
+            final long start = System.nanoTime();
+            scheduler.start(() -> {
+                // 処理に時間が掛かっても間隔はずれない
+                sleep(5L);
+                done.countDown();
+                return interval;
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            scheduler.stop();
+
+            // 遅れが積み重なると (20 + 5) * 49 以上になる
+            final long expected = interval * (ticks - 1);
+            assertTrue("Elapsed " + elapsed + " ms", elapsed < expected + 5 + 50);
+            assertTrue("Mean jitter " + scheduler.getMeanJitter() + " ns", scheduler.getMeanJitter() < TimeUnit.MILLISECONDS.toNanos(5));
+            assertTrue("Max jitter " + scheduler.getMaxJitter() + " ns", scheduler.getMaxJitter() < TimeUnit.MILLISECONDS.toNanos(50));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void stopCancelsLoop() throws Exception {
+        final ReportScheduler scheduler = new ReportScheduler("test-scheduler");
+        try {
+            final AtomicInteger count = new AtomicInteger();
+            final CountDownLatch started = new CountDownLatch(3);
+            scheduler.start(() -> {
+                count.incrementAndGet();
+                started.countDown();
+                return 5L;
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            scheduler.stop();
+            final int stopped = count.get();
+            Thread.sleep(50L);
+            assertTrue(count.get() <= stopped + 1);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void restartReplacesLoop() throws Exception {
+        final ReportScheduler scheduler = new ReportScheduler("test-scheduler");
+        try {
+            final AtomicInteger first = new AtomicInteger();
+            final AtomicInteger second = new AtomicInteger();
+            scheduler.start(() -> {
+                first.incrementAndGet();
+                return 5L;
+            });
+            Thread.sleep(30L);
+            scheduler.start(() -> {
+                second.incrementAndGet();
+                return 5L;
+            });
+            Thread.sleep(10L);
+            final int firstCount = first.get();
+            Thread.sleep(50L);
+            assertEquals(firstCount, first.get());
+            assertTrue(second.get() > 0);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void skipAfterLongStall() throws Exception {
+        final ReportScheduler scheduler = new ReportScheduler("test-scheduler");
+        try {
+            final CountDownLatch done = new CountDownLatch(5);
+            final AtomicInteger count = new AtomicInteger();
+            scheduler.start(() -> {
+                if (count.incrementAndGet() == 2) {
+                    // 端末が眠っていた
+                    sleep(100L);
+                }
+                done.countDown();
+                return 10L;
+            });
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            scheduler.stop();
+            assertEquals(1, scheduler.getSkippedCount());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void negativeIntervalEndsLoop() throws Exception {
+        final ReportScheduler scheduler = new ReportScheduler("test-scheduler");
+        try {
+            final AtomicInteger count = new AtomicInteger();
+            final CountDownLatch ended = new CountDownLatch(1);
+            scheduler.start(() -> {
+                if (count.incrementAndGet() < 3) {
+                    return 1L;
+                }
+                ended.countDown();
+                return -1L;
+            });
+            assertTrue(ended.await(10, TimeUnit.SECONDS));
+            Thread.sleep(50L);
+            assertEquals(3, count.get());
+            assertEquals(3, scheduler.getTickCount());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void runNowSkipsWait() throws Exception {
+        final ReportScheduler scheduler = new ReportScheduler("test-scheduler");
+        try {
+            final AtomicInteger count = new AtomicInteger();
+            final CountDownLatch entered = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            scheduler.start(() -> {
+                if (count.incrementAndGet() == 2) {
+                    // 実行中にも runNow される
+                    entered.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return 60_000L;
+            });
+            awaitCount(count, 1);
+
+            // 次の予定は 1 分後だが、すぐに実行する
+            scheduler.runNow();
+            assertTrue(entered.await(10, TimeUnit.SECONDS));
+            scheduler.runNow();
+            release.countDown();
+            awaitCount(count, 3);
+            Thread.sleep(50L);
+            assertEquals(3, count.get());
+
+            scheduler.stop();
+            scheduler.runNow();
+            Thread.sleep(50L);
+            assertEquals(3, count.get());
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static void awaitCount(AtomicInteger count, int expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10_000L;
+        while (count.get() < expected) {
+            assertTrue("Count " + count.get(), System.currentTimeMillis() < deadline);
+            Thread.sleep(5L);
+        }
+    }
+
+}
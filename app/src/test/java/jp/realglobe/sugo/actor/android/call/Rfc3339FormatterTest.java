@@ -0,0 +1,71 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class Rfc3339FormatterTest {
+
+    private static void check(String zoneId, long seed) {
+        final TimeZone zone = TimeZone.getTimeZone(zoneId);
+        final SimpleDateFormat expected = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX", Locale.US);
+        expected.setTimeZone(zone);
+        final Rfc3339Formatter formatter = new Rfc3339Formatter(zone);
+        final char[] buffer = new char[Rfc3339Formatter.MAX_LENGTH];
+
+        final Random random = new Random(seed);
+        long millis = 1_483_196_400_000L;
+        for (int i = 0; i < 100_000; i++) {
+            // 同じ秒の中と秒をまたぐ場合の両方を試す
+            millis += random.nextInt(5) == 0 ? random.nextInt(100_000_000) : random.nextInt(300);
+            final int length = formatter.format(millis, buffer, 0);
+            final String text = new String(buffer, 0, length);
+            assertEquals(expected.format(new Date(millis)), text);
+            assertEquals(millis, Rfc3339Formatter.parse(text));
+            assertEquals(zone.getOffset(millis), Rfc3339Formatter.parseZoneOffset(text));
+        }
+    }
+
+    @Test
+    public void tokyo() throws Exception {
+        check("Asia/Tokyo", 1);
+    }
+
+    @Test
+    public void utc() throws Exception {
+        check("UTC", 2);
+    }
+
+    @Test
+    public void daylightSavingTime() throws Exception {
+        check("America/New_York", 3);
+        check("Asia/Kolkata", 4);
+    }
+
+    @Test
+    public void beforeEpoch() throws Exception {
+        final Rfc3339Formatter formatter = new Rfc3339Formatter(TimeZone.getTimeZone("UTC"));
+        final char[] buffer = new char[Rfc3339Formatter.MAX_LENGTH];
+        final int length = formatter.format(-1L, buffer, 0);
+        assertEquals("1969-12-31T23:59:59.999Z", new String(buffer, 0, length));
+    }
+
+    @Test
+    public void parse() throws Exception {
+        assertEquals(-1L, Rfc3339Formatter.parse("1969-12-31T23:59:59.999Z"));
+        assertEquals(1_478_856_695_593L, Rfc3339Formatter.parse("2016-11-11T18:31:35.593+09:00"));
+        assertEquals(-5 * 3_600_000, Rfc3339Formatter.parseZoneOffset("2016-11-11T04:31:35.593-05:00"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseInvalid() throws Exception {
+        Rfc3339Formatter.parse("2016-11-11 18:31:35+09:00");
+    }
+
+}
@@ -0,0 +1,190 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionHistoryTest {
+
+    private static final long START = 1_483_196_400_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, Object> report(int id, int seq) {
+        final Map<String, Object> report = new HashMap<>();
+        report.put(Report.KEY_ID, id);
+        report.put(Report.KEY_LOCATION, Arrays.asList(35.0 + seq * 1e-5, 139.0, 10.0));
+        report.put(Report.KEY_REPORT_KEY, Report.reportKey(id, START + seq * 1_000L));
+        return report;
+    }
+
+    @Test
+    public void recordAndQuery() throws Exception {
+        try (final SessionHistory history = new SessionHistory(folder.newFolder(), 1024 * 1024)) {
+            final long id = history.startSession(7, START);
+            for (int i = 0; i < 1000; i++) {
+                history.recordReports(START + i * 1_000L, report(7, i));
+                if (i % 100 == 50) {
+                    history.recordError(START + i * 1_000L, "error " + i);
+                }
+            }
+
+            // 続いているセッションも読める
+            final List<SessionHistory.Entry> entries = history.query(id, START + 100_000L, START + 199_000L);
+            assertEquals(101, entries.size());
+            for (int i = 0; i < 100; i++) {
+                final SessionHistory.Entry entry = entries.get(i < 51 ? i : i + 1);
+                assertEquals(SessionHistory.TYPE_REPORT, entry.getType());
+                assertEquals(START + (100 + i) * 1_000L, entry.getTime());
+                assertEquals(report(7, 100 + i), entry.getReport());
+            }
+            assertEquals(SessionHistory.TYPE_ERROR, entries.get(51).getType());
+            assertEquals("error 150", entries.get(51).getError());
+
+            history.endSession(START + 1_000_000L);
+            final SessionHistory.Session session = history.findByReportId(7);
+            assertNotNull(session);
+            assertEquals(id, session.getId());
+            assertEquals(1010, session.getRecordCount());
+            assertEquals(START + 1_000_000L, session.getEndTime());
+            assertNull(history.findByReportId(8));
+
+            // 索引の区切りをまたぐ範囲
+            for (int from = 0; from < 100; from += 7) {
+                final int errors = from <= 50 && 50 <= from + 4 ? 1 : 0;
+                assertEquals(5 + errors, history.query(id, START + from * 1_000L, START + (from + 4) * 1_000L).size());
+            }
+            assertEquals(0, history.query(id, START - 10_000L, START - 1L).size());
+        }
+    }
+
+    @Test
+    public void recordBatchAndQueryAcrossSessions() throws Exception {
+        try (final SessionHistory history = new SessionHistory(folder.newFolder(), 1024 * 1024)) {
+            history.startSession(1, START);
+            history.recordReports(START, Arrays.asList(report(1, 0), report(1, 1)));
+            history.startSession(2, START + 10_000L);
+            history.recordReports(START + 10_000L, report(2, 10));
+            history.endSession(START + 20_000L);
+            // セッションの外では書かない
+            history.recordReports(START + 30_000L, report(3, 30));
+
+            final List<SessionHistory.Session> sessions = history.getSessions();
+            assertEquals(2, sessions.size());
+            assertEquals(2, sessions.get(0).getReportId());
+            assertEquals(START + 10_000L, sessions.get(0).getEndTime() - 10_000L);
+            assertEquals(1, sessions.get(1).getReportId());
+
+            final List<SessionHistory.Entry> entries = history.query(START, START + 60_000L);
+            assertEquals(3, entries.size());
+            assertEquals(report(1, 0), entries.get(0).getReport());
+            assertEquals(report(1, 1), entries.get(1).getReport());
+            assertEquals(report(2, 10), entries.get(2).getReport());
+        }
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        final File directory = folder.newFolder();
+        final long id;
+        try (final SessionHistory history = new SessionHistory(directory, 1024 * 1024)) {
+            history.startSession(1, START);
+            history.recordReports(START, report(1, 0));
+            history.endSession(START + 1_000L);
+            id = history.startSession(2, START + 2_000L);
+            for (int i = 0; i < 50; i++) {
+                history.recordReports(START + (2 + i) * 1_000L, report(2, i));
+            }
+            // 終わらせずに閉じる
+        }
+        // 書きかけのレコードを真似る
+        try (final FileOutputStream output = new FileOutputStream(new File(directory, id + ".log"), true)) {
+            output.write(new byte[]{0, 0, 1, 0, 'R', 0});
+        }
+
+        try (final SessionHistory history = new SessionHistory(directory, 1024 * 1024)) {
+            final List<SessionHistory.Session> sessions = history.getSessions();
+            assertEquals(2, sessions.size());
+            assertEquals(50, sessions.get(0).getRecordCount());
+            assertEquals(START + 51_000L, sessions.get(0).getEndTime());
+            assertEquals(1, sessions.get(1).getRecordCount());
+            final List<SessionHistory.Entry> entries = history.query(id, START + 40_000L, START + 60_000L);
+            assertEquals(12, entries.size());
+            assertEquals(report(2, 49), entries.get(11).getReport());
+
+            // 続きに新しいセッションを書ける
+            history.startSession(3, START + 100_000L);
+            history.recordReports(START + 100_000L, report(3, 0));
+            history.endSession(START + 101_000L);
+            assertEquals(3, history.getSessions().size());
+        }
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws Exception {
+        final File directory = folder.newFolder();
+        final List<Long> ids = new ArrayList<>();
+        try (final SessionHistory history = new SessionHistory(directory, 16 * 1024)) {
+            for (int session = 0; session < 3; session++) {
+                ids.add(history.startSession(session, START + session * 100_000L));
+                for (int i = 0; i < 50; i++) {
+                    history.recordReports(START + session * 100_000L + i * 1_000L, report(session, i));
+                }
+                history.endSession(START + session * 100_000L + 50_000L);
+            }
+            assertEquals(3, history.getSessions().size());
+
+            // 最初のセッションを読むと、次に古い 2 つ目が先に消える
+            history.query(ids.get(0), 0, Long.MAX_VALUE);
+            history.startSession(3, START + 300_000L);
+            for (int i = 0; i < 50; i++) {
+                history.recordReports(START + 300_000L + i * 1_000L, report(3, i));
+            }
+            history.endSession(START + 350_000L);
+
+            assertTrue(history.getTotalSize() <= 16 * 1024);
+            assertTrue(history.getEvictedCount() > 0);
+            assertNull(history.findByReportId(1));
+            assertNotNull(history.findByReportId(0));
+            assertNotNull(history.findByReportId(3));
+            assertEquals(0, history.getDroppedCount());
+            assertTrue(!(new File(directory, ids.get(1) + ".log")).exists());
+        }
+
+        // 消した後の一覧が残っている
+        try (final SessionHistory history = new SessionHistory(directory, 16 * 1024)) {
+            assertNull(history.findByReportId(1));
+            assertEquals(50, history.findByReportId(3).getRecordCount());
+        }
+    }
+
+    @Test
+    public void dropWhenSessionExceedsCapacity() throws Exception {
+        try (final SessionHistory history = new SessionHistory(folder.newFolder(), 4 * 1024)) {
+            final long id = history.startSession(1, START);
+            for (int i = 0; i < 200; i++) {
+                history.recordReports(START + i * 1_000L, report(1, i));
+            }
+            assertTrue(history.getTotalSize() <= 4 * 1024);
+            assertTrue(history.getDroppedCount() > 0);
+            final List<SessionHistory.Entry> entries = history.query(id, 0, Long.MAX_VALUE);
+            assertEquals(200 - history.getDroppedCount(), entries.size());
+            assertEquals(report(1, 0), entries.get(0).getReport());
+        }
+    }
+
+}
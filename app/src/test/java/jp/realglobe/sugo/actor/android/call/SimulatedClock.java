@@ -0,0 +1,27 @@
+package jp.realglobe.sugo.actor.android.call;
+
+/**
+ * 手で進める時計
+ */
+final class SimulatedClock implements Clock {
+
+    private long now;
+
+    SimulatedClock(long now) {
+        this.now = now;
+    }
+
+    @Override
+    public synchronized long now() {
+        return this.now;
+    }
+
+    synchronized void set(long now) {
+        this.now = now;
+    }
+
+    synchronized void advance(long duration) {
+        this.now += duration;
+    }
+
+}
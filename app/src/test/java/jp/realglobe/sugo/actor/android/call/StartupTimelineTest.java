@@ -0,0 +1,90 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StartupTimelineTest {
+
+    @Test
+    public void phases() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(1_000L);
+        final StartupTimeline timeline = new StartupTimeline(clock);
+        assertTrue(timeline.mark(StartupTimeline.PHASE_LAUNCH));
+        clock.advance(100);
+        timeline.mark(StartupTimeline.PHASE_PERMISSIONS);
+        clock.advance(400);
+        timeline.mark(StartupTimeline.PHASE_HUB_CONNECTED);
+        assertEquals(-1, timeline.getReadyTime());
+        clock.advance(300);
+        timeline.mark(StartupTimeline.PHASE_FIRST_FIX);
+        clock.advance(5_000);
+        timeline.mark(StartupTimeline.PHASE_CALL);
+        clock.advance(50);
+        timeline.mark(StartupTimeline.PHASE_FIRST_REPORT);
+
+        // 2 回目は記録しない
+        clock.advance(1_000);
+        assertFalse(timeline.mark(StartupTimeline.PHASE_FIRST_REPORT));
+
+        assertEquals(800, timeline.getReadyTime());
+        assertEquals(50, timeline.between(StartupTimeline.PHASE_CALL, StartupTimeline.PHASE_FIRST_REPORT));
+        assertEquals(5_850, timeline.get(StartupTimeline.PHASE_FIRST_REPORT));
+        assertEquals(-1, timeline.get(StartupTimeline.PHASE_PHONE_NUMBER));
+        assertEquals(Arrays.asList(StartupTimeline.PHASE_LAUNCH, StartupTimeline.PHASE_PERMISSIONS, StartupTimeline.PHASE_HUB_CONNECTED,
+                StartupTimeline.PHASE_FIRST_FIX, StartupTimeline.PHASE_CALL, StartupTimeline.PHASE_FIRST_REPORT),
+                new ArrayList<>(timeline.toMap().keySet()));
+    }
+
+    @Test
+    public void launchIsImplied() throws Exception {
+        final SimulatedClock clock = new SimulatedClock(1_000L);
+        final StartupTimeline timeline = new StartupTimeline(clock);
+        timeline.mark(StartupTimeline.PHASE_WARM_UP);
+        assertEquals(0, timeline.get(StartupTimeline.PHASE_WARM_UP));
+        assertFalse(timeline.mark(StartupTimeline.PHASE_LAUNCH));
+    }
+
+    /**
+     * 準備を並行して進めると、一番遅いものの時間で揃う
+     */
+    @Test
+    public void concurrentWarmUpMeetsTarget() throws Exception {
+        final StartupTimeline timeline = new StartupTimeline(Clock.SYSTEM);
+        timeline.mark(StartupTimeline.PHASE_LAUNCH);
+        // 電話番号の取得、hub への接続、測位の準備の代わり
+        final String[] phases = {StartupTimeline.PHASE_PHONE_NUMBER, StartupTimeline.PHASE_HUB_CONNECTED, StartupTimeline.PHASE_FIRST_FIX};
+        final long[] durations = {300L, 800L, 1_200L};
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final CountDownLatch done = new CountDownLatch(phases.length);
+        for (int i = 0; i < phases.length; i++) {
+            final String phase = phases[i];
+            final long duration = durations[i];
+            executor.execute(() -> {
+                try {
+                    Thread.sleep(duration);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                timeline.mark(phase);
+                done.countDown();
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdownNow();
+
+        final long ready = timeline.getReadyTime();
+        assertTrue("Ready in " + ready + " ms", ready >= 1_200L && ready < 300L + 800L + 1_200L);
+        assertTrue("Ready in " + ready + " ms", ready <= StartupTimeline.TARGET_READY);
+    }
+
+}
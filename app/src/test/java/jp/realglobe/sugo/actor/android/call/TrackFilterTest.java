@@ -0,0 +1,240 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 1 秒ごとの測位を真似た軌跡を間引いて、点の減り方とずれを調べる
+ */
+public class TrackFilterTest {
+
+    private static final long START = 1_483_196_400_000L;
+    private static final double LATITUDE = 35.701526348712;
+    private static final double LONGITUDE = 139.753149213355;
+    // 緯度経度 1 度あたりのメートル
+    private static final double METERS_PER_LATITUDE = 111_195.0;
+    private static final double METERS_PER_LONGITUDE = METERS_PER_LATITUDE * Math.cos(Math.toRadians(LATITUDE));
+
+    private static final double TOLERANCE = 10.0;
+
+    private static TrackFilter newFilter() {
+        return new TrackFilter(TOLERANCE, 45.0, 16, 10_000L);
+    }
+
+    @Test
+    public void ignoreJitter() throws Exception {
+        final TrackFilter filter = newFilter();
+        assertTrue(filter.offer(LATITUDE, LONGITUDE, 0, START));
+        assertFalse(filter.offer(LATITUDE + 3 / METERS_PER_LATITUDE, LONGITUDE, 0, START + 1_000L));
+        assertFalse(filter.offer(LATITUDE, LONGITUDE - 4 / METERS_PER_LONGITUDE, 0, START + 2_000L));
+        assertEquals(LATITUDE, filter.getKeyLatitude(), 0.0);
+        assertEquals(START, filter.getKeyTime());
+    }
+
+    @Test
+    public void ignoreOldFix() throws Exception {
+        final TrackFilter filter = newFilter();
+        assertTrue(filter.offer(LATITUDE, LONGITUDE, 0, START));
+        assertFalse(filter.offer(LATITUDE + 100 / METERS_PER_LATITUDE, LONGITUDE, 0, START));
+        assertEquals(1, filter.getOfferedCount());
+    }
+
+    @Test
+    public void keyCorner() throws Exception {
+        final TrackFilter filter = newFilter();
+        // 北へ 60 m 進んでから東へ曲がる
+        assertTrue(filter.offer(LATITUDE, LONGITUDE, 0, START));
+        for (int i = 1; i <= 3; i++) {
+            assertFalse(filter.offer(LATITUDE + 20 * i / METERS_PER_LATITUDE, LONGITUDE, 0, START + i * 1_000L));
+        }
+        assertTrue(filter.offer(LATITUDE + 60 / METERS_PER_LATITUDE, LONGITUDE + 20 / METERS_PER_LONGITUDE, 0, START + 4_000L));
+        assertEquals(LATITUDE + 60 / METERS_PER_LATITUDE, filter.getKeyLatitude(), 1e-12);
+        assertEquals(LONGITUDE, filter.getKeyLongitude(), 1e-12);
+        assertEquals(START + 3_000L, filter.getKeyTime());
+    }
+
+    @Test
+    public void keyTurn() throws Exception {
+        final TrackFilter filter = newFilter();
+        // 北へ 15 m 進んで引き返す
+        assertTrue(filter.offer(LATITUDE, LONGITUDE, 0, START));
+        assertTrue(filter.offer(LATITUDE + 15 / METERS_PER_LATITUDE, LONGITUDE, 0, START + 20_000L));
+        assertTrue(filter.offer(LATITUDE - 5 / METERS_PER_LATITUDE, LONGITUDE, 0, START + 21_000L));
+        assertEquals(START + 21_000L, filter.getKeyTime());
+    }
+
+    @Test
+    public void keyOldKey() throws Exception {
+        final TrackFilter filter = newFilter();
+        // まっすぐゆっくり進む
+        assertTrue(filter.offer(LATITUDE, LONGITUDE, 0, START));
+        int keys = 0;
+        for (int i = 1; i <= 30; i++) {
+            if (filter.offer(LATITUDE + 2 * i / METERS_PER_LATITUDE, LONGITUDE, 0, START + i * 1_000L)) {
+                keys++;
+                assertTrue(filter.getKeyTime() - START <= i * 1_000L);
+            }
+        }
+        assertEquals(3, keys);
+    }
+
+    @Test
+    public void apply() throws Exception {
+        final TrackFilter filter = newFilter();
+        final ReportBuilder builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+
+        // キーが無ければそのまま
+        final Report first = builder.start(1, START);
+        first.setLocation(LATITUDE + 3 / METERS_PER_LATITUDE, LONGITUDE, 41.2, 4.8f, START);
+        filter.apply(first);
+        assertEquals(LATITUDE + 3 / METERS_PER_LATITUDE, first.getLatitude(), 0.0);
+
+        filter.offer(LATITUDE, LONGITUDE, 41.2, START);
+        // ぶれは元の位置にするが、日時は今のまま
+        filter.offer(LATITUDE + 3 / METERS_PER_LATITUDE, LONGITUDE, 42.0, START + 1_000L);
+        final Report second = builder.start(1, START + 1_000L);
+        second.setLocation(LATITUDE + 3 / METERS_PER_LATITUDE, LONGITUDE, 42.0, 3.0f, START + 1_000L);
+        filter.apply(second);
+        assertEquals(LATITUDE, second.getLatitude(), 0.0);
+        assertEquals(41.2, second.getAltitude(), 0.0);
+        assertEquals(3.0f, second.getLocationAccuracy(), 0.0f);
+        assertEquals(START + 1_000L, second.getLocationTime());
+        // 渡すだけでは測位に数えない
+        assertEquals(2, filter.getOfferedCount());
+    }
+
+    @Test
+    public void stationary() throws Exception {
+        final Trace trace = new Trace(1L, 4.0);
+        trace.stay(30 * 60);
+        final double[] result = run("stationary", trace);
+        // キー自体もぶれているので、ぶれが重なると許容誤差を超えることがある
+        assertTrue(result[0] < 0.1);
+    }
+
+    @Test
+    public void walking() throws Exception {
+        // 碁盤の目の道を 1.4 m/s で歩き、100 m ごとに直角に曲がる
+        final Trace trace = new Trace(2L, 3.0);
+        for (int block = 0; block < 20; block++) {
+            trace.move(1.4, 72, 0.0);
+            trace.turn(block % 2 == 0 ? 90 : -90);
+            if (block % 5 == 4) {
+                // 信号待ち
+                trace.stay(60);
+            }
+        }
+        final double[] result = run("walking", trace);
+        assertTrue(result[0] < 0.3);
+    }
+
+    @Test
+    public void driving() throws Exception {
+        // 15 m/s で緩く曲がる道を走り、ときどき交差点で曲がる
+        final Trace trace = new Trace(3L, 5.0);
+        for (int leg = 0; leg < 10; leg++) {
+            trace.move(15.0, 60, leg % 2 == 0 ? 0.5 : -1.0);
+            trace.turn(leg % 3 == 0 ? -90 : 90);
+            trace.stay(20);
+        }
+        final double[] result = run("driving", trace);
+        assertTrue(result[0] < 0.6);
+    }
+
+    /**
+     * @return 残した点の割合と最大のずれ（メートル）
+     */
+    private static double[] run(String name, Trace trace) {
+        final TrackFilter filter = newFilter();
+        final List<double[]> keys = new ArrayList<>();
+        for (double[] fix : trace.fixes) {
+            if (filter.offer(fix[0], fix[1], 0, (long) fix[2])) {
+                keys.add(new double[]{filter.getKeyLatitude(), filter.getKeyLongitude(), filter.getKeyTime()});
+            }
+        }
+        // 最後の測位までを線で結ぶ
+        final double[] last = trace.fixes.get(trace.fixes.size() - 1);
+        keys.add(last);
+
+        // 測位ごとに、その日時を含むキーの区間からのずれを測る
+        double maxError = 0;
+        int segment = 0;
+        for (double[] fix : trace.fixes) {
+            while (segment < keys.size() - 2 && keys.get(segment + 1)[2] <= fix[2]) {
+                segment++;
+            }
+            final double[] start = keys.get(segment);
+            final double[] end = keys.get(segment + 1);
+            maxError = Math.max(maxError, Geo.distanceToSegment(fix[0], fix[1], start[0], start[1], end[0], end[1]));
+        }
+        assertTrue(name + ": max error " + maxError, maxError <= TOLERANCE * 1.01);
+        assertEquals(trace.fixes.size(), filter.getOfferedCount());
+
+        final double ratio = (double) filter.getKeyCount() / trace.fixes.size();
+        return new double[]{ratio, maxError};
+    }
+
+    /**
+     * 測位のぶれを足した軌跡
+     */
+    private static final class Trace {
+
+        private final Random random;
+        private final double noise;
+        private final List<double[]> fixes = new ArrayList<>();
+
+        // 北から何メートルか、東から何メートルか
+        private double north;
+        private double east;
+        private double heading;
+        private long time = START;
+
+        private Trace(long seed, double noise) {
+            this.random = new Random(seed);
+            this.noise = noise;
+            this.heading = this.random.nextInt(4) * 90;
+        }
+
+        private void stay(int seconds) {
+            for (int i = 0; i < seconds; i++) {
+                record();
+            }
+        }
+
+        /**
+         * @param speed    速さ（メートル毎秒）
+         * @param seconds  秒数
+         * @param curve    1 秒あたりに向きを変える角度（度）
+         */
+        private void move(double speed, int seconds, double curve) {
+            for (int i = 0; i < seconds; i++) {
+                this.heading += curve;
+                this.north += speed * Math.cos(Math.toRadians(this.heading));
+                this.east += speed * Math.sin(Math.toRadians(this.heading));
+                record();
+            }
+        }
+
+        private void turn(double degrees) {
+            this.heading += degrees;
+        }
+
+        private void record() {
+            // 測位のぶれは毎回独立ではなくゆっくり変わるが、ここでは厳しめに独立にする
+            final double north = this.north + this.random.nextGaussian() * this.noise / Math.sqrt(2);
+            final double east = this.east + this.random.nextGaussian() * this.noise / Math.sqrt(2);
+            this.fixes.add(new double[]{LATITUDE + north / METERS_PER_LATITUDE, LONGITUDE + east / METERS_PER_LONGITUDE, this.time});
+            this.time += 1_000L;
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 報告ごとに設定を読む処理。
+ * 毎回設定を読んで数値にしていたときと、スナップショットを読むときを比べる
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigBenchmark {
+
+    // SharedPreferences の代わり
+    private final Map<String, String> preferences = new HashMap<>();
+    private final AtomicReference<ReportConfig> snapshot = new AtomicReference<>();
+
+    public ConfigBenchmark() {
+        this.preferences.put("report_interval", "1");
+        this.snapshot.set((new ReportConfig.Builder())
+                .setServers("http://localhost:8080/")
+                .setActorKey("qq:reporter:1")
+                .setPhoneNumber("")
+                .setMinReportInterval("1")
+                .setMaxReportInterval("60")
+                .setMinLocationInterval("5")
+                .setMaxLocationInterval("120")
+                .setBatchAge("10")
+                .setTrackTolerance("10")
+                .build());
+    }
+
+    @Benchmark
+    public long parse() {
+        synchronized (this.preferences) {
+            return 1_000L * Long.parseLong(this.preferences.get("report_interval"));
+        }
+    }
+
+    @Benchmark
+    public long snapshot() {
+        return this.snapshot.get().getMinReportInterval();
+    }
+
+}
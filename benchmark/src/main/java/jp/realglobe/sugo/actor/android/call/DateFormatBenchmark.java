@@ -0,0 +1,74 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日時を文字列にする処理。
+ * 報告と同じく 1 秒ずつ進めるものと、比較のための SimpleDateFormat
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateFormatBenchmark {
+
+    private Rfc3339Formatter formatter;
+    private SimpleDateFormat simpleDateFormat;
+    private final char[] buffer = new char[Rfc3339Formatter.MAX_LENGTH];
+    private long time;
+
+    @Setup
+    public void setUp() {
+        final TimeZone zone = TimeZone.getTimeZone("Asia/Tokyo");
+        this.formatter = new Rfc3339Formatter(zone);
+        this.simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX", Locale.US);
+        this.simpleDateFormat.setTimeZone(zone);
+        this.time = 1_483_196_400_000L;
+    }
+
+    @Benchmark
+    public int rfc3339Formatter() {
+        this.time += 1_000L;
+        return this.formatter.format(this.time, this.buffer, 0);
+    }
+
+    @Benchmark
+    public String simpleDateFormat() {
+        this.time += 1_000L;
+        return this.simpleDateFormat.format(new Date(this.time));
+    }
+
+}
@@ -0,0 +1,123 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通報データを送信先に渡す処理。
+ * 送信そのものはフィールドに入れるだけにする
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private ReportBuilder builder;
+    private ReportPipeline pipeline;
+    private ReportPipeline journaledPipeline;
+    private File journalFile;
+    private ReportJournal journal;
+    private ReportQueue queue;
+    private long time;
+    // 送ったことにしたデータ
+    private Object lastFrame;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        this.builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+        this.pipeline = new ReportPipeline(this::consume, 10, 10_000L);
+        this.journalFile = File.createTempFile("benchmark", ".journal");
+        this.journal = new ReportJournal(this.journalFile, 1024 * 1024);
+        this.queue = new ReportQueue(this.journal, this::consumeJournaled, Report.KEY_ID, 50, 10);
+        this.queue.setConnected(true);
+        this.journaledPipeline = new ReportPipeline(this.queue, 10, 10_000L);
+        this.time = 1_483_196_400_000L;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        this.journal.close();
+        if (!this.journalFile.delete()) {
+            this.journalFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * 止まっている通報者。ほとんどがまとめられて送られない
+     */
+    @Benchmark
+    public void stationary() {
+        this.time += 1_000L;
+        this.pipeline.offer(report(0), this.time);
+    }
+
+    /**
+     * 動いている通報者。毎回送る
+     */
+    @Benchmark
+    public void moving() {
+        this.time += 1_000L;
+        this.pipeline.offer(report(this.time), this.time);
+    }
+
+    /**
+     * 動いている通報者。送信待ちとして書き出してから送る
+     */
+    @Benchmark
+    public void movingJournaled() {
+        this.time += 1_000L;
+        this.journaledPipeline.offer(report(this.time), this.time);
+    }
+
+    private void consume(Object frame) {
+        this.lastFrame = frame;
+    }
+
+    private void consumeJournaled(Object frame) {
+        this.lastFrame = frame;
+        // 送り終わったのでジャーナルから消す
+        this.queue.complete(frame);
+    }
+
+    private Report report(long step) {
+        final Report report = this.builder.start(331549022, this.time);
+        report.setLocation(35.701526 + (step % 100_000) * 1e-7, 139.7531492, 41.2, 4.8, this.time - 300L);
+        report.setPhoneNumber("0123456789");
+        return report;
+    }
+
+}
@@ -0,0 +1,112 @@
+package jp.realglobe.sugo.actor.android.call;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1 回分の送信データを送る形にする処理と、hub 側で戻す処理。
+ * 通報データそのままの JSON、差分で詰めた JSON、バイト列を比べる。
+ * 大きさは CompactReportSizeTest で測る
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+
+    // まとめて送る報告の数
+    @Param({"1", "10"})
+    public int batchSize;
+
+    private List<Map<String, Object>> frame;
+    private CompactReportEncoder compactEncoder;
+    private BinaryReportEncoder binaryEncoder;
+    private String json;
+    private String compactJson;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() {
+        final ReportBuilder builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+        final long start = 1_483_196_400_000L;
+        this.frame = new ArrayList<>();
+        for (int i = 0; i < this.batchSize; i++) {
+            final long time = start + i * 1_000L;
+            final Report report = builder.start(331549022, time);
+            report.setLocation(35.701526348712 + i * 0.0000123, 139.753149213355 - i * 0.0000071, 41.2, 4.8, time - 300L);
+            report.setPhoneNumber("0123456789");
+            this.frame.add(report.toMap());
+        }
+        this.compactEncoder = new CompactReportEncoder(60, 60_000L);
+        this.binaryEncoder = new BinaryReportEncoder(60, 60_000L);
+
+        // 戻す方はキーフレームから始まるものにする
+        this.json = mapJson();
+        this.compactJson = new JSONArray(new CompactReportEncoder(60, 60_000L).encode(this.frame)).toString();
+        this.binary = new BinaryReportEncoder(60, 60_000L).encode(this.frame);
+    }
+
+    /**
+     * 通報データをそのまま JSON にする
+     */
+    @Benchmark
+    public String mapJson() {
+        final JSONArray array = new JSONArray();
+        for (Map<String, Object> report : this.frame) {
+            array.put(new JSONObject(report));
+        }
+        return array.toString();
+    }
+
+    /**
+     * 差分で詰めて JSON にする
+     */
+    @Benchmark
+    public String compactJson() {
+        return new JSONArray(this.compactEncoder.encode(this.frame)).toString();
+    }
+
+    /**
+     * バイト列に詰める
+     */
+    @Benchmark
+    public byte[] binary() {
+        return this.binaryEncoder.encode(this.frame);
+    }
+
+    @Benchmark
+    public JSONArray decodeMapJson() {
+        return new JSONArray(this.json);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> decodeCompactJson() {
+        final JSONArray array = new JSONArray(this.compactJson);
+        return new CompactReportDecoder().decode(array.toList());
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> decodeBinary() {
+        return new BinaryReportDecoder().decode(this.binary);
+    }
+
+}
@@ -0,0 +1,86 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通報データを作る処理
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportBenchmark {
+
+    private ReportBuilder builder;
+    private Report report;
+    private Map<String, Object> map;
+    private long time;
+
+    @Setup
+    public void setUp() {
+        this.builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+        this.time = 1_483_196_400_000L;
+        this.report = build();
+        this.map = this.report.toMap();
+    }
+
+    /**
+     * 1 回分の通報データを作る。毎回オブジェクトを生成しないはず
+     */
+    @Benchmark
+    public Report build() {
+        this.time += 1_000L;
+        final Report report = this.builder.start(331549022, this.time);
+        report.setLocation(35.701526348712, 139.753149213355, 41.2, 4.8, this.time - 300L);
+        report.setPhoneNumber("0123456789");
+        return report;
+    }
+
+    /**
+     * 送信用のデータにする
+     */
+    @Benchmark
+    public Map<String, Object> toMap() {
+        return this.report.toMap();
+    }
+
+    /**
+     * 送信待ちとして書き出す形にする
+     */
+    @Benchmark
+    public byte[] serialize() {
+        return ReportSerializer.serialize(this.map);
+    }
+
+}
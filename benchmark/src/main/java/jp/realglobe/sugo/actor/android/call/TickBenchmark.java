@@ -0,0 +1,104 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 報告 1 回分の処理全体。ReportService の ReportTask と同じことをする
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickBenchmark {
+
+    private SimulatedClock clock;
+    private ReportBuilder builder;
+    private LocationCache locationCache;
+    private AdaptiveIntervalPolicy policy;
+    private ReportPipeline pipeline;
+    private int reportId;
+    // 送ったことにしたデータ
+    private Object lastFrame;
+
+    @Setup
+    public void setUp() {
+        this.clock = new SimulatedClock(1_483_196_400_000L);
+        this.builder = new ReportBuilder(new Rfc3339Formatter(TimeZone.getTimeZone("Asia/Tokyo")));
+        this.locationCache = new LocationCache(10, 5 * 60_000L);
+        this.policy = new AdaptiveIntervalPolicy(this.clock, 1_000L, 60_000L, 5_000L, 120_000L);
+        this.pipeline = new ReportPipeline(this::consume, 10, 10_000L);
+        this.reportId = new ReportIdGenerator(331549022).next();
+    }
+
+    @Benchmark
+    public long tick() {
+        final long now = this.clock.advance(1_000L);
+        if (now % 5_000L == 0) {
+            // 5 秒ごとに測位が届く
+            this.locationCache.offer(35.701526 + (now % 1_000_000L) * 1e-9, 139.7531492, 41.2, 4.8, now);
+        }
+        final Report report = this.builder.start(this.reportId, now);
+        this.locationCache.select(now, report);
+        report.setPhoneNumber("0123456789");
+        this.pipeline.offer(report, now);
+        return this.policy.nextReportInterval();
+    }
+
+    private void consume(Object frame) {
+        this.lastFrame = frame;
+    }
+
+    /**
+     * 手で進める時計
+     */
+    private static final class SimulatedClock implements Clock {
+
+        private long now;
+
+        private SimulatedClock(long now) {
+            this.now = now;
+        }
+
+        @Override
+        public long now() {
+            return this.now;
+        }
+
+        long advance(long duration) {
+            this.now += duration;
+            return this.now;
+        }
+
+    }
+
+}
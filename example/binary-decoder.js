@@ -0,0 +1,161 @@
+/**
+ * Decoder for binary emergency reports (module version ending with "+binary")
+ *
+ * Usage:
+ *   const decoder = createBinaryDecoder()
+ *   caller.on('emergencyBinary', (frame) => decoder.decode(frame).forEach(handleReport))
+ *   yield caller.acceptEncoding('binary') // until then, reports arrive as 'emergency'
+ *
+ * Create one decoder per actor connection and feed frames in the order received.
+ */
+'use strict'
+
+const VERSION = 1
+const FLAG_ID = 0x01
+const FLAG_ZONE = 0x02
+const FLAG_PHONE_NUMBER = 0x04
+const FLAG_LOCATION = 0x08
+const FLAG_ACCURACY = 0x10
+const FLAG_AGE = 0x20
+const FLAG_KEYFRAME = 0x40
+const COORDINATE_SCALE = 1e6
+const ALTITUDE_SCALE = 100
+const ACCURACY_SCALE = 10
+
+function pad (value, width) {
+  return String(value).padStart(width, '0')
+}
+
+// Format like the actor does, keeping the sender's time zone offset
+function formatDate (time, offsetMinutes) {
+  const local = new Date(time + offsetMinutes * 60000)
+  const date = local.getUTCFullYear() + '-' + pad(local.getUTCMonth() + 1, 2) + '-' + pad(local.getUTCDate(), 2) +
+    'T' + pad(local.getUTCHours(), 2) + ':' + pad(local.getUTCMinutes(), 2) + ':' + pad(local.getUTCSeconds(), 2) +
+    '.' + pad(local.getUTCMilliseconds(), 3)
+  if (offsetMinutes === 0) {
+    return date + 'Z'
+  }
+  const abs = Math.abs(offsetMinutes)
+  return date + (offsetMinutes < 0 ? '-' : '+') + pad(Math.floor(abs / 60), 2) + ':' + pad(abs % 60, 2)
+}
+
+function createReader (buffer) {
+  let position = 0
+
+  function readByte () {
+    if (position >= buffer.length) {
+      throw new Error('Truncated')
+    }
+    return buffer[position++]
+  }
+
+  // Times exceed 32 bits, so accumulate with multiplication instead of bit shifts
+  function readUnsigned () {
+    let value = 0
+    let scale = 1
+    for (let i = 0; i < 10; i++) {
+      const b = readByte()
+      value += (b & 0x7f) * scale
+      if ((b & 0x80) === 0) {
+        return value
+      }
+      scale *= 128
+    }
+    throw new Error('Too long varint')
+  }
+
+  function readSigned () {
+    const value = readUnsigned()
+    return value % 2 === 0 ? value / 2 : -(value + 1) / 2
+  }
+
+  function readString (length) {
+    if (position + length > buffer.length) {
+      throw new Error('Truncated')
+    }
+    const value = buffer.toString('utf8', position, position + length)
+    position += length
+    return value
+  }
+
+  return {
+    readByte,
+    readUnsigned,
+    readSigned,
+    readString,
+    atEnd () {
+      return position === buffer.length
+    }
+  }
+}
+
+function createBinaryDecoder () {
+  let base = null
+
+  function decodeReport (reader) {
+    const flags = reader.readByte()
+    if (flags & FLAG_KEYFRAME) {
+      base = { id: 0, offset: 0, time: 0, phoneNumber: null, location: [0, 0, 0] }
+    } else if (!base) {
+      throw new Error('No keyframe')
+    }
+    if (flags & FLAG_ID) {
+      base.id = reader.readSigned()
+    }
+    if (flags & FLAG_ZONE) {
+      base.offset = reader.readSigned()
+    }
+    base.time += reader.readSigned()
+    if (flags & FLAG_PHONE_NUMBER) {
+      const length = reader.readUnsigned()
+      base.phoneNumber = length === 0 ? null : reader.readString(length - 1)
+    }
+    let location = null
+    let accuracy = null
+    let age = null
+    if (flags & FLAG_LOCATION) {
+      base.location = base.location.map((value) => value + reader.readSigned())
+      location = [
+        base.location[0] / COORDINATE_SCALE,
+        base.location[1] / COORDINATE_SCALE,
+        base.location[2] / ALTITUDE_SCALE
+      ]
+      if (flags & FLAG_ACCURACY) {
+        accuracy = reader.readUnsigned() / ACCURACY_SCALE
+      }
+      if (flags & FLAG_AGE) {
+        age = reader.readUnsigned()
+      }
+    }
+    return {
+      id: base.id,
+      date: formatDate(base.time, base.offset),
+      location,
+      locationAccuracy: accuracy,
+      locationAge: age,
+      phoneNumber: base.phoneNumber,
+      reportKey: base.id + '-' + base.time
+    }
+  }
+
+  return {
+    decode (frame) {
+      const reader = createReader(Buffer.from(frame))
+      const version = reader.readByte()
+      if (version !== VERSION) {
+        throw new Error('Unknown version ' + version)
+      }
+      const count = reader.readUnsigned()
+      const reports = []
+      for (let i = 0; i < count; i++) {
+        reports.push(decodeReport(reader))
+      }
+      if (!reader.atEnd()) {
+        throw new Error('Trailing bytes')
+      }
+      return reports
+    }
+  }
+}
+
+module.exports = createBinaryDecoder
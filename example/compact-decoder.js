@@ -0,0 +1,98 @@
+/**
+ * Decoder for compact emergency reports (module version ending with "+compact")
+ *
+ * Usage:
+ *   const decoder = createCompactDecoder()
+ *   caller.on('emergencyCompact', (frame) => decoder.decode(frame).forEach(handleReport))
+ *   yield caller.acceptEncoding('compact') // until then, reports arrive as 'emergency'
+ *
+ * Create one decoder per actor connection and feed frames in the order received.
+ */
+'use strict'
+
+const TAG_KEYFRAME = 0
+const TAG_DELTA = 1
+const COORDINATE_SCALE = 1e7
+const ALTITUDE_SCALE = 100
+const ACCURACY_SCALE = 10
+
+function pad (value, width) {
+  return String(value).padStart(width, '0')
+}
+
+// Format like the actor does, keeping the keyframe's time zone offset
+function formatDate (time, offsetMinutes) {
+  const local = new Date(time + offsetMinutes * 60000)
+  const date = local.getUTCFullYear() + '-' + pad(local.getUTCMonth() + 1, 2) + '-' + pad(local.getUTCDate(), 2) +
+    'T' + pad(local.getUTCHours(), 2) + ':' + pad(local.getUTCMinutes(), 2) + ':' + pad(local.getUTCSeconds(), 2) +
+    '.' + pad(local.getUTCMilliseconds(), 3)
+  if (offsetMinutes === 0) {
+    return date + 'Z'
+  }
+  const abs = Math.abs(offsetMinutes)
+  return date + (offsetMinutes < 0 ? '-' : '+') + pad(Math.floor(abs / 60), 2) + ':' + pad(abs % 60, 2)
+}
+
+function parseOffset (date) {
+  if (date.endsWith('Z')) {
+    return 0
+  }
+  const sign = date.charAt(23) === '-' ? -1 : 1
+  return sign * (Number(date.substr(24, 2)) * 60 + Number(date.substr(27, 2)))
+}
+
+function createCompactDecoder () {
+  let base = null
+
+  function decodeEntry (entry) {
+    let accuracy = null
+    let age = null
+    if (entry[0] === TAG_KEYFRAME) {
+      const [, id, date, phoneNumber, latitude, longitude, altitude] = entry
+      base = {
+        id,
+        phoneNumber,
+        time: Date.parse(date),
+        offset: parseOffset(date),
+        location: latitude === null ? null : [latitude, longitude, altitude]
+      }
+      if (base.location) {
+        accuracy = entry[7]
+        age = entry[8]
+      }
+    } else if (entry[0] === TAG_DELTA) {
+      if (!base) {
+        throw new Error('No keyframe')
+      }
+      base.time += entry[1]
+      if (base.location) {
+        base.location = [base.location[0] + entry[2], base.location[1] + entry[3], base.location[2] + entry[4]]
+        accuracy = entry[5]
+        age = entry[6]
+      }
+    } else {
+      throw new Error('Unknown tag ' + entry[0])
+    }
+    return {
+      id: base.id,
+      date: formatDate(base.time, base.offset),
+      location: base.location && [
+        base.location[0] / COORDINATE_SCALE,
+        base.location[1] / COORDINATE_SCALE,
+        base.location[2] / ALTITUDE_SCALE
+      ],
+      locationAccuracy: accuracy === null || accuracy === undefined ? null : accuracy / ACCURACY_SCALE,
+      locationAge: age === undefined ? null : age,
+      phoneNumber: base.phoneNumber,
+      reportKey: base.id + '-' + base.time
+    }
+  }
+
+  return {
+    decode (frame) {
+      return frame.map(decodeEntry)
+    }
+  }
+}
+
+module.exports = createCompactDecoder
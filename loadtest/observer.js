@@ -0,0 +1,41 @@
+/**
+ * Hub side observer for the load test.
+ * Connects to every simulated caller through the hub and prints one line per received report.
+ *
+ * Usage: node observer.js <hub url> <actor key prefix> <count>
+ * Requires sugo-caller and co, like example/hub.js requires sugo-hub.
+ */
+'use strict'
+
+const sugoCaller = require('sugo-caller')
+const co = require('co')
+
+const [, , url, prefix, countText] = process.argv
+const count = Number(countText)
+const MODULE_NAME = 'reporter'
+
+function received (data) {
+  const now = Date.now()
+  const reports = Array.isArray(data) ? data : [data]
+  for (const report of reports) {
+    console.log('report ' + Math.max(0, now - Date.parse(report.date)))
+  }
+}
+
+co(function * () {
+  const caller = sugoCaller(url)
+  for (let i = 0; i < count; i++) {
+    const actor = yield caller.connect(prefix + i)
+    const reporter = actor.get(MODULE_NAME)
+    reporter.on('emergency', (data) => {
+      received(data)
+      // Acknowledge the last report, which also covers the earlier ones
+      const reports = Array.isArray(data) ? data : [data]
+      reporter.ack(reports[reports.length - 1].reportKey).catch(() => {})
+    })
+  }
+  console.log('ready')
+}).catch((err) => {
+  console.log('error ' + String(err && err.message || err).replace(/\n/g, ' '))
+  process.exit(1)
+})
@@ -0,0 +1,109 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * hub 側で通報データを受け取る observer.js を動かして、届いた数と遅れを数える。
+ * observer.js は 1 行に 1 つ、以下のどれかを書き出す。
+ * <ul>
+ * <li>ready: 全ての通報者に繋がった</li>
+ * <li>report 遅れ（ミリ秒）: 通報データが 1 件届いた</li>
+ * <li>error 内容</li>
+ * </ul>
+ */
+final class HubObserver implements Closeable {
+
+    private final Process process;
+    private final Thread reader;
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final Histogram latency;
+
+    /**
+     * @param script    observer.js の場所
+     * @param hub       hub の URL
+     * @param keyPrefix 通報者のキーの共通部分
+     * @param count     通報者の数
+     * @param latency   届くまでの時間（ミリ秒）の記録先
+     * @throws IOException 起動できなかった
+     */
+    HubObserver(String script, String hub, String keyPrefix, int count, Histogram latency) throws IOException {
+        this.latency = latency;
+        this.process = (new ProcessBuilder("node", script, hub, keyPrefix, String.valueOf(count)))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        this.reader = new Thread(this::read, "observer");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void read() {
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(this.process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                if (line.startsWith("report ")) {
+                    this.received.incrementAndGet();
+                    this.latency.record(Long.parseLong(line.substring("report ".length()).trim()));
+                } else if (line.equals("ready")) {
+                    this.ready.countDown();
+                } else if (line.startsWith("error ")) {
+                    this.errors.incrementAndGet();
+                    System.err.println("Observer " + line);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Observer stopped: " + e);
+        }
+    }
+
+    /**
+     * 全ての通報者に繋がるまで待つ
+     *
+     * @param timeout 待つ時間（ミリ秒）
+     * @return 繋がったら true
+     */
+    boolean awaitReady(long timeout) throws InterruptedException {
+        return this.ready.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return hub を通して届いた通報データの数
+     */
+    long getReceivedCount() {
+        return this.received.get();
+    }
+
+    long getErrorCount() {
+        return this.errors.get();
+    }
+
+    @Override
+    public void close() {
+        this.process.destroy();
+    }
+
+}
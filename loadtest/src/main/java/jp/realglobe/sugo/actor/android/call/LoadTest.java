@@ -0,0 +1,252 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多数の通報者を真似て hub に負荷を掛ける。
+ * 通報者ごとにスレッドを作らず、少数のスレッドで順番に報告させる。
+ * <p>
+ * 使い方: LoadTest [--hub URL] [--callers 数] [--interval ミリ秒] [--duration 秒] [--speed メートル毎秒]
+ * [--threads 数] [--batch-size 数] [--batch-age ミリ秒] [--observer observer.js の場所]
+ */
+public final class LoadTest {
+
+    private static final String KEY_PREFIX = "qq:loadtest:";
+    private static final String MODULE_NAME = "reporter";
+    private static final long CONNECT_TIMEOUT = 30_000L;
+    private static final long PROGRESS_INTERVAL = 10_000L;
+
+    private String hub = "http://localhost:8080";
+    private int callers = 100;
+    private long interval = 1_000L;
+    private long duration = 60_000L;
+    private double speed = 1.4;
+    private int threads = 4;
+    private int batchSize = 1;
+    private long batchAge = 0L;
+    private String observerScript;
+
+    public static void main(String[] args) throws Exception {
+        final LoadTest test = new LoadTest();
+        try {
+            test.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        test.run();
+        System.exit(0);
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("No value for " + args[i]);
+            }
+            final String value = args[++i];
+            switch (args[i - 1]) {
+                case "--hub":
+                    this.hub = value;
+                    break;
+                case "--callers":
+                    this.callers = Integer.parseInt(value);
+                    break;
+                case "--interval":
+                    this.interval = Long.parseLong(value);
+                    break;
+                case "--duration":
+                    this.duration = Long.parseLong(value) * 1_000L;
+                    break;
+                case "--speed":
+                    this.speed = Double.parseDouble(value);
+                    break;
+                case "--threads":
+                    this.threads = Integer.parseInt(value);
+                    break;
+                case "--batch-size":
+                    this.batchSize = Integer.parseInt(value);
+                    break;
+                case "--batch-age":
+                    this.batchAge = Long.parseLong(value);
+                    break;
+                case "--observer":
+                    this.observerScript = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+            }
+        }
+    }
+
+    private void run() throws InterruptedException, IOException {
+        final Histogram emitLatency = new Histogram();
+        final Histogram connectTime = new Histogram();
+        final Histogram endToEndLatency = new Histogram();
+        final AtomicLong emitted = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+
+        final long baseMemory = usedMemory();
+
+        // 接続
+        final ScheduledExecutorService connectionExecutor = Executors.newScheduledThreadPool(2, daemonThreads("connection"));
+        final Rfc3339Formatter formatter = new Rfc3339Formatter(TimeZone.getDefault());
+        final Random random = new Random(1L);
+        final List<SimulatedCaller> callers = new ArrayList<>(this.callers);
+        for (int i = 0; i < this.callers; i++) {
+            final String key = KEY_PREFIX + i;
+            final ActorConnection connection = new ActorConnection(
+                    () -> new ActorTransport(this.hub, key, MODULE_NAME, "loadtest", "Simulated caller", null, null, new ReportModule(ackKey -> {
+                    }, null, null)),
+                    new Backoff(1_000L, 30_000L, new Random(random.nextLong())), connectionExecutor, Clock.SYSTEM, CONNECT_TIMEOUT);
+            final SyntheticTrack track = new SyntheticTrack(new Random(random.nextLong()),
+                    35.68 + random.nextGaussian() * 0.05, 139.76 + random.nextGaussian() * 0.05, this.speed);
+            callers.add(new SimulatedCaller(connection, track, formatter, i, String.format(Locale.US, "090%08d", i),
+                    this.batchSize, this.batchAge, emitLatency, emitted, dropped));
+        }
+        final long connectStart = System.currentTimeMillis();
+        for (SimulatedCaller caller : callers) {
+            caller.getConnection().open();
+        }
+        final int connected = awaitConnected(callers, connectStart + CONNECT_TIMEOUT);
+        for (SimulatedCaller caller : callers) {
+            if (caller.getConnection().getConnectTime() >= 0) {
+                connectTime.record(caller.getConnection().getConnectTime());
+            }
+        }
+        System.out.println(String.format(Locale.US, "Connected %d/%d callers in %d ms",
+                connected, this.callers, System.currentTimeMillis() - connectStart));
+        final long memoryPerCaller = (usedMemory() - baseMemory) / Math.max(1, this.callers);
+
+        // hub 側で受け取る
+        HubObserver observer = null;
+        if (this.observerScript != null) {
+            observer = new HubObserver(this.observerScript, this.hub, KEY_PREFIX, this.callers, endToEndLatency);
+            if (!observer.awaitReady(CONNECT_TIMEOUT * 2)) {
+                System.out.println("Observer did not get ready. Hub side numbers will be partial");
+            }
+        }
+
+        // 報告
+        final ScheduledExecutorService tickExecutor = Executors.newScheduledThreadPool(this.threads, daemonThreads("tick"));
+        final long start = System.currentTimeMillis();
+        final long startReceived = observer == null ? 0 : observer.getReceivedCount();
+        for (int i = 0; i < callers.size(); i++) {
+            final SimulatedCaller caller = callers.get(i);
+            // 報告の時刻をばらけさせる
+            final long offset = this.interval * i / callers.size();
+            tickExecutor.scheduleAtFixedRate(() -> {
+                try {
+                    caller.tick();
+                } catch (RuntimeException e) {
+                    // 投げたままにすると次から実行されない
+                    if (failed.getAndIncrement() == 0) {
+                        e.printStackTrace();
+                    }
+                }
+            }, offset, this.interval, TimeUnit.MILLISECONDS);
+        }
+        long elapsed;
+        while ((elapsed = System.currentTimeMillis() - start) < this.duration) {
+            Thread.sleep(Math.min(PROGRESS_INTERVAL, this.duration - elapsed));
+            System.out.println(String.format(Locale.US, "%5d s: emitted %d, dropped %d, received %s",
+                    (System.currentTimeMillis() - start) / 1_000L, emitted.get(), dropped.get(),
+                    observer == null ? "-" : String.valueOf(observer.getReceivedCount() - startReceived)));
+        }
+        tickExecutor.shutdownNow();
+        final long measured = System.currentTimeMillis() - start;
+        final long received = observer == null ? -1 : observer.getReceivedCount() - startReceived;
+
+        // 後片付け
+        if (observer != null) {
+            // 送ったばかりのものが届くのを待つ
+            Thread.sleep(2_000L);
+            observer.close();
+        }
+        for (SimulatedCaller caller : callers) {
+            caller.getConnection().close();
+        }
+        connectionExecutor.shutdownNow();
+
+        final double seconds = measured / 1_000.0;
+        System.out.println();
+        System.out.println(String.format(Locale.US, "Callers:            %d (%d connected), interval %d ms, %d threads",
+                this.callers, connected, this.interval, this.threads));
+        System.out.println(String.format(Locale.US, "Client emit rate:   %.1f frames/s (%d dropped, %d failed ticks)",
+                emitted.get() / seconds, dropped.get(), failed.get()));
+        if (observer != null) {
+            System.out.println(String.format(Locale.US, "Hub ingestion rate: %.1f reports/s (%d observer errors)", received / seconds, observer.getErrorCount()));
+            print("End-to-end latency", "ms", endToEndLatency.snapshot(false));
+        }
+        print("Emit latency", "us", emitLatency.snapshot(false));
+        print("Connect time", "ms", connectTime.snapshot(false));
+        System.out.println(String.format(Locale.US, "Client memory:      %.1f KiB per caller", memoryPerCaller / 1_024.0));
+    }
+
+    private static int awaitConnected(List<SimulatedCaller> callers, long deadline) throws InterruptedException {
+        while (true) {
+            int connected = 0;
+            for (SimulatedCaller caller : callers) {
+                if (caller.getConnection().isConnected()) {
+                    connected++;
+                }
+            }
+            if (connected == callers.size() || System.currentTimeMillis() >= deadline) {
+                return connected;
+            }
+            Thread.sleep(100L);
+        }
+    }
+
+    private static void print(String name, String unit, Histogram.Snapshot snapshot) {
+        System.out.println(String.format(Locale.US, "%-19s p50 %d, p90 %d, p99 %d, max %d %s (n = %d)", name + ":",
+                snapshot.getValueAtQuantile(0.5), snapshot.getValueAtQuantile(0.9), snapshot.getValueAtQuantile(0.99),
+                snapshot.getMax(), unit, snapshot.getCount()));
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100L);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
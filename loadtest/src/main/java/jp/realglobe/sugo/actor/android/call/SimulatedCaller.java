@@ -0,0 +1,94 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 1 台分の通報者。アプリと同じ部品で通報データを作って送る
+ */
+final class SimulatedCaller {
+
+    private final ActorConnection connection;
+    private final SyntheticTrack track;
+    private final ReportBuilder builder;
+    private final ReportPipeline pipeline;
+    private final int reportId;
+    private final String phoneNumber;
+    private final Histogram emitLatency;
+    private final AtomicLong emitted;
+    private final AtomicLong dropped;
+    private long lastTick;
+
+    /**
+     * @param connection  hub への接続
+     * @param track       移動経路
+     * @param formatter   日時を文字列にするもの
+     * @param reportId    通報の識別番号
+     * @param phoneNumber 電話番号
+     * @param batchSize   まとめて送る最大件数
+     * @param batchAge    状態が変わらなくても送る間隔（ミリ秒）
+     * @param emitLatency 送信に掛かった時間（マイクロ秒）の記録先
+     * @param emitted     送った回数の記録先
+     * @param dropped     接続していなくて捨てた回数の記録先
+     */
+    SimulatedCaller(ActorConnection connection, SyntheticTrack track, Rfc3339Formatter formatter, int reportId, String phoneNumber,
+                    int batchSize, long batchAge, Histogram emitLatency, AtomicLong emitted, AtomicLong dropped) {
+        this.connection = connection;
+        this.track = track;
+        this.builder = new ReportBuilder(formatter);
+        this.reportId = reportId;
+        this.phoneNumber = phoneNumber;
+        this.emitLatency = emitLatency;
+        this.emitted = emitted;
+        this.dropped = dropped;
+        this.pipeline = new ReportPipeline(this::send, batchSize, batchAge);
+    }
+
+    ActorConnection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * 1 回分報告する
+     */
+    synchronized void tick() {
+        final long now = System.currentTimeMillis();
+        if (this.lastTick != 0) {
+            this.track.advance(now - this.lastTick);
+        }
+        this.lastTick = now;
+        final Report report = this.builder.start(this.reportId, now);
+        this.track.fill(report, now);
+        report.setPhoneNumber(this.phoneNumber);
+        this.pipeline.offer(report, now);
+    }
+
+    private void send(Object frame) {
+        final long start = System.nanoTime();
+        try {
+            this.connection.emit(Report.EVENT_EMERGENCY, frame);
+        } catch (IllegalStateException e) {
+            // 負荷試験では溜めずに捨てる
+            this.dropped.incrementAndGet();
+            return;
+        }
+        this.emitLatency.record((System.nanoTime() - start) / 1_000L);
+        this.emitted.incrementAndGet();
+    }
+
+}
@@ -0,0 +1,74 @@
+/*----------------------------------------------------------------------
+ * Copyright 2017 realglobe Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *----------------------------------------------------------------------*/
+
+package jp.realglobe.sugo.actor.android.call;
+
+import java.util.Random;
+
+/**
+ * 作り物の移動経路。決まった速さで、少しずつ向きを変えながら進む
+ */
+final class SyntheticTrack {
+
+    // 緯度 1 度あたりの距離（メートル）
+    private static final double METERS_PER_DEGREE = Math.PI * Geo.EARTH_RADIUS / 180;
+
+    private final Random random;
+    private final double speed;
+    private double latitude;
+    private double longitude;
+    private double altitude;
+    private double heading;
+
+    /**
+     * @param random    乱数
+     * @param latitude  出発点の緯度
+     * @param longitude 出発点の経度
+     * @param speed     速さ（メートル毎秒）
+     */
+    SyntheticTrack(Random random, double latitude, double longitude, double speed) {
+        this.random = random;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = 40 + random.nextDouble() * 10;
+        this.speed = speed;
+        this.heading = random.nextDouble() * 2 * Math.PI;
+    }
+
+    /**
+     * 進める
+     *
+     * @param elapsed 経過時間（ミリ秒）
+     */
+    synchronized void advance(long elapsed) {
+        final double distance = this.speed * elapsed / 1_000.0;
+        this.heading += (this.random.nextDouble() - 0.5) * 0.2;
+        this.latitude += distance * Math.cos(this.heading) / METERS_PER_DEGREE;
+        this.longitude += distance * Math.sin(this.heading) / (METERS_PER_DEGREE * Math.cos(Math.toRadians(this.latitude)));
+        this.altitude += this.random.nextGaussian() * 0.3;
+    }
+
+    /**
+     * 今の位置を通報データに設定する
+     *
+     * @param report 通報データ
+     * @param now    現在日時（UNIX 時間のミリ秒）
+     */
+    synchronized void fill(Report report, long now) {
+        report.setLocation(this.latitude, this.longitude, this.altitude, 3 + this.random.nextInt(60) / 10.0, now);
+    }
+
+}